@@ -0,0 +1,96 @@
+package similarity;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ *
+ * @description
+ * 无锁并查集，元素为0 ~ size-1的序号
+ * <p>1.parent存在AtomicIntegerArray中，根的parent为自身</p>
+ * <p>2.合并时总是把序号大的根用CAS挂到序号小的根下，不会成环，最终每个集合的根是集合中最小的序号</p>
+ * <p>3.查找时用CAS做路径折半，失败说明其他线程已经改过，直接继续</p>
+ */
+public class ConcurrentUnionFind {
+
+	private final AtomicIntegerArray parent;
+
+	public ConcurrentUnionFind(int size) {
+		parent = new AtomicIntegerArray(size);
+		for (int i = 0; i < size; i++) {
+			parent.set(i, i);
+		}
+	}
+
+	public int size() {
+		return parent.length();
+	}
+
+	/**
+	 * @param x
+	 * @return x所在集合当前的根
+	 */
+	public int find(int x) {
+		int p = parent.get(x);
+		while (p != x) {
+			int grandParent = parent.get(p);
+			if (grandParent != p) {
+				parent.compareAndSet(x, p, grandParent);
+			}
+			x = grandParent;
+			p = parent.get(x);
+		}
+		return x;
+	}
+
+	/**
+	 * 合并x与y所在的集合
+	 * @param x
+	 * @param y
+	 * @return 原来不在同一集合返回true
+	 */
+	public boolean union(int x, int y) {
+		while (true) {
+			x = find(x);
+			y = find(y);
+			if (x == y) {
+				return false;
+			}
+			if (x < y) {
+				int t = x;
+				x = y;
+				y = t;
+			}
+			// x仍是根才挂接，否则重新查找
+			if (parent.compareAndSet(x, x, y)) {
+				return true;
+			}
+		}
+	}
+
+	public boolean connected(int x, int y) {
+		while (true) {
+			x = find(x);
+			y = find(y);
+			if (x == y) {
+				return true;
+			}
+			// x仍是根说明两者确实不连通
+			if (parent.get(x) == x) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * 所有合并完成后调用
+	 * @return roots[i]为i所在集合中最小的序号
+	 */
+	public int[] roots() {
+		int[] roots = new int[parent.length()];
+		for (int i = 0; i < roots.length; i++) {
+			roots[i] = find(i);
+		}
+		return roots;
+	}
+}
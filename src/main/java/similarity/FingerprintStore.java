@@ -0,0 +1,348 @@
+package similarity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ *
+ * @description
+ * 持久化的64位指纹库, 以FileChannel.map映射到堆外, 扫描时不拷贝
+ * <p>fingerprints.dat: 16字节文件头(magic, version, 已提交记录数) + 每条16字节的记录(fingerprint, docId在词典中的偏移)</p>
+ * <p>docids.dat: docId词典, 每条为 int长度 + UTF-8字节</p>
+ * <p>追加顺序: 先写词典并force, 再写记录并force, 最后改写文件头中的记录数并force。
+ * 记录数是唯一的提交点, 崩溃后文件头之后的残余数据会被下一次追加覆盖</p>
+ * <p>打开时只读文件头与最后一条记录, 与语料大小无关</p>
+ */
+public class FingerprintStore implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(FingerprintStore.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	public static final String FINGERPRINT_FILE = "fingerprints.dat";
+
+	public static final String DOCID_FILE = "docids.dat";
+
+	private static final int MAGIC = 0x53484650; // "SHFP"
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 16;
+
+	private static final int RECORD_SIZE = 16;
+
+	/**
+	 * 每段映射1G, 记录与文件头都是16字节对齐, 记录不会跨段
+	 */
+	private static final int SEGMENT_SHIFT = 30;
+
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+	private final FileChannel records;
+
+	private final FileChannel dictionary;
+
+	private volatile int count;
+
+	private long dictionaryEnd;
+
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+	private volatile long mappedBytes;
+
+	private FingerprintStore(FileChannel records, FileChannel dictionary) {
+		this.records = records;
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * 打开(不存在则创建)目录下的指纹库
+	 * @param dir
+	 * @return
+	 * @throws IOException 文件头损坏或读写失败
+	 */
+	public static FingerprintStore open(Path dir) throws IOException {
+		Files.createDirectories(dir);
+		FileChannel records = FileChannel.open(dir.resolve(FINGERPRINT_FILE),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		FileChannel dictionary = FileChannel.open(dir.resolve(DOCID_FILE),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		FingerprintStore store = new FingerprintStore(records, dictionary);
+		try {
+			store.init();
+		} catch (IOException e) {
+			store.close();
+			throw e;
+		}
+		return store;
+	}
+
+	private void init() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		if (records.size() < HEADER_SIZE) {
+			header.putInt(MAGIC).putInt(VERSION).putLong(0L).flip();
+			writeFully(records, header, 0L);
+			records.force(true);
+			count = 0;
+		} else {
+			readFully(records, header, 0L);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("not a fingerprint store of version " + VERSION);
+			}
+			long committed = header.getLong();
+			if (committed < 0 || committed > Integer.MAX_VALUE
+					|| HEADER_SIZE + committed * RECORD_SIZE > records.size()) {
+				throw new IOException("corrupt fingerprint store header, count=" + committed);
+			}
+			count = (int) committed;
+		}
+		dictionaryEnd = 0L;
+		if (count > 0) {
+			ByteBuffer last = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(records, last, recordPosition(count - 1));
+			long offset = last.getLong(8);
+			ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(dictionary, length, offset);
+			dictionaryEnd = offset + 4 + length.getInt(0);
+		}
+		remap();
+		logger.info("fingerprint store opened, {} records", count);
+	}
+
+	/**
+	 * 追加一条记录, 返回后即已持久化
+	 * @param docId
+	 * @param fingerprint
+	 * @return 记录序号
+	 * @throws IOException
+	 */
+	public int append(String docId, long fingerprint) throws IOException {
+		return append(new String[] { docId }, new long[] { fingerprint });
+	}
+
+	/**
+	 * 批量追加, 整批只force一次, 整批要么全部可见要么全部不可见
+	 * @param docIds
+	 * @param fingerprints
+	 * @return 第一条记录的序号
+	 * @throws IOException
+	 */
+	public synchronized int append(String[] docIds, long[] fingerprints) throws IOException {
+		if (docIds.length != fingerprints.length) {
+			throw new IllegalArgumentException("docIds and fingerprints must have the same length");
+		}
+		int first = count;
+		if ((long) first + docIds.length > Integer.MAX_VALUE) {
+			throw new IOException("fingerprint store is full");
+		}
+		ByteBuffer recordBuffer = ByteBuffer.allocate(docIds.length * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		long dictPosition = dictionaryEnd;
+		int dictBytes = 0;
+		byte[][] encoded = new byte[docIds.length][];
+		for (int i = 0; i < docIds.length; i++) {
+			encoded[i] = docIds[i].getBytes(UTF_8);
+			dictBytes += 4 + encoded[i].length;
+		}
+		ByteBuffer dictBuffer = ByteBuffer.allocate(dictBytes).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < docIds.length; i++) {
+			recordBuffer.putLong(fingerprints[i]).putLong(dictPosition + dictBuffer.position());
+			dictBuffer.putInt(encoded[i].length).put(encoded[i]);
+		}
+		dictBuffer.flip();
+		recordBuffer.flip();
+
+		writeFully(dictionary, dictBuffer, dictPosition);
+		dictionary.force(false);
+		writeFully(records, recordBuffer, recordPosition(first));
+		records.force(false);
+
+		ByteBuffer committed = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		committed.putLong(0, (long) first + docIds.length);
+		writeFully(records, committed, 8L);
+		records.force(false);
+
+		dictionaryEnd = dictPosition + dictBytes;
+		count = first + docIds.length;
+		return first;
+	}
+
+	/**
+	 * @return 已提交的记录数
+	 */
+	public int size() {
+		return count;
+	}
+
+	public long fingerprint(int ordinal) {
+		checkOrdinal(ordinal);
+		long position = recordPosition(ordinal);
+		return segment(position).getLong((int) (position & (SEGMENT_SIZE - 1)));
+	}
+
+	public String docId(int ordinal) throws IOException {
+		checkOrdinal(ordinal);
+		long position = recordPosition(ordinal);
+		long offset = segment(position).getLong((int) (position & (SEGMENT_SIZE - 1)) + 8);
+		ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(dictionary, length, offset);
+		ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+		readFully(dictionary, bytes, offset + 4);
+		return new String(bytes.array(), UTF_8);
+	}
+
+	/**
+	 * 扫描全部记录, 找出与query海明距离不超过threshold的记录
+	 * @param query
+	 * @param threshold
+	 * @param hits 命中的序号输出, 长度不足时只写入前hits.length个
+	 * @return 命中数量(可能大于hits.length)
+	 */
+	public int withinThreshold(long query, int threshold, int[] hits) {
+		int n = count;
+		MappedByteBuffer[] mapped = segmentsFor(n);
+		int found = 0;
+		int ordinal = 0;
+		int recordsPerSegment = (int) (SEGMENT_SIZE / RECORD_SIZE);
+		for (int s = 0; s < mapped.length && ordinal < n; s++) {
+			ByteBuffer segment = mapped[s];
+			int position = s == 0 ? HEADER_SIZE : 0;
+			int end = s == 0 ? recordsPerSegment - 1 : recordsPerSegment;
+			end = Math.min(end, n - ordinal);
+			for (int i = 0; i < end; i++, ordinal++, position += RECORD_SIZE) {
+				if (Long.bitCount(query ^ segment.getLong(position)) <= threshold && found++ < hits.length) {
+					hits[found - 1] = ordinal;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * 扫描全部记录, 返回海明距离不超过threshold的文档
+	 * @param query
+	 * @param threshold
+	 * @return docId -> 海明距离
+	 * @throws IOException 读取docId失败
+	 */
+	public Map<String, Integer> search(long query, int threshold) throws IOException {
+		int[] hits = new int[256];
+		int found = withinThreshold(query, threshold, hits);
+		if (found > hits.length) {
+			hits = new int[found];
+			found = Math.min(hits.length, withinThreshold(query, threshold, hits));
+		}
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < found; i++) {
+			result.put(docId(hits[i]), Long.bitCount(query ^ fingerprint(hits[i])));
+		}
+		return result;
+	}
+
+	/**
+	 * 把[from, to)的指纹拷贝成列, 供HammingKernel等按列计算的代码使用
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public long[] column(int from, int to) {
+		if (from < 0 || to > count || from > to) {
+			throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") of " + count);
+		}
+		long[] column = new long[to - from];
+		for (int i = from; i < to; i++) {
+			column[i - from] = fingerprint(i);
+		}
+		return column;
+	}
+
+	@Override
+	public void close() throws IOException {
+		segments = new MappedByteBuffer[0];
+		try {
+			records.close();
+		} finally {
+			dictionary.close();
+		}
+	}
+
+	private static long recordPosition(int ordinal) {
+		return HEADER_SIZE + (long) ordinal * RECORD_SIZE;
+	}
+
+	private void checkOrdinal(int ordinal) {
+		if (ordinal < 0 || ordinal >= count) {
+			throw new IndexOutOfBoundsException("ordinal " + ordinal + " of " + count);
+		}
+	}
+
+	private ByteBuffer segment(long position) {
+		MappedByteBuffer[] mapped = segmentsFor(count);
+		return mapped[(int) (position >>> SEGMENT_SHIFT)];
+	}
+
+	/**
+	 * 映射范围不足n条记录时重新映射整个文件
+	 */
+	private MappedByteBuffer[] segmentsFor(int n) {
+		if (recordPosition(n) > mappedBytes) {
+			synchronized (this) {
+				if (recordPosition(n) > mappedBytes) {
+					try {
+						remap();
+					} catch (IOException e) {
+						throw new IllegalStateException("remap fingerprint store failed", e);
+					}
+				}
+			}
+		}
+		return segments;
+	}
+
+	private void remap() throws IOException {
+		long size = records.size();
+		int segmentCount = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+		MappedByteBuffer[] mapped = Arrays.copyOf(segments, segmentCount);
+		for (int s = 0; s < segmentCount; s++) {
+			long start = (long) s << SEGMENT_SHIFT;
+			long length = Math.min(SEGMENT_SIZE, size - start);
+			if (mapped[s] == null || mapped[s].capacity() < length) {
+				mapped[s] = records.map(FileChannel.MapMode.READ_ONLY, start, length);
+				mapped[s].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+		segments = mapped;
+		mappedBytes = size;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("unexpected end of file at " + position);
+			}
+			position += read;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package similarity;
+
+
+/**
+ *
+ * @description
+ * 批量海明距离计算。语料的64位指纹按列存放在long[]中，一次扫描整列; 128/256位指纹按lane连续存放
+ * <p>1.距离由Long.bitCount(query ^ fingerprint)计算，循环展开4路</p>
+ * <p>2.距离只有0~64共65种取值，topK用计数直方图选出截止距离，不做排序比较</p>
+ * <p>3.全部方法不在循环内分配对象，整列扫描只受内存带宽限制</p>
+ */
+public class HammingKernel {
+
+	private static final int BITS_LENGTH = 64;
+
+	private HammingKernel() {
+	}
+
+	/**
+	 * 计算query与column[from, to)中每个指纹的海明距离
+	 * @param query
+	 * @param column 按列存放的指纹
+	 * @param from
+	 * @param to
+	 * @param out 距离输出, out[i - from] 对应 column[i]
+	 */
+	public static void distances(long query, long[] column, int from, int to, byte[] out) {
+		checkRange(column, from, to, out.length);
+		int i = from;
+		int o = 0;
+		for (; i + 3 < to; i += 4, o += 4) {
+			out[o] = (byte) Long.bitCount(query ^ column[i]);
+			out[o + 1] = (byte) Long.bitCount(query ^ column[i + 1]);
+			out[o + 2] = (byte) Long.bitCount(query ^ column[i + 2]);
+			out[o + 3] = (byte) Long.bitCount(query ^ column[i + 3]);
+		}
+		for (; i < to; i++, o++) {
+			out[o] = (byte) Long.bitCount(query ^ column[i]);
+		}
+	}
+
+	/**
+	 * 同 {@link #distances(long, long[], int, int, byte[])}, 以int[]输出
+	 */
+	public static void distances(long query, long[] column, int from, int to, int[] out) {
+		checkRange(column, from, to, out.length);
+		int i = from;
+		int o = 0;
+		for (; i + 3 < to; i += 4, o += 4) {
+			out[o] = Long.bitCount(query ^ column[i]);
+			out[o + 1] = Long.bitCount(query ^ column[i + 1]);
+			out[o + 2] = Long.bitCount(query ^ column[i + 2]);
+			out[o + 3] = Long.bitCount(query ^ column[i + 3]);
+		}
+		for (; i < to; i++, o++) {
+			out[o] = Long.bitCount(query ^ column[i]);
+		}
+	}
+
+	/**
+	 * 找出column[from, to)中与query海明距离不超过threshold的指纹
+	 * @param query
+	 * @param column
+	 * @param from
+	 * @param to
+	 * @param threshold
+	 * @param hits 命中的下标输出，长度不足时只写入前hits.length个
+	 * @return 命中数量(可能大于hits.length)
+	 */
+	public static int withinThreshold(long query, long[] column, int from, int to, int threshold, int[] hits) {
+		checkRange(column, from, to);
+		int count = 0;
+		int limit = hits.length;
+		int i = from;
+		for (; i + 3 < to; i += 4) {
+			int d0 = Long.bitCount(query ^ column[i]);
+			int d1 = Long.bitCount(query ^ column[i + 1]);
+			int d2 = Long.bitCount(query ^ column[i + 2]);
+			int d3 = Long.bitCount(query ^ column[i + 3]);
+			if ((d0 <= threshold) | (d1 <= threshold) | (d2 <= threshold) | (d3 <= threshold)) {
+				if (d0 <= threshold && count++ < limit) hits[count - 1] = i;
+				if (d1 <= threshold && count++ < limit) hits[count - 1] = i + 1;
+				if (d2 <= threshold && count++ < limit) hits[count - 1] = i + 2;
+				if (d3 <= threshold && count++ < limit) hits[count - 1] = i + 3;
+			}
+		}
+		for (; i < to; i++) {
+			if (Long.bitCount(query ^ column[i]) <= threshold && count++ < limit) {
+				hits[count - 1] = i;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * column[from, to)中与query最相近的k个指纹
+	 * <p>距离相同时下标小的在前</p>
+	 * @param query
+	 * @param column
+	 * @param from
+	 * @param to
+	 * @param k
+	 * @return 按距离升序的下标
+	 */
+	public static int[] topK(long query, long[] column, int from, int to, int k) {
+		checkRange(column, from, to);
+		k = Math.min(k, to - from);
+		if (k <= 0) {
+			return new int[0];
+		}
+		int[] histogram = new int[BITS_LENGTH + 1];
+		int i = from;
+		for (; i + 3 < to; i += 4) {
+			histogram[Long.bitCount(query ^ column[i])]++;
+			histogram[Long.bitCount(query ^ column[i + 1])]++;
+			histogram[Long.bitCount(query ^ column[i + 2])]++;
+			histogram[Long.bitCount(query ^ column[i + 3])]++;
+		}
+		for (; i < to; i++) {
+			histogram[Long.bitCount(query ^ column[i])]++;
+		}
+
+		// 截止距离cutoff: 距离小于cutoff的全部入选, 等于cutoff的取前几个
+		int cutoff = 0;
+		int below = 0;
+		while (below + histogram[cutoff] < k) {
+			below += histogram[cutoff++];
+		}
+		int[] offsets = new int[cutoff + 1];
+		for (int d = 1; d <= cutoff; d++) {
+			offsets[d] = offsets[d - 1] + histogram[d - 1];
+		}
+
+		int[] result = new int[k];
+		int atCutoff = k - below;
+		for (i = from; i < to; i++) {
+			int distance = Long.bitCount(query ^ column[i]);
+			if (distance < cutoff) {
+				result[offsets[distance]++] = i;
+			} else if (distance == cutoff && atCutoff > 0) {
+				result[offsets[distance]++] = i;
+				atCutoff--;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 整列的距离分布, histogram[d]为距离为d的指纹数
+	 */
+	public static int[] histogram(long query, long[] column, int from, int to) {
+		checkRange(column, from, to);
+		int[] histogram = new int[BITS_LENGTH + 1];
+		for (int i = from; i < to; i++) {
+			histogram[Long.bitCount(query ^ column[i])]++;
+		}
+		return histogram;
+	}
+
+	/**
+	 * 多lane指纹的批量海明距离, column中每个指纹连续占query.length个long
+	 * @param query 128位为2个lane, 256位为4个lane
+	 * @param column
+	 * @param from 指纹序号(不是long下标)
+	 * @param to
+	 * @param out out[i - from] 对应第i个指纹
+	 */
+	public static void distances(long[] query, long[] column, int from, int to, int[] out) {
+		int lanes = query.length;
+		checkRange(column, from * lanes, to * lanes, out.length * lanes);
+		if (lanes == 2) {
+			long q0 = query[0], q1 = query[1];
+			for (int i = from, p = from << 1, o = 0; i < to; i++, p += 2, o++) {
+				out[o] = Long.bitCount(q0 ^ column[p]) + Long.bitCount(q1 ^ column[p + 1]);
+			}
+		} else if (lanes == 4) {
+			long q0 = query[0], q1 = query[1], q2 = query[2], q3 = query[3];
+			for (int i = from, p = from << 2, o = 0; i < to; i++, p += 4, o++) {
+				out[o] = Long.bitCount(q0 ^ column[p]) + Long.bitCount(q1 ^ column[p + 1])
+						+ Long.bitCount(q2 ^ column[p + 2]) + Long.bitCount(q3 ^ column[p + 3]);
+			}
+		} else {
+			for (int i = from, o = 0; i < to; i++, o++) {
+				out[o] = distance(query, column, i * lanes);
+			}
+		}
+	}
+
+	/**
+	 * 多lane指纹中与query海明距离不超过threshold的指纹
+	 * @param query
+	 * @param column 每个指纹连续占query.length个long
+	 * @param from 指纹序号
+	 * @param to
+	 * @param threshold
+	 * @param hits 命中的指纹序号输出，长度不足时只写入前hits.length个
+	 * @return 命中数量(可能大于hits.length)
+	 */
+	public static int withinThreshold(long[] query, long[] column, int from, int to, int threshold, int[] hits) {
+		int lanes = query.length;
+		checkRange(column, from * lanes, to * lanes);
+		int count = 0;
+		for (int i = from, p = from * lanes; i < to; i++, p += lanes) {
+			if (distance(query, column, p) <= threshold && count++ < hits.length) {
+				hits[count - 1] = i;
+			}
+		}
+		return count;
+	}
+
+	private static int distance(long[] query, long[] column, int position) {
+		int distance = 0;
+		for (int lane = 0; lane < query.length; lane++) {
+			distance += Long.bitCount(query[lane] ^ column[position + lane]);
+		}
+		return distance;
+	}
+
+	private static void checkRange(long[] column, int from, int to) {
+		if (from < 0 || to > column.length || from > to) {
+			throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") of " + column.length);
+		}
+	}
+
+	private static void checkRange(long[] column, int from, int to, int outLength) {
+		checkRange(column, from, to);
+		if (outLength < to - from) {
+			throw new IndexOutOfBoundsException("output length " + outLength + " < " + (to - from));
+		}
+	}
+}
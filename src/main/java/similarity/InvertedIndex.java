@@ -0,0 +1,1294 @@
+package similarity;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ *
+ * @description
+ * tf*idf向量的倒排索引，用block-max MaxScore求余弦相似度最高的k篇文档，不必给全部文档打分
+ * <p>1.每个词一条倒排链，链上是(文档序号, 文档向量除以范数后的权重)，按序号升序。余弦相似度即query单位向量与文档单位向量的点积</p>
+ * <p>2.倒排链每BLOCK_SIZE项封成一块：序号存为变长编码的差值，另记块内最后一个序号和最大权重。未满的尾块不压缩</p>
+ * <p>3.MaxScore：词按上界(query权重 * 链上最大权重)升序排列，上界之和不超过当前第k名分数的一组低上界词为非必要词，只含这些词的文档进不了前k。只遍历必要词的倒排链产生候选</p>
+ * <p>4.候选再按上界从大到小查非必要词：先换成所在块的最大权重，剩余上界不够时放弃该候选，块内的项不解码</p>
+ * <p>query是整篇文档，词多，逐个候选查少数非必要词比WAND每步给全部游标排序更省</p>
+ * <p>5.索引分成若干段，每段有自己的文档序号、倒排链、删除标记和读写锁。插入按线程分到stripes个写入段，不同写入段上的插入互不阻塞</p>
+ * <p>6.写入段的倒排链估计超过segmentBytes后封段，换上新的写入段。给出目录时，倒排链占用的堆内存合计超过memoryBudget就把最早封的段写入文件并内存映射，堆上只留词id到文件位置的目录、docId和删除标记</p>
+ * <p>7.删除只做标记。compact()把已封的段合并成不超过segmentBytes的新段，去掉已删除文档的倒排项；已封段中删除的文档超过一半时封段后自动合并</p>
+ * <p>8.查询依次对每段做MaxScore，共用一个前k堆，后面的段直接用前面的段得到的门槛。合并只在发布新段的一刻与插入、删除、查询互斥</p>
+ * <p>权重必须非负(tf*idf总是非负)。替换同一docId的瞬间，并发的查询可能同时看到新旧两个向量，结果中只保留分数高的一个</p>
+ */
+public class InvertedIndex implements Closeable {
+
+	static final int BLOCK_SIZE = 128;
+
+	private static final int END = Integer.MAX_VALUE;
+
+	// 上界放宽的比例，抵消求和顺序不同带来的舍入误差
+	private static final double SLACK = 1e-9;
+
+	// 堆内存估计：每个倒排项(变长序号 + float权重)，每个词的链对象
+	private static final int POSTING_BYTES = 8;
+
+	private static final int TERM_BYTES = 96;
+
+	private static final long DEFAULT_SEGMENT_BYTES = 32L << 20;
+
+	private static final Logger logger = LoggerFactory.getLogger(InvertedIndex.class);
+
+	private final AtomicReferenceArray<Segment> writers;
+
+	private final long segmentBytes;
+
+	private final long memoryBudget;
+
+	private final Path directory;
+
+	// 全部段，写时复制，在segmentsLock下替换
+	private volatile Segment[] segments;
+
+	private final Object segmentsLock = new Object();
+
+	// docId -> 当前所在的段和段内序号
+	private final Map<String, Doc> locations = new ConcurrentHashMap<String, Doc>();
+
+	// 插入、删除、查询持读锁，合并发布新段时持写锁
+	private final ReadWriteLock structure = new ReentrantReadWriteLock();
+
+	// 写出与合并同时只有一个线程在做
+	private final Object maintenance = new Object();
+
+	/**
+	 * 全部留在堆上，写入段数为CPU数
+	 */
+	public InvertedIndex() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_SEGMENT_BYTES, Long.MAX_VALUE, null);
+	}
+
+	/**
+	 * @param stripes 写入段数，取并发插入的线程数
+	 * @param segmentBytes 写入段的倒排链估计超过此值后封段，也是合并出的段的上限
+	 * @param memoryBudget 倒排链占用堆内存的上限，超过后把已封的段写入directory
+	 * @param directory 写出段文件的目录，null时全部留在堆上
+	 */
+	public InvertedIndex(int stripes, long segmentBytes, long memoryBudget, Path directory) {
+		if (stripes < 1 || segmentBytes < 1 || memoryBudget < 0) {
+			throw new IllegalArgumentException("stripes and segmentBytes must be positive, memoryBudget non-negative");
+		}
+		this.segmentBytes = segmentBytes;
+		this.memoryBudget = memoryBudget;
+		this.directory = directory;
+		this.writers = new AtomicReferenceArray<Segment>(stripes);
+		Segment[] initial = new Segment[stripes];
+		for (int i = 0; i < stripes; i++) {
+			initial[i] = new Segment();
+			writers.set(i, initial[i]);
+		}
+		this.segments = initial;
+	}
+
+	/**
+	 * 插入或替换文档向量
+	 * @param docId
+	 * @param vector 权重非负
+	 */
+	public void insert(String docId, SparseVector vector) {
+		checkWeights(vector);
+		double norm = vector.norm();
+		boolean sealed = false;
+		structure.readLock().lock();
+		try {
+			int stripe = (int) (Thread.currentThread().getId() % writers.length());
+			Doc doc;
+			while (true) {
+				Segment segment = writers.get(stripe);
+				segment.lock.writeLock().lock();
+				try {
+					// 取到之后被封，重新取写入段
+					if (segment.sealed) {
+						continue;
+					}
+					doc = new Doc(segment, segment.add(docId, vector, norm));
+					if (segment.bytes >= segmentBytes) {
+						seal(stripe, segment);
+						sealed = true;
+					}
+					break;
+				} finally {
+					segment.lock.writeLock().unlock();
+				}
+			}
+			Doc old = locations.put(docId, doc);
+			if (old != null) {
+				old.segment.delete(old.ordinal);
+			}
+		} finally {
+			structure.readLock().unlock();
+		}
+		if (sealed) {
+			maintain(false);
+		}
+	}
+
+	/**
+	 * 删除文档，倒排项留在链上，查询时跳过，合并时去掉
+	 * @param docId
+	 * @return 文档存在返回true
+	 */
+	public boolean remove(String docId) {
+		structure.readLock().lock();
+		try {
+			Doc old = locations.remove(docId);
+			if (old == null) {
+				return false;
+			}
+			old.segment.delete(old.ordinal);
+			return true;
+		} finally {
+			structure.readLock().unlock();
+		}
+	}
+
+	public boolean contains(String docId) {
+		return locations.containsKey(docId);
+	}
+
+	public int size() {
+		return locations.size();
+	}
+
+	/**
+	 * 倒排项总数(含已删除、尚未合并掉的文档的)
+	 */
+	public long postingCount() {
+		long total = 0;
+		for (Segment segment : segments) {
+			segment.lock.readLock().lock();
+			try {
+				total += segment.postingCount;
+			} finally {
+				segment.lock.readLock().unlock();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * 倒排链占用堆内存的估计，已写出的段不计
+	 */
+	public long heapBytes() {
+		long total = 0;
+		for (Segment segment : segments) {
+			segment.lock.readLock().lock();
+			try {
+				total += segment.bytes;
+			} finally {
+				segment.lock.readLock().unlock();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return 段数，含写入段
+	 */
+	public int segmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * @see #search(SparseVector, int, double)
+	 */
+	public Map<String, Double> search(SparseVector query, int k) {
+		return search(query, k, 0.0);
+	}
+
+	/**
+	 * 余弦相似度最高的k篇文档
+	 * @param query 权重非负
+	 * @param k
+	 * @param minScore 低于此值的文档不返回
+	 * @return docId -> 余弦相似度, 按相似度降序
+	 */
+	public Map<String, Double> search(SparseVector query, int k, double minScore) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		checkWeights(query);
+		Map<String, Double> result = new LinkedHashMap<String, Double>();
+		double norm = query.norm();
+		if (norm == 0.0) {
+			return result;
+		}
+		PriorityQueue<Hit> heap = new PriorityQueue<Hit>(k, Hit.ASCENDING);
+		structure.readLock().lock();
+		try {
+			Segment[] snapshot = segments;
+			for (int s = 0; s < snapshot.length; s++) {
+				Segment segment = snapshot[s];
+				segment.lock.readLock().lock();
+				try {
+					if (segment.count == segment.deletedCount) {
+						continue;
+					}
+					List<Cursor> list = new ArrayList<Cursor>(query.size());
+					for (int i = 0; i < query.size(); i++) {
+						PostingList p = segment.terms.get(query.id(i));
+						if (p != null && query.weight(i) > 0f) {
+							list.add(new Cursor(p, query.weight(i) / norm));
+						}
+					}
+					maxScore(segment, s, list.toArray(new Cursor[list.size()]), heap, k, minScore);
+				} finally {
+					segment.lock.readLock().unlock();
+				}
+			}
+		} finally {
+			structure.readLock().unlock();
+		}
+		List<Hit> hits = new ArrayList<Hit>(heap);
+		Collections.sort(hits, Collections.reverseOrder(Hit.ASCENDING));
+		for (Hit hit : hits) {
+			if (!result.containsKey(hit.docId)) {
+				result.put(hit.docId, hit.score);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 封住全部写入段，把已封的段合并成不超过segmentBytes的段，去掉已删除文档的倒排项
+	 */
+	public void compact() {
+		for (int stripe = 0; stripe < writers.length(); stripe++) {
+			Segment segment = writers.get(stripe);
+			segment.lock.writeLock().lock();
+			try {
+				if (!segment.sealed && segment.count > 0) {
+					seal(stripe, segment);
+				}
+			} finally {
+				segment.lock.writeLock().unlock();
+			}
+		}
+		maintain(true);
+	}
+
+	/**
+	 * 删除写出的段文件，之后不能再使用索引
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (maintenance) {
+			for (Segment segment : segments) {
+				Path file;
+				segment.lock.readLock().lock();
+				try {
+					file = segment.file;
+				} finally {
+					segment.lock.readLock().unlock();
+				}
+				if (file != null) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 换上新的写入段，持有segment的写锁时调用
+	 */
+	private void seal(int stripe, Segment segment) {
+		segment.sealed = true;
+		Segment next = new Segment();
+		synchronized (segmentsLock) {
+			Segment[] current = segments;
+			Segment[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = next;
+			segments = updated;
+		}
+		writers.set(stripe, next);
+	}
+
+	/**
+	 * 删除过半或要求合并时合并已封的段，再把超出内存预算的段写出
+	 */
+	private void maintain(boolean force) {
+		synchronized (maintenance) {
+			long documents = 0, deleted = 0;
+			for (Segment segment : segments) {
+				segment.lock.readLock().lock();
+				try {
+					if (segment.sealed) {
+						documents += segment.count;
+						deleted += segment.deletedCount;
+					}
+				} finally {
+					segment.lock.readLock().unlock();
+				}
+			}
+			if (force || deleted * 2 > documents) {
+				compactSealed();
+			}
+			if (directory != null) {
+				flushOverBudget();
+			}
+		}
+	}
+
+	/**
+	 * 相邻的已封段按存活倒排项分组，每组不超过segmentBytes，组内多于一段或有删除时合并
+	 */
+	private void compactSealed() {
+		long limit = Math.max(1, segmentBytes / POSTING_BYTES);
+		List<Segment> group = new ArrayList<Segment>();
+		long groupPostings = 0;
+		boolean groupDeleted = false;
+		for (Segment segment : segments) {
+			long live;
+			boolean hasDeleted;
+			segment.lock.readLock().lock();
+			try {
+				if (!segment.sealed) {
+					continue;
+				}
+				live = segment.count == 0 ? 0 : segment.postingCount * (segment.count - segment.deletedCount) / segment.count;
+				hasDeleted = segment.deletedCount > 0;
+			} finally {
+				segment.lock.readLock().unlock();
+			}
+			if (!group.isEmpty() && groupPostings + live > limit) {
+				if (group.size() > 1 || groupDeleted) {
+					merge(group);
+				}
+				group = new ArrayList<Segment>();
+				groupPostings = 0;
+				groupDeleted = false;
+			}
+			group.add(segment);
+			groupPostings += live;
+			groupDeleted |= hasDeleted;
+		}
+		if (group.size() > 1 || groupDeleted) {
+			merge(group);
+		}
+	}
+
+	/**
+	 * 把sources中未删除的文档按顺序重新编号，合并成一个已封的段
+	 * <p>已封段的倒排链不再变化，读取时不持锁；读取之后发生的删除、替换在发布前按locations补上</p>
+	 */
+	private void merge(List<Segment> sources) {
+		long s = System.currentTimeMillis();
+		Segment merged = new Segment();
+		merged.sealed = true;
+		HashMap<Integer, Postings> map = ((HeapTerms) merged.terms).map;
+		int[][] remap = new int[sources.size()][];
+		int[] docs = new int[BLOCK_SIZE];
+		for (int g = 0; g < sources.size(); g++) {
+			Segment source = sources.get(g);
+			Terms terms;
+			BitSet deleted;
+			String[] docIds;
+			int count;
+			source.lock.readLock().lock();
+			try {
+				terms = source.terms;
+				deleted = (BitSet) source.deleted.clone();
+				docIds = source.docIds;
+				count = source.count;
+			} finally {
+				source.lock.readLock().unlock();
+			}
+			int[] ordinals = new int[count];
+			for (int i = 0; i < count; i++) {
+				ordinals[i] = deleted.get(i) ? -1 : merged.addDoc(docIds[i]);
+			}
+			remap[g] = ordinals;
+			for (int term : terms.terms()) {
+				PostingList list = terms.get(term);
+				Postings target = null;
+				for (int b = 0; b < list.blockCount(); b++) {
+					int n = list.decode(b, docs);
+					float[] weights = list.weights(b);
+					for (int i = 0; i < n; i++) {
+						int doc = ordinals[docs[i]];
+						if (doc < 0) {
+							continue;
+						}
+						if (target == null) {
+							target = map.get(term);
+							if (target == null) {
+								target = new Postings();
+								map.put(term, target);
+								merged.bytes += TERM_BYTES;
+							}
+						}
+						target.add(doc, weights[i]);
+						merged.postingCount++;
+					}
+				}
+			}
+		}
+		merged.bytes += POSTING_BYTES * merged.postingCount;
+
+		List<Path> files = new ArrayList<Path>();
+		structure.writeLock().lock();
+		try {
+			for (int g = 0; g < sources.size(); g++) {
+				Segment source = sources.get(g);
+				int[] ordinals = remap[g];
+				for (int i = 0; i < ordinals.length; i++) {
+					if (ordinals[i] < 0) {
+						continue;
+					}
+					String docId = merged.docIds[ordinals[i]];
+					Doc current = locations.get(docId);
+					if (current != null && current.segment == source && current.ordinal == i) {
+						locations.put(docId, new Doc(merged, ordinals[i]));
+					} else {
+						merged.deleted.set(ordinals[i]);
+						merged.deletedCount++;
+					}
+				}
+				if (source.file != null) {
+					files.add(source.file);
+				}
+			}
+			synchronized (segmentsLock) {
+				List<Segment> updated = new ArrayList<Segment>(segments.length);
+				boolean placed = false;
+				for (Segment segment : segments) {
+					if (!sources.contains(segment)) {
+						updated.add(segment);
+					} else if (!placed) {
+						placed = true;
+						if (merged.count > merged.deletedCount) {
+							updated.add(merged);
+						}
+					}
+				}
+				segments = updated.toArray(new Segment[updated.size()]);
+			}
+		} finally {
+			structure.writeLock().unlock();
+		}
+		// 查询都持读锁，发布之后不再有查询读这些文件
+		for (Path file : files) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				logger.warn("failed to delete merged segment file " + file, e);
+			}
+		}
+		logger.info("merged {} segments into {} documents, {} postings, time elapsed:{}ms", new Object[] { sources.size(),
+				merged.count - merged.deletedCount, merged.postingCount, System.currentTimeMillis() - s });
+	}
+
+	/**
+	 * 倒排链占用的堆内存超过预算时，从最早封的段开始写出
+	 */
+	private void flushOverBudget() {
+		while (true) {
+			long total = 0;
+			Segment oldest = null;
+			for (Segment segment : segments) {
+				segment.lock.readLock().lock();
+				try {
+					total += segment.bytes;
+					if (oldest == null && segment.sealed && segment.file == null && segment.bytes > 0) {
+						oldest = segment;
+					}
+				} finally {
+					segment.lock.readLock().unlock();
+				}
+			}
+			if (total <= memoryBudget || oldest == null || !flush(oldest)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 把已封段的倒排链写入文件并内存映射，写出失败时留在堆上
+	 * @return 写出成功返回true
+	 */
+	private boolean flush(Segment segment) {
+		long s = System.currentTimeMillis();
+		Terms terms;
+		segment.lock.readLock().lock();
+		try {
+			terms = segment.terms;
+		} finally {
+			segment.lock.readLock().unlock();
+		}
+		Path file = null;
+		try {
+			file = Files.createTempFile(directory, "segment-", ".postings");
+			MappedTerms mapped = MappedTerms.write(terms, file);
+			segment.lock.writeLock().lock();
+			try {
+				segment.terms = mapped;
+				segment.bytes = 0;
+				segment.file = file;
+			} finally {
+				segment.lock.writeLock().unlock();
+			}
+			logger.info("segment flushed to {}, {} terms, time elapsed:{}ms", new Object[] { file, mapped.ids.length,
+					System.currentTimeMillis() - s });
+			return true;
+		} catch (IOException e) {
+			logger.error("failed to flush segment to " + directory + ", keep it on heap", e);
+			if (file != null) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException ignored) {
+					// 留下的文件不影响索引
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * 对一段做block-max MaxScore，heap中已有前面各段的结果
+	 * @param rank 段在本次查询中的顺序，分数相同时排在前面的段优先
+	 */
+	private void maxScore(Segment segment, int rank, Cursor[] cursors, PriorityQueue<Hit> heap, int k, double minScore) {
+		int n = cursors.length;
+		Arrays.sort(cursors, Cursor.BY_UPPER_BOUND);
+		double[] prefix = new double[n];
+		for (int i = 0; i < n; i++) {
+			prefix[i] = (i > 0 ? prefix[i - 1] : 0.0) + cursors[i].upperBound;
+		}
+		// [0, essential)为非必要词: 只含这些词的文档进不了前k
+		int essential = 0;
+		boolean strict = heap.size() == k;
+		double threshold = strict ? heap.peek().score : minScore;
+		while (essential < n && !reaches(prefix[essential], threshold, strict)) {
+			essential++;
+		}
+
+		while (essential < n) {
+			int candidate = END;
+			for (int i = essential; i < n; i++) {
+				candidate = Math.min(candidate, cursors[i].doc);
+			}
+			if (candidate == END) {
+				break;
+			}
+			double score = 0.0;
+			for (int i = essential; i < n; i++) {
+				Cursor c = cursors[i];
+				if (c.doc == candidate) {
+					score += c.score();
+					c.next();
+				}
+			}
+
+			// 非必要词从上界大的开始, 先用块上界再解码
+			double bound = essential > 0 ? score + prefix[essential - 1] : score;
+			boolean pruned = false;
+			for (int i = essential - 1; i >= 0; i--) {
+				if (!reaches(bound, threshold, strict)) {
+					pruned = true;
+					break;
+				}
+				Cursor c = cursors[i];
+				if (c.doc > candidate) {
+					bound -= c.upperBound;
+					continue;
+				}
+				c.shallowAdvance(candidate);
+				double blockBound = c.blockUpperBound();
+				bound -= c.upperBound - blockBound;
+				if (!reaches(bound, threshold, strict)) {
+					pruned = true;
+					break;
+				}
+				c.advance(candidate);
+				double actual = c.doc == candidate ? c.score() : 0.0;
+				bound -= blockBound - actual;
+				score += actual;
+			}
+			if (pruned || segment.deleted.get(candidate)) {
+				continue;
+			}
+			if (offer(heap, k, minScore, segment.docIds[candidate], ((long) rank << 32) | candidate, score) && heap.size() == k) {
+				threshold = heap.peek().score;
+				strict = true;
+				while (essential < n && !reaches(prefix[essential], threshold, strict)) {
+					essential++;
+				}
+			}
+		}
+	}
+
+	private static boolean reaches(double bound, double threshold, boolean strict) {
+		bound *= 1 + SLACK;
+		return strict ? bound > threshold : bound >= threshold;
+	}
+
+	/**
+	 * @return 进入堆返回true
+	 */
+	private static boolean offer(PriorityQueue<Hit> heap, int k, double minScore, String docId, long order, double score) {
+		if (heap.size() < k) {
+			if (score < minScore) {
+				return false;
+			}
+		} else if (score > heap.peek().score) {
+			heap.poll();
+		} else {
+			return false;
+		}
+		heap.add(new Hit(docId, order, score));
+		return true;
+	}
+
+	private static void checkWeights(SparseVector vector) {
+		for (int i = 0; i < vector.size(); i++) {
+			if (!(vector.weight(i) >= 0f)) {
+				throw new IllegalArgumentException("negative weight " + vector.weight(i) + " for term " + vector.id(i));
+			}
+		}
+	}
+
+	private static final class Hit {
+
+		static final Comparator<Hit> ASCENDING = new Comparator<Hit>() {
+			@Override
+			public int compare(Hit a, Hit b) {
+				int c = Double.compare(a.score, b.score);
+				return c != 0 ? c : Long.compare(b.order, a.order);
+			}
+		};
+
+		final String docId;
+
+		// 段的顺序和段内序号，分数相同时小的优先
+		final long order;
+
+		final double score;
+
+		Hit(String docId, long order, double score) {
+			this.docId = docId;
+			this.order = order;
+			this.score = score;
+		}
+	}
+
+	/**
+	 * docId所在的段和段内序号
+	 */
+	private static final class Doc {
+
+		final Segment segment;
+
+		final int ordinal;
+
+		Doc(Segment segment, int ordinal) {
+			this.segment = segment;
+			this.ordinal = ordinal;
+		}
+	}
+
+	/**
+	 * 一段文档：段内序号、倒排链、删除标记，字段在lock下读写
+	 * <p>封段后倒排链不再变化，只会被整体换成内存映射的版本；删除标记仍可增加</p>
+	 */
+	private static final class Segment {
+
+		final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+		Terms terms = new HeapTerms();
+
+		String[] docIds = new String[16];
+
+		int count;
+
+		final BitSet deleted = new BitSet();
+
+		int deletedCount;
+
+		long postingCount;
+
+		// 堆上倒排链的估计字节数，写出后为0
+		long bytes;
+
+		boolean sealed;
+
+		// 写出的文件，未写出为null
+		Path file;
+
+		int addDoc(String docId) {
+			if (count == docIds.length) {
+				docIds = Arrays.copyOf(docIds, count << 1);
+			}
+			docIds[count] = docId;
+			return count++;
+		}
+
+		/**
+		 * @return 段内序号
+		 */
+		int add(String docId, SparseVector vector, double norm) {
+			int ordinal = addDoc(docId);
+			if (norm == 0.0) {
+				return ordinal;
+			}
+			HashMap<Integer, Postings> map = ((HeapTerms) terms).map;
+			for (int i = 0; i < vector.size(); i++) {
+				Postings list = map.get(vector.id(i));
+				if (list == null) {
+					list = new Postings();
+					map.put(vector.id(i), list);
+					bytes += TERM_BYTES;
+				}
+				list.add(ordinal, (float) (vector.weight(i) / norm));
+			}
+			postingCount += vector.size();
+			bytes += (long) POSTING_BYTES * vector.size();
+			return ordinal;
+		}
+
+		void delete(int ordinal) {
+			lock.writeLock().lock();
+			try {
+				if (!deleted.get(ordinal)) {
+					deleted.set(ordinal);
+					deletedCount++;
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * 一段的词id -> 倒排链
+	 */
+	private interface Terms {
+
+		/**
+		 * @return 没有该词返回null
+		 */
+		PostingList get(int term);
+
+		/**
+		 * 升序的全部词id
+		 */
+		int[] terms();
+	}
+
+	private static final class HeapTerms implements Terms {
+
+		final HashMap<Integer, Postings> map = new HashMap<Integer, Postings>();
+
+		@Override
+		public PostingList get(int term) {
+			return map.get(term);
+		}
+
+		@Override
+		public int[] terms() {
+			int[] ids = new int[map.size()];
+			int n = 0;
+			for (int id : map.keySet()) {
+				ids[n++] = id;
+			}
+			Arrays.sort(ids);
+			return ids;
+		}
+	}
+
+	/**
+	 * 写出到文件的一段，词id与其倒排链在文件中的位置留在堆上
+	 * <p>每条链：max, 块数, 项数, 各块最后序号, 各块最大权重, 各块序号的起始字节, 全部权重, 全部变长编码的序号差值。除最后一块外每块BLOCK_SIZE项</p>
+	 */
+	private static final class MappedTerms implements Terms {
+
+		final ByteBuffer buffer;
+
+		final int[] ids;
+
+		final int[] offsets;
+
+		MappedTerms(ByteBuffer buffer, int[] ids, int[] offsets) {
+			this.buffer = buffer;
+			this.ids = ids;
+			this.offsets = offsets;
+		}
+
+		@Override
+		public PostingList get(int term) {
+			int i = Arrays.binarySearch(ids, term);
+			return i < 0 ? null : new MappedPostings(buffer, offsets[i]);
+		}
+
+		@Override
+		public int[] terms() {
+			return ids;
+		}
+
+		static MappedTerms write(Terms terms, Path file) throws IOException {
+			int[] ids = terms.terms();
+			int[] offsets = new int[ids.length];
+			int[] docs = new int[BLOCK_SIZE];
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+				for (int t = 0; t < ids.length; t++) {
+					offsets[t] = out.size();
+					PostingList list = terms.get(ids[t]);
+					int blocks = list.blockCount();
+					int[] starts = new int[blocks];
+					int total = 0;
+					encoded.reset();
+					for (int b = 0; b < blocks; b++) {
+						starts[b] = encoded.size();
+						int n = list.decode(b, docs);
+						int previous = b > 0 ? list.lastDoc(b - 1) : -1;
+						for (int i = 0; i < n; i++) {
+							int delta = docs[i] - previous;
+							previous = docs[i];
+							while ((delta & ~0x7F) != 0) {
+								encoded.write(delta & 0x7F | 0x80);
+								delta >>>= 7;
+							}
+							encoded.write(delta);
+						}
+						total += n;
+					}
+					out.writeFloat(list.max());
+					out.writeInt(blocks);
+					out.writeInt(total);
+					for (int b = 0; b < blocks; b++) {
+						out.writeInt(list.lastDoc(b));
+					}
+					for (int b = 0; b < blocks; b++) {
+						out.writeFloat(list.blockMax(b));
+					}
+					for (int b = 0; b < blocks; b++) {
+						out.writeInt(starts[b]);
+					}
+					for (int b = 0; b < blocks; b++) {
+						float[] weights = list.weights(b);
+						int n = b < blocks - 1 ? BLOCK_SIZE : total - b * BLOCK_SIZE;
+						for (int i = 0; i < n; i++) {
+							out.writeFloat(weights[i]);
+						}
+					}
+					encoded.writeTo(out);
+					// size()到Integer.MAX_VALUE后不再增加
+					if (out.size() == Integer.MAX_VALUE) {
+						throw new IOException(file + ": segment too large to map");
+					}
+				}
+			}
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				return new MappedTerms(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), ids, offsets);
+			}
+		}
+	}
+
+	/**
+	 * 倒排链的读取接口，块的编号从0开始
+	 */
+	private interface PostingList {
+
+		/**
+		 * 链上的最大权重
+		 */
+		float max();
+
+		int blockCount();
+
+		int lastDoc(int block);
+
+		float blockMax(int block);
+
+		/**
+		 * 块内的权重，数组可能在读下一块时被覆盖
+		 */
+		float[] weights(int block);
+
+		/**
+		 * 解码块内的序号到out
+		 * @return 项数
+		 */
+		int decode(int block, int[] out);
+
+		/**
+		 * from起第一个最后序号不小于target的块，没有返回blockCount()
+		 */
+		int findBlock(int from, int target);
+	}
+
+	/**
+	 * 一个词的倒排链：已封的块 + 尾块
+	 */
+	private static final class Postings implements PostingList {
+
+		private float max = 0f;
+
+		private int blocks = 0;
+
+		private byte[][] docBlocks = new byte[1][];
+
+		private float[][] weightBlocks = new float[1][];
+
+		private int[] lastDocs = new int[1];
+
+		private float[] blockMax = new float[1];
+
+		// 尾块从小数组开始，大多数词的倒排链很短
+		private int[] tailDocs = new int[2];
+
+		private float[] tailWeights = new float[2];
+
+		private int tailSize = 0;
+
+		private float tailMax = 0f;
+
+		void add(int doc, float weight) {
+			if (tailSize == tailDocs.length) {
+				int capacity = Math.min(tailSize << 1, BLOCK_SIZE);
+				tailDocs = Arrays.copyOf(tailDocs, capacity);
+				tailWeights = Arrays.copyOf(tailWeights, capacity);
+			}
+			tailDocs[tailSize] = doc;
+			tailWeights[tailSize++] = weight;
+			tailMax = Math.max(tailMax, weight);
+			max = Math.max(max, weight);
+			if (tailSize == BLOCK_SIZE) {
+				seal();
+			}
+		}
+
+		private void seal() {
+			if (blocks == lastDocs.length) {
+				int capacity = blocks << 1;
+				docBlocks = Arrays.copyOf(docBlocks, capacity);
+				weightBlocks = Arrays.copyOf(weightBlocks, capacity);
+				lastDocs = Arrays.copyOf(lastDocs, capacity);
+				blockMax = Arrays.copyOf(blockMax, capacity);
+			}
+			byte[] bytes = new byte[BLOCK_SIZE * 5];
+			int length = 0;
+			int previous = blocks > 0 ? lastDocs[blocks - 1] : -1;
+			for (int i = 0; i < tailSize; i++) {
+				int delta = tailDocs[i] - previous;
+				previous = tailDocs[i];
+				while ((delta & ~0x7F) != 0) {
+					bytes[length++] = (byte) (delta & 0x7F | 0x80);
+					delta >>>= 7;
+				}
+				bytes[length++] = (byte) delta;
+			}
+			docBlocks[blocks] = Arrays.copyOf(bytes, length);
+			weightBlocks[blocks] = tailWeights;
+			lastDocs[blocks] = previous;
+			blockMax[blocks] = tailMax;
+			blocks++;
+			tailWeights = new float[BLOCK_SIZE];
+			tailSize = 0;
+			tailMax = 0f;
+		}
+
+		@Override
+		public float max() {
+			return max;
+		}
+
+		@Override
+		public int blockCount() {
+			return tailSize > 0 ? blocks + 1 : blocks;
+		}
+
+		@Override
+		public int lastDoc(int block) {
+			return block < blocks ? lastDocs[block] : tailDocs[tailSize - 1];
+		}
+
+		@Override
+		public float blockMax(int block) {
+			return block < blocks ? blockMax[block] : tailMax;
+		}
+
+		@Override
+		public float[] weights(int block) {
+			return block < blocks ? weightBlocks[block] : tailWeights;
+		}
+
+		@Override
+		public int decode(int block, int[] out) {
+			if (block == blocks) {
+				System.arraycopy(tailDocs, 0, out, 0, tailSize);
+				return tailSize;
+			}
+			byte[] bytes = docBlocks[block];
+			int doc = block > 0 ? lastDocs[block - 1] : -1;
+			int n = 0;
+			for (int i = 0; i < bytes.length;) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = bytes[i++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				doc += delta;
+				out[n++] = doc;
+			}
+			return n;
+		}
+
+		@Override
+		public int findBlock(int from, int target) {
+			int lo = from, hi = blocks;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (lastDocs[mid] < target) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			if (lo < blocks) {
+				return lo;
+			}
+			return tailSize > 0 && tailDocs[tailSize - 1] >= target ? blocks : blockCount();
+		}
+	}
+
+	/**
+	 * 内存映射文件中的一条倒排链，格式见 {@link MappedTerms}
+	 */
+	private static final class MappedPostings implements PostingList {
+
+		private final ByteBuffer buffer;
+
+		private final float max;
+
+		private final int blocks;
+
+		private final int total;
+
+		// 各部分在文件中的位置
+		private final int lastDocs;
+
+		private final int blockMaxes;
+
+		private final int starts;
+
+		private final int weightsAt;
+
+		private final int docsAt;
+
+		private float[] weights;
+
+		MappedPostings(ByteBuffer buffer, int offset) {
+			this.buffer = buffer;
+			this.max = buffer.getFloat(offset);
+			this.blocks = buffer.getInt(offset + 4);
+			this.total = buffer.getInt(offset + 8);
+			this.lastDocs = offset + 12;
+			this.blockMaxes = lastDocs + 4 * blocks;
+			this.starts = blockMaxes + 4 * blocks;
+			this.weightsAt = starts + 4 * blocks;
+			this.docsAt = weightsAt + 4 * total;
+		}
+
+		private int size(int block) {
+			return block < blocks - 1 ? BLOCK_SIZE : total - block * BLOCK_SIZE;
+		}
+
+		@Override
+		public float max() {
+			return max;
+		}
+
+		@Override
+		public int blockCount() {
+			return blocks;
+		}
+
+		@Override
+		public int lastDoc(int block) {
+			return buffer.getInt(lastDocs + 4 * block);
+		}
+
+		@Override
+		public float blockMax(int block) {
+			return buffer.getFloat(blockMaxes + 4 * block);
+		}
+
+		@Override
+		public float[] weights(int block) {
+			if (weights == null) {
+				weights = new float[BLOCK_SIZE];
+			}
+			int at = weightsAt + 4 * block * BLOCK_SIZE;
+			for (int i = 0, n = size(block); i < n; i++) {
+				weights[i] = buffer.getFloat(at + 4 * i);
+			}
+			return weights;
+		}
+
+		@Override
+		public int decode(int block, int[] out) {
+			int at = docsAt + buffer.getInt(starts + 4 * block);
+			int doc = block > 0 ? lastDoc(block - 1) : -1;
+			int n = size(block);
+			for (int i = 0; i < n; i++) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = buffer.get(at++);
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				doc += delta;
+				out[i] = doc;
+			}
+			return n;
+		}
+
+		@Override
+		public int findBlock(int from, int target) {
+			int lo = from, hi = blocks;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (lastDoc(mid) < target) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+
+	/**
+	 * 一个query词在倒排链上的游标
+	 */
+	private static final class Cursor {
+
+		static final Comparator<Cursor> BY_UPPER_BOUND = new Comparator<Cursor>() {
+			@Override
+			public int compare(Cursor a, Cursor b) {
+				return Double.compare(a.upperBound, b.upperBound);
+			}
+		};
+
+		final PostingList postings;
+
+		final double weight;
+
+		final double upperBound;
+
+		private final int blockCount;
+
+		private final int[] docs = new int[BLOCK_SIZE];
+
+		private float[] weights;
+
+		private int block = -1;
+
+		private int length;
+
+		private int pos;
+
+		int doc;
+
+		// shallowAdvance定位的块，不解码
+		private int shallowBlock;
+
+		Cursor(PostingList postings, double weight) {
+			this.postings = postings;
+			this.weight = weight;
+			this.upperBound = weight * postings.max();
+			this.blockCount = postings.blockCount();
+			load(0);
+		}
+
+		private void load(int b) {
+			block = b;
+			if (b >= blockCount) {
+				doc = END;
+				return;
+			}
+			length = postings.decode(b, docs);
+			weights = postings.weights(b);
+			pos = 0;
+			doc = docs[0];
+		}
+
+		double score() {
+			return weight * weights[pos];
+		}
+
+		void next() {
+			if (++pos < length) {
+				doc = docs[pos];
+			} else {
+				load(block + 1);
+			}
+		}
+
+		/**
+		 * 移到第一个不小于target的序号
+		 */
+		void advance(int target) {
+			if (doc >= target) {
+				return;
+			}
+			if (postings.lastDoc(block) < target) {
+				load(target == END ? blockCount : postings.findBlock(block + 1, target));
+				if (doc == END) {
+					return;
+				}
+			}
+			while (docs[pos] < target) {
+				pos++;
+			}
+			doc = docs[pos];
+		}
+
+		void shallowAdvance(int target) {
+			shallowBlock = doc == END ? blockCount : postings.findBlock(block, target);
+		}
+
+		double blockUpperBound() {
+			return shallowBlock < blockCount ? weight * postings.blockMax(shallowBlock) : 0.0;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package similarity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import similarity.hash.HashFunction;
+import similarity.tokenizer.jieba.JiebaNLP;
+import similarity.tokenizer.jieba.TokenSpans;
+
+
+/**
+ *
+ * @description
+ * MinHash算法步骤
+ * <p>1.文档分词，得到词或词的w-shingle集合</p>
+ * <p>2.每个元素映射为64位hash，再经过k个置换 h_i(x) = a_i * x + b_i</p>
+ * <p>3.每个置换下取最小值，k个最小值即为签名。两个签名相同位置相等的比例是Jaccard相似度的无偏估计</p>
+ * <p>4.可选b-bit压缩：每个最小值只保留低b位，签名缩小64/b倍，估计时扣除偶然相等的概率</p>
+ */
+public class MinHash {
+
+	private static final long DEFAULT_SEED = 0x1234ABCDL;
+
+	/**
+	 * 空集合的签名值
+	 */
+	public static final long EMPTY = Long.MAX_VALUE;
+
+	private final int numPerm;
+
+	private final long[] multipliers;
+
+	private final long[] increments;
+
+	public MinHash(int numPerm) {
+		this(numPerm, DEFAULT_SEED);
+	}
+
+	/**
+	 * @param numPerm 置换数k
+	 * @param seed 相同seed生成相同的置换，签名才可以相互比较
+	 */
+	public MinHash(int numPerm, long seed) {
+		if (numPerm < 1) {
+			throw new IllegalArgumentException("numPerm must be positive");
+		}
+		this.numPerm = numPerm;
+		this.multipliers = new long[numPerm];
+		this.increments = new long[numPerm];
+		Random random = new Random(seed);
+		for (int i = 0; i < numPerm; i++) {
+			// 奇数乘数保证是2^64上的置换
+			multipliers[i] = random.nextLong() | 1L;
+			increments[i] = random.nextLong();
+		}
+	}
+
+	public int getNumPerm() {
+		return numPerm;
+	}
+
+	/**
+	 * 由元素hash生成签名
+	 * @param hashes 元素的64位hash
+	 * @param count 只用前count个
+	 * @return 长度为k的签名
+	 */
+	public long[] signature(long[] hashes, int count) {
+		long[] signature = new long[numPerm];
+		Arrays.fill(signature, EMPTY);
+		for (int j = 0; j < count; j++) {
+			update(signature, hashes[j]);
+		}
+		return signature;
+	}
+
+	/**
+	 * 把一个元素加入签名
+	 * @param signature
+	 * @param hash 元素的64位hash
+	 */
+	public void update(long[] signature, long hash) {
+		for (int i = 0; i < numPerm; i++) {
+			long permuted = multipliers[i] * hash + increments[i];
+			if (permuted < signature[i]) {
+				signature[i] = permuted;
+			}
+		}
+	}
+
+	/**
+	 * 词集合的签名
+	 * @param tokens
+	 * @return
+	 */
+	public long[] signature(Collection<? extends CharSequence> tokens) {
+		long[] signature = new long[numPerm];
+		Arrays.fill(signature, EMPTY);
+		for (CharSequence token : tokens) {
+			update(signature, HashFunction.murmur64(token, 0, token.length()));
+		}
+		return signature;
+	}
+
+	/**
+	 * 词的w-shingle集合的签名，w个连续词的hash组合成一个元素，不拼接字符串
+	 * @param tokens 分词结果，保持原文顺序
+	 * @param w shingle长度，1即词集合
+	 * @return
+	 */
+	public long[] shingleSignature(List<? extends CharSequence> tokens, int w) {
+		long[] hashes = new long[tokens.size()];
+		for (int i = 0; i < hashes.length; i++) {
+			CharSequence token = tokens.get(i);
+			hashes[i] = HashFunction.murmur64(token, 0, token.length());
+		}
+		return shingleSignature(hashes, hashes.length, w);
+	}
+
+	/**
+	 * 由词hash序列生成w-shingle签名
+	 * @param hashes 每个词的64位hash，保持原文顺序
+	 * @param n 只用前n个
+	 * @param w shingle长度，1即词集合
+	 * @return
+	 */
+	public long[] shingleSignature(long[] hashes, int n, int w) {
+		if (w < 1) {
+			throw new IllegalArgumentException("shingle size must be positive");
+		}
+		long[] signature = new long[numPerm];
+		Arrays.fill(signature, EMPTY);
+		for (int i = 0; i < n; i++) {
+			if (i + 1 >= w || i == n - 1 && n < w) {
+				long shingle = 0L;
+				int first = Math.max(0, i + 1 - w);
+				for (int j = first; j <= i; j++) {
+					shingle = shingle * 0x9E3779B97F4A7C15L + hashes[j];
+				}
+				update(signature, shingle);
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * 对文档用jieba分词，生成w-shingle签名。直接对分词区间做hash，不生成词的String
+	 * @param text
+	 * @param w
+	 * @return
+	 */
+	public long[] signature(String text, int w) {
+		TokenSpans spans = new TokenSpans();
+		JiebaNLP.JiebaExtractor().JiebaNLPSpans(text, spans);
+		long[] hashes = new long[spans.size()];
+		int n = 0;
+		for (int i = 0; i < spans.size(); i++) {
+			if (spans.trimmedLength(i) > 0) {
+				hashes[n++] = spans.hash(i);
+			}
+		}
+		return shingleSignature(hashes, n, w);
+	}
+
+	/**
+	 * 估计Jaccard相似度
+	 * @param left
+	 * @param right
+	 * @return 相同位置相等的比例
+	 */
+	public static double jaccard(long[] left, long[] right) {
+		if (left.length != right.length) {
+			throw new IllegalArgumentException("signatures differ in length: " + left.length + " vs " + right.length);
+		}
+		int equal = 0;
+		for (int i = 0; i < left.length; i++) {
+			if (left[i] == right[i]) {
+				equal++;
+			}
+		}
+		return (double) equal / left.length;
+	}
+
+	/**
+	 * b-bit压缩：每个最小值保留低b位，按顺序打包进long[]
+	 * @param signature
+	 * @param b 1, 2, 4, 8, 16 或 32
+	 * @return
+	 */
+	public static long[] compress(long[] signature, int b) {
+		checkBits(b);
+		int perLong = 64 / b;
+		long mask = (1L << b) - 1;
+		long[] packed = new long[(signature.length + perLong - 1) / perLong];
+		for (int i = 0; i < signature.length; i++) {
+			packed[i / perLong] |= (signature[i] & mask) << ((i % perLong) * b);
+		}
+		return packed;
+	}
+
+	/**
+	 * b-bit签名估计Jaccard相似度(Li &amp; König)，扣除低b位偶然相等的概率 2^-b
+	 * @param left
+	 * @param right
+	 * @param b
+	 * @param numPerm 压缩前的签名长度
+	 * @return
+	 */
+	public static double jaccard(long[] left, long[] right, int b, int numPerm) {
+		checkBits(b);
+		int perLong = 64 / b;
+		long mask = (1L << b) - 1;
+		int equal = 0;
+		for (int i = 0; i < numPerm; i++) {
+			int shift = (i % perLong) * b;
+			if (((left[i / perLong] >>> shift) & mask) == ((right[i / perLong] >>> shift) & mask)) {
+				equal++;
+			}
+		}
+		double collision = 1.0 / (1L << b);
+		double estimate = ((double) equal / numPerm - collision) / (1 - collision);
+		return Math.max(0.0, Math.min(1.0, estimate));
+	}
+
+	private static void checkBits(int b) {
+		if (b < 1 || b > 32 || Integer.bitCount(b) != 1) {
+			throw new IllegalArgumentException("b must be one of 1, 2, 4, 8, 16, 32, got " + b);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package similarity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ *
+ * @description
+ * MinHash签名的LSH分段(banding)索引
+ * <p>1.签名分为b段，每段r行，每段的r个值hash成一个桶key</p>
+ * <p>2.两个文档至少有一段完全相同才成为候选，Jaccard为s时成为候选的概率为 1 - (1 - s^r)^b</p>
+ * <p>3.候选再用签名估计Jaccard，过滤掉低于阀值的文档。候选生成只查b个桶，与语料规模无关</p>
+ * <p>读写锁保护：查询可并发，插入/删除互斥</p>
+ */
+public class MinHashLSHIndex {
+
+	private final int bands;
+
+	private final int rows;
+
+	private final List<Map<Long, List<String>>> buckets;
+
+	private final Map<String, long[]> signatures = new HashMap<String, long[]>();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * @param bands 段数b
+	 * @param rows 每段行数r, b * r 不能超过签名长度
+	 */
+	public MinHashLSHIndex(int bands, int rows) {
+		if (bands < 1 || rows < 1) {
+			throw new IllegalArgumentException("bands and rows must be positive");
+		}
+		this.bands = bands;
+		this.rows = rows;
+		this.buckets = new ArrayList<Map<Long, List<String>>>(bands);
+		for (int i = 0; i < bands; i++) {
+			buckets.add(new HashMap<Long, List<String>>());
+		}
+	}
+
+	/**
+	 * 按Jaccard阀值选择(b, r)，使假阳性与假阴性概率的积分之和最小
+	 * @param numPerm 签名长度
+	 * @param threshold Jaccard阀值
+	 * @return
+	 */
+	public static MinHashLSHIndex forThreshold(int numPerm, double threshold) {
+		int bestBands = 1;
+		int bestRows = numPerm;
+		double bestError = Double.MAX_VALUE;
+		for (int b = 1; b <= numPerm; b++) {
+			for (int r = 1; b * r <= numPerm; r++) {
+				double error = integrate(b, r, 0.0, threshold, false) + integrate(b, r, threshold, 1.0, true);
+				if (error < bestError) {
+					bestError = error;
+					bestBands = b;
+					bestRows = r;
+				}
+			}
+		}
+		return new MinHashLSHIndex(bestBands, bestRows);
+	}
+
+	/**
+	 * 假阳性: 在[0, t)上成为候选的概率积分; 假阴性: 在[t, 1]上不成为候选的概率积分
+	 */
+	private static double integrate(int b, int r, double from, double to, boolean falseNegative) {
+		int steps = 100;
+		double width = (to - from) / steps;
+		double area = 0.0;
+		for (int i = 0; i < steps; i++) {
+			double s = from + (i + 0.5) * width;
+			double candidate = 1 - Math.pow(1 - Math.pow(s, r), b);
+			area += (falseNegative ? 1 - candidate : candidate) * width;
+		}
+		return area;
+	}
+
+	public int getBands() {
+		return bands;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * 插入或替换文档签名
+	 * @param docId
+	 * @param signature 长度不小于 bands * rows
+	 */
+	public void insert(String docId, long[] signature) {
+		checkSignature(signature);
+		lock.writeLock().lock();
+		try {
+			long[] old = signatures.put(docId, signature);
+			if (old != null) {
+				unlink(docId, old);
+			}
+			for (int band = 0; band < bands; band++) {
+				Map<Long, List<String>> table = buckets.get(band);
+				Long key = bandKey(signature, band);
+				List<String> bucket = table.get(key);
+				if (bucket == null) {
+					bucket = new ArrayList<String>(2);
+					table.put(key, bucket);
+				}
+				bucket.add(docId);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 删除文档
+	 * @param docId
+	 * @return 文档存在返回true
+	 */
+	public boolean remove(String docId) {
+		lock.writeLock().lock();
+		try {
+			long[] signature = signatures.remove(docId);
+			if (signature == null) {
+				return false;
+			}
+			unlink(docId, signature);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 候选文档：至少一段与query完全相同
+	 * @param signature
+	 * @return
+	 */
+	public Set<String> candidates(long[] signature) {
+		checkSignature(signature);
+		Set<String> candidates = new LinkedHashSet<String>();
+		lock.readLock().lock();
+		try {
+			for (int band = 0; band < bands; band++) {
+				List<String> bucket = buckets.get(band).get(bandKey(signature, band));
+				if (bucket != null) {
+					candidates.addAll(bucket);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return candidates;
+	}
+
+	/**
+	 * 估计Jaccard不低于threshold的文档
+	 * @param signature
+	 * @param threshold
+	 * @return docId -> 估计的Jaccard相似度
+	 */
+	public Map<String, Double> query(long[] signature, double threshold) {
+		Map<String, Double> result = new LinkedHashMap<String, Double>();
+		lock.readLock().lock();
+		try {
+			for (String docId : candidates(signature)) {
+				double jaccard = MinHash.jaccard(signature, signatures.get(docId));
+				if (jaccard >= threshold) {
+					result.put(docId, jaccard);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return signatures.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void unlink(String docId, long[] signature) {
+		for (int band = 0; band < bands; band++) {
+			Map<Long, List<String>> table = buckets.get(band);
+			Long key = bandKey(signature, band);
+			List<String> bucket = table.get(key);
+			if (bucket != null) {
+				bucket.remove(docId);
+				if (bucket.isEmpty()) {
+					table.remove(key);
+				}
+			}
+		}
+	}
+
+	private long bandKey(long[] signature, int band) {
+		long key = band;
+		for (int i = band * rows, end = i + rows; i < end; i++) {
+			key = (key ^ signature[i]) * 0xc6a4a7935bd1e995L;
+			key ^= key >>> 47;
+		}
+		return key;
+	}
+
+	private void checkSignature(long[] signature) {
+		if (signature.length < bands * rows) {
+			throw new IllegalArgumentException("signature length " + signature.length + " < bands * rows " + bands * rows);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ *
+ * @description
+ * 全语料的近似重复聚类：找出海明距离不超过k的全部指纹对，并查集合并成簇
+ * <p>1.64位分成B块，距离不超过k的两个指纹至少有B-k块完全相同。每种B-k块的组合为一轮(pass)，共C(B, k)轮</p>
+ * <p>2.每轮把选中的块置换到高位作为前缀，前缀与文档序号拼成一个long，整列排序后前缀相同的文档相邻</p>
+ * <p>3.前缀相同的一段内两两用Long.bitCount校验距离，命中的对在并查集中合并；已在同一集合的对跳过</p>
+ * <p>4.指纹完全相同的文档(转载、模板)在构造时按指纹排序分组，每轮先把组内文档并到组中序号最小的代表上，只有代表参与分段比较，避免一段内出现大量相同指纹的两两比较</p>
+ * <p>5.各轮互相独立，可由多个线程同时执行(见 multithread.ClusterJob)，共用一个无锁并查集</p>
+ * <p>每轮只需一个与语料等长的long[]，内存与语料规模成线性</p>
+ */
+public class NearDuplicateClusterer {
+
+	private static final int BITS_LENGTH = 64;
+
+	private final long[] fingerprints;
+
+	private final int maxDistance;
+
+	/**
+	 * passes[p]为第p轮选中块的{起始位, 位数}
+	 */
+	private final int[][][] passes;
+
+	/**
+	 * 文档序号占用的低位数
+	 */
+	private final int indexBits;
+
+	/**
+	 * 每种指纹序号最小的文档, 升序
+	 */
+	private final int[] representatives;
+
+	/**
+	 * duplicates[i]与duplicateOf[i]指纹相同, 后者为代表
+	 */
+	private final int[] duplicates;
+
+	private final int[] duplicateOf;
+
+	/**
+	 * 默认分块数 B = k + 2
+	 * @param fingerprints 64位simhash, 下标即文档序号
+	 * @param maxDistance 海明距离阀值k
+	 */
+	public NearDuplicateClusterer(long[] fingerprints, int maxDistance) {
+		this(fingerprints, maxDistance, maxDistance + 2);
+	}
+
+	/**
+	 * @param fingerprints 64位simhash, 下标即文档序号
+	 * @param maxDistance 海明距离阀值k
+	 * @param blocks 分块数B, 必须大于k。B越大每轮前缀越长、候选越少, 但轮数C(B, k)越多
+	 */
+	public NearDuplicateClusterer(long[] fingerprints, int maxDistance, int blocks) {
+		if (maxDistance < 0 || blocks <= maxDistance || blocks > BITS_LENGTH) {
+			throw new IllegalArgumentException("blocks must be in (maxDistance, 64], got k=" + maxDistance + ", B=" + blocks);
+		}
+		this.fingerprints = fingerprints;
+		this.maxDistance = maxDistance;
+		this.indexBits = fingerprints.length <= 1 ? 1 : BITS_LENGTH - Long.numberOfLeadingZeros(fingerprints.length - 1);
+
+		int[] starts = new int[blocks];
+		int[] widths = new int[blocks];
+		int start = 0;
+		for (int b = 0; b < blocks; b++) {
+			widths[b] = BITS_LENGTH / blocks + (b < BITS_LENGTH % blocks ? 1 : 0);
+			starts[b] = start;
+			start += widths[b];
+		}
+		List<int[][]> chosen = new ArrayList<int[][]>();
+		combine(blocks, blocks - maxDistance, 0, new int[blocks - maxDistance], 0, starts, widths, chosen);
+		this.passes = chosen.toArray(new int[chosen.size()][][]);
+
+		// 不同的指纹排序去重后, 按序号从小到大第一个出现的文档为代表
+		long[] distinct = fingerprints.clone();
+		Arrays.sort(distinct);
+		int unique = 0;
+		for (int i = 0; i < distinct.length; i++) {
+			if (i == 0 || distinct[i] != distinct[unique - 1]) {
+				distinct[unique++] = distinct[i];
+			}
+		}
+		int[] owner = new int[unique];
+		Arrays.fill(owner, -1);
+		this.representatives = new int[unique];
+		this.duplicates = new int[fingerprints.length - unique];
+		this.duplicateOf = new int[fingerprints.length - unique];
+		int r = 0, d = 0;
+		for (int i = 0; i < fingerprints.length; i++) {
+			int slot = Arrays.binarySearch(distinct, 0, unique, fingerprints[i]);
+			if (owner[slot] < 0) {
+				owner[slot] = i;
+				representatives[r++] = i;
+			} else {
+				duplicates[d] = i;
+				duplicateOf[d++] = owner[slot];
+			}
+		}
+	}
+
+	private static void combine(int n, int r, int from, int[] picked, int depth, int[] starts, int[] widths, List<int[][]> out) {
+		if (depth == r) {
+			int[][] pass = new int[r][];
+			for (int i = 0; i < r; i++) {
+				pass[i] = new int[] { starts[picked[i]], widths[picked[i]] };
+			}
+			out.add(pass);
+			return;
+		}
+		for (int i = from; i <= n - (r - depth); i++) {
+			picked[depth] = i;
+			combine(n, r, i + 1, picked, depth + 1, starts, widths, out);
+		}
+	}
+
+	/**
+	 * @return 轮数 C(B, k)
+	 */
+	public int passCount() {
+		return passes.length;
+	}
+
+	public int getMaxDistance() {
+		return maxDistance;
+	}
+
+	public int size() {
+		return fingerprints.length;
+	}
+
+	/**
+	 * @return 不同指纹的个数
+	 */
+	public int distinctCount() {
+		return representatives.length;
+	}
+
+	/**
+	 * 执行一轮
+	 * @param pass 0 ~ passCount()-1
+	 * @param unionFind 各轮共用, 大小等于语料数
+	 * @return 本轮新合并的次数
+	 */
+	public int runPass(int pass, ConcurrentUnionFind unionFind) {
+		int merged = 0;
+		for (int i = 0; i < duplicates.length; i++) {
+			if (unionFind.union(duplicateOf[i], duplicates[i])) {
+				merged++;
+			}
+		}
+
+		int[][] blocks = passes[pass];
+		long indexMask = (1L << indexBits) - 1;
+		long[] entries = new long[representatives.length];
+		for (int i = 0; i < entries.length; i++) {
+			int doc = representatives[i];
+			// 前缀超出 64 - indexBits 位时截断低位, 只会让候选段变大, 不会漏掉
+			entries[i] = (prefix(fingerprints[doc], blocks) & ~indexMask) | doc;
+		}
+		Arrays.sort(entries);
+
+		// 段内各文档的根, 取值相等说明已在同一集合; 合并后只会变得更少相等, 不会误判
+		int[] roots = new int[16];
+		int runStart = 0;
+		for (int i = 1; i <= entries.length; i++) {
+			if (i < entries.length && (entries[i] >>> indexBits) == (entries[runStart] >>> indexBits)) {
+				continue;
+			}
+			int length = i - runStart;
+			if (length > 1) {
+				if (roots.length < length) {
+					roots = new int[Math.max(length, roots.length << 1)];
+				}
+				for (int a = 0; a < length; a++) {
+					roots[a] = unionFind.find((int) (entries[runStart + a] & indexMask));
+				}
+				for (int a = 0; a < length - 1; a++) {
+					int left = (int) (entries[runStart + a] & indexMask);
+					long fingerprint = fingerprints[left];
+					for (int b = a + 1; b < length; b++) {
+						if (roots[a] == roots[b]) {
+							continue;
+						}
+						int right = (int) (entries[runStart + b] & indexMask);
+						if (Long.bitCount(fingerprint ^ fingerprints[right]) <= maxDistance && unionFind.union(left, right)) {
+							merged++;
+							roots[b] = roots[a];
+						}
+					}
+				}
+			}
+			runStart = i;
+		}
+		return merged;
+	}
+
+	/**
+	 * 选中的块依次拼接到高位
+	 */
+	private static long prefix(long fingerprint, int[][] blocks) {
+		long key = 0L;
+		int used = 0;
+		for (int[] block : blocks) {
+			long bits = (fingerprint >>> block[0]) & (block[1] == BITS_LENGTH ? -1L : (1L << block[1]) - 1);
+			used += block[1];
+			key |= bits << (BITS_LENGTH - used);
+		}
+		return key;
+	}
+
+	/**
+	 * 在当前线程依次执行全部轮
+	 * @return clusterIds[i]为文档i所在簇中最小的文档序号
+	 */
+	public int[] cluster() {
+		ConcurrentUnionFind unionFind = new ConcurrentUnionFind(fingerprints.length);
+		for (int pass = 0; pass < passes.length; pass++) {
+			runPass(pass, unionFind);
+		}
+		return unionFind.roots();
+	}
+}
@@ -1,8 +1,7 @@
 package similarity;
 
+import java.io.IOException;
 import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -12,6 +11,10 @@ import org.slf4j.LoggerFactory;
 
 import similarity.hash.HashFunction;
 import similarity.tokenizer.KeyWordExtractor;
+import similarity.tokenizer.jieba.CharacterUtil;
+import similarity.tokenizer.jieba.JiebaSegmenter;
+import similarity.tokenizer.jieba.SegToken;
+import similarity.tokenizer.jieba.TokenStream;
 
 
 
@@ -33,6 +36,37 @@ public class SimHash {
 	
 	private final static int BITS_LENGTH = 64;
 	
+	/**
+	 * 宽SimHash的MurmurHash3种子, 256位时第二个128位使用 WIDE_SEED + 1
+	 */
+	private final static int WIDE_SEED = 0x1234ABCD;
+	
+	/**
+	 * 字符shingle滚动hash的基数
+	 */
+	private final static long SHINGLE_BASE = 0x100000001B3L;
+	
+	/**
+	 * 不超过4个字符的shingle直接按16位拼接进一个long, 无碰撞且不需要窗口缓冲
+	 */
+	private final static int PACKED_CHARS = 4;
+	
+	/**
+	 * 字节计数器最多累加255次后必须写回
+	 */
+	private final static int FLUSH_INTERVAL = 255;
+	
+	private final static long BYTE_LSB = 0x0101010101010101L;
+	
+	/**
+	 * feature的来源
+	 * <p>KEYWORD: 分词并提取topN个关键词, 以关键词权重加权</p>
+	 * <p>SHINGLE: 原文的字符n-gram, 以出现次数加权, 不加载任何词典与模型</p>
+	 */
+	public enum Feature {
+		KEYWORD, SHINGLE
+	}
+	
 	/**
 	 * 1.提取(feature,weight) pair
 	 * @param doc
@@ -46,89 +80,304 @@ public class SimHash {
 	
 	
 	/**
-	 * TODO 如何应对分出的词少于64个的情况
-	 * 2.把当中的feature映射为hashCode,64位
+	 * 2~5. 由(feature,weight) pair直接生成64位SimHash
+	 * <p>feature的hash以long表示, 位的累加只用移位与掩码, 每个feature不产生任何对象</p>
+	 * <p>原实现中补足64个feature的("0" + i, 0) pair权重为0, 对累加没有贡献, 故不再生成</p>
+	 * @param featureWeights
+	 * @return simhash 的64位二进制表示
+	 */
+	public static long fingerprint(Map<String, Integer> featureWeights) {
+		int[] weights = new int[BITS_LENGTH];
+		for (Entry<String, Integer> entry : featureWeights.entrySet()) {
+			accumulate(weights, HashFunction.murmur64(entry.getKey()), entry.getValue());
+		}
+		return toFingerprint(weights);
+	}
+	
+	/**
+	 * 对分词流中的每个词累加一次, 等价于以全部词的出现次数为权重的 {@link #fingerprint(Map)}
+	 * <p>只保留64个累加器, 内存占用与文档长度无关, 可用于整本书、日志等大文本。空白词不计入</p>
+	 * @param tokens 由 {@link JiebaSegmenter#tokenStream(Readable, JiebaSegmenter.SegMode)} 得到
+	 * @return simhash 的64位二进制表示
+	 * @throws IOException
+	 */
+	public static long fingerprint(TokenStream tokens) throws IOException {
+		int[] weights = new int[BITS_LENGTH];
+		for (SegToken token = tokens.next(); token != null; token = tokens.next()) {
+			if (!token.word.trim().isEmpty()) {
+				accumulate(weights, HashFunction.murmur64(token.word, 0, token.word.length()), 1);
+			}
+		}
+		return toFingerprint(weights);
+	}
+	
+	/**
+	 * 对文档提取topN个关键词后生成64位SimHash
 	 * @param doc
 	 * @param topN
-	 * @return
+	 * @return simhash 的64位二进制表示
 	 * @throws LoadModelException 
 	 */
-	private static Map<BigInteger, Integer> hashFeature(String doc,int topN) throws LoadModelException {
-		
+	public static long fingerprint(String doc, int topN) throws LoadModelException {
 		Map<String,Integer> feature_weight_pair = extract(doc, topN);
 		
 		if (feature_weight_pair == null) {
 			logger.error("extract (feature,weight) pair failed");
-			return null;
+			return 0L;
 		}
-		
-		if (feature_weight_pair.size() < 64) {
-			int size = feature_weight_pair.size();
-			for(int i = size; i < 64; i++) {
-				feature_weight_pair.put("0" + i, 0);
+		return fingerprint(feature_weight_pair);
+	}
+	
+	/**
+	 * 3. 位的累加。若该位为1，则+weight，为0则-weight
+	 * @param weights 长度为64的累加向量
+	 * @param hash feature的64位hash
+	 * @param weight
+	 */
+	public static void accumulate(int[] weights, long hash, int weight) {
+		for (int i = 0; i < BITS_LENGTH; i++) {
+			// 等价于 C++ 的 weights[j] += ( ( (u64_1 << j) & (feature) ) != 0 ? 1: -1 ) * weight;
+			weights[i] += (((hash >>> i) & 1L) != 0 ? weight : -weight);
+		}
+	}
+	
+	/**
+	 * 直接对原文text[start, end)这一段做hash后累加, 用于按偏移量取词的分词结果, 不生成子串
+	 * @param weights 长度为64的累加向量
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @param weight
+	 */
+	public static void accumulate(int[] weights, CharSequence text, int start, int end, int weight) {
+		accumulate(weights, HashFunction.murmur64(text, start, end), weight);
+	}
+	
+	/**
+	 * 4~5. 遍历累加向量，正数转化为1，其余为0
+	 * @param weights
+	 * @return simhash 的64位二进制表示
+	 */
+	public static long toFingerprint(int[] weights) {
+		long fingerprint = 0L;
+		for (int i = 0; i < BITS_LENGTH; i++) {
+			if (weights[i] > 0) {
+				fingerprint |= 1L << i;
 			}
 		}
+		return fingerprint;
+	}
+	
+	/**
+	 * 按请求选择feature来源生成64位SimHash
+	 * @param doc
+	 * @param n KEYWORD时为关键词数topN, SHINGLE时为shingle的字符数
+	 * @param feature
+	 * @return simhash 的64位二进制表示
+	 * @throws LoadModelException 
+	 */
+	public static long fingerprint(String doc, int n, Feature feature) throws LoadModelException {
+		if (feature == Feature.SHINGLE) {
+			return shingleFingerprint(doc, n);
+		}
+		return fingerprint(doc, n);
+	}
+	
+	/**
+	 * 不分词的字符shingle SimHash, 用于近似重复的快速筛查
+	 * <p>1.每个字符经 CharacterUtil.regularize 全角转半角、大写转小写, 跳过空白字符</p>
+	 * <p>2.连续n个字符为一个shingle。n不超过4时按16位拼接进一个long; 更长时用多项式滚动hash, 在O(1)内由上一个shingle得到下一个。最后经fmix64打散</p>
+	 * <p>3.每次出现都以权重1累加, 与"不同shingle以出现次数为权重"完全等价, 因此不需要计数表</p>
+	 * <p>4.累加时64个位计数分成8个long, 每个long含8个字节计数器, 一个shingle只需8次移位与加法(c0~c7保持在寄存器中), 每255个shingle写回一次</p>
+	 * <p>不足n个字符的文本整体作为一个shingle, 空文本返回0</p>
+	 * @param text
+	 * @param n shingle的字符数
+	 * @return simhash 的64位二进制表示
+	 */
+	public static long shingleFingerprint(CharSequence text, int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("shingle size must be positive, got " + n);
+		}
+		boolean packed = n <= PACKED_CHARS;
+		long packMask = n >= PACKED_CHARS ? -1L : (1L << (n << 4)) - 1;
+		char[] window = new char[packed ? 0 : n];
+		long power = 1L;
+		for (int i = 1; i < n; i++) {
+			power *= SHINGLE_BASE;
+		}
 		
-		String feature;
-		Integer weight;
-		Map<BigInteger,Integer> hash_weight_pair = new HashMap<BigInteger,Integer>(BITS_LENGTH);
+		long c0 = 0L, c1 = 0L, c2 = 0L, c3 = 0L, c4 = 0L, c5 = 0L, c6 = 0L, c7 = 0L;
+		int[] ones = new int[BITS_LENGTH];
+		int pending = 0;
+		int total = 0;
 		
-		Iterator<Entry<String, Integer>> iterator = feature_weight_pair.entrySet().iterator();
-		while (iterator.hasNext()) {
-			Entry<String, Integer> entry = iterator.next();
+		long rolling = 0L;
+		int filled = 0;
+		int slot = 0;
+		for (int i = 0, length = text.length(); i < length; i++) {
+			char ch = CharacterUtil.regularize(text.charAt(i));
+			// U+0020以上的空白字符都在[U+1680, U+3000]内, 汉字与字母不调用isWhitespace
+			if (ch <= ' ' || ch >= '\u1680' && ch <= '\u3000') {
+				if (Character.isWhitespace(ch)) {
+					continue;
+				}
+			}
+			if (packed) {
+				rolling = (rolling << 16 | ch) & packMask;
+			} else {
+				if (filled >= n) {
+					rolling -= window[slot] * power;
+				}
+				rolling = rolling * SHINGLE_BASE + ch;
+				window[slot] = ch;
+				if (++slot == n) {
+					slot = 0;
+				}
+			}
+			if (++filled < n) {
+				continue;
+			}
 			
-			feature = entry.getKey();
-			weight = entry.getValue();
-			hash_weight_pair.put(HashFunction.hashUnsigned64(feature).toBigIntegerExact(), weight);
+			long hash = HashFunction.fmix64(rolling);
+			c0 += hash & BYTE_LSB;
+			c1 += (hash >>> 1) & BYTE_LSB;
+			c2 += (hash >>> 2) & BYTE_LSB;
+			c3 += (hash >>> 3) & BYTE_LSB;
+			c4 += (hash >>> 4) & BYTE_LSB;
+			c5 += (hash >>> 5) & BYTE_LSB;
+			c6 += (hash >>> 6) & BYTE_LSB;
+			c7 += (hash >>> 7) & BYTE_LSB;
+			total++;
+			if (++pending == FLUSH_INTERVAL) {
+				flush(ones, c0, c1, c2, c3, c4, c5, c6, c7);
+				c0 = c1 = c2 = c3 = c4 = c5 = c6 = c7 = 0L;
+				pending = 0;
+			}
+		}
+		if (filled > 0 && filled < n) {
+			long hash = HashFunction.fmix64(rolling);
+			c0 += hash & BYTE_LSB;
+			c1 += (hash >>> 1) & BYTE_LSB;
+			c2 += (hash >>> 2) & BYTE_LSB;
+			c3 += (hash >>> 3) & BYTE_LSB;
+			c4 += (hash >>> 4) & BYTE_LSB;
+			c5 += (hash >>> 5) & BYTE_LSB;
+			c6 += (hash >>> 6) & BYTE_LSB;
+			c7 += (hash >>> 7) & BYTE_LSB;
+			total++;
+		}
+		flush(ones, c0, c1, c2, c3, c4, c5, c6, c7);
+		
+		// 该位为1的次数多于为0的次数, 即累加值为正
+		long fingerprint = 0L;
+		for (int i = 0; i < BITS_LENGTH; i++) {
+			if (ones[i] * 2 > total) {
+				fingerprint |= 1L << i;
+			}
 		}
-		logger.info("hash_weight_pair successfully created {}",hash_weight_pair);
-		return hash_weight_pair;
+		return fingerprint;
 	}
 	
 	/**
-	 * 位的累加。若该位为1，则+weight，为0则-weight
+	 * 字节计数器写回: cj的第b个字节是第 8*b + j 位的计数
+	 */
+	private static void flush(int[] ones, long... counters) {
+		for (int j = 0; j < 8; j++) {
+			long packed = counters[j];
+			for (int b = 0; b < 8; b++) {
+				ones[(b << 3) + j] += (int) ((packed >>> (b << 3)) & 0xFF);
+			}
+		}
+	}
+	
+	/**
+	 * 2~5. 生成64/128/256位SimHash, 以long[]按lane存放, lane i 为第 64*i ~ 64*i+63 位
+	 * <p>64位与 {@link #fingerprint(Map)} 一致; 128位使用MurmurHash3 x64_128, 256位使用两个不同种子的MurmurHash3 x64_128</p>
+	 * @param featureWeights
+	 * @param bits 64, 128 或 256
+	 * @return bits / 64 个lane
+	 */
+	public static long[] fingerprint(Map<String, Integer> featureWeights, int bits) {
+		int lanes = lanes(bits);
+		if (lanes == 1) {
+			return new long[] { fingerprint(featureWeights) };
+		}
+		int[] weights = new int[bits];
+		long[] hash = new long[lanes];
+		for (Entry<String, Integer> entry : featureWeights.entrySet()) {
+			String feature = entry.getKey();
+			for (int lane = 0; lane < lanes; lane += 2) {
+				HashFunction.murmur3_128(feature, 0, feature.length(), WIDE_SEED + (lane >> 1), hash, lane);
+			}
+			accumulate(weights, hash, entry.getValue());
+		}
+		return toFingerprint(weights, lanes);
+	}
+	
+	/**
+	 * 对文档提取topN个关键词后生成指定位数的SimHash
 	 * @param doc
 	 * @param topN
-	 * @return
-	 * @throws LoadModelException 
+	 * @param bits 64, 128 或 256
+	 * @return bits / 64 个lane
+	 * @throws LoadModelException
 	 */
-	private static int[] bitCalculation(String doc,int topN) throws LoadModelException {
-		
-		Map<BigInteger,Integer> hash_weight_pair = hashFeature(doc, topN);
+	public static long[] fingerprint(String doc, int topN, int bits) throws LoadModelException {
+		int lanes = lanes(bits);
+		Map<String,Integer> feature_weight_pair = extract(doc, topN);
 		
-		if (hash_weight_pair == null) {
-			logger.error("hash (feature,weight) pair failed");
-			return null;
+		if (feature_weight_pair == null) {
+			logger.error("extract (feature,weight) pair failed");
+			return new long[lanes];
 		}
-		
-		Iterator<Entry<BigInteger,Integer>> iterator = hash_weight_pair.entrySet().iterator();
-        
-		int i;
-		final long u64_1 = 1L;
-		int[] weights = new int[BITS_LENGTH]; //存放simhash的数组
-		BigInteger hashFeature;
-		Integer weight;
-		
-		while (iterator.hasNext()) {
-			Entry<BigInteger, Integer> entry = iterator.next();
-			
-			hashFeature = entry.getKey();
-			weight = entry.getValue();
-			
-			for (i = 0; i< BITS_LENGTH; i++) {
-				//C++ 的实现,可控制符号位，weights[j] += ( ( (u64_1 << j) & (feature) ) != 0 ? 1: -1 ) * weight;
-				//使用BigInteger避免  二进制位 符号位 引起的异常
-				weights[i] += (((new BigInteger(String.valueOf(u64_1 << i)).and(hashFeature))
-							.compareTo(BigInteger.ZERO)) != 0 ? 1 : -1) * weight;
+		return fingerprint(feature_weight_pair, bits);
+	}
+	
+	/**
+	 * 多lane的位累加
+	 * @param weights 长度为 64 * hash.length 的累加向量
+	 * @param hash feature的多lane hash
+	 * @param weight
+	 */
+	public static void accumulate(int[] weights, long[] hash, int weight) {
+		for (int lane = 0; lane < hash.length; lane++) {
+			long h = hash[lane];
+			int base = lane << 6;
+			for (int i = 0; i < BITS_LENGTH; i++) {
+				weights[base + i] += (((h >>> i) & 1L) != 0 ? weight : -weight);
 			}
 		}
-		logger.info("Weights array successfully transformed. Length is [{}]",weights.length);
-		return weights;
 	}
 	
+	/**
+	 * 多lane累加向量转SimHash
+	 * @param weights
+	 * @param lanes
+	 * @return
+	 */
+	public static long[] toFingerprint(int[] weights, int lanes) {
+		long[] fingerprint = new long[lanes];
+		for (int i = 0; i < lanes << 6; i++) {
+			if (weights[i] > 0) {
+				fingerprint[i >> 6] |= 1L << (i & 63);
+			}
+		}
+		return fingerprint;
+	}
+	
+	/**
+	 * @param bits SimHash 位数
+	 * @return lane 数
+	 */
+	public static int lanes(int bits) {
+		if (bits != 64 && bits != 128 && bits != 256) {
+			throw new IllegalArgumentException("SimHash bits must be 64, 128 or 256, got " + bits);
+		}
+		return bits >> 6;
+	}
 	
 	/**
-	 * 5. 遍历权重数组/向量，正数为1，负数为0
+	 * 5. 生成SimHash, BigInteger(无符号)形式
 	 * @param doc
 	 * @param topN
 	 * @return
@@ -138,20 +387,7 @@ public class SimHash {
 		
 		long begin = System.nanoTime();
 		
-		int[] weights = bitCalculation(doc, topN);
-		
-		if(weights == null || weights.length < 0) {
-			logger.error("weights vector caculation error");
-		}
-		
-		
-		BigInteger simhashCode = BigInteger.ZERO;
-		
-		for (int i = 0; i< BITS_LENGTH; i++) {
-			if (weights[i] > 0) {
-				simhashCode = simhashCode.add(BigInteger.ONE.shiftLeft(i));
-			}	
-		}
+		BigInteger simhashCode = toBigInteger(fingerprint(doc, topN));
 		
 		long end = System.nanoTime();
 		
@@ -159,6 +395,15 @@ public class SimHash {
 		return simhashCode;
 	}
 	
+	/**
+	 * long 形式的 simhash 转换成无符号 BigInteger
+	 * @param fingerprint
+	 * @return
+	 */
+	public static BigInteger toBigInteger(long fingerprint) {
+		return HashFunction.readUnsignedLong(fingerprint).toBigIntegerExact();
+	}
+	
 	/**
 	 * 根据海明距离判断是否相似 
 	 * @param leftHash doc simhash one
@@ -179,21 +424,42 @@ public class SimHash {
 	
 	/**
 	 * 计算汉明距离
-	 * <p>统计x中二进制位数为1的个数</p>
-	 * <p>我们想想，一个二进制数减去1，那么，从最后那个1（包括那个1）后面的数字全都反了，对吧，然后，n&(n-1)就相当于把后面的数字清0，</p>
-	 * <p>我们看n能做多少次这样的操作就OK了。</p>
+	 * <p>统计x中二进制位数为1的个数, 64位以内转为long后由Long.bitCount计算</p>
 	 * @param BigInteger leftHash
 	 * @param BigInteger rightHash
 	 * @return hamming distance
 	 */
 	public static int hammingDistance(BigInteger leftHash, BigInteger rightHash) {
-		BigInteger x = leftHash.xor(rightHash);
+		if (leftHash.signum() >= 0 && rightHash.signum() >= 0
+				&& leftHash.bitLength() <= BITS_LENGTH && rightHash.bitLength() <= BITS_LENGTH) {
+			return hammingDistance(leftHash.longValue(), rightHash.longValue());
+		}
+		return leftHash.xor(rightHash).bitCount();
+	}
+	
+	/**
+	 * 计算汉明距离, 64位 simhash
+	 * @param leftHash
+	 * @param rightHash
+	 * @return hamming distance
+	 */
+	public static int hammingDistance(long leftHash, long rightHash) {
+		return Long.bitCount(leftHash ^ rightHash);
+	}
+	
+	/**
+	 * 计算汉明距离, 多lane simhash
+	 * @param leftHash
+	 * @param rightHash 与leftHash的lane数相同
+	 * @return hamming distance
+	 */
+	public static int hammingDistance(long[] leftHash, long[] rightHash) {
+		if (leftHash.length != rightHash.length) {
+			throw new IllegalArgumentException("simhash widths differ: " + (leftHash.length << 6) + " vs " + (rightHash.length << 6));
+		}
 		int distance = 0;
-		//只要二进制的x不为0,当为0时，二进制中的1全部变为0，退出循环
-		while (x.signum() != 0) {
-			x = x.and(x.subtract(BigInteger.ONE));
-			distance += 1;
-			
+		for (int i = 0; i < leftHash.length; i++) {
+			distance += Long.bitCount(leftHash[i] ^ rightHash[i]);
 		}
 		return distance;
 	}
@@ -0,0 +1,373 @@
+package similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ *
+ * @description
+ * 64位SimHash的多重索引(Manku, Jain, Das Sarma: Detecting Near-Duplicates for Web Crawling)
+ * <p>1.把64位分成B块。两个指纹海明距离不超过k时，至少有B-k块完全相同(抽屉原理)</p>
+ * <p>2.每种B-k块的组合建一张表，以这些块拼接(即置换到高位)后的值为key</p>
+ * <p>3.查询时在每张表中只取key相同的候选，再用Long.bitCount校验距离</p>
+ * <p>表的数量为C(B, k)，key的位数约为64 * (B-k) / B。B越大候选越少，内存越多</p>
+ * <p>读写锁保护：查询可并发，插入/删除互斥</p>
+ */
+public class SimHashIndex {
+
+	private static final int BITS_LENGTH = 64;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final int maxDistance;
+
+	private final Table[] tables;
+
+	/**
+	 * 按槽位存放的指纹与文档id, 删除后的槽位进入freeSlots重用
+	 */
+	private long[] fingerprints;
+	private String[] docIds;
+	private int slotCount;
+	private int[] freeSlots;
+	private int freeCount;
+
+	private final Map<String, Integer> slotOf = new HashMap<String, Integer>();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * 默认分块数 B = k + 2
+	 * @param maxDistance 支持的最大海明距离k
+	 */
+	public SimHashIndex(int maxDistance) {
+		this(maxDistance, maxDistance + 2);
+	}
+
+	/**
+	 * @param maxDistance 支持的最大海明距离k
+	 * @param blocks 分块数B, 必须大于k
+	 */
+	public SimHashIndex(int maxDistance, int blocks) {
+		if (maxDistance < 0 || blocks <= maxDistance || blocks > BITS_LENGTH) {
+			throw new IllegalArgumentException("blocks must be in (maxDistance, 64], got k=" + maxDistance + ", B=" + blocks);
+		}
+		this.maxDistance = maxDistance;
+
+		int[] starts = new int[blocks];
+		int[] widths = new int[blocks];
+		int start = 0;
+		for (int b = 0; b < blocks; b++) {
+			// 前 64 % B 块多分一位
+			widths[b] = BITS_LENGTH / blocks + (b < BITS_LENGTH % blocks ? 1 : 0);
+			starts[b] = start;
+			start += widths[b];
+		}
+
+		List<int[]> combinations = new ArrayList<int[]>();
+		combine(blocks, blocks - maxDistance, 0, new int[blocks - maxDistance], 0, combinations);
+		this.tables = new Table[combinations.size()];
+		for (int t = 0; t < tables.length; t++) {
+			tables[t] = new Table(combinations.get(t), starts, widths, INITIAL_CAPACITY);
+		}
+
+		this.fingerprints = new long[INITIAL_CAPACITY];
+		this.docIds = new String[INITIAL_CAPACITY];
+		this.freeSlots = new int[16];
+	}
+
+	private static void combine(int n, int r, int from, int[] chosen, int depth, List<int[]> out) {
+		if (depth == r) {
+			out.add(chosen.clone());
+			return;
+		}
+		for (int i = from; i <= n - (r - depth); i++) {
+			chosen[depth] = i;
+			combine(n, r, i + 1, chosen, depth + 1, out);
+		}
+	}
+
+	/**
+	 * 插入或替换一个文档的指纹
+	 * @param docId
+	 * @param fingerprint
+	 */
+	public void insert(String docId, long fingerprint) {
+		lock.writeLock().lock();
+		try {
+			Integer old = slotOf.get(docId);
+			if (old != null) {
+				unlink(old);
+			}
+			int slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot();
+			fingerprints[slot] = fingerprint;
+			docIds[slot] = docId;
+			slotOf.put(docId, slot);
+			for (Table table : tables) {
+				table.link(table.key(fingerprint), slot);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 删除文档
+	 * @param docId
+	 * @return 文档存在返回true
+	 */
+	public boolean delete(String docId) {
+		lock.writeLock().lock();
+		try {
+			Integer slot = slotOf.remove(docId);
+			if (slot == null) {
+				return false;
+			}
+			unlink(slot);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 查询海明距离不超过maxDistance的全部文档
+	 * @param fingerprint
+	 * @return docId -> 海明距离
+	 */
+	public Map<String, Integer> query(long fingerprint) {
+		return query(fingerprint, maxDistance);
+	}
+
+	/**
+	 * 查询海明距离不超过k的全部文档
+	 * @param fingerprint
+	 * @param k 不能超过建索引时的maxDistance
+	 * @return docId -> 海明距离, 按距离升序
+	 */
+	public Map<String, Integer> query(long fingerprint, int k) {
+		if (k > maxDistance) {
+			throw new IllegalArgumentException("k=" + k + " exceeds index maxDistance " + maxDistance);
+		}
+		List<long[]> hits = new ArrayList<long[]>();
+		lock.readLock().lock();
+		try {
+			long[] queryKeys = new long[tables.length];
+			for (int t = 0; t < tables.length; t++) {
+				queryKeys[t] = tables[t].key(fingerprint);
+			}
+			for (int t = 0; t < tables.length; t++) {
+				Table table = tables[t];
+				for (int slot = table.head(queryKeys[t]); slot >= 0; slot = table.next[slot]) {
+					long candidate = fingerprints[slot];
+					int distance = Long.bitCount(candidate ^ fingerprint);
+					if (distance > k || seenInEarlierTable(candidate, queryKeys, t)) {
+						continue;
+					}
+					hits.add(new long[] { distance, slot });
+				}
+			}
+			Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+			long[][] sorted = hits.toArray(new long[hits.size()][]);
+			Arrays.sort(sorted, (a, b) -> Long.compare(a[0], b[0]));
+			for (long[] hit : sorted) {
+				result.put(docIds[(int) hit[1]], (int) hit[0]);
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 同一个候选可能在多张表中命中，只在key相同的第一张表中计入
+	 */
+	private boolean seenInEarlierTable(long candidate, long[] queryKeys, int table) {
+		for (int t = 0; t < table; t++) {
+			if (tables[t].key(candidate) == queryKeys[t]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean contains(String docId) {
+		lock.readLock().lock();
+		try {
+			return slotOf.containsKey(docId);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return slotOf.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int getMaxDistance() {
+		return maxDistance;
+	}
+
+	/**
+	 * @return 表的数量 C(B, k)
+	 */
+	public int tableCount() {
+		return tables.length;
+	}
+
+	private int nextSlot() {
+		if (slotCount == fingerprints.length) {
+			int capacity = fingerprints.length << 1;
+			fingerprints = Arrays.copyOf(fingerprints, capacity);
+			docIds = Arrays.copyOf(docIds, capacity);
+			for (Table table : tables) {
+				table.next = Arrays.copyOf(table.next, capacity);
+			}
+		}
+		return slotCount++;
+	}
+
+	private void unlink(int slot) {
+		long fingerprint = fingerprints[slot];
+		for (Table table : tables) {
+			table.unlink(table.key(fingerprint), slot);
+		}
+		docIds[slot] = null;
+		if (freeCount == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, freeCount << 1);
+		}
+		freeSlots[freeCount++] = slot;
+	}
+
+
+	/**
+	 * 一张置换表: 选中的块拼接成key, key -> 槽位链表
+	 * <p>开放寻址的long -> int表, 链表的next存在与槽位等长的int数组中</p>
+	 */
+	private static final class Table {
+
+		// 从未使用的桶
+		private static final int FREE = -1;
+		// key存在但链表为空
+		private static final int EMPTY = -2;
+
+		private final int[] shifts;
+		private final long[] masks;
+		private final int[] widths;
+
+		private long[] keys;
+		private int[] heads;
+		private int used;
+
+		int[] next;
+
+		Table(int[] blocks, int[] starts, int[] blockWidths, int slotCapacity) {
+			shifts = new int[blocks.length];
+			masks = new long[blocks.length];
+			widths = new int[blocks.length];
+			for (int i = 0; i < blocks.length; i++) {
+				shifts[i] = starts[blocks[i]];
+				widths[i] = blockWidths[blocks[i]];
+				masks[i] = widths[i] == BITS_LENGTH ? -1L : (1L << widths[i]) - 1;
+			}
+			keys = new long[16];
+			heads = new int[16];
+			Arrays.fill(heads, FREE);
+			next = new int[slotCapacity];
+		}
+
+		long key(long fingerprint) {
+			long key = 0L;
+			for (int i = 0; i < shifts.length; i++) {
+				key = (key << widths[i]) | ((fingerprint >>> shifts[i]) & masks[i]);
+			}
+			return key;
+		}
+
+		private static int mix(long key) {
+			key *= 0x9E3779B97F4A7C15L;
+			return (int) (key ^ (key >>> 32));
+		}
+
+		private int bucket(long key) {
+			int mask = keys.length - 1;
+			int i = mix(key) & mask;
+			while (heads[i] != FREE && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		int head(long key) {
+			int head = heads[bucket(key)];
+			return head < 0 ? -1 : head;
+		}
+
+		void link(long key, int slot) {
+			int i = bucket(key);
+			if (heads[i] == FREE) {
+				keys[i] = key;
+				used++;
+			}
+			next[slot] = heads[i] < 0 ? -1 : heads[i];
+			heads[i] = slot;
+			if (used * 4 > keys.length * 3) {
+				rehash();
+			}
+		}
+
+		void unlink(long key, int slot) {
+			int i = bucket(key);
+			int prev = -1;
+			for (int s = heads[i]; s >= 0; prev = s, s = next[s]) {
+				if (s == slot) {
+					if (prev < 0) {
+						heads[i] = next[s] < 0 ? EMPTY : next[s];
+					} else {
+						next[prev] = next[s];
+					}
+					return;
+				}
+			}
+		}
+
+		/**
+		 * 扩容, 顺便丢弃链表为空的key
+		 */
+		private void rehash() {
+			long[] oldKeys = keys;
+			int[] oldHeads = heads;
+			int live = 0;
+			for (int head : oldHeads) {
+				if (head >= 0) {
+					live++;
+				}
+			}
+			int capacity = Integer.highestOneBit(Math.max(16, live * 2)) << 1;
+			keys = new long[capacity];
+			heads = new int[capacity];
+			Arrays.fill(heads, FREE);
+			used = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldHeads[i] >= 0) {
+					int b = bucket(oldKeys[i]);
+					keys[b] = oldKeys[i];
+					heads[b] = oldHeads[i];
+					used++;
+				}
+			}
+		}
+	}
+}
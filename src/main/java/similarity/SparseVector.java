@@ -0,0 +1,150 @@
+package similarity;
+
+import java.util.Arrays;
+
+
+/**
+ *
+ * @description
+ * 稀疏向量：按词id升序的int[]加对应的float[]权重，构造时算好L2范数
+ * <p>1.点积是两个有序id数组的线性归并，只在id相同时相乘，代价与两个向量的非零项数之和成正比</p>
+ * <p>2.余弦相似度 = 点积 / (范数 * 范数)，覆盖两个向量的全部项，不只是共有的词</p>
+ * <p>3.id只在同一个词表下可比，不同词典版本得到的向量不能相互比较</p>
+ * <p>构造后只读，可多线程共享</p>
+ */
+public final class SparseVector {
+
+	public static final SparseVector EMPTY = new SparseVector(new int[0], new float[0]);
+
+	private final int[] ids;
+
+	private final float[] weights;
+
+	private final double norm;
+
+	/**
+	 * @param ids 严格升序
+	 * @param weights 与ids等长
+	 */
+	SparseVector(int[] ids, float[] weights) {
+		this.ids = ids;
+		this.weights = weights;
+		double sum = 0.0;
+		for (float w : weights) {
+			sum += (double) w * w;
+		}
+		this.norm = Math.sqrt(sum);
+	}
+
+	/**
+	 * 由任意顺序的(id, 权重)构造，同一id的权重相加，权重为0的项去掉
+	 * @param ids
+	 * @param weights
+	 * @param length 取前length项
+	 * @return
+	 */
+	public static SparseVector of(int[] ids, float[] weights, int length) {
+		if (length == 0) {
+			return EMPTY;
+		}
+		long[] order = new long[length];
+		for (int i = 0; i < length; i++) {
+			order[i] = (long) ids[i] << 32 | i;
+		}
+		Arrays.sort(order);
+		int[] sortedIds = new int[length];
+		float[] sortedWeights = new float[length];
+		int n = 0;
+		for (int k = 0; k < length; k++) {
+			int id = (int) (order[k] >> 32);
+			float w = weights[(int) order[k]];
+			if (n > 0 && sortedIds[n - 1] == id) {
+				sortedWeights[n - 1] += w;
+			} else {
+				sortedIds[n] = id;
+				sortedWeights[n++] = w;
+			}
+		}
+		int m = 0;
+		for (int k = 0; k < n; k++) {
+			if (sortedWeights[k] != 0f) {
+				sortedIds[m] = sortedIds[k];
+				sortedWeights[m++] = sortedWeights[k];
+			}
+		}
+		return new SparseVector(Arrays.copyOf(sortedIds, m), Arrays.copyOf(sortedWeights, m));
+	}
+
+	/**
+	 * 非零项数
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	public int id(int i) {
+		return ids[i];
+	}
+
+	public float weight(int i) {
+		return weights[i];
+	}
+
+	/**
+	 * L2范数
+	 */
+	public double norm() {
+		return norm;
+	}
+
+	/**
+	 * 词id的权重，不存在为0
+	 */
+	public float get(int id) {
+		int i = Arrays.binarySearch(ids, id);
+		return i >= 0 ? weights[i] : 0f;
+	}
+
+	/**
+	 * 归并求点积
+	 */
+	public double dot(SparseVector other) {
+		int[] a = ids, b = other.ids;
+		float[] wa = weights, wb = other.weights;
+		int i = 0, j = 0;
+		double sum = 0.0;
+		while (i < a.length && j < b.length) {
+			int x = a[i], y = b[j];
+			if (x == y) {
+				sum += (double) wa[i++] * wb[j++];
+			} else if (x < y) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * 余弦相似度，任一向量为零向量时为0
+	 */
+	public double cosine(SparseVector other) {
+		if (norm == 0.0 || other.norm == 0.0) {
+			return 0.0;
+		}
+		return dot(other) / (norm * other.norm);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(ids[i]).append('=').append(weights[i]);
+		}
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,414 @@
+package similarity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import similarity.tokenizer.KeyWordExtractor;
+import similarity.tokenizer.jieba.Vocabulary;
+
+
+/**
+ *
+ * @description
+ * 文档tf*idf向量库：每篇文档入库时分词、加权一次，之后的比较只做有序id数组的归并
+ * <p>1.所有向量首尾相接存成一组数组(CSR)：offsets[i]到offsets[i + 1]为第i篇文档在ids/weights中的范围, norms[i]为其范数</p>
+ * <p>2.只追加。同一docId再次入库时追加新向量，旧的不再可见</p>
+ * <p>3.写入互斥；数组与文档数合成一个不可变的State，写完新文档后整体替换volatile的state。读取不加锁，每次调用只读一次state，只看其count以内的文档；count以内的元素写入后不再修改</p>
+ * <p>4.向量的词id只在同一词表下可比。库绑定一个词表，add(docId, text)按该词表计算向量</p>
+ * <p>5.save/load: 文件头(magic, version, 文档数, 非零项数, 词表的词典/IDF表/停用词词数, 词表checksum) + offsets + ids + weights + norms + docId(int长度 + UTF-8字节)，
+ * 载入时内存映射后整块拷贝；文件头中的词表与给定词表不一致时拒绝载入, 需按当前词表重新入库</p>
+ */
+public class VectorStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(VectorStore.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int MAGIC = 0x54465653; // "TFVS"
+
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 36;
+
+	private final Vocabulary vocabulary;
+
+	private volatile State state = new State(new int[65], new int[1024], new float[1024], new double[64], new String[64], 0);
+
+	// docId -> 当前序号, 在state发布之后写入
+	private final Map<String, Integer> ordinals = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * 绑定jieba当前的词表
+	 */
+	public VectorStore() {
+		this(KeyWordExtractor.vocabulary());
+	}
+
+	/**
+	 * @param vocabulary 入库向量的词id所属的词表
+	 */
+	public VectorStore(Vocabulary vocabulary) {
+		if (vocabulary == null) {
+			throw new IllegalArgumentException("vocabulary must not be null");
+		}
+		this.vocabulary = vocabulary;
+	}
+
+	public Vocabulary getVocabulary() {
+		return vocabulary;
+	}
+
+	/**
+	 * 按库绑定的词表分词、计算tf*idf向量后入库
+	 * @param docId
+	 * @param text
+	 * @return 序号
+	 */
+	public int add(String docId, String text) {
+		return add(docId, KeyWordExtractor.tfidfVector(text, -1, vocabulary));
+	}
+
+	/**
+	 * @param docId
+	 * @param vector 按库绑定的词表得到的向量
+	 * @return 序号
+	 */
+	public synchronized int add(String docId, SparseVector vector) {
+		State current = state;
+		int[] offsets = current.offsets;
+		int[] ids = current.ids;
+		float[] weights = current.weights;
+		double[] norms = current.norms;
+		String[] docIds = current.docIds;
+		int n = current.count;
+		int from = offsets[n];
+		int to = from + vector.size();
+		if (n + 1 == norms.length) {
+			int capacity = norms.length << 1;
+			offsets = Arrays.copyOf(offsets, capacity + 1);
+			norms = Arrays.copyOf(norms, capacity);
+			docIds = Arrays.copyOf(docIds, capacity);
+		}
+		if (to > ids.length) {
+			int capacity = Math.max(to, ids.length << 1);
+			ids = Arrays.copyOf(ids, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+		}
+		// 只写count之后的位置, 持有旧state的读者看不到
+		for (int i = 0; i < vector.size(); i++) {
+			ids[from + i] = vector.id(i);
+			weights[from + i] = vector.weight(i);
+		}
+		offsets[n + 1] = to;
+		norms[n] = vector.norm();
+		docIds[n] = docId;
+		state = new State(offsets, ids, weights, norms, docIds, n + 1);
+		ordinals.put(docId, n);
+		return n;
+	}
+
+	/**
+	 * @return 文档数(含被替换的旧向量)
+	 */
+	public int size() {
+		return state.count;
+	}
+
+	/**
+	 * 非零项总数
+	 */
+	public long nonZeros() {
+		State s = state;
+		return s.offsets[s.count];
+	}
+
+	public boolean contains(String docId) {
+		return ordinals.containsKey(docId);
+	}
+
+	/**
+	 * @param docId
+	 * @return 不存在返回-1
+	 */
+	public int ordinal(String docId) {
+		Integer ordinal = ordinals.get(docId);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	public String docId(int ordinal) {
+		State s = state;
+		s.checkOrdinal(ordinal);
+		return s.docIds[ordinal];
+	}
+
+	/**
+	 * 第ordinal篇文档的向量(拷贝)
+	 */
+	public SparseVector vector(int ordinal) {
+		State s = state;
+		s.checkOrdinal(ordinal);
+		int from = s.offsets[ordinal];
+		int to = s.offsets[ordinal + 1];
+		return new SparseVector(Arrays.copyOfRange(s.ids, from, to), Arrays.copyOfRange(s.weights, from, to));
+	}
+
+	/**
+	 * @param docId
+	 * @return 不存在返回null
+	 */
+	public SparseVector vector(String docId) {
+		int ordinal = ordinal(docId);
+		return ordinal < 0 ? null : vector(ordinal);
+	}
+
+	/**
+	 * 两篇已入库文档的余弦相似度
+	 */
+	public double cosine(int a, int b) {
+		State s = state;
+		s.checkOrdinal(a);
+		s.checkOrdinal(b);
+		int[] ids = s.ids;
+		float[] weights = s.weights;
+		double norm = s.norms[a] * s.norms[b];
+		if (norm == 0.0) {
+			return 0.0;
+		}
+		int i = s.offsets[a], iEnd = s.offsets[a + 1];
+		int j = s.offsets[b], jEnd = s.offsets[b + 1];
+		double dot = 0.0;
+		while (i < iEnd && j < jEnd) {
+			int x = ids[i], y = ids[j];
+			if (x == y) {
+				dot += (double) weights[i++] * weights[j++];
+			} else if (x < y) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return dot / norm;
+	}
+
+	/**
+	 * query与第ordinal篇文档的余弦相似度
+	 */
+	public double cosine(SparseVector query, int ordinal) {
+		State s = state;
+		s.checkOrdinal(ordinal);
+		return cosine(s, query, ordinal);
+	}
+
+	private static double cosine(State s, SparseVector query, int ordinal) {
+		double norm = query.norm() * s.norms[ordinal];
+		if (norm == 0.0) {
+			return 0.0;
+		}
+		int[] ids = s.ids;
+		float[] weights = s.weights;
+		int i = 0, iEnd = query.size();
+		int j = s.offsets[ordinal], jEnd = s.offsets[ordinal + 1];
+		double dot = 0.0;
+		while (i < iEnd && j < jEnd) {
+			int x = query.id(i), y = ids[j];
+			if (x == y) {
+				dot += (double) query.weight(i++) * weights[j++];
+			} else if (x < y) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return dot / norm;
+	}
+
+	/**
+	 * @return 任一docId不存在时返回0
+	 */
+	public double cosine(String docId1, String docId2) {
+		int a = ordinal(docId1);
+		int b = ordinal(docId2);
+		return a < 0 || b < 0 ? 0.0 : cosine(a, b);
+	}
+
+	/**
+	 * 扫描全部文档, 返回余弦相似度不低于threshold的文档
+	 * @param query
+	 * @param threshold
+	 * @return docId -> 余弦相似度, 按序号顺序
+	 */
+	public Map<String, Double> search(SparseVector query, double threshold) {
+		Map<String, Double> result = new LinkedHashMap<String, Double>();
+		State s = state;
+		for (int i = 0; i < s.count; i++) {
+			// 已被同一docId更新的入库替换; 序号超出本次state的更新看不到, 也跳过旧的
+			Integer current = ordinals.get(s.docIds[i]);
+			if (current == null || current != i) {
+				continue;
+			}
+			double cosine = cosine(s, query, i);
+			if (cosine >= threshold) {
+				result.put(s.docIds[i], cosine);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 写入文件, 先写临时文件再改名
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(Path file) throws IOException {
+		State s = state;
+		int n = s.count;
+		int nnz = s.offsets[n];
+		byte[][] encoded = new byte[n][];
+		int docIdBytes = 0;
+		for (int i = 0; i < n; i++) {
+			encoded[i] = s.docIds[i].getBytes(UTF_8);
+			docIdBytes += 4 + encoded[i].length;
+		}
+		long size = HEADER_SIZE + 4L * (n + 1) + 8L * nnz + 8L * n + docIdBytes;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("vector store too large to save: " + size + " bytes");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(nnz);
+		buffer.putInt(vocabulary.dictSize()).putInt(vocabulary.idfSize()).putInt(vocabulary.stopSize()).putLong(vocabulary.checksum());
+		buffer.asIntBuffer().put(s.offsets, 0, n + 1);
+		buffer.position(buffer.position() + 4 * (n + 1));
+		buffer.asIntBuffer().put(s.ids, 0, nnz);
+		buffer.position(buffer.position() + 4 * nnz);
+		buffer.asFloatBuffer().put(s.weights, 0, nnz);
+		buffer.position(buffer.position() + 4 * nnz);
+		buffer.asDoubleBuffer().put(s.norms, 0, n);
+		buffer.position(buffer.position() + 8 * n);
+		for (byte[] bytes : encoded) {
+			buffer.putInt(bytes.length).put(bytes);
+		}
+
+		Path absolute = file.toAbsolutePath();
+		Path tmp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tmp)) {
+			out.write(buffer.array());
+		}
+		Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logger.info("vector store saved, {} documents, {} non-zeros", n, nnz);
+	}
+
+	/**
+	 * 按jieba当前的词表载入
+	 * @param file
+	 * @return
+	 * @throws IOException 文件损坏或词表不一致
+	 */
+	public static VectorStore load(Path file) throws IOException {
+		return load(file, KeyWordExtractor.vocabulary());
+	}
+
+	/**
+	 * 内存映射读取save写出的文件
+	 * @param file
+	 * @param vocabulary 文件必须由同一词表下的库写出
+	 * @return 绑定vocabulary的库
+	 * @throws IOException 文件损坏或词表不一致
+	 */
+	public static VectorStore load(Path file, Vocabulary vocabulary) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + ": bad vector store size " + channel.size());
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException(file + ": not a vector store of version " + VERSION);
+		}
+		int n = buffer.getInt();
+		int nnz = buffer.getInt();
+		int dictSize = buffer.getInt();
+		int idfSize = buffer.getInt();
+		int stopSize = buffer.getInt();
+		long checksum = buffer.getLong();
+		if (n < 0 || nnz < 0 || HEADER_SIZE + 4L * (n + 1) + 8L * nnz + 12L * n > buffer.capacity()) {
+			throw new IOException(file + ": corrupt vector store header");
+		}
+		if (dictSize != vocabulary.dictSize() || idfSize != vocabulary.idfSize() || stopSize != vocabulary.stopSize()
+				|| checksum != vocabulary.checksum()) {
+			throw new IOException(String.format("%s: vector store built with another vocabulary (dict %d, idf %d, stop words %d, checksum %016x), "
+					+ "current vocabulary (dict %d, idf %d, stop words %d, checksum %016x)", file, dictSize, idfSize, stopSize, checksum,
+					vocabulary.dictSize(), vocabulary.idfSize(), vocabulary.stopSize(), vocabulary.checksum()));
+		}
+		int[] offsets = new int[n + 1 + 1];
+		buffer.asIntBuffer().get(offsets, 0, n + 1);
+		buffer.position(buffer.position() + 4 * (n + 1));
+		if (offsets[n] != nnz) {
+			throw new IOException(file + ": corrupt vector store offsets");
+		}
+		int[] ids = new int[Math.max(nnz, 1)];
+		buffer.asIntBuffer().get(ids, 0, nnz);
+		buffer.position(buffer.position() + 4 * nnz);
+		float[] weights = new float[Math.max(nnz, 1)];
+		buffer.asFloatBuffer().get(weights, 0, nnz);
+		buffer.position(buffer.position() + 4 * nnz);
+		double[] norms = new double[n + 1];
+		buffer.asDoubleBuffer().get(norms, 0, n);
+		buffer.position(buffer.position() + 8 * n);
+		VectorStore store = new VectorStore(vocabulary);
+		String[] docIds = new String[n + 1];
+		for (int i = 0; i < n; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			docIds[i] = new String(bytes, UTF_8);
+			store.ordinals.put(docIds[i], i);
+		}
+		store.state = new State(offsets, ids, weights, norms, docIds, n);
+		logger.info("vector store loaded, {} documents, {} non-zeros", n, nnz);
+		return store;
+	}
+
+	/**
+	 * 某一时刻的全部文档: 数组可与之后的State共用, 但count以内的元素不再修改
+	 */
+	private static final class State {
+		final int[] offsets;
+		final int[] ids;
+		final float[] weights;
+		final double[] norms;
+		final String[] docIds;
+		final int count;
+
+		State(int[] offsets, int[] ids, float[] weights, double[] norms, String[] docIds, int count) {
+			this.offsets = offsets;
+			this.ids = ids;
+			this.weights = weights;
+			this.norms = norms;
+			this.docIds = docIds;
+			this.count = count;
+		}
+
+		void checkOrdinal(int ordinal) {
+			if (ordinal < 0 || ordinal >= count) {
+				throw new IndexOutOfBoundsException("ordinal " + ordinal + " of " + count);
+			}
+		}
+	}
+}
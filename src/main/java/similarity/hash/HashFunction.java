@@ -1,9 +1,6 @@
 package similarity.hash;
 
 import java.math.BigDecimal;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.charset.Charset;
 
 
 /**
@@ -13,7 +10,11 @@ import java.nio.charset.Charset;
  */
 public class HashFunction {
 	
-	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int SEED = 0x1234ABCD;
+	
+	private static final long M = 0xc6a4a7935bd1e995L;
+	
+	private static final int R = 47;
 	
 	/**
 	 * 返回无符号murmur hash值  
@@ -22,7 +23,7 @@ public class HashFunction {
 	 * 
 	 */
     public static BigDecimal hashUnsigned64(String feature) {  
-        return readUnsignedLong(hash(feature));  
+        return readUnsignedLong(murmur64(feature));  
     }  
 	
     
@@ -39,59 +40,395 @@ public class HashFunction {
     }  
     
     /**
-     * convert String into utf-8 and then execute hash
+     * 64位murmur hash, 以long返回, 位模式与hashUnsigned64一致
+     * <p>直接在字符上做UTF-8编码, 不生成byte数组</p>
      * @param feature
+     * @return hash 值的64位二进制表示
+     */
+    public static long murmur64(String feature) {  
+        return murmur64(feature, 0, feature.length());  
+    }
+    
+    /**
+     * 64位murmur hash, 对byte数组直接计算, 不做任何包装
+     * @param key
      * @return
      */
-    private static Long hash(String feature) {  
-        return hash(feature.getBytes(UTF_8));  
+    public static long murmur64(byte[] key) {
+    	return murmur64(key, 0, key.length);
     }
 	
 	/**
-	 * murmur hash algorithm
+	 * murmur hash algorithm (MurmurHash64A, 小端读取)
+	 * <p>尾部不足8字节时按原ByteBuffer实现的方式对齐到高位, 保证与历史hash值逐位一致</p>
 	 * @param key
+	 * @param offset
+	 * @param length
 	 * @return
 	 */
-	private static Long hash(byte[] key) {  
-  
-        ByteBuffer buf = ByteBuffer.wrap(key);  
-        int seed = 0x1234ABCD;  
-  
-        ByteOrder byteOrder = buf.order();  
-        buf.order(ByteOrder.LITTLE_ENDIAN);  
-  
-        long m = 0xc6a4a7935bd1e995L;  
-        int r = 47;  
-  
-        long h = seed ^ (buf.remaining() * m);  
+	public static long murmur64(byte[] key, int offset, int length) {  
+        long h = SEED ^ (length * M);  
   
-        long k;  
-        while (buf.remaining() >= 8) {  
-            k = buf.getLong();  
-  
-            k *= m;  
-            k ^= k >>> r;  
-            k *= m;  
-  
-            h ^= k;  
-            h *= m;  
+        int i = offset;
+        int end = offset + length;
+        while (end - i >= 8) {  
+            h = mixBlock(h, getLongLE(key, i));
+            i += 8;
         }  
   
-        if (buf.remaining() > 0) {  
-            ByteBuffer finish = ByteBuffer.allocate(8).order(  
-                    ByteOrder.LITTLE_ENDIAN);  
-            // for big-endian version, do this first: 
-            finish.position(8-buf.remaining());  
-            finish.put(buf).rewind();  
-            h ^= finish.getLong();  
-            h *= m;  
-        }  
-  
-        h ^= h >>> r;  
-        h *= m;  
-        h ^= h >>> r;  
-  
-        buf.order(byteOrder);  
-        return h;  
+        long block = 0L;
+        int filled = 0;
+        for (; i < end; i++, filled++) {
+        	block |= (key[i] & 0xffL) << (filled << 3);
+        }
+        return finish(h, block, filled);
     }  
+    
+    /**
+     * 对text[start, end)做64位murmur hash, 结果与 murmur64(text.subSequence(start, end).toString().getBytes(UTF_8)) 一致
+     * <p>UTF-8在循环内逐字符编码, 不完整的代理对与String.getBytes一样编码为'?'; 整个过程不分配对象</p>
+     * @param text
+     * @param start
+     * @param end
+     * @return
+     */
+    public static long murmur64(CharSequence text, int start, int end) {
+    	long h = SEED ^ (utf8Length(text, start, end) * M);
+    	long block = 0L;
+    	int filled = 0;
+    	for (int i = start; i < end;) {
+    		long packed = encodeUtf8(text, i, end);
+    		i += (int) (packed >>> 40);
+    		int encoded = (int) packed;
+    		for (int bytes = (int) (packed >>> 32) & 0xff; bytes > 0; bytes--, encoded >>>= 8) {
+    			block |= (encoded & 0xffL) << (filled << 3);
+    			if (++filled == 8) {
+    				h = mixBlock(h, block);
+    				block = 0L;
+    				filled = 0;
+    			}
+    		}
+    	}
+    	return finish(h, block, filled);
+    }
+    
+    /**
+     * 对chars[offset, offset + length)做64位murmur hash, 与 {@link #murmur64(CharSequence, int, int)} 结果相同
+     * @param chars
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static long murmur64(char[] chars, int offset, int length) {
+    	int end = offset + length;
+    	long h = SEED ^ (utf8Length(chars, offset, end) * M);
+    	long block = 0L;
+    	int filled = 0;
+    	for (int i = offset; i < end;) {
+    		long packed = encodeUtf8(chars, i, end);
+    		i += (int) (packed >>> 40);
+    		int encoded = (int) packed;
+    		for (int bytes = (int) (packed >>> 32) & 0xff; bytes > 0; bytes--, encoded >>>= 8) {
+    			block |= (encoded & 0xffL) << (filled << 3);
+    			if (++filled == 8) {
+    				h = mixBlock(h, block);
+    				block = 0L;
+    				filled = 0;
+    			}
+    		}
+    	}
+    	return finish(h, block, filled);
+    }
+    
+    /**
+     * UTF-16模式: 每个char(code unit)按小端2字节参与hash; 不含不完整代理对时即 murmur64(text.getBytes(UTF_16LE))
+     * <p>不做编码, 比UTF-8模式快, 但与UTF-8模式及历史hash值不兼容。该模式的定义固定不变, 可用于持久化的指纹</p>
+     * @param text
+     * @param start
+     * @param end
+     * @return
+     */
+    public static long murmur64Utf16(CharSequence text, int start, int end) {
+    	long h = SEED ^ ((long) (end - start) * 2 * M);
+    	int i = start;
+    	for (; end - i >= 4; i += 4) {
+    		h = mixBlock(h, text.charAt(i)
+    				| (long) text.charAt(i + 1) << 16
+    				| (long) text.charAt(i + 2) << 32
+    				| (long) text.charAt(i + 3) << 48);
+    	}
+    	long block = 0L;
+    	int filled = 0;
+    	for (; i < end; i++, filled += 2) {
+    		block |= (long) text.charAt(i) << (filled << 3);
+    	}
+    	return finish(h, block, filled);
+    }
+    
+    /**
+     * UTF-8编码后的字节数, 不完整的代理对计1字节('?')
+     */
+    public static int utf8Length(CharSequence text, int start, int end) {
+    	int length = 0;
+    	for (int i = start; i < end;) {
+    		long packed = encodeUtf8(text, i, end);
+    		i += (int) (packed >>> 40);
+    		length += (int) (packed >>> 32) & 0xff;
+    	}
+    	return length;
+    }
+    
+    private static int utf8Length(char[] chars, int start, int end) {
+    	int length = 0;
+    	for (int i = start; i < end;) {
+    		long packed = encodeUtf8(chars, i, end);
+    		i += (int) (packed >>> 40);
+    		length += (int) (packed >>> 32) & 0xff;
+    	}
+    	return length;
+    }
+    
+    /**
+     * 对位置i的字符做UTF-8编码
+     * @return 低32位为编码后的字节(小端), 32~39位为字节数, 40位以上为消耗的char数
+     */
+    private static long encodeUtf8(CharSequence text, int i, int end) {
+    	char c = text.charAt(i);
+    	if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+    		return encodeSupplementary(Character.toCodePoint(c, text.charAt(i + 1)));
+    	}
+    	return encodeBmp(c);
+    }
+    
+    private static long encodeUtf8(char[] chars, int i, int end) {
+    	char c = chars[i];
+    	if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+    		return encodeSupplementary(Character.toCodePoint(c, chars[i + 1]));
+    	}
+    	return encodeBmp(c);
+    }
+    
+    private static long encodeBmp(char c) {
+    	if (c < 0x80) {
+    		return 1L << 40 | 1L << 32 | c;
+    	}
+    	if (c < 0x800) {
+    		return 1L << 40 | 2L << 32 | (0xc0 | (c >> 6)) | (0x80 | (c & 0x3f)) << 8;
+    	}
+    	if (Character.isSurrogate(c)) {
+    		// 不完整的代理对
+    		return 1L << 40 | 1L << 32 | '?';
+    	}
+    	return 1L << 40 | 3L << 32
+    			| (0xe0 | (c >> 12)) | (0x80 | ((c >> 6) & 0x3f)) << 8 | (0x80 | (c & 0x3f)) << 16;
+    }
+    
+    private static long encodeSupplementary(int codePoint) {
+    	return 2L << 40 | 4L << 32 | (((0xf0 | (codePoint >> 18))
+    			| (0x80 | ((codePoint >> 12) & 0x3f)) << 8
+    			| (0x80 | ((codePoint >> 6) & 0x3f)) << 16
+    			| (0x80 | (codePoint & 0x3f)) << 24) & 0xffffffffL);
+    }
+    
+    private static long mixBlock(long h, long k) {
+    	k *= M;  
+    	k ^= k >>> R;  
+    	k *= M;  
+    	h ^= k;  
+    	return h * M;
+    }
+    
+    /**
+     * 尾部字节对齐到8字节块的高位(与原ByteBuffer实现一致), 再做最终的混合
+     */
+    private static long finish(long h, long block, int filled) {
+    	if (filled > 0) {
+    		h ^= block << ((8 - filled) << 3);
+    		h *= M;
+    	}
+    	h ^= h >>> R;  
+    	h *= M;  
+    	h ^= h >>> R;  
+    	return h;
+    }
+    
+    private static final long C1 = 0x87c37b91114253d5L;
+    
+    private static final long C2 = 0x4cf5ad432745937fL;
+    
+    /**
+     * MurmurHash3 x64_128, 128位结果写入out[outOffset], out[outOffset + 1] (h1, h2)
+     * <p>与参考实现(seed按uint32)逐位一致, 非负seed时与Guava的Hashing.murmur3_128(seed)一致, 不分配任何对象</p>
+     * @param key
+     * @param offset
+     * @param length
+     * @param seed
+     * @param out
+     * @param outOffset
+     */
+    public static void murmur3_128(byte[] key, int offset, int length, int seed, long[] out, int outOffset) {
+    	long h1 = seed & 0xffffffffL;
+    	long h2 = seed & 0xffffffffL;
+    	
+    	int i = offset;
+    	int end = offset + length;
+    	while (end - i >= 16) {
+    		long k1 = getLongLE(key, i);
+    		long k2 = getLongLE(key, i + 8);
+    		i += 16;
+    		
+    		h1 ^= mixK1(k1);
+    		h1 = Long.rotateLeft(h1, 27);
+    		h1 += h2;
+    		h1 = h1 * 5 + 0x52dce729;
+    		
+    		h2 ^= mixK2(k2);
+    		h2 = Long.rotateLeft(h2, 31);
+    		h2 += h1;
+    		h2 = h2 * 5 + 0x38495ab5;
+    	}
+    	
+    	int remaining = end - i;
+    	if (remaining > 0) {
+    		long k1 = 0L;
+    		long k2 = 0L;
+    		for (int j = remaining - 1; j >= 8; j--) {
+    			k2 = (k2 << 8) | (key[i + j] & 0xffL);
+    		}
+    		for (int j = Math.min(remaining, 8) - 1; j >= 0; j--) {
+    			k1 = (k1 << 8) | (key[i + j] & 0xffL);
+    		}
+    		h1 ^= mixK1(k1);
+    		h2 ^= mixK2(k2);
+    	}
+    	
+    	h1 ^= length;
+    	h2 ^= length;
+    	
+    	h1 += h2;
+    	h2 += h1;
+    	
+    	h1 = fmix64(h1);
+    	h2 = fmix64(h2);
+    	
+    	h1 += h2;
+    	h2 += h1;
+    	
+    	out[outOffset] = h1;
+    	out[outOffset + 1] = h2;
+    }
+    
+    /**
+     * MurmurHash3 x64_128 of text[start, end), UTF-8在循环内编码, 与对getBytes(UTF_8)的结果一致, 不分配对象
+     * @param text
+     * @param start
+     * @param end
+     * @param seed
+     * @param out
+     * @param outOffset
+     */
+    public static void murmur3_128(CharSequence text, int start, int end, int seed, long[] out, int outOffset) {
+    	long h1 = seed & 0xffffffffL;
+    	long h2 = seed & 0xffffffffL;
+    	long k1 = 0L;
+    	long k2 = 0L;
+    	int filled = 0;
+    	int length = 0;
+    	for (int i = start; i < end;) {
+    		long packed = encodeUtf8(text, i, end);
+    		i += (int) (packed >>> 40);
+    		int encoded = (int) packed;
+    		for (int bytes = (int) (packed >>> 32) & 0xff; bytes > 0; bytes--, encoded >>>= 8, length++) {
+    			if (filled < 8) {
+    				k1 |= (encoded & 0xffL) << (filled << 3);
+    			} else {
+    				k2 |= (encoded & 0xffL) << ((filled - 8) << 3);
+    			}
+    			if (++filled == 16) {
+    				h1 ^= mixK1(k1);
+    				h1 = Long.rotateLeft(h1, 27);
+    				h1 += h2;
+    				h1 = h1 * 5 + 0x52dce729;
+    				
+    				h2 ^= mixK2(k2);
+    				h2 = Long.rotateLeft(h2, 31);
+    				h2 += h1;
+    				h2 = h2 * 5 + 0x38495ab5;
+    				k1 = 0L;
+    				k2 = 0L;
+    				filled = 0;
+    			}
+    		}
+    	}
+    	if (filled > 0) {
+    		h1 ^= mixK1(k1);
+    		h2 ^= mixK2(k2);
+    	}
+    	
+    	h1 ^= length;
+    	h2 ^= length;
+    	
+    	h1 += h2;
+    	h2 += h1;
+    	
+    	h1 = fmix64(h1);
+    	h2 = fmix64(h2);
+    	
+    	h1 += h2;
+    	h2 += h1;
+    	
+    	out[outOffset] = h1;
+    	out[outOffset + 1] = h2;
+    }
+    
+    /**
+     * MurmurHash3 x64_128 of String (UTF-8)
+     * @param feature
+     * @param seed
+     * @return {h1, h2}
+     */
+    public static long[] murmur3_128(String feature, int seed) {
+    	long[] out = new long[2];
+    	murmur3_128(feature, 0, feature.length(), seed, out, 0);
+    	return out;
+    }
+    
+    private static long getLongLE(byte[] key, int i) {
+    	return (key[i] & 0xffL)
+    			| (key[i + 1] & 0xffL) << 8
+    			| (key[i + 2] & 0xffL) << 16
+    			| (key[i + 3] & 0xffL) << 24
+    			| (key[i + 4] & 0xffL) << 32
+    			| (key[i + 5] & 0xffL) << 40
+    			| (key[i + 6] & 0xffL) << 48
+    			| (key[i + 7] & 0xffL) << 56;
+    }
+    
+    private static long mixK1(long k1) {
+    	k1 *= C1;
+    	k1 = Long.rotateLeft(k1, 31);
+    	k1 *= C2;
+    	return k1;
+    }
+    
+    private static long mixK2(long k2) {
+    	k2 *= C2;
+    	k2 = Long.rotateLeft(k2, 33);
+    	k2 *= C1;
+    	return k2;
+    }
+    
+    /**
+     * MurmurHash3的64位finalizer, 把输入的每一位扩散到全部64位
+     * @param k
+     * @return
+     */
+    public static long fmix64(long k) {
+    	k ^= k >>> 33;
+    	k *= 0xff51afd7ed558ccdL;
+    	k ^= k >>> 33;
+    	k *= 0xc4ceb9fe1a85ec53L;
+    	k ^= k >>> 33;
+    	return k;
+    }
 }
@@ -0,0 +1,51 @@
+package similarity.multithread;
+
+import java.util.Collections;
+import java.util.Map;
+
+import similarity.ConcurrentUnionFind;
+import similarity.NearDuplicateClusterer;
+
+
+/**
+ * 
+ * @description 近似重复聚类的一轮(pass)。各轮共用同一个无锁并查集，可由多个worker同时执行
+ */
+public class ClusterJob extends Job {
+	
+	private String jobId;
+	private NearDuplicateClusterer clusterer;
+	private int pass;
+	private ConcurrentUnionFind unionFind;
+	
+	
+
+	public ClusterJob(String jobId, NearDuplicateClusterer clusterer, int pass, ConcurrentUnionFind unionFind) {
+		super.setJobId(jobId);
+		this.jobId = jobId;
+		this.clusterer = clusterer;
+		this.pass = pass;
+		this.unionFind = unionFind;
+	}
+
+	/**
+	 * @return jobId -> 本轮新合并的次数
+	 */
+	@Override
+	public Map<String, Integer> calcClusters() {
+		return Collections.singletonMap(jobId, clusterer.runPass(pass, unionFind));
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public void setJobId(String jobId) {
+		this.jobId = jobId;
+	}
+
+	public int getPass() {
+		return pass;
+	}
+
+}
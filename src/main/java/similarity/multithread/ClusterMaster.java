@@ -0,0 +1,70 @@
+package similarity.multithread;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import similarity.ConcurrentUnionFind;
+import similarity.NearDuplicateClusterer;
+
+/**
+ * 
+ * @description
+ *     reduce process of near-duplicate clustering. Each pass of the clusterer is one job,
+ *     all jobs share a lock-free union-find, the result is a cluster id per document
+ */
+public class ClusterMaster extends Master<Map<String, Integer>> {
+	
+	private final String[] docIds;
+	
+	private final NearDuplicateClusterer clusterer;
+	
+	private final ConcurrentUnionFind unionFind;
+
+	/**
+	 * @param worker
+	 * @param workerCount
+	 * @param docIds docIds[i] 对应 fingerprints[i]
+	 * @param fingerprints 64位 simhash
+	 * @param maxDistance 海明距离阀值
+	 */
+	public ClusterMaster(Worker<Map<String, Integer>> worker, int workerCount, String[] docIds, long[] fingerprints, int maxDistance) {
+		super(worker, workerCount);
+		if (docIds.length != fingerprints.length) {
+			throw new IllegalArgumentException("docIds and fingerprints must have the same length");
+		}
+		this.docIds = docIds;
+		this.clusterer = new NearDuplicateClusterer(fingerprints, maxDistance);
+		this.unionFind = new ConcurrentUnionFind(fingerprints.length);
+	}
+	
+	/**
+	 * 每一轮提交为一个job
+	 */
+	public void submitPasses() {
+		for (int pass = 0; pass < clusterer.passCount(); pass++) {
+			submit(new ClusterJob("pass-" + pass, clusterer, pass, unionFind));
+		}
+	}
+
+	/**
+	 * @return docId -> 簇id(簇中最小的文档序号), 只有一个文档的簇也会输出
+	 */
+	@Override
+	public Map<String, Integer> processMultiResult() {
+		int merged = 0;
+		for (Entry<String, Map<String, Integer>> me : super.resultMap.entrySet()) {
+			for (Integer count : me.getValue().values()) {
+				merged += count;
+			}
+		}
+		int[] roots = unionFind.roots();
+		Map<String, Integer> result = new HashMap<>(roots.length * 4 / 3 + 1);
+		for (int i = 0; i < roots.length; i++) {
+			result.put(docIds[i], roots[i]);
+		}
+		System.out.println("total size: " + result.size() + ", clusters: " + (roots.length - merged));
+		return result;
+	}
+
+}
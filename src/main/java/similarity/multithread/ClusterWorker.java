@@ -0,0 +1,32 @@
+package similarity.multithread;
+
+import java.util.Map;
+
+public class ClusterWorker extends Worker<Map<String, Integer>> {
+
+	private Map<String, Integer> result;
+	
+	@Override
+	public void run() {
+		// retrieve job from jobQueue
+		while (true) {
+			Job job = super.jobQueue.poll();
+
+			if (job == null)
+				break;
+			
+			if (job instanceof ClusterJob) {
+				result = handle(job);
+				super.resultMap.put(job.getJobId(), result);
+			}
+
+		}
+	}
+
+	@Override
+	public Map<String, Integer> handle(Job job) {
+		result = job.calcClusters();
+		return result;
+	}
+	
+}
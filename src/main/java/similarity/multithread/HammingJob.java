@@ -1,9 +1,13 @@
 package similarity.multithread;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import similarity.FingerprintStore;
+import similarity.HammingKernel;
 import similarity.SimHash;
 
 
@@ -14,6 +18,18 @@ public class HammingJob extends Job {
 	private BigInteger base;
 	private Map<String,BigInteger> compare;
 	
+	/**
+	 * 按列存放的语料指纹, docIds[i] 对应 fingerprints[i]
+	 */
+	private String[] docIds;
+	private long[] fingerprints;
+	private int threshold = 64;
+	
+	/**
+	 * 堆外的持久化指纹库
+	 */
+	private FingerprintStore store;
+	
 
 	
 	public HammingJob(String jobId, BigInteger base, Map<String, BigInteger> compare) {
@@ -23,13 +39,62 @@ public class HammingJob extends Job {
 		this.compare = compare;
 	}
 	
+	/**
+	 * 按列计算：整列指纹交给 HammingKernel 扫描，只有距离不超过threshold的文档进入结果
+	 * @param jobId
+	 * @param base 64位 simhash
+	 * @param docIds
+	 * @param fingerprints 与docIds等长
+	 * @param threshold 海明距离阀值，64表示全部输出
+	 */
+	public HammingJob(String jobId, long base, String[] docIds, long[] fingerprints, int threshold) {
+		if (docIds.length != fingerprints.length) {
+			throw new IllegalArgumentException("docIds and fingerprints must have the same length");
+		}
+		super.setJobId(jobId);
+		this.jobId = jobId;
+		this.base = SimHash.toBigInteger(base);
+		this.docIds = docIds;
+		this.fingerprints = fingerprints;
+		this.threshold = threshold;
+	}
+	
 	private static class Container {
 		private static final ConcurrentHashMap<String, Integer> distanceMap = new ConcurrentHashMap<>();
 	}
 
 
+	/**
+	 * 直接扫描内存映射的指纹库，不把指纹加载到堆内
+	 * @param jobId
+	 * @param base 64位 simhash
+	 * @param store
+	 * @param threshold 海明距离阀值
+	 */
+	public HammingJob(String jobId, long base, FingerprintStore store, int threshold) {
+		super.setJobId(jobId);
+		this.jobId = jobId;
+		this.base = SimHash.toBigInteger(base);
+		this.store = store;
+		this.threshold = threshold;
+	}
+
+
 	@Override
 	public Map<String, Integer> calcHammingDistance() {
+		
+		if (store != null) {
+			try {
+				Container.distanceMap.putAll(store.search(base.longValue(), threshold));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return Container.distanceMap;
+		}
+		
+		if (fingerprints != null) {
+			return calcColumnHammingDistance();
+		}
 
 		int distance = 0;
 		for (Map.Entry<String, BigInteger> iterator : compare.entrySet()) {
@@ -39,6 +104,21 @@ public class HammingJob extends Job {
 		return Container.distanceMap;
 	}
 	
+	private Map<String, Integer> calcColumnHammingDistance() {
+		long query = base.longValue();
+		int[] hits = new int[threshold >= 64 ? fingerprints.length : Math.min(fingerprints.length, 1024)];
+		int count = HammingKernel.withinThreshold(query, fingerprints, 0, fingerprints.length, threshold, hits);
+		if (count > hits.length) {
+			hits = new int[count];
+			HammingKernel.withinThreshold(query, fingerprints, 0, fingerprints.length, threshold, hits);
+		}
+		for (int i = 0; i < count; i++) {
+			int index = hits[i];
+			Container.distanceMap.put(docIds[index], SimHash.hammingDistance(query, fingerprints[index]));
+		}
+		return Container.distanceMap;
+	}
+	
 	
 	public String getJobId() {
 		return jobId;
@@ -64,4 +144,20 @@ public class HammingJob extends Job {
 		this.compare = compare;
 	}
 
+	public String[] getDocIds() {
+		return docIds;
+	}
+
+	public long[] getFingerprints() {
+		return fingerprints;
+	}
+
+	public FingerprintStore getStore() {
+		return store;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
 }
@@ -29,5 +29,9 @@ public abstract class Job {
 	public Map<String, BigInteger> calcSimhashCode(){return null;};
 	
 	public Map<String, Double> calcCosinSimilarity(){return null;};
+	
+	public Map<String, Double> calcJaccardSimilarity(){return null;};
+	
+	public Map<String, Integer> calcClusters(){return null;};
 
 }
@@ -0,0 +1,108 @@
+package similarity.multithread;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import similarity.MinHash;
+import similarity.MinHashLSHIndex;
+
+
+/**
+ * 
+ * @description MinHash估计Jaccard相似度的job。可对给定文本逐个比较，也可在LSH索引中只比较候选
+ */
+public class MinHashJob extends Job {
+	
+	private String jobId;
+	private String base;
+	private Map<String,String> compare;
+	private MinHash minHash;
+	private int shingleSize = 1;
+	
+	private long[] baseSignature;
+	private MinHashLSHIndex index;
+	private double threshold;
+	
+	
+
+	/**
+	 * 逐个比较：base与compare中每篇文本分词后计算签名
+	 * @param jobId
+	 * @param base
+	 * @param compare
+	 * @param minHash
+	 * @param shingleSize 词的shingle长度
+	 */
+	public MinHashJob(String jobId, String base, Map<String, String> compare, MinHash minHash, int shingleSize) {
+		super.setJobId(jobId);
+		this.jobId = jobId;
+		this.base = base;
+		this.compare = compare;
+		this.minHash = minHash;
+		this.shingleSize = shingleSize;
+	}
+	
+	/**
+	 * 索引查询：只比较LSH候选，候选数与语料规模无关
+	 * @param jobId
+	 * @param baseSignature
+	 * @param index
+	 * @param threshold Jaccard阀值
+	 */
+	public MinHashJob(String jobId, long[] baseSignature, MinHashLSHIndex index, double threshold) {
+		super.setJobId(jobId);
+		this.jobId = jobId;
+		this.baseSignature = baseSignature;
+		this.index = index;
+		this.threshold = threshold;
+	}
+	
+	private static class Container {
+		private static final ConcurrentHashMap<String, Double> jaccardMap = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public Map<String, Double> calcJaccardSimilarity() {
+		if (index != null) {
+			Container.jaccardMap.putAll(index.query(baseSignature, threshold));
+			return Container.jaccardMap;
+		}
+		long[] signature = minHash.signature(base, shingleSize);
+		for (Map.Entry<String, String> me : compare.entrySet()) {
+			Container.jaccardMap.put(me.getKey(), MinHash.jaccard(signature, minHash.signature(me.getValue(), shingleSize)));
+		}
+		return Container.jaccardMap;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public void setJobId(String jobId) {
+		this.jobId = jobId;
+	}
+
+	public String getBase() {
+		return base;
+	}
+
+	public void setBase(String base) {
+		this.base = base;
+	}
+
+	public Map<String, String> getCompare() {
+		return compare;
+	}
+
+	public void setCompare(Map<String, String> compare) {
+		this.compare = compare;
+	}
+
+	public long[] getBaseSignature() {
+		return baseSignature;
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+}
@@ -0,0 +1,30 @@
+package similarity.multithread;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import common.MapUtil;
+
+/**
+ * 
+ * @description
+ *     reduce process of Jaccard similarity estimated by MinHash
+ */
+public class MinHashMaster extends Master<Map<String, Double>>{
+
+	public MinHashMaster(Worker<Map<String, Double>> worker, int workerCount) {
+		super(worker, workerCount);
+	}
+
+	@Override
+	public Map<String, Double> processMultiResult() {
+		Map<String, Double> result = new HashMap<>();
+		for(Entry<String, Map<String, Double>> me : super.resultMap.entrySet()){
+			result.putAll(me.getValue());
+		}
+		System.out.println("total size: " + result.size());
+		return MapUtil.sortByValue(result);
+	}
+
+}
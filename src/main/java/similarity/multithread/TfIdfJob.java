@@ -3,6 +3,9 @@ package similarity.multithread;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import similarity.InvertedIndex;
+import similarity.SparseVector;
+import similarity.VectorStore;
 import similarity.tokenizer.KeyWordExtractor;
 
 
@@ -11,6 +14,12 @@ public class TfIdfJob extends Job {
 	private String base;
 	private Map<String,String> compare;
 	
+	private SparseVector baseVector;
+	private VectorStore store;
+	private double threshold;
+	private InvertedIndex index;
+	private int topK;
+	
 
 	
 	public TfIdfJob(String jobId, String base, Map<String, String> compare) {
@@ -20,15 +29,54 @@ public class TfIdfJob extends Job {
 		this.compare = compare;
 	}
 	
+	/**
+	 * 向量库查询：库中文档入库时已算好向量，只做归并
+	 * @param jobId
+	 * @param baseVector
+	 * @param store
+	 * @param threshold 余弦相似度阀值
+	 */
+	public TfIdfJob(String jobId, SparseVector baseVector, VectorStore store, double threshold) {
+		super.setJobId(jobId);
+		this.jobId = jobId;
+		this.baseVector = baseVector;
+		this.store = store;
+		this.threshold = threshold;
+	}
+	
+	/**
+	 * 倒排索引查询：只返回余弦相似度最高的topK篇, 大部分倒排项被跳过
+	 * @param jobId
+	 * @param baseVector
+	 * @param index
+	 * @param topK
+	 */
+	public TfIdfJob(String jobId, SparseVector baseVector, InvertedIndex index, int topK) {
+		super.setJobId(jobId);
+		this.jobId = jobId;
+		this.baseVector = baseVector;
+		this.index = index;
+		this.topK = topK;
+	}
+	
 	private static class Container {
 		private static final ConcurrentHashMap<String, Double> cosinMap = new ConcurrentHashMap<>();
 	}
 
 	@Override
 	public Map<String, Double> calcCosinSimilarity() {
+		if (index != null) {
+			Container.cosinMap.putAll(index.search(baseVector, topK));
+			return Container.cosinMap;
+		}
+		if (store != null) {
+			Container.cosinMap.putAll(store.search(baseVector, threshold));
+			return Container.cosinMap;
+		}
 		double cosin = 0.0;
+		SparseVector vector = KeyWordExtractor.tfidfVector(base, -1);
 		for (Map.Entry<String, String> me : compare.entrySet()) {
-			cosin = KeyWordExtractor.calcSimilarity(base, me.getValue(), -1);
+			cosin = vector.cosine(KeyWordExtractor.tfidfVector(me.getValue(), -1));
 			Container.cosinMap.put(me.getKey(), cosin);
 		}
 		return Container.cosinMap;
@@ -9,10 +9,11 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.fnlp.util.exception.LoadModelException;
-import org.ujmp.core.Matrix;
 
+import similarity.SparseVector;
 import similarity.tokenizer.fnlp.FNLP;
 import similarity.tokenizer.jieba.JiebaNLP;
+import similarity.tokenizer.jieba.Vocabulary;
 import similarity.tokenizer.jieba.keyword.KeywordWeightPair;
 
 /**
@@ -179,37 +180,47 @@ public class KeyWordExtractor {
 		return ArrayUtils.toPrimitive(tokenWeight.toArray(new Integer[count]));
 	}
 	
+	/**
+	 * tf*idf稀疏向量，同一篇文档与多篇比较时只需计算一次
+	 * @param text
+	 * @param topN -1为全部分词
+	 * @return
+	 */
+	public static SparseVector tfidfVector(String text, int topN) {
+		return JiebaNLP.JiebaExtractor().tfidfVector(text, topN);
+	}
+	
+	/**
+	 * @param text
+	 * @param topN -1为全部分词
+	 * @param vocabulary 计算使用的词表, 如向量库绑定的词表
+	 * @return
+	 */
+	public static SparseVector tfidfVector(String text, int topN, Vocabulary vocabulary) {
+		return JiebaNLP.JiebaExtractor().tfidfVector(text, topN, vocabulary);
+	}
+	
+	/**
+	 * jieba当前的词表, tfidfVector得到的词id以此为准
+	 * @return
+	 */
+	public static Vocabulary vocabulary() {
+		return JiebaNLP.JiebaExtractor().vocabulary();
+	}
+	
 	/**
 	 * @TODO 改成多线程，利用多核提高并行度，提高速度
 	 * @param text1 - text to calc
 	 * @param text2 - another text to calc
 	 * @param topN - tokenize topN terms. It is strongly recommended to set topN as '-1' to extract all terms
-	 * @return cosineSimilarity
+	 * @return cosineSimilarity of the full tf*idf vectors, not only the shared terms
 	 */
 	public static double calcSimilarity(String text1, String text2, int topN){
 		long s = System.currentTimeMillis();
-		Map<String, Double> doc1 = JiebaNLP.JiebaExtractor().calc_tfidf(text1, topN);
-		Map<String, Double> doc2 = JiebaNLP.JiebaExtractor().calc_tfidf(text2, topN);
-		
-		List<String> commonStr = new ArrayList<String>();
-		for (Map.Entry<String, Double> me : doc1.entrySet()) {
-			if (doc2.containsKey(me.getKey())) {
-				commonStr.add(me.getKey());
-			}
-		}
-		int size = commonStr.size();
-		double[] arr1 = new double[size];
-		double[] arr2 = new double[size];
-		
-		for (int i = 0; i < size; i++) {
-			arr1[i] = doc1.get(commonStr.get(i));
-			arr2[i] = doc2.get(commonStr.get(i));
-		}
-		commonStr = null;
-		doc1 = null;
-		doc2 = null;
+		SparseVector doc1 = tfidfVector(text1, topN);
+		SparseVector doc2 = tfidfVector(text2, topN);
 		
-		double result = Matrix.Factory.importFromArray(arr1).cosineSimilarityTo(Matrix.Factory.importFromArray(arr2), true);
+		double result = doc1.cosine(doc2);
 		
 		System.out.println(
 				String.format(Locale.getDefault(), "Similarity calc based on TFIDF and Cosin finished, CosinSimilarity:%s, time elapsed:%dms",
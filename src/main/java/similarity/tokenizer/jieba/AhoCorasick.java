@@ -0,0 +1,131 @@
+package similarity.tokenizer.jieba;
+
+import java.util.Arrays;
+
+
+/**
+ * 在双数组trie上加失败指针的Aho-Corasick自动机，一次扫描找出文本中所有的词典词
+ * <p>1.按深度从浅到深计算fail[s]: s对应的字符串在trie中最长的真后缀所在的状态</p>
+ * <p>2.output[s]: 沿失败链遇到的第一个词尾状态。到达s时依次输出s(若为词尾)、output[s]、output[output[s]]...</p>
+ * <p>3.每个字符均摊O(1)次转移，扫描代价与文本长度加命中数成正比，不再从每个位置重新走trie</p>
+ * <p>构造后只读，可多线程共享</p>
+ */
+public class AhoCorasick {
+
+    private static final int ROOT = DoubleArrayTrie.ROOT;
+
+    private final DoubleArrayTrie trie;
+
+    private final int[] fail;
+
+    private final int[] output;
+
+    // 状态的深度, 即对应字符串的长度
+    private final int[] depth;
+
+
+    public AhoCorasick(DoubleArrayTrie trie) {
+        this.trie = trie;
+        int capacity = trie.capacity();
+        depth = new int[capacity];
+        fail = new int[capacity];
+        output = new int[capacity];
+        Arrays.fill(depth, -1);
+        depth[ROOT] = 0;
+
+        // 子状态的下标可能比父状态小, 沿check[]向上找到已知深度的祖先再回填
+        int maxDepth = 0;
+        for (int s = 1; s < capacity; s++) {
+            if (depth[s] >= 0 || trie.parent(s) < 0)
+                continue;
+            int steps = 0;
+            int u = s;
+            while (depth[u] < 0) {
+                u = trie.parent(u);
+                steps++;
+            }
+            int d = depth[u] + steps;
+            maxDepth = Math.max(maxDepth, d);
+            for (u = s; depth[u] < 0; u = trie.parent(u))
+                depth[u] = d--;
+        }
+
+        // 按深度计数排序, 保证计算fail[s]时更浅的状态都已算好
+        int[] offsets = new int[maxDepth + 2];
+        for (int s = 1; s < capacity; s++) {
+            if (depth[s] > 0)
+                offsets[depth[s] + 1]++;
+        }
+        for (int d = 1; d < offsets.length; d++)
+            offsets[d] += offsets[d - 1];
+        int[] order = new int[offsets[maxDepth + 1]];
+        for (int s = 1; s < capacity; s++) {
+            if (depth[s] > 0)
+                order[offsets[depth[s]]++] = s;
+        }
+
+        fail[ROOT] = ROOT;
+        output[ROOT] = -1;
+        for (int s : order) {
+            int parent = trie.parent(s);
+            int f = ROOT;
+            if (parent != ROOT) {
+                int code = trie.codeOf(s);
+                f = fail[parent];
+                int next;
+                while ((next = trie.child(f, code)) < 0 && f != ROOT)
+                    f = fail[f];
+                f = next < 0 ? ROOT : next;
+            }
+            fail[s] = f;
+            output[s] = trie.isTerminal(f) ? f : output[f];
+        }
+    }
+
+
+    public DoubleArrayTrie getTrie() {
+        return trie;
+    }
+
+
+    /**
+     * 找出text[begin, end)中所有的词典词
+     * <p>按结束位置从小到大输出, 结束位置相同时从长到短</p>
+     *
+     * @param text
+     * @param begin
+     * @param end
+     * @param starts
+     *            每个命中词第一个字符的下标
+     * @param ends
+     *            最后一个字符的下标
+     * @param ids
+     *            词id
+     * @return 命中数(可能大于starts.length, 此时只写入了前starts.length个)
+     */
+    public int match(char[] text, int begin, int end, int[] starts, int[] ends, int[] ids) {
+        int limit = Math.min(starts.length, Math.min(ends.length, ids.length));
+        int count = 0;
+        int state = ROOT;
+        for (int i = begin; i < end; i++) {
+            int code = trie.code(text[i]);
+            if (code == 0) {
+                state = ROOT;
+                continue;
+            }
+            int next;
+            while ((next = trie.child(state, code)) < 0 && state != ROOT)
+                state = fail[state];
+            state = next < 0 ? ROOT : next;
+            for (int s = trie.isTerminal(state) ? state : output[state]; s >= 0; s = output[s]) {
+                if (count < limit) {
+                    starts[count] = i - depth[s] + 1;
+                    ends[count] = i;
+                    ids[count] = trie.id(s);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -3,71 +3,139 @@ package similarity.tokenizer.jieba;
 import java.util.regex.Pattern;
 
 
+/**
+ * 字符分类与规范化, 按字符查预先算好的65536项表
+ * <p>1.TYPES[ch]为字符类别的位标志, SEGMENTABLE位表示regularize(ch)可切分, 规范化和判断只需各查一次表</p>
+ * <p>2.REGULAR[ch]为regularize(ch)</p>
+ * <p>3.{@link #skipEnd(char[], int, int)}手写扫描, 与reSkip的匹配结果相同</p>
+ */
 public class CharacterUtil {
+    /**
+     * 保留作参考, 切分使用与之等价的 {@link #skipEnd(char[], int, int)}
+     */
     public static Pattern reSkip = Pattern.compile("(\\d+\\.\\d+|[a-zA-Z0-9]+)");
     private static final char[] connectors = new char[] { '+', '#', '&', '.', '_', '-' };
 
+    private static final byte CHINESE = 1;
+    private static final byte ENGLISH = 2;
+    private static final byte DIGIT = 4;
+    private static final byte CONNECTOR = 8;
+    // regularize后可切分
+    private static final byte SEGMENTABLE = 16;
+
+    private static final byte CC = CHINESE | ENGLISH | DIGIT | CONNECTOR;
+    private static final byte ALNUM = ENGLISH | DIGIT;
+
+    private static final byte[] TYPES = new byte[Character.MAX_VALUE + 1];
+    private static final char[] REGULAR = new char[Character.MAX_VALUE + 1];
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            char ch = (char) c;
+            byte type = 0;
+            if (ch >= 0x4E00 && ch <= 0x9FA5)
+                type |= CHINESE;
+            if ((ch >= 0x0041 && ch <= 0x005A) || (ch >= 0x0061 && ch <= 0x007A))
+                type |= ENGLISH;
+            if (ch >= 0x0030 && ch <= 0x0039)
+                type |= DIGIT;
+            for (char connector : connectors)
+                if (ch == connector)
+                    type |= CONNECTOR;
+            TYPES[c] = type;
+
+            if (ch == 12288)
+                REGULAR[c] = 32;
+            else if (ch > 65280 && ch < 65375)
+                REGULAR[c] = (char) (ch - 65248);
+            else if (ch >= 'A' && ch <= 'Z')
+                REGULAR[c] = (char) (ch + 32);
+            else
+                REGULAR[c] = ch;
+        }
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if ((TYPES[REGULAR[c]] & CC) != 0)
+                TYPES[c] |= SEGMENTABLE;
+        }
+    }
+
 
     public static boolean isChineseLetter(char ch) {
-        if (ch >= 0x4E00 && ch <= 0x9FA5)
-            return true;
-        return false;
+        return (TYPES[ch] & CHINESE) != 0;
     }
 
 
     public static boolean isEnglishLetter(char ch) {
-        if ((ch >= 0x0041 && ch <= 0x005A) || (ch >= 0x0061 && ch <= 0x007A))
-            return true;
-        return false;
+        return (TYPES[ch] & ENGLISH) != 0;
     }
 
 
     public static boolean isDigit(char ch) {
-        if (ch >= 0x0030 && ch <= 0x0039)
-            return true;
-        return false;
+        return (TYPES[ch] & DIGIT) != 0;
     }
 
 
     public static boolean isConnector(char ch) {
-        for (char connector : connectors)
-            if (ch == connector)
-                return true;
-        return false;
+        return (TYPES[ch] & CONNECTOR) != 0;
+    }
+
+
+    /**
+     * 英文字母或数字, 即[a-zA-Z0-9]
+     */
+    public static boolean isLetterOrDigit(char ch) {
+        return (TYPES[ch] & ALNUM) != 0;
     }
 
 
     public static boolean ccFind(char ch) {
-        if (isChineseLetter(ch))
-            return true;
-        if (isEnglishLetter(ch))
-            return true;
-        if (isDigit(ch))
-            return true;
-        if (isConnector(ch))
-            return true;
-        return false;
+        return (TYPES[ch] & CC) != 0;
+    }
+
+
+    /**
+     * 与 ccFind(regularize(raw)) 相同
+     */
+    public static boolean ccFindRegularized(char raw) {
+        return (TYPES[raw] & SEGMENTABLE) != 0;
     }
 
 
     /**
      * 全角 to 半角,大写 to 小写
-     * 
+     *
      * @param input
      *            输入字符
      * @return 转换后的字符
      */
     public static char regularize(char input) {
-        if (input == 12288) {
-            return 32;
-        }
-        else if (input > 65280 && input < 65375) {
-            return (char) (input - 65248);
-        }
-        else if (input >= 'A' && input <= 'Z') {
-            return (input += 32);
+        return REGULAR[input];
+    }
+
+
+    /**
+     * reSkip从start开始的匹配的终点(不含), text[start]须为英文字母或数字
+     * <p>先试\d+\.\d+: 数字后紧跟'.'和至少一个数字时匹配到小数的末尾; 否则为最长的[a-zA-Z0-9]+</p>
+     *
+     * @param text
+     * @param start
+     * @param end
+     *            可匹配的范围的终点
+     * @return
+     */
+    public static int skipEnd(char[] text, int start, int end) {
+        int i = start;
+        while (i < end && (TYPES[text[i]] & DIGIT) != 0)
+            i++;
+        if (i > start && i + 1 < end && text[i] == '.' && (TYPES[text[i + 1]] & DIGIT) != 0) {
+            i += 2;
+            while (i < end && (TYPES[text[i]] & DIGIT) != 0)
+                i++;
+            return i;
         }
-        return input;
+        while (i < end && (TYPES[text[i]] & ALNUM) != 0)
+            i++;
+        return i;
     }
 
 }
@@ -0,0 +1,570 @@
+package similarity.tokenizer.jieba;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * 双数组trie，由词典一次编译而成，编译后只读
+ * <p>1.字符先映射为紧凑的编码(按出现次数从多到少为1, 2, 3...)，0表示词典中没有该字</p>
+ * <p>2.状态s经编码c转移到 t = base[s] + c，当且仅当 check[t] == s 时转移存在</p>
+ * <p>3.到达词尾的状态记在terminal位图中，词的id是该状态在位图中的序号(rank)，0 ~ size()-1</p>
+ * <p>查询只读codeOf/base/check/terminal四个数组，不分配任何对象，可多线程共享</p>
+ * <p>编译结果可写入 {@link ModelSnapshot}, 读取时只做整块复制</p>
+ */
+public class DoubleArrayTrie {
+
+    private static final int FREE = -1;
+
+    static final int ROOT = 0;
+
+    // 按子节点数分组记录找base的起点, 不少于此值的合为一组
+    private static final int MAX_HINT_CHILDREN = 32;
+
+    // 编译时词的下标占24位
+    private static final int KEY_MASK = (1 << 24) - 1;
+
+    // 字符 -> 编码
+    private final char[] codeOf;
+
+    private final int[] base;
+
+    private final int[] check;
+
+    private final long[] terminal;
+
+    // rank[w]: terminal[0, w)中1的个数
+    private final int[] rank;
+
+    // 按词id存放的值, 可为null
+    private final double[] values;
+
+    private final int size;
+
+    private final int maxLength;
+
+
+    private DoubleArrayTrie(char[] codeOf, int[] base, int[] check, long[] terminal, int size, int maxLength,
+        double[] values) {
+        this.codeOf = codeOf;
+        this.base = base;
+        this.check = check;
+        this.terminal = terminal;
+        this.size = size;
+        this.maxLength = maxLength;
+        this.values = values;
+        this.rank = new int[terminal.length];
+        for (int w = 1; w < terminal.length; w++)
+            rank[w] = rank[w - 1] + Long.bitCount(terminal[w - 1]);
+    }
+
+
+    /**
+     * 编译词典
+     *
+     * @param words
+     *            null与空串会被忽略
+     * @return
+     */
+    public static DoubleArrayTrie build(Collection<String> words) {
+        return new Builder(sortedKeys(words)).build(null);
+    }
+
+
+    /**
+     * 编译词典, 每个词带一个值(如对数词频), 用 {@link #value(int)} 按词id取回
+     *
+     * @param weights
+     *            null与空串的词会被忽略, 值不能为null
+     * @return
+     */
+    public static DoubleArrayTrie build(Map<String, Double> weights) {
+        return new Builder(sortedKeys(weights.keySet())).build(weights);
+    }
+
+
+    private static String[] sortedKeys(Collection<String> words) {
+        List<String> keys = new ArrayList<String>(words.size());
+        for (String word : words) {
+            if (word != null && !word.isEmpty())
+                keys.add(word);
+        }
+        String[] sorted = keys.toArray(new String[keys.size()]);
+        Arrays.sort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (unique == 0 || !sorted[i].equals(sorted[unique - 1]))
+                sorted[unique++] = sorted[i];
+        }
+        if (unique > KEY_MASK)
+            throw new IllegalArgumentException("too many words: " + unique);
+        return Arrays.copyOf(sorted, unique);
+    }
+
+
+    /**
+     * 词的个数
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * base/check数组的长度
+     */
+    public int capacity() {
+        return base.length;
+    }
+
+
+    /**
+     * 最长的词的长度
+     */
+    public int maxLength() {
+        return maxLength;
+    }
+
+
+    /**
+     * 按词id取编译时的值
+     *
+     * @param id
+     * @return
+     */
+    public double value(int id) {
+        return values[id];
+    }
+
+
+    /**
+     * 公共前缀查询：找出词典中所有是text[begin, end)前缀的词
+     *
+     * @param text
+     * @param begin
+     * @param end
+     * @param ends
+     *            每个命中词最后一个字符的下标, 按从短到长输出。长度不足时只写入前ends.length个
+     * @return 命中词的个数(可能大于ends.length)
+     */
+    public int commonPrefixSearch(char[] text, int begin, int end, int[] ends) {
+        int state = ROOT;
+        int count = 0;
+        for (int i = begin; i < end; i++) {
+            state = transition(state, text[i]);
+            if (state < 0)
+                break;
+            if (isTerminal(state)) {
+                if (count < ends.length)
+                    ends[count] = i;
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * 公共前缀查询, 同时输出词id
+     *
+     * @param text
+     * @param begin
+     * @param end
+     * @param ends
+     *            每个命中词最后一个字符的下标, 从offset开始写
+     * @param ids
+     *            对应的词id, 从offset开始写
+     * @param offset
+     * @return 命中词的个数。调用方保证两个数组从offset起至少还有 min(end - begin, maxLength()) 个位置
+     */
+    public int commonPrefixSearch(char[] text, int begin, int end, int[] ends, int[] ids, int offset) {
+        int state = ROOT;
+        int count = offset;
+        for (int i = begin; i < end; i++) {
+            state = transition(state, text[i]);
+            if (state < 0)
+                break;
+            if (isTerminal(state)) {
+                ends[count] = i;
+                ids[count] = id(state);
+                count++;
+            }
+        }
+        return count - offset;
+    }
+
+
+    /**
+     * text[begin, end)是否是词典中的词
+     */
+    public boolean contains(char[] text, int begin, int end) {
+        return wordId(text, begin, end) >= 0;
+    }
+
+
+    public boolean contains(CharSequence word) {
+        return wordId(word) >= 0;
+    }
+
+
+    /**
+     * @return text[begin, end)的词id, 不是词返回-1
+     */
+    public int wordId(char[] text, int begin, int end) {
+        int state = ROOT;
+        for (int i = begin; i < end; i++) {
+            state = transition(state, text[i]);
+            if (state < 0)
+                return -1;
+        }
+        return begin < end && isTerminal(state) ? id(state) : -1;
+    }
+
+
+    /**
+     * @return 词id, 不是词返回-1
+     */
+    public int wordId(CharSequence word) {
+        int state = ROOT;
+        for (int i = 0; i < word.length(); i++) {
+            state = transition(state, word.charAt(i));
+            if (state < 0)
+                return -1;
+        }
+        return word.length() > 0 && isTerminal(state) ? id(state) : -1;
+    }
+
+
+    /**
+     * 按词id顺序还原所有的词。从词尾状态沿check[]走回根, 每一步的字符为 state - base[check[state]] 的编码
+     *
+     * @return keys()[id]为该id的词
+     */
+    public String[] keys() {
+        char[] charOf = charOf();
+        String[] keys = new String[size];
+        char[] word = new char[maxLength];
+        int id = 0;
+        for (int w = 0; w < terminal.length; w++) {
+            for (long bits = terminal[w]; bits != 0; bits &= bits - 1) {
+                int length = 0;
+                for (int state = (w << 6) + Long.numberOfTrailingZeros(bits); state != ROOT; state = check[state])
+                    word[length++] = charOf[state - base[check[state]]];
+                for (int i = 0, j = length - 1; i < j; i++, j--) {
+                    char ch = word[i];
+                    word[i] = word[j];
+                    word[j] = ch;
+                }
+                keys[id++] = new String(word, 0, length);
+            }
+        }
+        return keys;
+    }
+
+
+    /**
+     * 写入快照, 与 {@link #read(ByteBuffer)} 对应
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException {
+        char[] charOf = charOf();
+        out.writeInt(charOf.length);
+        ModelSnapshot.writeChars(out, charOf, charOf.length);
+        out.writeInt(base.length);
+        ModelSnapshot.writeInts(out, base, base.length);
+        ModelSnapshot.writeInts(out, check, check.length);
+        out.writeInt(terminal.length);
+        ModelSnapshot.writeLongs(out, terminal, terminal.length);
+        out.writeInt(size);
+        out.writeInt(maxLength);
+        out.writeBoolean(values != null);
+        if (values != null)
+            ModelSnapshot.writeDoubles(out, values, size);
+    }
+
+
+    /**
+     * 从快照读取, 数组整块复制, 不再编译
+     *
+     * @param in
+     * @return
+     */
+    public static DoubleArrayTrie read(ByteBuffer in) {
+        char[] charOf = ModelSnapshot.readChars(in, in.getInt());
+        char[] codeOf = new char[Character.MAX_VALUE + 1];
+        for (int code = 1; code < charOf.length; code++)
+            codeOf[charOf[code]] = (char) code;
+        int length = in.getInt();
+        int[] base = ModelSnapshot.readInts(in, length);
+        int[] check = ModelSnapshot.readInts(in, length);
+        long[] terminal = ModelSnapshot.readLongs(in, in.getInt());
+        int size = in.getInt();
+        int maxLength = in.getInt();
+        double[] values = in.get() != 0 ? ModelSnapshot.readDoubles(in, size) : null;
+        return new DoubleArrayTrie(codeOf, base, check, terminal, size, maxLength, values);
+    }
+
+
+    /**
+     * 编码 -> 字符, 下标0不用
+     */
+    private char[] charOf() {
+        int alphabet = 0;
+        for (char code : codeOf)
+            alphabet = Math.max(alphabet, code);
+        char[] charOf = new char[alphabet + 1];
+        for (int c = 0; c < codeOf.length; c++) {
+            if (codeOf[c] != 0)
+                charOf[codeOf[c]] = (char) c;
+        }
+        return charOf;
+    }
+
+
+    /**
+     * @return 转移后的状态, 不存在返回-1
+     */
+    private int transition(int state, char ch) {
+        int code = codeOf[ch];
+        if (code == 0)
+            return -1;
+        return child(state, code);
+    }
+
+
+    /**
+     * 字符的编码, 词典中没有的字为0
+     */
+    int code(char ch) {
+        return codeOf[ch];
+    }
+
+
+    /**
+     * @return 按编码转移后的状态, 不存在返回-1
+     */
+    int child(int state, int code) {
+        int next = base[state] + code;
+        if (next >= check.length || check[next] != state)
+            return -1;
+        return next;
+    }
+
+
+    /**
+     * @return 状态的父状态, 空闲位置返回-1
+     */
+    int parent(int state) {
+        return check[state];
+    }
+
+
+    /**
+     * @return 从父状态转移到state所用的编码
+     */
+    int codeOf(int state) {
+        return state - base[check[state]];
+    }
+
+
+    boolean isTerminal(int state) {
+        return (terminal[state >>> 6] & (1L << state)) != 0;
+    }
+
+
+    int id(int state) {
+        return rank[state >>> 6] + Long.bitCount(terminal[state >>> 6] & ((1L << state) - 1));
+    }
+
+
+    /**
+     * 按排序后的词深度优先放置状态
+     */
+    private static final class Builder {
+
+        private final String[] keys;
+
+        private final char[] codeOf = new char[Character.MAX_VALUE + 1];
+
+        private int[] base;
+
+        private int[] check;
+
+        private long[] terminal;
+
+        // 空闲位置的位图, 找下一个空位时一次跳过64个位置
+        private long[] free;
+
+        // 此前的位图字全部被占用
+        private int firstOpenWord = 0;
+
+        // hints[m]: 上一个有m个子节点的状态放置的位置, 之前的空位多半放不下同样多的子节点
+        private final int[] hints = new int[MAX_HINT_CHILDREN + 1];
+
+        private int maxUsed = 0;
+
+
+        Builder(String[] keys) {
+            this.keys = keys;
+            int[] counts = new int[Character.MAX_VALUE + 1];
+            int totalChars = 0;
+            for (String key : keys) {
+                for (int i = 0; i < key.length(); i++)
+                    counts[key.charAt(i)]++;
+                totalChars += key.length();
+            }
+            // (-次数, 字符)拼成long排序, 次数多的字编码小
+            long[] order = new long[counts.length];
+            int alphabet = 0;
+            for (int c = 0; c < counts.length; c++) {
+                if (counts[c] > 0)
+                    order[alphabet++] = (long) -counts[c] << 16 | c;
+            }
+            Arrays.sort(order, 0, alphabet);
+            for (int code = 1; code <= alphabet; code++)
+                codeOf[(int) (order[code - 1] & 0xFFFF)] = (char) code;
+
+            base = new int[0];
+            check = new int[0];
+            terminal = new long[0];
+            free = new long[0];
+            ensureCapacity(Math.max(1024, totalChars + 1));
+            occupy(ROOT, ROOT);
+        }
+
+
+        DoubleArrayTrie build(Map<String, Double> weights) {
+            if (keys.length > 0)
+                place(ROOT, 0, keys.length, 0);
+            int length = maxUsed + 1;
+            int maxLength = 0;
+            for (String key : keys)
+                maxLength = Math.max(maxLength, key.length());
+            DoubleArrayTrie trie = new DoubleArrayTrie(codeOf, Arrays.copyOf(base, length), Arrays.copyOf(check, length),
+                Arrays.copyOf(terminal, (length + 63) >>> 6), keys.length, maxLength,
+                weights == null ? null : new double[keys.length]);
+            if (weights != null) {
+                for (String key : keys)
+                    trie.values[trie.wordId(key)] = weights.get(key);
+            }
+            return trie;
+        }
+
+
+        /**
+         * keys[lo, hi)有相同的前depth个字符, 对应状态state
+         */
+        private void place(int state, int lo, int hi, int depth) {
+            if (keys[lo].length() == depth) {
+                terminal[state >>> 6] |= 1L << state;
+                lo++;
+            }
+            if (lo == hi)
+                return;
+
+            int count = 0;
+            for (int i = lo + 1; i <= hi; i++) {
+                if (i == hi || keys[i].charAt(depth) != keys[i - 1].charAt(depth))
+                    count++;
+            }
+            // 子节点拼成long: 编码(16位) | 起始下标(24位) | 结束下标(24位), 按编码排序
+            long[] children = new long[count];
+            int start = lo;
+            count = 0;
+            for (int i = lo + 1; i <= hi; i++) {
+                if (i == hi || keys[i].charAt(depth) != keys[start].charAt(depth)) {
+                    children[count++] = (long) codeOf[keys[start].charAt(depth)] << 48 | (long) start << 24 | i;
+                    start = i;
+                }
+            }
+            Arrays.sort(children);
+
+            int b = findBase(children);
+            base[state] = b;
+            for (long child : children)
+                occupy(b + (int) (child >>> 48), state);
+            for (long child : children)
+                place(b + (int) (child >>> 48), (int) (child >>> 24) & KEY_MASK, (int) child & KEY_MASK, depth + 1);
+        }
+
+
+        /**
+         * 找到最小的base, 使所有子节点的位置都空闲
+         * <p>从同样子节点数的状态上一次放置的位置开始找, 前面零散的空位多半放不下</p>
+         */
+        private int findBase(long[] children) {
+            int first = (int) (children[0] >>> 48);
+            int last = (int) (children[children.length - 1] >>> 48);
+            int group = Math.min(children.length, MAX_HINT_CHILDREN);
+            // base至少为1, 即pos > first
+            int pos = nextFree(Math.max(hints[group], first + 1));
+            outer: while (true) {
+                int b = pos - first;
+                ensureCapacity(b + last + 1);
+                for (int c = 1; c < children.length; c++) {
+                    if (check[b + (int) (children[c] >>> 48)] != FREE) {
+                        pos = nextFree(pos + 1);
+                        continue outer;
+                    }
+                }
+                hints[group] = pos;
+                return b;
+            }
+        }
+
+
+        /**
+         * 不小于pos的第一个空闲位置, 没有时扩容
+         */
+        private int nextFree(int pos) {
+            ensureCapacity(pos + 1);
+            while (firstOpenWord < free.length && free[firstOpenWord] == 0)
+                firstOpenWord++;
+            int word = pos >>> 6;
+            long bits;
+            if (word < firstOpenWord) {
+                word = Math.min(firstOpenWord, free.length - 1);
+                bits = free[word];
+            }
+            else {
+                bits = free[word] & (-1L << pos);
+            }
+            while (bits == 0) {
+                if (++word == free.length)
+                    ensureCapacity(check.length + 1);
+                bits = free[word];
+            }
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+
+        private void occupy(int pos, int parent) {
+            check[pos] = parent;
+            maxUsed = Math.max(maxUsed, pos);
+            free[pos >>> 6] &= ~(1L << pos);
+        }
+
+
+        private void ensureCapacity(int required) {
+            if (required <= check.length)
+                return;
+            // 容量取64的倍数, 位图的每个字都是完整的
+            int capacity = (Math.max(required, check.length + (check.length >> 1)) + 63) & ~63;
+            int old = check.length;
+            base = Arrays.copyOf(base, capacity);
+            check = Arrays.copyOf(check, capacity);
+            Arrays.fill(check, old, capacity, FREE);
+            terminal = Arrays.copyOf(terminal, capacity >>> 6);
+            free = Arrays.copyOf(free, capacity >>> 6);
+            Arrays.fill(free, old >>> 6, capacity >>> 6, -1L);
+        }
+    }
+}
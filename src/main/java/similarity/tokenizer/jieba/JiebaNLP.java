@@ -1,8 +1,10 @@
 package similarity.tokenizer.jieba;
 
+import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -12,27 +14,33 @@ import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 import common.MapUtil;
+import similarity.SparseVector;
+import similarity.hash.HashFunction;
+import similarity.tokenizer.jieba.keyword.IDFBuilder;
 import similarity.tokenizer.jieba.keyword.IDFLoader;
+import similarity.tokenizer.jieba.keyword.IDFSnapshot;
 import similarity.tokenizer.jieba.keyword.KeywordWeightPair;
 import similarity.tokenizer.jieba.keyword.StopwordsLoader;
 
 
 public class JiebaNLP extends StopwordsLoader{
-	private static JiebaSegmenter tokenizer;
+	// useSentenceCache替换
+	private static volatile JiebaSegmenter tokenizer;
 	private static IDFLoader idfLoader;
-	private static HashMap<String, Double> corpus_idf;
-	private static double avgIdf;
-	private static final Path DEFAULT_IDF_PATH = FileSystems.getDefault().getPath(".", "/models/stopwords/idf.txt");
+	// 当前idf表, 初始为idf.txt, publishIdf替换
+	private volatile IDFSnapshot idf;
+	// 由当前词典版本、idf表和停用词构造, 三者之一变化后重建
+	private volatile Vocabulary vocabulary;
+	static final Path DEFAULT_IDF_PATH = FileSystems.getDefault().getPath(".", "/models/stopwords/idf.txt");
 	
 	private JiebaNLP(){
 		init(DEFAULT_IDF_PATH);
+		idf = IDFSnapshot.of(idfLoader);
 	}
 	
 	private static void init(Path idfPath) {
 		tokenizer = new JiebaSegmenter();
-		idfLoader = new IDFLoader(idfPath);
-		corpus_idf = idfLoader.idfFreq();
-		avgIdf = idfLoader.medianIDF();
+		idfLoader = new IDFLoader(idfPath, ModelSnapshot.getDefault());
 	}
 	
 	private static class newInstance {
@@ -43,6 +51,14 @@ public class JiebaNLP extends StopwordsLoader{
 		return JiebaNLP.newInstance.key;
 	}
 	
+	/**
+	 * 分词时先查句子缓存, 分词、calc_tf、calc_tfidf、tfidfVector、learnIdf以及MinHash签名都经过该缓存
+	 * @param cache 可与其它JiebaSegmenter共享, 为null时去掉缓存
+	 */
+	public void useSentenceCache(SentenceCache cache) {
+		tokenizer = new JiebaSegmenter(cache);
+	}
+	
 	/**
 	 * 分词
 	 * @param text text to extract
@@ -54,6 +70,15 @@ public class JiebaNLP extends StopwordsLoader{
 		return tokens;
 	}
 	
+	/**
+	 * 分词, 结果以区间写入spans, 与JiebaNLPKeyword(String text)的切分相同
+	 * @param text text to extract
+	 * @param spans 原有内容被清空
+	 */
+	public void JiebaNLPSpans(String text, TokenSpans spans) {
+		tokenizer.sentenceSpans(text, spans);
+	}
+	
 	/**
 	 * 返回词频最高的topN个词，倒序
 	 * @param text
@@ -121,21 +146,24 @@ public class JiebaNLP extends StopwordsLoader{
 		double idf = 0.0;
 		double weight = 0.0;
 
-		Map<String, Integer> tfMap = calc_tf(text, topN);
+		Vocabulary vocab = vocabulary();
+		TermCounts terms = countTerms(text, vocab);
+		int[] top = terms.top(topN);
 		
 		HashMap<String, Double> weightMap = new HashMap<String, Double>();
 
-		for (double tf : tfMap.values()) {
-			totalIf += tf;
+		for (int k : top) {
+			totalIf += terms.counts[k];
 		}
 
-		for (String word : tfMap.keySet()) {
+		// 词id即词表中的下标, idf直接按下标取
+		for (int k : top) {
 
-			idf = corpus_idf.containsKey(word) ? corpus_idf.get(word) : avgIdf;
+			idf = vocab.idf(terms.ids[k]);
 
-			weight = tfMap.get(word) * idf / totalIf;
+			weight = terms.counts[k] * idf / totalIf;
 
-			weightMap.put(word, weight);
+			weightMap.put(terms.words[k], weight);
 		}
 		System.out.println(
 				String.format(Locale.getDefault(), "Term-Frequency * Inverse-Document-Frequency calc finished, tot words:%d, time elapsed:%dms",
@@ -144,6 +172,43 @@ public class JiebaNLP extends StopwordsLoader{
 		return MapUtil.sortByValue(weightMap);
 	}
 	
+	/**
+	 * tf*idf稀疏向量, 权重与calc_tfidf(String text, int topN)相同
+	 * <p>词表中的词以词表id为下标; 不在词表中的词以其hash映射到负数id, 两个不同的未登录词偶尔可能落到同一id</p>
+	 * @param text text to extract
+	 * @param topN 与calc_tfidf相同的选词, -1为全部
+	 * @return 只能与同一词表下得到的向量比较
+	 */
+	public SparseVector tfidfVector(String text, int topN) {
+		return tfidfVector(text, topN, vocabulary());
+	}
+	
+	/**
+	 * 按指定词表计算tf*idf稀疏向量, 如向量库入库时使用库绑定的词表
+	 * @param text
+	 * @param topN
+	 * @param vocab
+	 * @return
+	 */
+	public SparseVector tfidfVector(String text, int topN, Vocabulary vocab) {
+		TermCounts terms = countTerms(text, vocab);
+		int n = topN == -1 ? terms.size : Math.min(topN, terms.size);
+		int[] top = topN == -1 ? null : terms.top(topN);
+		double totalIf = 0.0;
+		for (int k = 0; k < n; k++) {
+			totalIf += terms.counts[top == null ? k : top[k]];
+		}
+		int[] ids = new int[n];
+		float[] weights = new float[n];
+		for (int k = 0; k < n; k++) {
+			int t = top == null ? k : top[k];
+			int id = terms.ids[t];
+			ids[k] = id >= 0 ? id : -1 - (int) (HashFunction.murmur64(terms.words[t]) & Integer.MAX_VALUE);
+			weights[k] = (float) (terms.counts[t] * vocab.idf(id) / totalIf);
+		}
+		return SparseVector.of(ids, weights, n);
+	}
+	
 	/**
 	 * 该方法完成分词、去除停用词和根据词频排序
 	 * @param doc text to be calculated
@@ -152,19 +217,185 @@ public class JiebaNLP extends StopwordsLoader{
 	 */
 	public Map<String, Integer> calc_tf (String doc, int topN) {
 		long s = System.currentTimeMillis();
-		List<String> words = JiebaNLP.JiebaExtractor().JiebaNLPKeyword(doc);
-		
+		TermCounts terms = countTerms(doc, vocabulary());
 		Map<String, Integer> tf = new TreeMap<String, Integer>();
+		for (int k = 0; k < terms.size; k++) {
+			tf.merge(terms.words[k], terms.counts[k], Integer::sum);
+		}
+		return truncate(tf, topN, s);
+	}
+	
+	/**
+	 * 词典、idf表和停用词合成的词表, 分词结果中的词典词id即词表id
+	 * @return
+	 */
+	public Vocabulary vocabulary() {
+		WordDictionary.Version version = WordDictionary.getInstance().getVersion();
+		DoubleArrayTrie stopTrie = stopWordTrie();
+		IDFSnapshot table = idf;
+		Vocabulary vocab = vocabulary;
+		if (vocab == null || vocab.getVersion() != version || vocab.getStopTrie() != stopTrie || vocab.getIdfTrie() != table.getTrie()) {
+			synchronized (this) {
+				vocab = vocabulary;
+				if (vocab == null || vocab.getVersion() != version || vocab.getStopTrie() != stopTrie || vocab.getIdfTrie() != table.getTrie()) {
+					vocab = new Vocabulary(version, table.getTrie(), stopTrie, table.getDefaultIdf());
+					vocabulary = vocab;
+				}
+			}
+		}
+		return vocab;
+	}
+	
+	/**
+	 * 替换idf表, 之后的calc_tfidf、tfidfVector使用新表; 正在计算的调用仍用取到的旧词表, 不会混用新旧两张表
+	 * @param snapshot 如 {@link IDFBuilder#snapshot()}
+	 */
+	public void publishIdf(IDFSnapshot snapshot) {
+		idf = snapshot;
+	}
+	
+	public IDFSnapshot idfSnapshot() {
+		return idf;
+	}
+	
+	/**
+	 * 分词、去除停用词后把文档中出现的词送入builder, 选词与calc_tf相同
+	 * @param doc
+	 * @param builder
+	 */
+	public void learnIdf(String doc, IDFBuilder builder) {
+		TermCounts terms = countTerms(doc, vocabulary());
+		builder.add(Arrays.asList(terms.words).subList(0, terms.size));
+	}
+	
+	/**
+	 * 一篇文档去除停用词后的词频, 每个词一项
+	 */
+	private static final class TermCounts {
+		String[] words;
+		// 词表id, 不在词表中为-1
+		int[] ids;
+		int[] counts;
+		int size;
 		
-		for (String word : words) {
-			//eliminate stopwords
-			if (word.trim().length() < 2 || stopWords.contains(word.toLowerCase())) {
+		TermCounts(int capacity) {
+			words = new String[capacity];
+			ids = new int[capacity];
+			counts = new int[capacity];
+		}
+		
+		void add(String word, int id, int count) {
+			words[size] = word;
+			ids[size] = id;
+			counts[size] = count;
+			size++;
+		}
+		
+		/**
+		 * 与truncate(tf, topN, s)的结果相同: 按词频升序、同词频按词排序后的前topN项, 顺序也相同
+		 * @param topN -1为全部
+		 * @return 选出的项的下标
+		 */
+		int[] top(int topN) {
+			Integer[] order = new Integer[size];
+			for (int k = 0; k < size; k++) {
+				order[k] = k;
+			}
+			Arrays.sort(order, (a, b) -> counts[a] != counts[b] ? Integer.compare(counts[a], counts[b]) : words[a].compareTo(words[b]));
+			int n = topN == -1 ? size : Math.min(topN, size);
+			int[] top = new int[n];
+			for (int k = 0; k < n; k++) {
+				top[k] = order[k];
+			}
+			return top;
+		}
+	}
+	
+	/**
+	 * 分词, 在分词区间上去除停用词并计数
+	 * <p>1.词典词的id由分词结果带出, 其它词在词表中查一次id; 停用词按id查标记数组</p>
+	 * <p>2.有id的词按(id, 区间下标)排序后按id分组计数, 每个词只生成一次String; 不在词表中的词按String计数</p>
+	 * @param doc
+	 * @param vocab 切分与之使用同一个词典版本
+	 * @return
+	 */
+	private TermCounts countTerms(String doc, Vocabulary vocab) {
+		TokenSpans spans = new TokenSpans();
+		tokenizer.sentenceSpans(vocab.getVersion(), doc, spans);
+		char[] text = spans.text();
+		long[] known = new long[spans.size()];
+		int knownCount = 0;
+		Map<String, Integer> unknown = new HashMap<String, Integer>();
+		for (int i = 0; i < spans.size(); i++) {
+			int start = spans.start(i);
+			int end = spans.end(i);
+			if (spans.trimmedLength(i) < 2) {
+				continue;
+			}
+			int id = spans.termId(i);
+			if (id < 0) {
+				id = vocab.id(text, start, end);
+			}
+			//eliminate stopwords, 含大写字母时转小写再查
+			if (isLowerCase(text, start, end) ? vocab.isStopWord(id) : isStopWord(text, start, end)) {
 				continue;
 			}
 			// count word frequency in a doc
-			tf.put(word, tf.get(word) != null ? (tf.get(word) + 1) : 1);
+			if (id >= 0) {
+				known[knownCount++] = (long) id << 32 | i;
+			} else {
+				unknown.merge(spans.word(i), 1, Integer::sum);
+			}
+		}
+		Arrays.sort(known, 0, knownCount);
+		TermCounts terms = new TermCounts(knownCount + unknown.size());
+		for (int from = 0, to; from < knownCount; from = to) {
+			long id = known[from] >>> 32;
+			for (to = from + 1; to < knownCount && known[to] >>> 32 == id; to++)
+				;
+			terms.add(spans.word((int) known[from]), (int) id, to - from);
 		}
-		words= null;
+		for (Entry<String, Integer> entry : unknown.entrySet()) {
+			terms.add(entry.getKey(), -1, entry.getValue());
+		}
+		return terms;
+	}
+	
+	private static boolean isLowerCase(char[] text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (Character.toLowerCase(text[i]) != text[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * 与calc_tf(String doc, int topN)相同, 但从分词流逐词计数, 不把全文和全部分词结果放入内存
+	 * <p>按 {@link JiebaSegmenter#process(String, JiebaSegmenter.SegMode)} 的方式切分(SEARCH模式, 字符已规范化)</p>
+	 * @param input Reader或CharBuffer
+	 * @param topN 指定取topN个词的tf，若为-1，输出全部分词
+	 * @return
+	 * @throws IOException
+	 */
+	public Map<String, Integer> calc_tf(Readable input, int topN) throws IOException {
+		long s = System.currentTimeMillis();
+		Map<String, Integer> tf = new TreeMap<String, Integer>();
+		TokenStream stream = tokenizer.tokenStream(input, JiebaSegmenter.SegMode.SEARCH);
+		for (SegToken token = stream.next(); token != null; token = stream.next()) {
+			String word = token.word;
+			if (word.trim().length() < 2 || stopWords.contains(word.toLowerCase())) {
+				continue;
+			}
+			tf.merge(word, 1, Integer::sum);
+		}
+		return truncate(tf, topN, s);
+	}
+	
+	/**
+	 * 按词频倒序, 截取前topN个
+	 */
+	private Map<String, Integer> truncate(Map<String, Integer> tf, int topN, long s) {
 		tf = MapUtil.sortByValue(tf);
 		
 		if (topN == -1) {
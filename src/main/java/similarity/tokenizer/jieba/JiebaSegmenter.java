@@ -1,9 +1,10 @@
 package similarity.tokenizer.jieba;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import similarity.tokenizer.jieba.viterbi.FinalSeg;
 
@@ -12,209 +13,487 @@ public class JiebaSegmenter {
     private static WordDictionary wordDict = WordDictionary.getInstance();
     private static FinalSeg finalSeg = FinalSeg.getInstance();
 
+    // 并行切分时每块的最小长度, 以及每个线程平均分到的块数
+    private static final int MIN_CHUNK = 1 << 13;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // sentenceProcess/sentenceSpans的结果缓存, 为null时不缓存
+    private final SentenceCache cache;
+
     public static enum SegMode {
         INDEX,
         SEARCH
     }
 
 
-    private Map<Integer, List<Integer>> createDAG(String sentence) {
-        Map<Integer, List<Integer>> dag = new HashMap<Integer, List<Integer>>();
-        DictSegment trie = wordDict.getTrie();
-        char[] chars = sentence.toCharArray();
-        int N = chars.length;
-        int i = 0, j = 0;
-        while (i < N) {
-            Hit hit = trie.match(chars, i, j - i + 1);
-            if (hit.isPrefix() || hit.isMatch()) {
-                if (hit.isMatch()) {
-                    if (!dag.containsKey(i)) {
-                        List<Integer> value = new ArrayList<Integer>();
-                        dag.put(i, value);
-                        value.add(j);
-                    }
-                    else
-                        dag.get(i).add(j);
-                }
-                j += 1;
-                if (j >= N) {
-                    i += 1;
-                    j = i;
-                }
+    public JiebaSegmenter() {
+        this(null);
+    }
+
+
+    /**
+     * @param cache
+     *            sentenceProcess/sentenceSpans的结果缓存, 可在多个JiebaSegmenter之间共享; 为null时不缓存
+     */
+    public JiebaSegmenter(SentenceCache cache) {
+        this.cache = cache;
+    }
+
+
+    /**
+     * 每个线程复用的分词缓冲区, 按需扩容
+     */
+    private static final class Scratch {
+        // 以i开头的词在edgeEnds/edgeIds中的范围为[edgeStart[i], edgeStart[i + 1])
+        int[] edgeStart = new int[257];
+        int[] edgeEnds = new int[1024];
+        int[] edgeIds = new int[1024];
+        // 自动机按结束位置输出的命中词, 再按起点分桶到edge*
+        int[] matchStarts = new int[1024];
+        int[] matchEnds = new int[1024];
+        int[] matchIds = new int[1024];
+        // route[i]: 从i开始最优切分的得分, next[i]: 以i开头的词最后一个字符的下标, nextId[i]: 该词的id
+        double[] route = new double[257];
+        int[] next = new int[256];
+        int[] nextId = new int[256];
+        // process/sentenceProcess的结果, 转成String前暂存
+        TokenSpans spans = new TokenSpans();
+        // INDEX模式下一段的切分结果, 只用作区间列表, 文本在输出的TokenSpans中
+        TokenSpans run = new TokenSpans();
+
+
+        void ensure(int length) {
+            if (next.length < length) {
+                int capacity = Math.max(length, next.length << 1);
+                edgeStart = new int[capacity + 1];
+                route = new double[capacity + 1];
+                next = new int[capacity];
+                nextId = new int[capacity];
             }
-            else {
-                i += 1;
-                j = i;
+        }
+
+
+        void ensureEdges(int required) {
+            if (edgeEnds.length < required) {
+                int capacity = Math.max(required, edgeEnds.length << 1);
+                edgeEnds = new int[capacity];
+                edgeIds = new int[capacity];
             }
         }
-        for (i = 0; i < N; ++i) {
-            if (!dag.containsKey(i)) {
-                List<Integer> value = new ArrayList<Integer>();
-                value.add(i);
-                dag.put(i, value);
+
+
+        void ensureMatches(int required) {
+            if (matchStarts.length < required) {
+                int capacity = Math.max(required, matchStarts.length << 1);
+                matchStarts = new int[capacity];
+                matchEnds = new int[capacity];
+                matchIds = new int[capacity];
             }
         }
-        return dag;
+    }
+
+    private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+
+    /**
+     * 词图: 自动机一次扫描得到text[begin, begin + N)中全部命中词, 按起点计数排序。
+     * 同一起点的词按结束位置从小到大, 与逐位置前缀查询的顺序相同。edge*中的下标相对于begin
+     */
+    private void createDAG(AhoCorasick matcher, Scratch buf, char[] text, int begin, int N) {
+        buf.ensureMatches(N << 1);
+        int count = matcher.match(text, begin, begin + N, buf.matchStarts, buf.matchEnds, buf.matchIds);
+        if (count > buf.matchStarts.length) {
+            buf.ensureMatches(count);
+            matcher.match(text, begin, begin + N, buf.matchStarts, buf.matchEnds, buf.matchIds);
+        }
+        buf.ensureEdges(count);
+
+        // edgeStart[i + 1]先记以i开头的词数, 累加后为第i + 1个桶的起点; 放置时edgeStart[i + 1]从第i个桶的起点增长到终点
+        int[] edgeStart = buf.edgeStart;
+        Arrays.fill(edgeStart, 0, N + 1, 0);
+        int[] starts = buf.matchStarts;
+        for (int m = 0; m < count; m++) {
+            if (starts[m] - begin + 2 <= N)
+                edgeStart[starts[m] - begin + 2]++;
+        }
+        for (int i = 2; i <= N; i++)
+            edgeStart[i] += edgeStart[i - 1];
+        for (int m = 0; m < count; m++) {
+            int e = edgeStart[starts[m] - begin + 1]++;
+            buf.edgeEnds[e] = buf.matchEnds[m] - begin;
+            buf.edgeIds[e] = buf.matchIds[m];
+        }
     }
 
 
-    private Map<Integer, Pair<Integer>> calc(String sentence, Map<Integer, List<Integer>> dag) {
-        int N = sentence.length();
-        HashMap<Integer, Pair<Integer>> route = new HashMap<Integer, Pair<Integer>>();
-        route.put(N, new Pair<Integer>(0, 0.0));
+    /**
+     * 从后往前动态规划, 词频直接按词id从trie中取
+     */
+    private void calc(DoubleArrayTrie trie, double minFreq, Scratch buf, int N) {
+        buf.route[N] = 0.0;
         for (int i = N - 1; i > -1; i--) {
-            Pair<Integer> candidate = null;
-            for (Integer x : dag.get(i)) {
-                double freq = wordDict.getFreq(sentence.substring(i, x + 1)) + route.get(x + 1).freq;
-                if (null == candidate) {
-                    candidate = new Pair<Integer>(x, freq);
-                }
-                else if (candidate.freq < freq) {
-                    candidate.freq = freq;
-                    candidate.key = x;
+            int from = buf.edgeStart[i];
+            int to = buf.edgeStart[i + 1];
+            if (from == to) {
+                // 没有以i开头的词, 单字成词
+                buf.route[i] = minFreq + buf.route[i + 1];
+                buf.next[i] = i;
+                buf.nextId[i] = -1;
+                continue;
+            }
+            int x = buf.edgeEnds[from];
+            double best = trie.value(buf.edgeIds[from]) + buf.route[x + 1];
+            int bestEnd = x;
+            int bestId = buf.edgeIds[from];
+            for (int e = from + 1; e < to; e++) {
+                x = buf.edgeEnds[e];
+                double freq = trie.value(buf.edgeIds[e]) + buf.route[x + 1];
+                if (best < freq) {
+                    best = freq;
+                    bestEnd = x;
+                    bestId = buf.edgeIds[e];
                 }
             }
-            route.put(i, candidate);
+            buf.route[i] = best;
+            buf.next[i] = bestEnd;
+            buf.nextId[i] = bestId;
         }
-        return route;
     }
 
 
     public List<SegToken> process(String paragraph, SegMode mode) {
-        List<SegToken> tokens = new ArrayList<SegToken>();
-        StringBuilder sb = new StringBuilder();
-        int offset = 0;
-        for (int i = 0; i < paragraph.length(); ++i) {
-            char ch = CharacterUtil.regularize(paragraph.charAt(i));
-            if (CharacterUtil.ccFind(ch))
-                sb.append(ch);
+        TokenSpans spans = scratch.get().spans;
+        processSpans(paragraph, mode, spans);
+        List<SegToken> tokens = new ArrayList<SegToken>(spans.size());
+        for (int i = 0; i < spans.size(); ++i)
+            tokens.add(new SegToken(spans.word(i), spans.start(i), spans.end(i)));
+        return tokens;
+    }
+
+
+    /**
+     * 与 {@link #process(String, SegMode)} 相同, 结果以区间写入out, 不生成String
+     * <p>out.text()为规范化后的paragraph: 可切分字符已规范化, 其余字符保持原样, 区间即原文中的偏移</p>
+     * 
+     * @param paragraph
+     * @param mode
+     * @param out
+     *            原有内容被清空
+     */
+    public void processSpans(String paragraph, SegMode mode, TokenSpans out) {
+        char[] text = out.prepare(paragraph.length());
+        segmentRange(wordDict.getVersion(), paragraph, text, 0, paragraph.length(), mode, out);
+    }
+
+
+    /**
+     * 把paragraph[from, to)规范化写入text的相同位置并切分, 区间加入out
+     * <p>to为paragraph的结尾或紧跟在不可切分字符之后时, 结果与整段切分中这一部分相同</p>
+     */
+    private void segmentRange(WordDictionary.Version dict, String paragraph, char[] text, int from, int to,
+            SegMode mode, TokenSpans out) {
+        DoubleArrayTrie trie = dict.getTrie();
+        // 当前连续可切分字符的起点, 没有时为-1
+        int runStart = -1;
+        for (int i = from; i < to; ++i) {
+            char raw = paragraph.charAt(i);
+            if (CharacterUtil.ccFindRegularized(raw)) {
+                text[i] = CharacterUtil.regularize(raw);
+                if (runStart < 0)
+                    runStart = i;
+            }
             else {
-                if (sb.length() > 0) {
-                    // process
-                    if (mode == SegMode.SEARCH) {
-                        for (String word : sentenceProcess(sb.toString())) {
-                            tokens.add(new SegToken(word, offset, offset += word.length()));
-                        }
-                    }
-                    else {
-                        for (String token : sentenceProcess(sb.toString())) {
-                            if (token.length() > 2) {
-                                String gram2;
-                                int j = 0;
-                                for (; j < token.length() - 1; ++j) {
-                                    gram2 = token.substring(j, j + 2);
-                                    if (wordDict.containsWord(gram2))
-                                        tokens.add(new SegToken(gram2, offset + j, offset + j + 2));
-                                }
-                            }
-                            if (token.length() > 3) {
-                                String gram3;
-                                int j = 0;
-                                for (; j < token.length() - 2; ++j) {
-                                    gram3 = token.substring(j, j + 3);
-                                    if (wordDict.containsWord(gram3))
-                                        tokens.add(new SegToken(gram3, offset + j, offset + j + 3));
-                                }
-                            }
-                            tokens.add(new SegToken(token, offset, offset += token.length()));
-                        }
-                    }
-                    sb = new StringBuilder();
-                    offset = i;
+                text[i] = raw;
+                if (runStart >= 0) {
+                    segmentRun(dict, text, runStart, i, mode, out);
+                    runStart = -1;
                 }
-                if (wordDict.containsWord(paragraph.substring(i, i + 1)))
-                    tokens.add(new SegToken(paragraph.substring(i, i + 1), offset, ++offset));
-                else
-                    tokens.add(new SegToken(paragraph.substring(i, i + 1), offset, ++offset));
+                out.add(i, i + 1, trie.wordId(text, i, i + 1));
+            }
+        }
+        if (runStart >= 0)
+            segmentRun(dict, text, runStart, to, mode, out);
+    }
+
+
+    /**
+     * 在pool中并行切分, 结果与 {@link #process(String, SegMode)} 相同
+     * <p>1.在不可切分字符之后把文本分成若干块, 每块不短于MIN_CHUNK; 一段连续的可切分字符不会被分开</p>
+     * <p>2.各块在pool中分别规范化、切分, 偏移本来就是在整个paragraph中的位置, 按块的顺序拼接即可</p>
+     * <p>3.整次调用使用同一个词典版本。文本较短或分不出多块时直接顺序切分</p>
+     * 
+     * @param paragraph
+     * @param mode
+     * @param pool
+     * @return
+     */
+    public List<SegToken> process(String paragraph, SegMode mode, ForkJoinPool pool) {
+        int P = paragraph.length();
+        int chunk = Math.max(MIN_CHUNK, P / (pool.getParallelism() * CHUNKS_PER_THREAD));
+        int[] bounds = chunkBounds(paragraph, chunk);
+        if (bounds.length <= 2)
+            return process(paragraph, mode);
+
+        char[] text = new char[P];
+        SegToken[][] results = new SegToken[bounds.length - 1][];
+        pool.invoke(new ChunkTask(wordDict.getVersion(), paragraph, text, bounds, mode, results, 0, results.length));
+
+        int size = 0;
+        for (SegToken[] result : results)
+            size += result.length;
+        List<SegToken> tokens = new ArrayList<SegToken>(size);
+        for (SegToken[] result : results)
+            tokens.addAll(Arrays.asList(result));
+        return tokens;
+    }
+
+
+    /**
+     * 在ForkJoinPool.commonPool()中并行切分
+     * 
+     * @see #process(String, SegMode, ForkJoinPool)
+     */
+    public List<SegToken> parallelProcess(String paragraph, SegMode mode) {
+        return process(paragraph, mode, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * 块的边界: 0, 块的终点..., paragraph.length()。除最后一块外, 每块终止于一个不可切分字符之后
+     */
+    private static int[] chunkBounds(String paragraph, int chunk) {
+        int P = paragraph.length();
+        int[] bounds = new int[8];
+        int count = 1;
+        int i = chunk;
+        while (i < P) {
+            while (i < P && CharacterUtil.ccFindRegularized(paragraph.charAt(i - 1)))
+                i++;
+            if (i >= P)
+                break;
+            if (count + 2 > bounds.length)
+                bounds = Arrays.copyOf(bounds, bounds.length << 1);
+            bounds[count++] = i;
+            i += chunk;
+        }
+        bounds[count++] = P;
+        return Arrays.copyOf(bounds, count);
+    }
+
+
+    /**
+     * 切分块[lo, hi), 多于一块时一分为二
+     */
+    private final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final WordDictionary.Version dict;
+        private final String paragraph;
+        private final char[] text;
+        private final int[] bounds;
+        private final SegMode mode;
+        private final SegToken[][] results;
+        private final int lo;
+        private final int hi;
+
+
+        ChunkTask(WordDictionary.Version dict, String paragraph, char[] text, int[] bounds, SegMode mode,
+                SegToken[][] results, int lo, int hi) {
+            this.dict = dict;
+            this.paragraph = paragraph;
+            this.text = text;
+            this.bounds = bounds;
+            this.mode = mode;
+            this.results = results;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new ChunkTask(dict, paragraph, text, bounds, mode, results, lo, mid),
+                    new ChunkTask(dict, paragraph, text, bounds, mode, results, mid, hi));
+                return;
             }
+            TokenSpans spans = new TokenSpans();
+            segmentRange(dict, paragraph, text, bounds[lo], bounds[lo + 1], mode, spans);
+            SegToken[] tokens = new SegToken[spans.size()];
+            for (int i = 0; i < spans.size(); ++i)
+                tokens[i] = new SegToken(new String(text, spans.start(i), spans.length(i)), spans.start(i), spans.end(i));
+            results[lo] = tokens;
+        }
+    }
+
+
+    /**
+     * 切分一段可切分字符text[begin, end)。INDEX模式下长词中的二字词、三字词也输出, 位于该词之前
+     */
+    private void segmentRun(WordDictionary.Version dict, char[] text, int begin, int end, SegMode mode, TokenSpans out) {
+        Scratch buf = scratch.get();
+        if (mode != SegMode.INDEX) {
+            cut(dict, buf, text, begin, end, out);
+            return;
         }
-        if (sb.length() > 0)
-            if (mode == SegMode.SEARCH) {
-                for (String token : sentenceProcess(sb.toString())) {
-                    tokens.add(new SegToken(token, offset, offset += token.length()));
+        TokenSpans run = buf.run;
+        run.clear();
+        cut(dict, buf, text, begin, end, run);
+        DoubleArrayTrie trie = dict.getTrie();
+        for (int k = 0; k < run.size(); ++k) {
+            int start = run.start(k);
+            int length = run.length(k);
+            if (length > 2) {
+                for (int j = 0; j < length - 1; ++j) {
+                    int id = trie.wordId(text, start + j, start + j + 2);
+                    if (id >= 0)
+                        out.add(start + j, start + j + 2, id);
                 }
             }
-            else {
-                for (String token : sentenceProcess(sb.toString())) {
-                    if (token.length() > 2) {
-                        String gram2;
-                        int j = 0;
-                        for (; j < token.length() - 1; ++j) {
-                            gram2 = token.substring(j, j + 2);
-                            if (wordDict.containsWord(gram2))
-                                tokens.add(new SegToken(gram2, offset + j, offset + j + 2));
-                        }
-                    }
-                    if (token.length() > 3) {
-                        String gram3;
-                        int j = 0;
-                        for (; j < token.length() - 2; ++j) {
-                            gram3 = token.substring(j, j + 3);
-                            if (wordDict.containsWord(gram3))
-                                tokens.add(new SegToken(gram3, offset + j, offset + j + 3));
-                        }
-                    }
-                    tokens.add(new SegToken(token, offset, offset += token.length()));
+            if (length > 3) {
+                for (int j = 0; j < length - 2; ++j) {
+                    int id = trie.wordId(text, start + j, start + j + 3);
+                    if (id >= 0)
+                        out.add(start + j, start + j + 3, id);
                 }
             }
+            out.add(start, run.end(k), run.termId(k));
+        }
+    }
+
 
+    /**
+     * 切分一句话(不做规范化)。构造时给了缓存则先查缓存
+     */
+    public List<String> sentenceProcess(String sentence) {
+        TokenSpans spans = scratch.get().spans;
+        sentenceSpans(wordDict.getVersion(), sentence, spans);
+        List<String> tokens = new ArrayList<String>(spans.size());
+        for (int i = 0; i < spans.size(); ++i)
+            tokens.add(spans.word(i));
         return tokens;
     }
 
 
-    /*
+    /**
+     * 与 {@link #sentenceProcess(String)} 相同, 结果以区间写入out, out.text()即sentence(不做规范化)
      * 
+     * @param sentence
+     * @param out
+     *            原有内容被清空
      */
-    public List<String> sentenceProcess(String sentence) {
-        List<String> tokens = new ArrayList<String>();
-        int N = sentence.length();
-        Map<Integer, List<Integer>> dag = createDAG(sentence);
-        Map<Integer, Pair<Integer>> route = calc(sentence, dag);
+    public void sentenceSpans(String sentence, TokenSpans out) {
+        sentenceSpans(wordDict.getVersion(), sentence, out);
+    }
+
+
+    /**
+     * 用给定的词典版本切分, 词id为该版本trie中的id。构造时给了缓存则先查缓存, 未命中时切分后放入
+     */
+    void sentenceSpans(WordDictionary.Version dict, String sentence, TokenSpans out) {
+        out.reset(sentence);
+        if (cache != null) {
+            int[] triples = cache.get(sentence, dict);
+            if (triples != null) {
+                out.addAll(triples);
+                return;
+            }
+        }
+        cut(dict, scratch.get(), out.text(), 0, sentence.length(), out);
+        if (cache != null)
+            cache.put(sentence, dict, out.toArray());
+    }
+
+
+    /**
+     * 按需读取input的分词流, 适合不便整篇载入内存的大文本
+     * 
+     * @param input
+     *            Reader或CharBuffer
+     * @param mode
+     * @return
+     */
+    public TokenStream tokenStream(Readable input, SegMode mode) {
+        return new TokenStream(this, input, mode);
+    }
+
+
+    /**
+     * 切分一段可切分字符(已规范化), 供TokenStream使用
+     * 
+     * @param text
+     *            text[0, length)
+     * @param offset
+     *            这一段在原文中的偏移
+     */
+    void processRun(char[] text, int length, int offset, SegMode mode, List<SegToken> tokens) {
+        TokenSpans spans = scratch.get().spans;
+        char[] chars = spans.prepare(length);
+        System.arraycopy(text, 0, chars, 0, length);
+        segmentRun(wordDict.getVersion(), chars, 0, length, mode, spans);
+        for (int i = 0; i < spans.size(); ++i)
+            tokens.add(new SegToken(spans.word(i), offset + spans.start(i), offset + spans.end(i)));
+    }
+
+
+    /**
+     * 用同一个词典版本切分text[begin, end), 结果加入out
+     */
+    private void cut(WordDictionary.Version dict, Scratch buf, char[] text, int begin, int end, TokenSpans out) {
+        DoubleArrayTrie trie = dict.getTrie();
+        int N = end - begin;
+        buf.ensure(N);
+        createDAG(dict.getMatcher(), buf, text, begin, N);
+        calc(trie, dict.getMinFreq(), buf, N);
 
         int x = 0;
         int y = 0;
-        String buf;
-        StringBuilder sb = new StringBuilder();
+        // 连续单字的起点, 没有时为-1
+        int single = -1;
         while (x < N) {
-            y = route.get(x).key + 1;
-            String lWord = sentence.substring(x, y);
-            if (y - x == 1)
-                sb.append(lWord);
+            y = buf.next[x] + 1;
+            if (y - x == 1) {
+                if (single < 0)
+                    single = x;
+            }
             else {
-                if (sb.length() > 0) {
-                    buf = sb.toString();
-                    sb = new StringBuilder();
-                    if (buf.length() == 1) {
-                        tokens.add(buf);
-                    }
-                    else {
-                        if (wordDict.containsWord(buf)) {
-                            tokens.add(buf);
-                        }
-                        else {
-                            finalSeg.cut(buf, tokens);
-                        }
-                    }
+                if (single >= 0) {
+                    flushSingles(trie, buf, text, begin, single, x, out);
+                    single = -1;
                 }
-                tokens.add(lWord);
+                out.add(begin + x, begin + y, buf.nextId[x]);
             }
             x = y;
         }
-        buf = sb.toString();
-        if (buf.length() > 0) {
-            if (buf.length() == 1) {
-                tokens.add(buf);
-            }
-            else {
-                if (wordDict.containsWord(buf)) {
-                    tokens.add(buf);
-                }
-                else {
-                    finalSeg.cut(buf, tokens);
-                }
-            }
+        if (single >= 0)
+            flushSingles(trie, buf, text, begin, single, N, out);
+    }
+
 
+    /**
+     * 连续的单字[from, to)(相对于begin): 一个字或者本身是词时直接输出, 否则交给HMM
+     */
+    private void flushSingles(DoubleArrayTrie trie, Scratch buf, char[] text, int begin, int from, int to,
+            TokenSpans out) {
+        if (to - from == 1) {
+            out.add(begin + from, begin + to, buf.nextId[from]);
+            return;
         }
-        return tokens;
+        int id = trie.wordId(text, begin + from, begin + to);
+        if (id >= 0) {
+            out.add(begin + from, begin + to, id);
+            return;
+        }
+        int k = out.size();
+        finalSeg.cut(text, begin + from, begin + to, out);
+        for (; k < out.size(); ++k)
+            out.setTermId(k, trie.wordId(text, out.start(k), out.end(k)));
     }
 }
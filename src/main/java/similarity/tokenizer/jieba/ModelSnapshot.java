@@ -0,0 +1,340 @@
+package similarity.tokenizer.jieba;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import similarity.tokenizer.jieba.keyword.IDFLoader;
+import similarity.tokenizer.jieba.viterbi.FinalSeg;
+
+
+/**
+ * 模型的二进制快照：主词典的trie、HMM的概率表、IDF表编译后存成一个文件，启动时内存映射读取
+ * <p>1.文件头: 魔数, 格式版本, 其后全部字节的CRC32, 段数; 然后是段表(标签, 偏移, 长度)</p>
+ * <p>2.每段以来源文本文件的路径开头。来源文件比快照新时该段作废，回退到解析文本</p>
+ * <p>3.魔数、版本、校验和任何一项不符，整个快照作废</p>
+ * <p>生成快照: java similarity.tokenizer.jieba.ModelSnapshot [输出路径]</p>
+ */
+public final class ModelSnapshot {
+
+    public static final Path DEFAULT_PATH = FileSystems.getDefault().getPath(".", "/models/stopwords/jieba.snapshot");
+
+    public static final int MAIN_DICT = 1;
+
+    public static final int HMM = 2;
+
+    public static final int IDF = 3;
+
+    // "JBSN"
+    private static final int MAGIC = 0x4A42534E;
+
+    private static final int VERSION = 1;
+
+    // 魔数4 + 版本4 + 校验和8 + 段数4
+    private static final int HEADER = 20;
+
+    private static final int CHECKSUM_FROM = 16;
+
+    private static final int ENTRY = 12;
+
+    private static ModelSnapshot defaultSnapshot;
+
+    private static boolean defaultLoaded = false;
+
+    private final Path path;
+
+    private final long lastModified;
+
+    private final ByteBuffer buffer;
+
+    private final int[] tags;
+
+    private final int[] offsets;
+
+    private final int[] lengths;
+
+
+    private ModelSnapshot(Path path, long lastModified, ByteBuffer buffer, int[] tags, int[] offsets, int[] lengths) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.buffer = buffer;
+        this.tags = tags;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+
+    /**
+     * 默认位置的快照, 只打开一次。不存在或校验失败返回null
+     */
+    public static synchronized ModelSnapshot getDefault() {
+        if (!defaultLoaded) {
+            defaultLoaded = true;
+            if (Files.exists(DEFAULT_PATH)) {
+                try {
+                    defaultSnapshot = open(DEFAULT_PATH);
+                }
+                catch (IOException e) {
+                    System.err.println(String.format(Locale.getDefault(), "%s, fall back to text models", e.getMessage()));
+                }
+            }
+        }
+        return defaultSnapshot;
+    }
+
+
+    /**
+     * 内存映射打开快照并校验
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     *             文件不完整, 魔数、版本或校验和不符
+     */
+    public static ModelSnapshot open(Path path) throws IOException {
+        long s = System.currentTimeMillis();
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER || size > Integer.MAX_VALUE)
+                throw new IOException(path + ": bad snapshot size " + size);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (buffer.getInt(0) != MAGIC)
+            throw new IOException(path + ": not a model snapshot");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException(path + ": snapshot version " + buffer.getInt(4) + ", expected " + VERSION);
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(CHECKSUM_FROM);
+        crc.update(payload);
+        if (crc.getValue() != buffer.getLong(8))
+            throw new IOException(path + ": snapshot checksum mismatch");
+
+        int count = buffer.getInt(CHECKSUM_FROM);
+        if (count < 0 || HEADER + (long) count * ENTRY > buffer.capacity())
+            throw new IOException(path + ": bad snapshot section count " + count);
+        int[] tags = new int[count];
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        for (int i = 0, p = HEADER; i < count; i++, p += ENTRY) {
+            tags[i] = buffer.getInt(p);
+            offsets[i] = buffer.getInt(p + 4);
+            lengths[i] = buffer.getInt(p + 8);
+            if (offsets[i] < 0 || lengths[i] < 0 || (long) offsets[i] + lengths[i] > buffer.capacity())
+                throw new IOException(path + ": bad snapshot section " + tags[i]);
+        }
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        System.out.println(String.format(Locale.getDefault(), "snapshot %s mapped, sections:%d, time elapsed:%dms", path,
+            count, System.currentTimeMillis() - s));
+        return new ModelSnapshot(path, lastModified, buffer, tags, offsets, lengths);
+    }
+
+
+    /**
+     * 取一段数据, 位置在来源路径之后
+     *
+     * @param tag
+     * @param source
+     *            该段的来源文本文件。与写入时记录的不同或比快照新时返回null; 文件不存在时照常使用快照
+     * @return 没有该段或已作废返回null
+     */
+    public ByteBuffer section(int tag, Path source) {
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i] != tag)
+                continue;
+            ByteBuffer in = buffer.duplicate();
+            in.position(offsets[i]);
+            in.limit(offsets[i] + lengths[i]);
+            in = in.slice();
+            byte[] recorded = new byte[in.getShort() & 0xFFFF];
+            in.get(recorded);
+            Path expected = Paths.get(new String(recorded, StandardCharsets.UTF_8));
+            if (!normalize(expected).equals(normalize(source))) {
+                System.err.println(String.format(Locale.getDefault(), "%s: section %d was compiled from %s, not %s", path,
+                    tag, expected, source));
+                return null;
+            }
+            try {
+                if (Files.exists(source) && Files.getLastModifiedTime(source).toMillis() > lastModified) {
+                    System.err.println(String.format(Locale.getDefault(), "%s is newer than snapshot %s", source, path));
+                    return null;
+                }
+            }
+            catch (IOException e) {
+                return null;
+            }
+            return in;
+        }
+        return null;
+    }
+
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+
+    public static void writeInts(DataOutput out, int[] values, int length) throws IOException {
+        for (int i = 0; i < length; i++)
+            out.writeInt(values[i]);
+    }
+
+
+    public static void writeLongs(DataOutput out, long[] values, int length) throws IOException {
+        for (int i = 0; i < length; i++)
+            out.writeLong(values[i]);
+    }
+
+
+    public static void writeDoubles(DataOutput out, double[] values, int length) throws IOException {
+        for (int i = 0; i < length; i++)
+            out.writeDouble(values[i]);
+    }
+
+
+    public static void writeChars(DataOutput out, char[] values, int length) throws IOException {
+        for (int i = 0; i < length; i++)
+            out.writeChar(values[i]);
+    }
+
+
+    public static int[] readInts(ByteBuffer in, int length) {
+        int[] values = new int[length];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + (length << 2));
+        return values;
+    }
+
+
+    public static long[] readLongs(ByteBuffer in, int length) {
+        long[] values = new long[length];
+        in.asLongBuffer().get(values);
+        in.position(in.position() + (length << 3));
+        return values;
+    }
+
+
+    public static double[] readDoubles(ByteBuffer in, int length) {
+        double[] values = new double[length];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + (length << 3));
+        return values;
+    }
+
+
+    public static char[] readChars(ByteBuffer in, int length) {
+        char[] values = new char[length];
+        in.asCharBuffer().get(values);
+        in.position(in.position() + (length << 1));
+        return values;
+    }
+
+
+    /**
+     * 按段收集数据, 最后一次写出
+     */
+    public static final class Writer {
+
+        private final List<Integer> tags = new ArrayList<Integer>();
+
+        private final List<ByteArrayOutputStream> sections = new ArrayList<ByteArrayOutputStream>();
+
+
+        /**
+         * 开始新的一段
+         *
+         * @param tag
+         * @param source
+         *            该段的来源文本文件
+         * @return 写入该段内容的流
+         * @throws IOException
+         */
+        public DataOutputStream section(int tag, Path source) throws IOException {
+            if (tags.contains(tag))
+                throw new IllegalArgumentException("duplicate section " + tag);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            tags.add(tag);
+            sections.add(bytes);
+            DataOutputStream out = new DataOutputStream(bytes);
+            byte[] name = source.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeShort(name.length);
+            out.write(name);
+            return out;
+        }
+
+
+        /**
+         * 先写临时文件再改名, 正在映射旧快照的进程不受影响
+         *
+         * @param output
+         * @throws IOException
+         */
+        public void write(Path output) throws IOException {
+            int count = tags.size();
+            ByteBuffer table = ByteBuffer.allocate(4 + count * ENTRY);
+            table.putInt(count);
+            int offset = HEADER + count * ENTRY;
+            for (int i = 0; i < count; i++) {
+                int length = sections.get(i).size();
+                table.putInt(tags.get(i)).putInt(offset).putInt(length);
+                offset += length;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(table.array());
+            for (ByteArrayOutputStream section : sections)
+                crc.update(section.toByteArray());
+
+            Path absolute = output.toAbsolutePath();
+            Path tmp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+            try (OutputStream file = Files.newOutputStream(tmp)) {
+                DataOutputStream out = new DataOutputStream(file);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(crc.getValue());
+                out.write(table.array());
+                for (ByteArrayOutputStream section : sections)
+                    section.writeTo(out);
+                out.flush();
+            }
+            Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+
+    /**
+     * 由文本模型编译快照
+     *
+     * @param args
+     *            输出路径, 缺省为 {@link #DEFAULT_PATH}
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        Path output = args.length > 0 ? Paths.get(args[0]) : DEFAULT_PATH;
+        long s = System.currentTimeMillis();
+        Writer writer = new Writer();
+        WordDictionary.getInstance().writeSnapshot(writer);
+        FinalSeg.getInstance().writeSnapshot(writer);
+        if (Files.exists(JiebaNLP.DEFAULT_IDF_PATH))
+            new IDFLoader(JiebaNLP.DEFAULT_IDF_PATH).writeSnapshot(writer);
+        writer.write(output);
+        System.out.println(String.format(Locale.getDefault(), "snapshot %s written, size:%d bytes, time elapsed:%dms",
+            output, Files.size(output), System.currentTimeMillis() - s));
+    }
+}
@@ -0,0 +1,379 @@
+package similarity.tokenizer.jieba;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import similarity.hash.HashFunction;
+
+
+/**
+ * 句子切分结果的缓存, 按估算的内存字节数限制大小, 可在所有线程间共享
+ * <p>切分结果存为 {@link TokenSpans} 的区间三元组(起点, 终点, 词id), 不保存词的String, 命中时在句子上还原</p>
+ * <p>1.以句子的64位hash为键, 命中时再比较句子本身, hash冲突不会返回错误的结果</p>
+ * <p>2.按hash高位分成若干段, 每段一把锁, 段内是开放寻址的long→条目表</p>
+ * <p>3.段内按CLOCK淘汰: 命中时置访问位, 淘汰时指针转过的条目有访问位则清除并跳过, 没有则淘汰。新条目不置访问位, 只出现一次的句子先被淘汰</p>
+ * <p>4.条目记录切分时的词典版本, 词典重新加载后旧条目按未命中处理并被覆盖</p>
+ */
+public class SentenceCache {
+
+    public static final int DEFAULT_CONCURRENCY = 16;
+
+    // String对象及char[]的头部, 按64位JVM估算
+    private static final int STRING_OVERHEAD = 56;
+
+    // 条目在各数组、表中的开销
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Segment[] segments;
+
+    private final int shift;
+
+    private final long maxWeight;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+
+    public SentenceCache(long maxBytes) {
+        this(maxBytes, DEFAULT_CONCURRENCY);
+    }
+
+
+    /**
+     * @param maxBytes
+     *            缓存内容估算的最大字节数
+     * @param concurrency
+     *            段数, 向上取2的幂
+     */
+    public SentenceCache(long maxBytes, int concurrency) {
+        if (maxBytes < 1 || concurrency < 1)
+            throw new IllegalArgumentException("maxBytes and concurrency must be positive");
+        int n = Integer.highestOneBit(concurrency);
+        if (n < concurrency)
+            n <<= 1;
+        this.maxWeight = maxBytes;
+        this.shift = 64 - Integer.numberOfTrailingZeros(n);
+        this.segments = new Segment[n];
+        for (int i = 0; i < n; i++)
+            segments[i] = new Segment(Math.max(1, maxBytes / n));
+    }
+
+
+    private Segment segmentFor(long hash) {
+        return segments.length == 1 ? segments[0] : segments[(int) (hash >>> shift)];
+    }
+
+
+    private static long hash(String sentence) {
+        return HashFunction.murmur64Utf16(sentence, 0, sentence.length());
+    }
+
+
+    /**
+     * @param sentence
+     * @param version
+     *            当前的词典版本
+     * @return 该版本下切分结果的区间三元组, 没有时返回null。返回的数组为缓存内部数据, 不可修改
+     */
+    int[] get(String sentence, WordDictionary.Version version) {
+        long h = hash(sentence);
+        int[] words = segmentFor(h).get(h, sentence, version);
+        if (words == null)
+            misses.increment();
+        else
+            hits.increment();
+        return words;
+    }
+
+
+    /**
+     * 放入切分结果, 同一hash的旧条目被替换
+     */
+    void put(String sentence, WordDictionary.Version version, int[] spans) {
+        long weight = ENTRY_OVERHEAD + STRING_OVERHEAD + 2L * sentence.length() + 16 + 4L * spans.length;
+        long h = hash(sentence);
+        Segment segment = segmentFor(h);
+        if (weight > segment.maxWeight)
+            return;
+        evictions.add(segment.put(h, sentence, version, spans, (int) Math.min(weight, Integer.MAX_VALUE)));
+    }
+
+
+    public void clear() {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+
+    /**
+     * 命中率, 还没有查询时为0
+     */
+    public double hitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0.0 : (double) hit / total;
+    }
+
+
+    /**
+     * 条目数
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.count;
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * 当前内容估算的字节数
+     */
+    public long weightedSize() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "SentenceCache[size:%d, bytes:%d/%d, hits:%d, misses:%d, evictions:%d]",
+            size(), weightedSize(), maxWeight, hitCount(), missCount(), evictionCount());
+    }
+
+
+    /**
+     * 一段缓存, 所有方法在持有该段的锁时执行
+     */
+    private static final class Segment {
+
+        final long maxWeight;
+
+        long weight = 0;
+
+        int count = 0;
+
+        // 开放寻址表: 键为hash, ids[i] - 1为条目下标, ids[i] == 0表示空位
+        long[] keys = new long[16];
+
+        int[] ids = new int[16];
+
+        // 条目, 下标由free回收复用; sentences[id] == null表示空闲
+        long[] hashes = new long[8];
+
+        String[] sentences = new String[8];
+
+        int[][] spans = new int[8][];
+
+        WordDictionary.Version[] versions = new WordDictionary.Version[8];
+
+        int[] weights = new int[8];
+
+        boolean[] referenced = new boolean[8];
+
+        // 用过的最大下标 + 1
+        int used = 0;
+
+        int[] free = new int[8];
+
+        int freeCount = 0;
+
+        // CLOCK指针
+        int hand = 0;
+
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+
+        synchronized int[] get(long h, String sentence, WordDictionary.Version version) {
+            int pos = find(h);
+            if (pos < 0)
+                return null;
+            int id = ids[pos] - 1;
+            if (versions[id] != version || !sentences[id].equals(sentence))
+                return null;
+            referenced[id] = true;
+            return spans[id];
+        }
+
+
+        /**
+         * @return 淘汰的条目数
+         */
+        synchronized int put(long h, String sentence, WordDictionary.Version version, int[] value, int w) {
+            int pos = find(h);
+            int id;
+            if (pos >= 0) {
+                id = ids[pos] - 1;
+                weight -= weights[id];
+            }
+            else {
+                id = allocate();
+                insert(h, id);
+                count++;
+                referenced[id] = false;
+            }
+            hashes[id] = h;
+            sentences[id] = sentence;
+            spans[id] = value;
+            versions[id] = version;
+            weights[id] = w;
+            weight += w;
+            int evicted = 0;
+            while (weight > maxWeight) {
+                if (hand >= used)
+                    hand = 0;
+                int victim = hand++;
+                if (sentences[victim] == null || victim == id)
+                    continue;
+                if (referenced[victim]) {
+                    referenced[victim] = false;
+                    continue;
+                }
+                remove(victim);
+                evicted++;
+            }
+            return evicted;
+        }
+
+
+        synchronized void clear() {
+            Arrays.fill(ids, 0);
+            Arrays.fill(sentences, null);
+            Arrays.fill(spans, null);
+            Arrays.fill(versions, null);
+            used = 0;
+            freeCount = 0;
+            hand = 0;
+            count = 0;
+            weight = 0;
+        }
+
+
+        private int allocate() {
+            if (freeCount > 0)
+                return free[--freeCount];
+            if (used == sentences.length) {
+                int capacity = used << 1;
+                hashes = Arrays.copyOf(hashes, capacity);
+                sentences = Arrays.copyOf(sentences, capacity);
+                spans = Arrays.copyOf(spans, capacity);
+                versions = Arrays.copyOf(versions, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+                referenced = Arrays.copyOf(referenced, capacity);
+                free = Arrays.copyOf(free, capacity);
+            }
+            return used++;
+        }
+
+
+        private void remove(int id) {
+            delete(find(hashes[id]));
+            weight -= weights[id];
+            sentences[id] = null;
+            spans[id] = null;
+            versions[id] = null;
+            free[freeCount++] = id;
+            count--;
+        }
+
+
+        private static int slot(long h, int mask) {
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+
+        private int find(long h) {
+            int mask = keys.length - 1;
+            for (int i = slot(h, mask); ids[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == h)
+                    return i;
+            }
+            return -1;
+        }
+
+
+        private void insert(long h, int id) {
+            if ((count + 1) << 1 > keys.length)
+                rehash(keys.length << 1);
+            int mask = keys.length - 1;
+            int i = slot(h, mask);
+            while (ids[i] != 0)
+                i = (i + 1) & mask;
+            keys[i] = h;
+            ids[i] = id + 1;
+        }
+
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new long[capacity];
+            ids = new int[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < oldIds.length; j++) {
+                if (oldIds[j] == 0)
+                    continue;
+                int i = slot(oldKeys[j], mask);
+                while (ids[i] != 0)
+                    i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                ids[i] = oldIds[j];
+            }
+        }
+
+
+        /**
+         * 线性探测的删除: 把后面探测链上的项前移填补空位
+         */
+        private void delete(int pos) {
+            int mask = keys.length - 1;
+            int hole = pos;
+            for (int j = (pos + 1) & mask; ids[j] != 0; j = (j + 1) & mask) {
+                int home = slot(keys[j], mask);
+                // home不在(hole, j]之间时, j可以移到hole
+                boolean between = hole <= j ? hole < home && home <= j : hole < home || home <= j;
+                if (!between) {
+                    keys[hole] = keys[j];
+                    ids[hole] = ids[j];
+                    hole = j;
+                }
+            }
+            ids[hole] = 0;
+        }
+    }
+}
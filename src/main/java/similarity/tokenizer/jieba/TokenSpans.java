@@ -0,0 +1,164 @@
+package similarity.tokenizer.jieba;
+
+import java.util.Arrays;
+
+import similarity.hash.HashFunction;
+
+
+/**
+ * 一批分词结果, 每个词是规范化文本上的一段区间, 不生成子串
+ * <p>1.text为分词所用的文本(可切分字符已规范化), 词i为text[start(i), end(i))</p>
+ * <p>2.每个词占spans中连续3个int: 起点, 终点(不含), 词id。词id是该词在当时词典trie中的id, 不是词典词为-1</p>
+ * <p>3.停用词过滤、词频统计、hash都可以直接在区间上做, 只在需要显示时才用 {@link #word(int)} 生成String</p>
+ * <p>可反复复用, 非线程安全</p>
+ */
+public class TokenSpans {
+
+    private static final int STRIDE = 3;
+
+    private char[] text = new char[256];
+
+    private int textLength = 0;
+
+    private int[] spans = new int[STRIDE * 64];
+
+    private int size = 0;
+
+
+    /**
+     * 清空并准备长度为length的文本缓冲区, 调用方随后写入文本
+     *
+     * @param length
+     * @return 文本缓冲区
+     */
+    public char[] prepare(int length) {
+        if (text.length < length)
+            text = new char[Math.max(length, text.length << 1)];
+        textLength = length;
+        size = 0;
+        return text;
+    }
+
+
+    /**
+     * 清空并以s为文本
+     */
+    public void reset(CharSequence s) {
+        char[] chars = prepare(s.length());
+        for (int i = 0; i < s.length(); i++)
+            chars[i] = s.charAt(i);
+    }
+
+
+    public void clear() {
+        textLength = 0;
+        size = 0;
+    }
+
+
+    public void add(int start, int end, int termId) {
+        int p = size * STRIDE;
+        if (p + STRIDE > spans.length)
+            spans = Arrays.copyOf(spans, spans.length << 1);
+        spans[p] = start;
+        spans[p + 1] = end;
+        spans[p + 2] = termId;
+        size++;
+    }
+
+
+    /**
+     * 全部区间三元组的副本
+     */
+    int[] toArray() {
+        return Arrays.copyOf(spans, size * STRIDE);
+    }
+
+
+    /**
+     * 追加 {@link #toArray()} 得到的区间三元组
+     */
+    void addAll(int[] triples) {
+        int p = size * STRIDE;
+        if (p + triples.length > spans.length)
+            spans = Arrays.copyOf(spans, Math.max(p + triples.length, spans.length << 1));
+        System.arraycopy(triples, 0, spans, p, triples.length);
+        size += triples.length / STRIDE;
+    }
+
+
+    void setTermId(int i, int termId) {
+        spans[i * STRIDE + 2] = termId;
+    }
+
+
+    /**
+     * 词的个数
+     */
+    public int size() {
+        return size;
+    }
+
+
+    public char[] text() {
+        return text;
+    }
+
+
+    public int textLength() {
+        return textLength;
+    }
+
+
+    public int start(int i) {
+        return spans[i * STRIDE];
+    }
+
+
+    public int end(int i) {
+        return spans[i * STRIDE + 1];
+    }
+
+
+    public int length(int i) {
+        return end(i) - start(i);
+    }
+
+
+    /**
+     * @return 词典中的词id, 不是词典词为-1
+     */
+    public int termId(int i) {
+        return spans[i * STRIDE + 2];
+    }
+
+
+    /**
+     * 生成第i个词的String
+     */
+    public String word(int i) {
+        return new String(text, start(i), length(i));
+    }
+
+
+    /**
+     * 第i个词的64位hash, 与 HashFunction.murmur64(word(i), 0, length(i)) 相同
+     */
+    public long hash(int i) {
+        return HashFunction.murmur64(text, start(i), length(i));
+    }
+
+
+    /**
+     * 第i个词去掉首尾空白(不大于' '的字符)后的长度, 与 word(i).trim().length() 相同
+     */
+    public int trimmedLength(int i) {
+        int start = start(i);
+        int end = end(i);
+        while (start < end && text[start] <= ' ')
+            start++;
+        while (end > start && text[end - 1] <= ' ')
+            end--;
+        return end - start;
+    }
+}
@@ -0,0 +1,168 @@
+package similarity.tokenizer.jieba;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import similarity.tokenizer.jieba.JiebaSegmenter.SegMode;
+
+
+/**
+ * 按需读取的分词流, 一次取一个词, 内存占用与输入长度无关
+ * <p>1.从Readable(Reader或CharBuffer)按固定大小分块读取</p>
+ * <p>2.连续的可切分字符(ccFind)攒成一段, 遇到不可切分字符时整段切分, 段不会被块边界截断</p>
+ * <p>3.与 {@link JiebaSegmenter#process(String, SegMode)} 对整篇文本的结果相同, 偏移为字符在整个输入中的位置</p>
+ * <p>4.超过maxRunLength的段在该长度处强制断开, 只有这种情况下结果与process不同</p>
+ * <p>5.read返回0视为暂时没有数据: 让出CPU后重试, 连续MAX_EMPTY_READS次仍为0时抛出IOException, 不会在非阻塞的输入上空转; 非阻塞输入应由调用方等到有数据再读</p>
+ * <p>非线程安全, 一个流只在一个线程中使用</p>
+ */
+public class TokenStream implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    public static final int DEFAULT_MAX_RUN_LENGTH = 1 << 16;
+
+    // 连续读到0个字符的次数上限
+    static final int MAX_EMPTY_READS = 64;
+
+    private final JiebaSegmenter segmenter;
+
+    private final Readable input;
+
+    private final SegMode mode;
+
+    private final int maxRunLength;
+
+    private final CharBuffer buffer;
+
+    private boolean eof = false;
+
+    // 下一个读出的字符在整个输入中的位置
+    private int offset = 0;
+
+    // 当前段(已规范化)及其起点
+    private char[] run = new char[256];
+
+    private int runLength = 0;
+
+    private int runStart = 0;
+
+    // 已切分未取走的词
+    private final List<SegToken> pending = new ArrayList<SegToken>();
+
+    private int pendingIndex = 0;
+
+
+    public TokenStream(JiebaSegmenter segmenter, Readable input, SegMode mode) {
+        this(segmenter, input, mode, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_RUN_LENGTH);
+    }
+
+
+    /**
+     * @param segmenter
+     * @param input
+     * @param mode
+     * @param bufferSize
+     *            每次读取的字符数
+     * @param maxRunLength
+     *            一段可切分字符的最大长度
+     */
+    public TokenStream(JiebaSegmenter segmenter, Readable input, SegMode mode, int bufferSize, int maxRunLength) {
+        if (bufferSize < 1 || maxRunLength < 1)
+            throw new IllegalArgumentException("bufferSize and maxRunLength must be positive");
+        this.segmenter = segmenter;
+        this.input = input;
+        this.mode = mode;
+        this.maxRunLength = maxRunLength;
+        this.buffer = CharBuffer.allocate(bufferSize);
+        this.buffer.flip();
+    }
+
+
+    /**
+     * @return 下一个词, 输入结束时返回null
+     * @throws IOException
+     */
+    public SegToken next() throws IOException {
+        while (pendingIndex == pending.size()) {
+            pending.clear();
+            pendingIndex = 0;
+            if (!fill())
+                return null;
+        }
+        return pending.get(pendingIndex++);
+    }
+
+
+    /**
+     * 读入字符直到切出至少一个词
+     *
+     * @return 输入结束且没有新词时返回false
+     */
+    private boolean fill() throws IOException {
+        while (pending.isEmpty()) {
+            if (!buffer.hasRemaining()) {
+                if (eof || !read()) {
+                    flushRun();
+                    return !pending.isEmpty();
+                }
+                continue;
+            }
+            char raw = buffer.get();
+            if (CharacterUtil.ccFindRegularized(raw)) {
+                if (runLength == maxRunLength)
+                    flushRun();
+                appendRun(CharacterUtil.regularize(raw));
+            }
+            else {
+                flushRun();
+                pending.add(new SegToken(String.valueOf(raw), offset, offset + 1));
+            }
+            offset++;
+        }
+        return true;
+    }
+
+
+    private boolean read() throws IOException {
+        buffer.clear();
+        int n = input.read(buffer);
+        for (int empty = 1; n == 0; empty++) {
+            if (empty == MAX_EMPTY_READS)
+                throw new IOException("input returned no data for " + MAX_EMPTY_READS + " reads at offset " + offset);
+            Thread.yield();
+            n = input.read(buffer);
+        }
+        buffer.flip();
+        if (n < 0)
+            eof = true;
+        return n > 0;
+    }
+
+
+    private void appendRun(char ch) {
+        if (runLength == 0)
+            runStart = offset;
+        if (runLength == run.length)
+            run = Arrays.copyOf(run, run.length << 1);
+        run[runLength++] = ch;
+    }
+
+
+    private void flushRun() {
+        if (runLength > 0) {
+            segmenter.processRun(run, runLength, runStart, mode, pending);
+            runLength = 0;
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        if (input instanceof Closeable)
+            ((Closeable) input).close();
+    }
+}
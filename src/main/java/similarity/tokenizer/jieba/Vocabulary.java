@@ -0,0 +1,232 @@
+package similarity.tokenizer.jieba;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import similarity.hash.HashFunction;
+
+
+/**
+ * 词典、IDF表、停用词合成的词表, 每个词一个int id, 词频、idf、停用词标记存在按id下标的数组中
+ * <p>1.[0, 词典词数)为词典trie的id, 即分词结果中的词id; 之后依次是IDF表trie、停用词trie中的id</p>
+ * <p>2.同一个词只用第一个出现它的表的id: 查id时依次查词典、IDF表、停用词, 后两段中已在前面出现的词的id空着不用</p>
+ * <p>3.三张表都已编译成trie, 构造时只遍历词典和停用词, 不重新编译</p>
+ * <p>4.idf表与其默认idf一起随词表替换, 取一次词表即得到一致的一对</p>
+ * <p>5.checksum()按id顺序对三张表的词、idf和默认idf做hash, 用于识别按其他词表计算、词id不可比的数据(如保存的向量库)</p>
+ * <p>构造后只读, 可多线程共享; 词典、IDF表或停用词变化后需重新构造</p>
+ */
+public final class Vocabulary {
+
+    private final WordDictionary.Version version;
+
+    private final DoubleArrayTrie dict;
+
+    private final DoubleArrayTrie idfTrie;
+
+    private final DoubleArrayTrie stopTrie;
+
+    // IDF表、停用词两段的起点
+    private final int idfBase;
+
+    private final int stopBase;
+
+    // 没有idf的词为NaN
+    private final double[] idf;
+
+    private final boolean[] stop;
+
+    // 没有idf的词使用的idf
+    private final double defaultIdf;
+
+    // 首次调用checksum()时计算
+    private volatile long checksum;
+
+    private volatile boolean checksummed;
+
+
+    /**
+     * @param version
+     *            词典版本
+     * @param idfTrie
+     *            词id对应的值为idf
+     * @param stopTrie
+     *            停用词
+     */
+    public Vocabulary(WordDictionary.Version version, DoubleArrayTrie idfTrie, DoubleArrayTrie stopTrie) {
+        this(version, idfTrie, stopTrie, Double.NaN);
+    }
+
+
+    /**
+     * @param version
+     *            词典版本
+     * @param idfTrie
+     *            词id对应的值为idf
+     * @param stopTrie
+     *            停用词
+     * @param defaultIdf
+     *            没有idf的词使用的idf
+     */
+    public Vocabulary(WordDictionary.Version version, DoubleArrayTrie idfTrie, DoubleArrayTrie stopTrie,
+            double defaultIdf) {
+        long s = System.currentTimeMillis();
+        this.version = version;
+        this.dict = version.getTrie();
+        this.idfTrie = idfTrie;
+        this.stopTrie = stopTrie;
+        this.defaultIdf = defaultIdf;
+        this.idfBase = dict.size();
+        this.stopBase = idfBase + idfTrie.size();
+        int size = stopBase + stopTrie.size();
+
+        idf = new double[size];
+        Arrays.fill(idf, 0, idfBase, Double.NaN);
+        for (int id = 0; id < idfTrie.size(); id++)
+            idf[idfBase + id] = idfTrie.value(id);
+        Arrays.fill(idf, stopBase, size, Double.NaN);
+        String[] words = dict.keys();
+        for (int id = 0; id < words.length; id++) {
+            int idfId = idfTrie.wordId(words[id]);
+            if (idfId >= 0)
+                idf[id] = idfTrie.value(idfId);
+        }
+
+        stop = new boolean[size];
+        for (String word : stopTrie.keys())
+            stop[id(word)] = true;
+        System.out.println(String.format(Locale.getDefault(), "vocabulary built, terms:%d, time elapsed:%dms", size,
+            System.currentTimeMillis() - s));
+    }
+
+
+    public WordDictionary.Version getVersion() {
+        return version;
+    }
+
+
+    public DoubleArrayTrie getIdfTrie() {
+        return idfTrie;
+    }
+
+
+    public DoubleArrayTrie getStopTrie() {
+        return stopTrie;
+    }
+
+
+    /**
+     * id的上界
+     */
+    public int size() {
+        return stop.length;
+    }
+
+
+    /**
+     * text[start, end)的id, 不在任何一张表中返回-1
+     */
+    public int id(char[] text, int start, int end) {
+        int id = dict.wordId(text, start, end);
+        if (id >= 0)
+            return id;
+        id = idfTrie.wordId(text, start, end);
+        if (id >= 0)
+            return idfBase + id;
+        id = stopTrie.wordId(text, start, end);
+        return id >= 0 ? stopBase + id : -1;
+    }
+
+
+    public int id(CharSequence word) {
+        int id = dict.wordId(word);
+        if (id >= 0)
+            return id;
+        id = idfTrie.wordId(word);
+        if (id >= 0)
+            return idfBase + id;
+        id = stopTrie.wordId(word);
+        return id >= 0 ? stopBase + id : -1;
+    }
+
+
+    /**
+     * 对数词频, 不是词典词时为词典的最小词频
+     */
+    public double freq(int id) {
+        return id >= 0 && id < idfBase ? dict.value(id) : version.getMinFreq();
+    }
+
+
+    public boolean hasIdf(int id) {
+        return id >= 0 && !Double.isNaN(idf[id]);
+    }
+
+
+    /**
+     * @param id
+     * @param defaultIdf
+     *            没有idf时返回的值
+     */
+    public double idf(int id, double defaultIdf) {
+        if (id < 0)
+            return defaultIdf;
+        double value = idf[id];
+        return Double.isNaN(value) ? defaultIdf : value;
+    }
+
+
+    /**
+     * 词的idf, 没有idf时为构造时给出的默认idf
+     */
+    public double idf(int id) {
+        return idf(id, defaultIdf);
+    }
+
+
+    public double getDefaultIdf() {
+        return defaultIdf;
+    }
+
+
+    public boolean isStopWord(int id) {
+        return id >= 0 && stop[id];
+    }
+
+
+    public int dictSize() {
+        return idfBase;
+    }
+
+
+    public int idfSize() {
+        return stopBase - idfBase;
+    }
+
+
+    public int stopSize() {
+        return stop.length - stopBase;
+    }
+
+
+    /**
+     * 三张表按id顺序的词、idf值与默认idf的64位hash; 词表相同(不必是同一对象)时相等
+     */
+    public long checksum() {
+        if (checksummed)
+            return checksum;
+        long h = 1125899906842597L;
+        for (String word : dict.keys())
+            h = 31 * h + HashFunction.murmur64(word);
+        String[] words = idfTrie.keys();
+        for (int id = 0; id < words.length; id++) {
+            h = 31 * h + HashFunction.murmur64(words[id]);
+            h = 31 * h + Double.doubleToLongBits(idfTrie.value(id));
+        }
+        for (String word : stopTrie.keys())
+            h = 31 * h + HashFunction.murmur64(word);
+        h = 31 * h + Double.doubleToLongBits(defaultIdf);
+        checksum = h;
+        checksummed = true;
+        return h;
+    }
+}
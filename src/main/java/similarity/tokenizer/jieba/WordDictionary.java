@@ -1,6 +1,8 @@
 package similarity.tokenizer.jieba;
 
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -8,28 +10,97 @@ import java.nio.file.Path;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 
+/**
+ * 词典。分词使用的trie和自动机组成不可变的版本 {@link Version}, 通过一个volatile字段发布
+ * <p>1.加载、重新加载词典都在调用线程中另建新版本, 编译完成后一次替换, 分词线程不加锁</p>
+ * <p>2.分词开始时取一次当前版本, 正在进行的分词在旧版本上完成</p>
+ * <p>3.修改词典的方法之间用WordDictionary.class串行</p>
+ */
 public class WordDictionary {
     private static WordDictionary singleton;
     private static final Path MAIN_DICT = FileSystems.getDefault().getPath(".", "/models/stopwords/sougou.dict");
     private static String USER_DICT_SUFFIX = ".dict";
 
+    // 写入方暂存的词及对数词频, 与当前版本一致; 从快照加载时为空, 修改词典前才展开
     public final Map<String, Double> freqs = new HashMap<String, Double>();
     public final Set<String> loadedPath = new HashSet<String>();
-    private Double minFreq = Double.MAX_VALUE;
-    private Double total = 0.0;
-    private DictSegment _dict;
+    // 已加载的用户词典文件, 重新加载时按加载顺序再读一遍
+    private final Map<Path, Charset> userDicts = new LinkedHashMap<Path, Charset>();
+    private double minFreq = Double.MAX_VALUE;
+    private double total = 0.0;
+    // 只含主词典的trie, 重新加载用户词典时以它为底
+    private DoubleArrayTrie mainTrie;
+    // 当前版本, 分词线程只读这一个字段
+    private volatile Version current;
+    // 当前版本来自快照, 尚未展开到freqs
+    private boolean snapshotOnly = false;
+
+
+    /**
+     * 词典的一个版本: trie、trie上的Aho-Corasick自动机以及词频参数, 构造后只读
+     */
+    public static final class Version {
+
+        private final DoubleArrayTrie trie;
+
+        private final AhoCorasick matcher;
+
+        private final double minFreq;
+
+        private final double total;
+
+
+        Version(DoubleArrayTrie trie, double minFreq, double total) {
+            this.trie = trie;
+            this.matcher = new AhoCorasick(trie);
+            this.minFreq = minFreq;
+            this.total = total;
+        }
+
+
+        /**
+         * 词id对应的值为对数词频
+         */
+        public DoubleArrayTrie getTrie() {
+            return trie;
+        }
+
+
+        public AhoCorasick getMatcher() {
+            return matcher;
+        }
+
+
+        /**
+         * 不在词典中的词使用的对数词频
+         */
+        public double getMinFreq() {
+            return minFreq;
+        }
+
+
+        public double getTotal() {
+            return total;
+        }
+    }
 
 
     private WordDictionary() {
-        this.loadDict();
+        if (!this.loadSnapshot())
+            this.loadDict();
+        if (current == null)
+            publish(DoubleArrayTrie.build(freqs));
     }
 
 
@@ -58,12 +129,13 @@ public class WordDictionary {
             if (loadedPath.contains(abspath))
                 return;
             
+            expandSnapshot();
             DirectoryStream<Path> stream;
             try {
                 stream = Files.newDirectoryStream(configFile, String.format(Locale.getDefault(), "*%s", USER_DICT_SUFFIX));
                 for (Path path: stream){
                     System.err.println(String.format(Locale.getDefault(), "loading dict %s", path.toString()));
-                    singleton.loadUserDict(path);
+                    addUserDict(path, StandardCharsets.UTF_8);
                 }
                 loadedPath.add(abspath);
             } catch (IOException e) {
@@ -71,6 +143,7 @@ public class WordDictionary {
                 // e.printStackTrace();
                 System.err.println(String.format(Locale.getDefault(), "%s: load user dict failure!", configFile.toString()));
             }
+            publish(DoubleArrayTrie.build(freqs));
         }
     }
     
@@ -79,48 +152,121 @@ public class WordDictionary {
      * let user just use their own dict instead of the default dict
      */
     public void resetDict(){
-    	_dict = new DictSegment((char) 0);
-    	freqs.clear();
+        synchronized (WordDictionary.class) {
+            snapshotOnly = false;
+            mainTrie = null;
+            freqs.clear();
+            userDicts.clear();
+            loadedPath.clear();
+            publish(DoubleArrayTrie.build(freqs));
+        }
     }
 
 
     public void loadDict() {
-        _dict = new DictSegment((char) 0);
-        try 
-           ( BufferedReader br = Files.newBufferedReader(MAIN_DICT, Charset.forName("UTF-8"));)
-        	{
-            long s = System.currentTimeMillis();
-            while (br.ready()) {
-                String line = br.readLine();
-                String[] tokens = line.split("[\t ]+");
+        synchronized (WordDictionary.class) {
+            Map<String, Double> main = new HashMap<String, Double>();
+            double sum = 0.0;
+            try 
+               ( BufferedReader br = Files.newBufferedReader(MAIN_DICT, Charset.forName("UTF-8"));)
+            	{
+                long s = System.currentTimeMillis();
+                while (br.ready()) {
+                    String line = br.readLine();
+                    String[] tokens = line.split("[\t ]+");
 
-                if (tokens.length < 2)
-                    continue;
+                    if (tokens.length < 2)
+                        continue;
+
+                    String word = addWord(tokens[0]);
+                    if (word == null)
+                        continue;
+                    double freq = Double.valueOf(tokens[1]);
+                    sum += freq;
+                    main.put(word, freq);
+                }
+                // normalize
+                double min = Double.MAX_VALUE;
+                for (Entry<String, Double> entry : main.entrySet()) {
+                    entry.setValue((Math.log(entry.getValue() / sum)));
+                    min = Math.min(entry.getValue(), min);
+                }
+                System.out.println(String.format(Locale.getDefault(), "main dict load finished, time elapsed %d ms",
+                    System.currentTimeMillis() - s));
 
-                String word = tokens[0];
-                double freq = Double.valueOf(tokens[1]);
-                total += freq;
-                word = addWord(word);
-                freqs.put(word, freq);
+                expandSnapshot();
+                total = sum;
+                minFreq = min;
+                mainTrie = DoubleArrayTrie.build(main);
+                boolean mainOnly = freqs.isEmpty();
+                freqs.putAll(main);
+                publish(mainOnly ? mainTrie : DoubleArrayTrie.build(freqs));
             }
-            // normalize
-            for (Entry<String, Double> entry : freqs.entrySet()) {
-                entry.setValue((Math.log(entry.getValue() / total)));
-                minFreq = Math.min(entry.getValue(), minFreq);
+            catch (IOException e) {
+                System.err.println(String.format(Locale.getDefault(), "%s load failure!", MAIN_DICT));
             }
-            System.out.println(String.format(Locale.getDefault(), "main dict load finished, time elapsed %d ms",
-                System.currentTimeMillis() - s));
-        }
-        catch (IOException e) {
-            System.err.println(String.format(Locale.getDefault(), "%s load failure!", MAIN_DICT));
         }
     }
 
 
+    /**
+     * 从默认快照加载主词典, 直接得到编译好的trie
+     * 
+     * @return 快照不可用时返回false
+     */
+    private boolean loadSnapshot() {
+        ModelSnapshot snapshot = ModelSnapshot.getDefault();
+        ByteBuffer in = snapshot == null ? null : snapshot.section(ModelSnapshot.MAIN_DICT, MAIN_DICT);
+        if (in == null)
+            return false;
+        long s = System.currentTimeMillis();
+        total = in.getDouble();
+        minFreq = in.getDouble();
+        mainTrie = DoubleArrayTrie.read(in);
+        snapshotOnly = true;
+        System.out.println(String.format(Locale.getDefault(), "main dict load from snapshot, words:%d, time elapsed %d ms",
+            mainTrie.size(), System.currentTimeMillis() - s));
+        publish(mainTrie);
+        return true;
+    }
+
+
+    /**
+     * 把主词典写入快照
+     * 
+     * @param writer
+     * @throws IOException
+     */
+    public void writeSnapshot(ModelSnapshot.Writer writer) throws IOException {
+        Version version = current;
+        DataOutputStream out = writer.section(ModelSnapshot.MAIN_DICT, MAIN_DICT);
+        out.writeDouble(version.getTotal());
+        out.writeDouble(version.getMinFreq());
+        version.getTrie().write(out);
+    }
+
+
+    /**
+     * 快照中的词典只有trie, 修改前先还原到freqs
+     */
+    private void expandSnapshot() {
+        if (!snapshotOnly)
+            return;
+        putAll(mainTrie, freqs);
+        snapshotOnly = false;
+    }
+
+
+    private static void putAll(DoubleArrayTrie trie, Map<String, Double> words) {
+        String[] keys = trie.keys();
+        for (int id = 0; id < keys.length; id++)
+            words.put(keys[id], trie.value(id));
+    }
+
+
     private String addWord(String word) {
         if (null != word && !"".equals(word.trim())) {
             String key = word.trim().toLowerCase(Locale.getDefault());
-            _dict.fillSegment(key.toCharArray());
             return key;
         }
         else
@@ -134,46 +280,168 @@ public class WordDictionary {
 
 
     public void loadUserDict(Path userDict, Charset charset) {                
+        synchronized (WordDictionary.class) {
+            expandSnapshot();
+            if (addUserDict(userDict, charset))
+                publish(DoubleArrayTrie.build(freqs));
+        }
+    }
+
+
+    /**
+     * 读一个用户词典到freqs并记录下来, 不发布新版本
+     * 
+     * @return 读取失败时返回false, freqs不变
+     */
+    private boolean addUserDict(Path userDict, Charset charset) {
         try {
-            BufferedReader br = Files.newBufferedReader(userDict, charset);
             long s = System.currentTimeMillis();
-            int count = 0;
+            Map<String, Double> words = new HashMap<String, Double>();
+            int count = readUserDict(userDict, charset, words);
+            freqs.putAll(words);
+            userDicts.put(userDict.toAbsolutePath().normalize(), charset);
+            System.out.println(String.format(Locale.getDefault(), "user dict %s load finished, tot words:%d, time elapsed:%dms", userDict.toString(), count, System.currentTimeMillis() - s));
+            return true;
+        }
+        catch (IOException e) {
+            System.err.println(String.format(Locale.getDefault(), "%s: load user dict failure!", userDict.toString()));
+            return false;
+        }
+    }
+
+
+    private int readUserDict(Path userDict, Charset charset, Map<String, Double> words) throws IOException {
+        int count = 0;
+        try (BufferedReader br = Files.newBufferedReader(userDict, charset)) {
             while (br.ready()) {
                 String line = br.readLine();
                 String[] tokens = line.split("[\t ]+");
 
-                String word = tokens[0];
+                String word = addWord(tokens[0]);
+                if (word == null)
+                    continue;
 
                 double freq = 3.0d;
                 if (tokens.length == 2)
                     freq = Double.valueOf(tokens[1]);
-                word = addWord(word); 
-                freqs.put(word, Math.log(freq / total));
+                words.put(word, Math.log(freq / total));
                 count++;
             }
-            System.out.println(String.format(Locale.getDefault(), "user dict %s load finished, tot words:%d, time elapsed:%dms", userDict.toString(), count, System.currentTimeMillis() - s));
-            br.close();
         }
-        catch (IOException e) {
-            System.err.println(String.format(Locale.getDefault(), "%s: load user dict failure!", userDict.toString()));
+        return count;
+    }
+
+
+    /**
+     * 重新读取用户词典: 已加载过的文件, 加上init目录中新增的文件, 与主词典合成新版本后一次替换
+     * <p>读文件和编译都在调用线程中进行, 期间分词照常使用旧版本, 不必重启即可更新词汇</p>
+     * <p>读取失败(如已删除)的文件不再加载</p>
+     */
+    public void reloadUserDicts() {
+        synchronized (WordDictionary.class) {
+            long s = System.currentTimeMillis();
+            for (String dir : loadedPath) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(FileSystems.getDefault().getPath(dir),
+                    String.format(Locale.getDefault(), "*%s", USER_DICT_SUFFIX))) {
+                    for (Path path : stream) {
+                        Path key = path.toAbsolutePath().normalize();
+                        if (!userDicts.containsKey(key))
+                            userDicts.put(key, StandardCharsets.UTF_8);
+                    }
+                }
+                catch (IOException e) {
+                    System.err.println(String.format(Locale.getDefault(), "%s: load user dict failure!", dir));
+                }
+            }
+
+            Map<String, Double> words = new HashMap<String, Double>();
+            if (mainTrie != null)
+                putAll(mainTrie, words);
+            List<Path> failed = new ArrayList<Path>();
+            int count = 0;
+            for (Entry<Path, Charset> entry : userDicts.entrySet()) {
+                try {
+                    count += readUserDict(entry.getKey(), entry.getValue(), words);
+                }
+                catch (IOException e) {
+                    System.err.println(String.format(Locale.getDefault(), "%s: load user dict failure!", entry.getKey()));
+                    failed.add(entry.getKey());
+                }
+            }
+            for (Path path : failed)
+                userDicts.remove(path);
+
+            DoubleArrayTrie trie = DoubleArrayTrie.build(words);
+            freqs.clear();
+            freqs.putAll(words);
+            snapshotOnly = false;
+            publish(trie);
+            System.out.println(String.format(Locale.getDefault(), "user dicts reloaded, files:%d, user words:%d, time elapsed:%dms",
+                userDicts.size(), count, System.currentTimeMillis() - s));
         }
     }
 
 
-    public DictSegment getTrie() {
-        return this._dict;
+    /**
+     * 在trie上构造自动机, 组成新版本后替换当前版本
+     */
+    private void publish(DoubleArrayTrie trie) {
+        long s = System.currentTimeMillis();
+        current = new Version(trie, minFreq, total);
+        System.out.println(String.format(Locale.getDefault(), "dictionary version published, words:%d, time elapsed:%dms",
+            trie.size(), System.currentTimeMillis() - s));
+    }
+
+
+    /**
+     * 当前版本。一次分词只应取一次, 保证trie、自动机和词频参数来自同一版本
+     * 
+     * @return
+     */
+    public Version getVersion() {
+        return current;
+    }
+
+
+    /**
+     * 当前版本的双数组trie, 词id对应的值为对数词频
+     * 
+     * @return
+     */
+    public DoubleArrayTrie getTrie() {
+        return current.getTrie();
+    }
+
+
+    /**
+     * 当前版本trie上的Aho-Corasick自动机
+     * 
+     * @return
+     */
+    public AhoCorasick getMatcher() {
+        return current.getMatcher();
     }
 
 
     public boolean containsWord(String word) {
-        return freqs.containsKey(word);
+        return null != word && getTrie().contains(word);
     }
 
 
     public Double getFreq(String key) {
-        if (containsWord(key))
-            return freqs.get(key);
+        Version version = current;
+        int id = null == key ? -1 : version.getTrie().wordId(key);
+        if (id >= 0)
+            return version.getTrie().value(id);
         else
-            return minFreq;
+            return version.getMinFreq();
+    }
+
+
+    /**
+     * 不在词典中的词使用的对数词频
+     */
+    public double getMinFreq() {
+        return current.getMinFreq();
     }
 }
@@ -0,0 +1,295 @@
+package similarity.tokenizer.jieba.keyword;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import similarity.hash.HashFunction;
+
+
+/**
+ * 从文档流增量统计文档频率(df), 生成idf表
+ * <p>1.词按hash分到各分片, 每个分片一把锁, 多线程送入文档时只在同一分片上竞争</p>
+ * <p>2.每个分片先精确计数; 不同词数超过预算后改用count-min sketch(保守更新)估计df, 同时用小顶堆保留df最高的若干词</p>
+ * <p>3.snapshot()按 idf = ln(文档数 / df) 生成不可变的 {@link IDFSnapshot}: 精确计数的分片输出全部词, 已转为sketch的分片只输出堆中的高频词</p>
+ * <p>  不在表中的词用默认idf。有分片转为sketch后, 未输出的词的df不超过堆中最小的计数, 默认idf取中位数与 ln(文档数 / 该计数) 中的较大者, 不会低于任何高频词</p>
+ * <p>4.设置发布间隔后, 每送入该数量的文档生成一次快照交给发布方, 同时只有一个线程在生成</p>
+ * <p>各分片依次加锁读取, 快照中不同分片的计数可能相差正在送入的几篇文档</p>
+ */
+public class IDFBuilder {
+	private static final int SKETCH_DEPTH = 4;
+
+	private final Shard[] shards;
+	// 每个分片精确计数的词数上限
+	private final int exactTerms;
+	private final int heavyHitters;
+	private final int sketchWidth;
+	private final AtomicLong documents = new AtomicLong();
+
+	private long publishEvery = 0;
+	private Consumer<IDFSnapshot> publisher;
+	private final AtomicBoolean publishing = new AtomicBoolean();
+
+	/**
+	 * @param shards 分片数, 取送入文档的线程数的数倍
+	 * @param exactTerms 精确计数的不同词数上限(全部分片合计)
+	 * @param heavyHitters 转为sketch后保留的高频词数(全部分片合计)
+	 */
+	public IDFBuilder(int shards, int exactTerms, int heavyHitters) {
+		if (shards < 1 || exactTerms < 1 || heavyHitters < 1)
+			throw new IllegalArgumentException("shards, exactTerms and heavyHitters must be positive");
+		this.shards = new Shard[shards];
+		for (int i = 0; i < shards; i++)
+			this.shards[i] = new Shard();
+		this.exactTerms = Math.max(1, exactTerms / shards);
+		this.heavyHitters = Math.max(1, heavyHitters / shards);
+		// 每个词约占4个int, 比精确计数的HashMap项小得多
+		this.sketchWidth = Math.max(1024, Integer.highestOneBit(this.exactTerms) << 1);
+	}
+
+	/**
+	 * 每送入everyDocuments篇文档生成一次快照, 在送入该文档的线程上调用publisher
+	 * @param everyDocuments
+	 * @param publisher 如 JiebaNLP::publishIdf
+	 */
+	public synchronized void setPublisher(long everyDocuments, Consumer<IDFSnapshot> publisher) {
+		if (everyDocuments < 1)
+			throw new IllegalArgumentException("everyDocuments must be positive");
+		this.publishEvery = everyDocuments;
+		this.publisher = publisher;
+	}
+
+	/**
+	 * 送入一篇文档
+	 * @param terms 文档中出现的词, 重复的词只计一次
+	 */
+	public void add(Collection<String> terms) {
+		if (!(terms instanceof Set))
+			terms = new HashSet<String>(terms);
+		int n = terms.size();
+		String[] words = new String[n];
+		long[] hashes = new long[n];
+		int[] shardOf = new int[n];
+		int[] counts = new int[shards.length + 1];
+		int k = 0;
+		for (String word : terms) {
+			long hash = HashFunction.murmur64(word);
+			words[k] = word;
+			hashes[k] = hash;
+			shardOf[k] = (int) ((hash >>> 33) % shards.length);
+			counts[shardOf[k] + 1]++;
+			k++;
+		}
+		// 按分片归并, 每个分片只加一次锁
+		for (int s = 0; s < shards.length; s++)
+			counts[s + 1] += counts[s];
+		int[] order = new int[n];
+		int[] next = counts.clone();
+		for (int i = 0; i < n; i++)
+			order[next[shardOf[i]]++] = i;
+		for (int s = 0; s < shards.length; s++) {
+			if (counts[s] < counts[s + 1])
+				shards[s].add(words, hashes, order, counts[s], counts[s + 1]);
+		}
+		maybePublish(documents.incrementAndGet());
+	}
+
+	private void maybePublish(long n) {
+		Consumer<IDFSnapshot> target;
+		long every;
+		synchronized (this) {
+			target = publisher;
+			every = publishEvery;
+		}
+		if (target == null || n % every != 0 || !publishing.compareAndSet(false, true))
+			return;
+		try {
+			target.accept(snapshot());
+		} finally {
+			publishing.set(false);
+		}
+	}
+
+	public long documents() {
+		return documents.get();
+	}
+
+	/**
+	 * @return 已转为sketch的分片数
+	 */
+	public int sketchedShards() {
+		int n = 0;
+		for (Shard shard : shards) {
+			synchronized (shard) {
+				if (shard.sketch != null)
+					n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * 当前计数生成的idf表
+	 * @return
+	 */
+	public IDFSnapshot snapshot() {
+		long s = System.currentTimeMillis();
+		Map<String, Integer> df = new HashMap<String, Integer>();
+		// 已转为sketch的分片输出的最小df
+		int floor = Integer.MAX_VALUE;
+		for (Shard shard : shards)
+			floor = Math.min(floor, shard.collect(df));
+		long n = documents.get();
+		Map<String, Double> idf = new HashMap<String, Double>(df.size() * 2);
+		for (Map.Entry<String, Integer> entry : df.entrySet())
+			idf.put(entry.getKey(), idf(n, entry.getValue()));
+		IDFSnapshot snapshot = IDFSnapshot.of(idf, n, floor == Integer.MAX_VALUE ? 0.0 : idf(n, floor));
+		System.out.println(String.format(Locale.getDefault(), "idf snapshot built, documents:%d, tot words:%d, time elapsed:%dms",
+				n, snapshot.size(), System.currentTimeMillis() - s));
+		return snapshot;
+	}
+
+	private static double idf(long documents, int df) {
+		return Math.log((double) Math.max(documents, df) / df);
+	}
+
+	private final class Shard {
+		// 精确计数, 转为sketch后为null
+		private HashMap<String, int[]> exact = new HashMap<String, int[]>();
+		private int[] sketch;
+		private TopK heavy;
+
+		synchronized void add(String[] words, long[] hashes, int[] order, int from, int to) {
+			for (int i = from; i < to; i++) {
+				int k = order[i];
+				if (exact != null) {
+					int[] count = exact.get(words[k]);
+					if (count == null)
+						exact.put(words[k], new int[] { 1 });
+					else
+						count[0]++;
+				} else {
+					heavy.offer(words[k], increment(hashes[k], 1));
+				}
+			}
+			if (exact != null && exact.size() > exactTerms)
+				toSketch();
+		}
+
+		private void toSketch() {
+			sketch = new int[SKETCH_DEPTH * sketchWidth];
+			heavy = new TopK(heavyHitters);
+			for (Map.Entry<String, int[]> entry : exact.entrySet()) {
+				String word = entry.getKey();
+				heavy.offer(word, increment(HashFunction.murmur64(word), entry.getValue()[0]));
+			}
+			exact = null;
+		}
+
+		/**
+		 * 保守更新: 只把小于 估计值 + count 的计数器提到该值
+		 * @return 更新后的估计值
+		 */
+		private int increment(long hash, int count) {
+			int h1 = (int) hash;
+			int h2 = (int) (hash >>> 32) | 1;
+			int mask = sketchWidth - 1;
+			int min = Integer.MAX_VALUE;
+			for (int r = 0; r < SKETCH_DEPTH; r++)
+				min = Math.min(min, sketch[r * sketchWidth + ((h1 + r * h2) & mask)]);
+			int target = min + count;
+			for (int r = 0; r < SKETCH_DEPTH; r++) {
+				int index = r * sketchWidth + ((h1 + r * h2) & mask);
+				if (sketch[index] < target)
+					sketch[index] = target;
+			}
+			return target;
+		}
+
+		/**
+		 * @return 转为sketch后为堆中最小的计数, 不在堆中的词的估计值都不超过它; 精确计数时为Integer.MAX_VALUE
+		 */
+		synchronized int collect(Map<String, Integer> df) {
+			if (exact != null) {
+				for (Map.Entry<String, int[]> entry : exact.entrySet())
+					df.put(entry.getKey(), entry.getValue()[0]);
+				return Integer.MAX_VALUE;
+			}
+			for (int i = 0; i < heavy.size; i++)
+				df.put(heavy.words[i], heavy.counts[i]);
+			return heavy.size > 0 ? heavy.counts[0] : Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * 计数最大的k个词, 按计数的小顶堆, 词的计数只增不减
+	 */
+	private static final class TopK {
+		final String[] words;
+		final int[] counts;
+		final HashMap<String, Integer> position = new HashMap<String, Integer>();
+		int size;
+
+		TopK(int k) {
+			words = new String[k];
+			counts = new int[k];
+		}
+
+		void offer(String word, int count) {
+			Integer i = position.get(word);
+			if (i != null) {
+				counts[i] = count;
+				siftDown(i);
+			} else if (size < words.length) {
+				set(size, word, count);
+				siftUp(size++);
+			} else if (count > counts[0]) {
+				position.remove(words[0]);
+				set(0, word, count);
+				siftDown(0);
+			}
+		}
+
+		private void set(int i, String word, int count) {
+			words[i] = word;
+			counts[i] = count;
+			position.put(word, i);
+		}
+
+		private void siftUp(int i) {
+			String word = words[i];
+			int count = counts[i];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (counts[parent] <= count)
+					break;
+				set(i, words[parent], counts[parent]);
+				i = parent;
+			}
+			set(i, word, count);
+		}
+
+		private void siftDown(int i) {
+			String word = words[i];
+			int count = counts[i];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && counts[child + 1] < counts[child])
+					child++;
+				if (counts[child] >= count)
+					break;
+				set(i, words[child], counts[child]);
+				i = child;
+			}
+			set(i, word, count);
+		}
+	}
+}
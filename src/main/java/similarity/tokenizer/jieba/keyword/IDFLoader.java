@@ -1,7 +1,9 @@
 package similarity.tokenizer.jieba.keyword;
 
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
@@ -9,16 +11,40 @@ import java.util.Locale;
 import java.util.ArrayList;
 import java.util.Collections;
 
+import similarity.tokenizer.jieba.DoubleArrayTrie;
+import similarity.tokenizer.jieba.ModelSnapshot;
+
 
 public class IDFLoader {
 	private Path path;
 	private HashMap<String, Double> idfFreq;
 	private double medianIDF;
+	// 从快照加载时idf表只在trie中, idfFreq()第一次调用时展开
+	private DoubleArrayTrie idfTrie;
 
 	public IDFLoader(Path idfPath) {
 		init(idfPath);
 	}
 
+	/**
+	 * 优先从快照加载, 快照中没有该文件的idf表时解析文本
+	 * @param idfPath
+	 * @param snapshot 可为null
+	 */
+	public IDFLoader(Path idfPath, ModelSnapshot snapshot) {
+		ByteBuffer in = snapshot == null ? null : snapshot.section(ModelSnapshot.IDF, idfPath);
+		if (in == null) {
+			init(idfPath);
+			return;
+		}
+		long s = System.currentTimeMillis();
+		path = idfPath;
+		medianIDF = in.getDouble();
+		idfTrie = DoubleArrayTrie.read(in);
+		System.out.println(String.format(Locale.getDefault(), "idf %s load from snapshot, tot words:%d, time elapsed:%dms",
+				idfPath.toString(), idfTrie.size(), System.currentTimeMillis() - s));
+	}
+
 	private void init(Path idfPath) {
 		idfFreq = new HashMap<String, Double>();
 		medianIDF = 0.0;
@@ -56,10 +82,52 @@ public class IDFLoader {
 		}
 	}
 
-	public HashMap<String, Double> idfFreq() {
+	/**
+	 * idf表的trie, 词id对应的值为idf。从文本加载时第一次调用时编译
+	 * @return
+	 */
+	public synchronized DoubleArrayTrie idfTrie() {
+		if (idfTrie == null)
+			idfTrie = DoubleArrayTrie.build(idfFreq);
+		return idfTrie;
+	}
+
+	public synchronized HashMap<String, Double> idfFreq() {
+		if (idfFreq == null) {
+			idfFreq = new HashMap<String, Double>();
+			String[] keys = idfTrie.keys();
+			for (int id = 0; id < keys.length; id++)
+				idfFreq.put(keys[id], idfTrie.value(id));
+		}
 		return idfFreq;
 	}
 
+	/**
+	 * 词的idf
+	 * @param word
+	 * @param defaultIDF 不在表中时返回的值
+	 * @return
+	 */
+	public double idf(String word, double defaultIDF) {
+		if (idfTrie != null) {
+			int id = idfTrie.wordId(word);
+			return id >= 0 ? idfTrie.value(id) : defaultIDF;
+		}
+		Double idf = idfFreq.get(word);
+		return idf != null ? idf : defaultIDF;
+	}
+
+	/**
+	 * 把idf表和中位数写入快照
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeSnapshot(ModelSnapshot.Writer writer) throws IOException {
+		DataOutputStream out = writer.section(ModelSnapshot.IDF, path);
+		out.writeDouble(medianIDF);
+		(idfTrie != null ? idfTrie : DoubleArrayTrie.build(idfFreq)).write(out);
+	}
+
 	public double medianIDF() {
 		return medianIDF;
 	}
@@ -0,0 +1,102 @@
+package similarity.tokenizer.jieba.keyword;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+import similarity.tokenizer.jieba.DoubleArrayTrie;
+
+
+/**
+ * 不可变的idf表: 词id对应的值为idf的trie, 加上不在表中的词使用的默认idf
+ * <p>由 {@link IDFLoader} 或 {@link IDFBuilder} 得到, 发布后只读, 可多线程共享</p>
+ */
+public final class IDFSnapshot {
+	private final DoubleArrayTrie trie;
+	private final double defaultIdf;
+	// 统计的文档数, 从idf文件加载时为0
+	private final long documents;
+
+	public IDFSnapshot(DoubleArrayTrie trie, double defaultIdf, long documents) {
+		this.trie = trie;
+		this.defaultIdf = defaultIdf;
+		this.documents = documents;
+	}
+
+	/**
+	 * 默认idf取全部idf的中位数, 与IDFLoader相同
+	 * @param idf 词 -> idf
+	 * @param documents
+	 * @return
+	 */
+	public static IDFSnapshot of(Map<String, Double> idf, long documents) {
+		return of(idf, documents, 0.0);
+	}
+
+	/**
+	 * 默认idf取全部idf的中位数, 但不低于minDefaultIdf
+	 * @param idf 词 -> idf
+	 * @param documents
+	 * @param minDefaultIdf 表中只有部分词时, 不在表中的词可能达到的最低idf
+	 * @return
+	 */
+	public static IDFSnapshot of(Map<String, Double> idf, long documents, double minDefaultIdf) {
+		double[] values = new double[idf.size()];
+		int n = 0;
+		for (double value : idf.values())
+			values[n++] = value;
+		Arrays.sort(values);
+		double median = n == 0 ? 0.0 : values[n / 2];
+		return new IDFSnapshot(DoubleArrayTrie.build(idf), Math.max(median, minDefaultIdf), documents);
+	}
+
+	public static IDFSnapshot of(IDFLoader loader) {
+		return new IDFSnapshot(loader.idfTrie(), loader.medianIDF(), 0);
+	}
+
+	public DoubleArrayTrie getTrie() {
+		return trie;
+	}
+
+	public double getDefaultIdf() {
+		return defaultIdf;
+	}
+
+	public long getDocuments() {
+		return documents;
+	}
+
+	public int size() {
+		return trie.size();
+	}
+
+	/**
+	 * 词的idf, 不在表中返回默认idf
+	 */
+	public double idf(CharSequence word) {
+		int id = trie.wordId(word);
+		return id >= 0 ? trie.value(id) : defaultIdf;
+	}
+
+	/**
+	 * 按idf.txt的格式("词 idf"每行一个)写出, 可由IDFLoader加载
+	 * @param path
+	 * @throws IOException
+	 */
+	public void write(Path path) throws IOException {
+		String[] words = trie.keys();
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			for (int id = 0; id < words.length; id++) {
+				writer.write(words[id]);
+				writer.write(' ');
+				writer.write(String.format(Locale.ROOT, "%.6f", trie.value(id)));
+				writer.newLine();
+			}
+		}
+	}
+}
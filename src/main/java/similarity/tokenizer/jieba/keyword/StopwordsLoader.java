@@ -8,10 +8,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.FileSystems;
 
+import similarity.tokenizer.jieba.DoubleArrayTrie;
+
 public class StopwordsLoader {
 	
 	private static final String DEFAULT_STOPWORDS_PATH = "/models/stopwords/StopWords.txt";
 	protected HashSet<String> stopWords;
+	// 由stopWords编译, 加载到新的停用词后置空; 重复加载同一文件不影响
+	private volatile DoubleArrayTrie stopWordTrie;
 	
 	public StopwordsLoader() {
 		stopWords = new HashSet<String>();
@@ -21,12 +25,15 @@ public class StopwordsLoader {
 		try (BufferedReader br = Files.newBufferedReader(stopWordsPath, charset);) {
 			long s = System.currentTimeMillis();
 			int count = 0;
+			boolean changed = false;
 			while (br.ready()) {
 				String line = br.readLine();
 				String word = line;
-				stopWords.add(word);
+				changed |= stopWords.add(word);
 				count++;
 			}
+			if (changed)
+				stopWordTrie = null;
 			System.out.println(
 					String.format(Locale.getDefault(), "Stop words %s load finished, tot words:%d, time elapsed:%dms",
 							stopWordsPath.toString(), count, System.currentTimeMillis() - s));
@@ -47,4 +54,40 @@ public class StopwordsLoader {
     	loadStopWords(path,charset);
     }
     
+    
+    /**
+     * 停用词的trie, 加载到新的停用词后重新编译
+     * @return
+     */
+    protected DoubleArrayTrie stopWordTrie() {
+    	DoubleArrayTrie trie = stopWordTrie;
+    	if (trie == null) {
+    		trie = DoubleArrayTrie.build(stopWords);
+    		stopWordTrie = trie;
+    	}
+    	return trie;
+    }
+    
+    
+    /**
+     * text[start, end)转小写后是否是停用词, 不生成String
+     * <p>与 stopWords.contains(word.toLowerCase()) 相同, 只是按单个字符转小写(不处理土耳其语等与上下文相关的规则)</p>
+     * @param text
+     * @param start
+     * @param end
+     * @return
+     */
+    public boolean isStopWord(char[] text, int start, int end) {
+    	DoubleArrayTrie trie = stopWordTrie();
+    	for (int i = start; i < end; i++) {
+    		if (Character.toLowerCase(text[i]) != text[i]) {
+    			char[] lower = new char[end - start];
+    			for (int j = start; j < end; j++)
+    				lower[j - start] = Character.toLowerCase(text[j]);
+    			return trie.contains(lower, 0, lower.length);
+    		}
+    	}
+    	return trie.contains(text, start, end);
+    }
+    
 }
@@ -1,35 +1,79 @@
 package similarity.tokenizer.jieba.viterbi;
 
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Vector;
-import java.util.regex.Matcher;
 
 import similarity.tokenizer.jieba.CharacterUtil;
-import similarity.tokenizer.jieba.Node;
-import similarity.tokenizer.jieba.Pair;
-
-import java.util.Collections;
-
+import similarity.tokenizer.jieba.ModelSnapshot;
+import similarity.tokenizer.jieba.TokenSpans;
 
 
+/**
+ * @description
+ * HMM未登录词识别。模型在加载时编译成稠密的primitive表
+ * <p>1.状态B, M, E, S编号为0~3，初始概率和转移概率为double[4]和double[4][4]</p>
+ * <p>2.发射概率中出现过的字符编为紧凑id(0表示未出现)，emit[state][id]查表，缺省为MIN_FLOAT</p>
+ * <p>3.viterbi只保留上一列的概率，回溯指针存在按线程复用的byte[]中，循环内不分配对象</p>
+ * <p>4.编译后的表可写入 {@link ModelSnapshot}，有快照时不再解析prob_emit.txt</p>
+ */
 public class FinalSeg {
     private static FinalSeg singleInstance;
     private static final Path PROB_EMIT = FileSystems.getDefault().getPath(".", "/models/stopwords/prob_emit.txt");
-    private static char[] states = new char[] { 'B', 'M', 'E', 'S' };
-    private static Map<Character, Map<Character, Double>> emit;
-    private static Map<Character, Double> start;
-    private static Map<Character, Map<Character, Double>> trans;
-    private static Map<Character, char[]> prevStatus;
-    private static Double MIN_FLOAT = -3.14e100;;
+    private static final String STATES = "BMES";
+    private static final int B = 0, M = 1, E = 2, S = 3;
+    private static final double MIN_FLOAT = -3.14e100;
+    // 每个状态可能的前驱状态，顺序与原实现一致，概率相等时取后者
+    private static final int[][] PREV_STATUS = new int[][] { { E, S }, { M, B }, { B, M }, { S, E } };
+    private static final double[] START = new double[] { -0.26268660809250016, MIN_FLOAT, MIN_FLOAT,
+            -1.4652633398537678 };
+    private static final double[][] TRANS = new double[4][4];
+
+    static {
+        for (double[] row : TRANS)
+            Arrays.fill(row, MIN_FLOAT);
+        TRANS[B][E] = -0.510825623765990;
+        TRANS[B][M] = -0.916290731874155;
+        TRANS[E][B] = -0.5897149736854513;
+        TRANS[E][S] = -0.8085250474669937;
+        TRANS[M][E] = -0.33344856811948514;
+        TRANS[M][M] = -1.2603623820268226;
+        TRANS[S][B] = -0.7211965654669841;
+        TRANS[S][S] = -0.6658631448798212;
+    }
+
+    private static final class Scratch {
+        // back[i * 4 + y]为第i个字处于状态y时前一个字的状态
+        byte[] back = new byte[256 * 4];
+        byte[] pos = new byte[256];
+
+        void ensure(int length) {
+            if (pos.length < length) {
+                int capacity = Math.max(length, pos.length << 1);
+                back = new byte[capacity * 4];
+                pos = new byte[capacity];
+            }
+        }
+    }
+
+    private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    // 字符到紧凑id的映射，0表示模型中未出现
+    private char[] charId;
+    private double[][] emit;
 
 
     private FinalSeg() {
@@ -46,174 +90,238 @@ public class FinalSeg {
 
 
     private void loadModel() {
+        if (loadSnapshot())
+            return;
         long s = System.currentTimeMillis();
-        prevStatus = new HashMap<Character, char[]>();
-        prevStatus.put('B', new char[] { 'E', 'S' });
-        prevStatus.put('M', new char[] { 'M', 'B' });
-        prevStatus.put('S', new char[] { 'S', 'E' });
-        prevStatus.put('E', new char[] { 'B', 'M' });
-
-        start = new HashMap<Character, Double>();
-        start.put('B', -0.26268660809250016);
-        start.put('E', -3.14e+100);
-        start.put('M', -3.14e+100);
-        start.put('S', -1.4652633398537678);
-
-        trans = new HashMap<Character, Map<Character, Double>>();
-        Map<Character, Double> transB = new HashMap<Character, Double>();
-        transB.put('E', -0.510825623765990);
-        transB.put('M', -0.916290731874155);
-        trans.put('B', transB);
-        Map<Character, Double> transE = new HashMap<Character, Double>();
-        transE.put('B', -0.5897149736854513);
-        transE.put('S', -0.8085250474669937);
-        trans.put('E', transE);
-        Map<Character, Double> transM = new HashMap<Character, Double>();
-        transM.put('E', -0.33344856811948514);
-        transM.put('M', -1.2603623820268226);
-        trans.put('M', transM);
-        Map<Character, Double> transS = new HashMap<Character, Double>();
-        transS.put('B', -0.7211965654669841);
-        transS.put('S', -0.6658631448798212);
-        trans.put('S', transS);
+        char[] ids = new char[Character.MAX_VALUE + 1];
+        double[][] table = new double[4][1024];
+        for (double[] row : table)
+            Arrays.fill(row, MIN_FLOAT);
+        int size = 1;
 
         try (BufferedReader br = Files.newBufferedReader(PROB_EMIT, Charset.forName("UTF-8"));)
             {
-            emit = new HashMap<Character, Map<Character, Double>>();
-            Map<Character, Double> values = null;
-            while (br.ready()) {
-                String line = br.readLine();
+            int state = -1;
+            String line;
+            while ((line = br.readLine()) != null) {
                 String[] tokens = line.split("\t");
                 if (tokens.length == 1) {
-                    values = new HashMap<Character, Double>();
-                    emit.put(tokens[0].charAt(0), values);
+                    state = STATES.indexOf(tokens[0].charAt(0));
                 }
-                else {
-                    values.put(tokens[0].charAt(0), Double.valueOf(tokens[1]));
+                else if (state >= 0) {
+                    char ch = tokens[0].charAt(0);
+                    if (ids[ch] == 0) {
+                        if (size == table[0].length) {
+                            for (int y = 0; y < 4; ++y) {
+                                table[y] = Arrays.copyOf(table[y], size << 1);
+                                Arrays.fill(table[y], size, size << 1, MIN_FLOAT);
+                            }
+                        }
+                        ids[ch] = (char) size++;
+                    }
+                    table[state][ids[ch]] = Double.parseDouble(tokens[1]);
                 }
             }
         }
         catch (IOException e) {
             System.err.println(String.format(Locale.getDefault(), "%s: load model failure!", PROB_EMIT));
         }
+        for (int y = 0; y < 4; ++y)
+            table[y] = Arrays.copyOf(table[y], size);
+        charId = ids;
+        emit = table;
         System.out.println(String.format(Locale.getDefault(), "model load finished, time elapsed %d ms.",
             System.currentTimeMillis() - s));
     }
 
 
-    public void cut(String sentence, List<String> tokens) {
-        StringBuilder chinese = new StringBuilder();
-        StringBuilder other = new StringBuilder();
-        for (int i = 0; i < sentence.length(); ++i) {
-            char ch = sentence.charAt(i);
-            if (CharacterUtil.isChineseLetter(ch)) {
-                if (other.length() > 0) {
-                    processOtherUnknownWords(other.toString(), tokens);
-                    other = new StringBuilder();
-                }
-                chinese.append(ch);
-            }
-            else {
-                if (chinese.length() > 0) {
-                    viterbi(chinese.toString(), tokens);
-                    chinese = new StringBuilder();
-                }
-                other.append(ch);
-            }
+    private boolean loadSnapshot() {
+        ModelSnapshot snapshot = ModelSnapshot.getDefault();
+        ByteBuffer in = snapshot == null ? null : snapshot.section(ModelSnapshot.HMM, PROB_EMIT);
+        if (in == null)
+            return false;
+        long s = System.currentTimeMillis();
+        int size = in.getInt();
+        char[] chars = ModelSnapshot.readChars(in, size);
+        char[] ids = new char[Character.MAX_VALUE + 1];
+        for (int id = 1; id < size; ++id)
+            ids[chars[id]] = (char) id;
+        double[][] table = new double[4][];
+        for (int y = 0; y < 4; ++y)
+            table[y] = ModelSnapshot.readDoubles(in, size);
+        charId = ids;
+        emit = table;
+        System.out.println(String.format(Locale.getDefault(), "model load from snapshot, time elapsed %d ms.",
+            System.currentTimeMillis() - s));
+        return true;
+    }
 
+
+    /**
+     * 把发射概率表写入快照
+     * 
+     * @param writer
+     * @throws IOException
+     */
+    public void writeSnapshot(ModelSnapshot.Writer writer) throws IOException {
+        DataOutputStream out = writer.section(ModelSnapshot.HMM, PROB_EMIT);
+        int size = emit[0].length;
+        // id -> 字符, 下标0不用
+        char[] chars = new char[size];
+        for (int c = 0; c < charId.length; ++c) {
+            if (charId[c] != 0)
+                chars[charId[c]] = (char) c;
         }
-        if (chinese.length() > 0)
-            viterbi(chinese.toString(), tokens);
-        else {
-            processOtherUnknownWords(other.toString(), tokens);
-        }
+        out.writeInt(size);
+        ModelSnapshot.writeChars(out, chars, size);
+        for (int y = 0; y < 4; ++y)
+            ModelSnapshot.writeDoubles(out, emit[y], size);
     }
 
 
-    public void viterbi(String sentence, List<String> tokens) {
-        Vector<Map<Character, Double>> v = new Vector<Map<Character, Double>>();
-        Map<Character, Node> path = new HashMap<Character, Node>();
-
-        v.add(new HashMap<Character, Double>());
-        for (char state : states) {
-            Double emP = emit.get(state).get(sentence.charAt(0));
-            if (null == emP)
-                emP = MIN_FLOAT;
-            v.get(0).put(state, start.get(state) + emP);
-            path.put(state, new Node(state, null));
-        }
+    public void cut(String sentence, List<String> tokens) {
+        TokenSpans spans = new TokenSpans();
+        spans.reset(sentence);
+        cut(spans.text(), 0, sentence.length(), spans);
+        for (int i = 0; i < spans.size(); ++i)
+            tokens.add(spans.word(i));
+    }
 
-        for (int i = 1; i < sentence.length(); ++i) {
-            Map<Character, Double> vv = new HashMap<Character, Double>();
-            v.add(vv);
-            Map<Character, Node> newPath = new HashMap<Character, Node>();
-            for (char y : states) {
-                Double emp = emit.get(y).get(sentence.charAt(i));
-                if (emp == null)
-                    emp = MIN_FLOAT;
-                Pair<Character> candidate = null;
-                for (char y0 : prevStatus.get(y)) {
-                    Double tranp = trans.get(y0).get(y);
-                    if (null == tranp)
-                        tranp = MIN_FLOAT;
-                    tranp += (emp + v.get(i - 1).get(y0));
-                    if (null == candidate)
-                        candidate = new Pair<Character>(y0, tranp);
-                    else if (candidate.freq <= tranp) {
-                        candidate.freq = tranp;
-                        candidate.key = y0;
-                    }
-                }
-                vv.put(y, candidate.freq);
-                newPath.put(y, new Node(y, path.get(candidate.key)));
+
+    /**
+     * 切分text[begin, end), 结果以区间加入spans, 词id为-1
+     * 
+     * @param text
+     *            必须是spans.text()
+     */
+    public void cut(char[] text, int begin, int end, TokenSpans spans) {
+        int from = begin;
+        boolean chinese = false;
+        for (int i = begin; i < end; ++i) {
+            boolean isChinese = CharacterUtil.isChineseLetter(text[i]);
+            if (isChinese != chinese && i > from) {
+                if (chinese)
+                    viterbi(text, from, i, spans);
+                else
+                    processOtherUnknownWords(text, from, i, spans);
+                from = i;
             }
-            path = newPath;
+            chinese = isChinese;
         }
-        double probE = v.get(sentence.length() - 1).get('E');
-        double probS = v.get(sentence.length() - 1).get('S');
-        Vector<Character> posList = new Vector<Character>(sentence.length());
-        Node win;
-        if (probE < probS)
-            win = path.get('S');
+        if (chinese)
+            viterbi(text, from, end, spans);
         else
-            win = path.get('E');
+            processOtherUnknownWords(text, from, end, spans);
+    }
+
+
+    public void viterbi(String sentence, List<String> tokens) {
+        TokenSpans spans = new TokenSpans();
+        spans.reset(sentence);
+        viterbi(spans.text(), 0, sentence.length(), spans);
+        for (int i = 0; i < spans.size(); ++i)
+            tokens.add(spans.word(i));
+    }
 
-        while (win != null) {
-            posList.add(win.value);
-            win = win.parent;
+
+    /**
+     * 对text[begin, end)做viterbi解码
+     */
+    private void viterbi(char[] text, int begin, int end, TokenSpans spans) {
+        int N = end - begin;
+        Scratch buf = scratch.get();
+        buf.ensure(N);
+        byte[] back = buf.back;
+        byte[] pos = buf.pos;
+        char[] ids = charId;
+        double[] emitB = emit[B], emitM = emit[M], emitE = emit[E], emitS = emit[S];
+
+        int id = ids[text[begin]];
+        double vB = START[B] + emitB[id];
+        double vM = START[M] + emitM[id];
+        double vE = START[E] + emitE[id];
+        double vS = START[S] + emitS[id];
+
+        for (int i = 1, b = 4; i < N; ++i, b += 4) {
+            id = ids[text[begin + i]];
+            double emp, p0, p1;
+
+            // B <- E, S
+            emp = emitB[id];
+            p0 = TRANS[E][B] + (emp + vE);
+            p1 = TRANS[S][B] + (emp + vS);
+            double nB = p0 <= p1 ? p1 : p0;
+            back[b + B] = p0 <= p1 ? (byte) S : (byte) E;
+
+            // M <- M, B
+            emp = emitM[id];
+            p0 = TRANS[M][M] + (emp + vM);
+            p1 = TRANS[B][M] + (emp + vB);
+            double nM = p0 <= p1 ? p1 : p0;
+            back[b + M] = p0 <= p1 ? (byte) B : (byte) M;
+
+            // E <- B, M
+            emp = emitE[id];
+            p0 = TRANS[B][E] + (emp + vB);
+            p1 = TRANS[M][E] + (emp + vM);
+            double nE = p0 <= p1 ? p1 : p0;
+            back[b + E] = p0 <= p1 ? (byte) M : (byte) B;
+
+            // S <- S, E
+            emp = emitS[id];
+            p0 = TRANS[S][S] + (emp + vS);
+            p1 = TRANS[E][S] + (emp + vE);
+            double nS = p0 <= p1 ? p1 : p0;
+            back[b + S] = p0 <= p1 ? (byte) E : (byte) S;
+
+            vB = nB;
+            vM = nM;
+            vE = nE;
+            vS = nS;
         }
-        Collections.reverse(posList);
-
-        int begin = 0, next = 0;
-        for (int i = 0; i < sentence.length(); ++i) {
-            char pos = posList.get(i);
-            if (pos == 'B')
-                begin = i;
-            else if (pos == 'E') {
-                tokens.add(sentence.substring(begin, i + 1));
+
+        int state = vE < vS ? S : E;
+        for (int i = N - 1; i >= 0; --i) {
+            pos[i] = (byte) state;
+            state = back[i * 4 + state];
+        }
+
+        int start = 0, next = 0;
+        for (int i = 0; i < N; ++i) {
+            int p = pos[i];
+            if (p == B)
+                start = i;
+            else if (p == E) {
+                spans.add(begin + start, begin + i + 1, -1);
                 next = i + 1;
             }
-            else if (pos == 'S') {
-                tokens.add(sentence.substring(i, i + 1));
+            else if (p == S) {
+                spans.add(begin + i, begin + i + 1, -1);
                 next = i + 1;
             }
         }
-        if (next < sentence.length())
-            tokens.add(sentence.substring(next));
+        if (next < N)
+            spans.add(begin + next, end, -1);
     }
 
 
-    private void processOtherUnknownWords(String other, List<String> tokens) {
-        Matcher mat = CharacterUtil.reSkip.matcher(other);
-        int offset = 0;
-        while (mat.find()) {
-            if (mat.start() > offset) {
-                tokens.add(other.substring(offset, mat.start()));
+    /**
+     * 非汉字部分: reSkip匹配的英文、数字单独成词, 其间的其它字符各成一段
+     */
+    private void processOtherUnknownWords(char[] text, int begin, int end, TokenSpans spans) {
+        int offset = begin;
+        for (int i = begin; i < end;) {
+            if (!CharacterUtil.isLetterOrDigit(text[i])) {
+                i++;
+                continue;
             }
-            tokens.add(mat.group());
-            offset = mat.end();
+            int matchEnd = CharacterUtil.skipEnd(text, i, end);
+            if (i > offset)
+                spans.add(offset, i, -1);
+            spans.add(i, matchEnd, -1);
+            offset = i = matchEnd;
         }
-        if (offset < other.length())
-            tokens.add(other.substring(offset));
+        if (offset < end)
+            spans.add(offset, end, -1);
     }
 }
@@ -0,0 +1,91 @@
+package document_similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.tokenizer.jieba.AhoCorasick;
+import similarity.tokenizer.jieba.DoubleArrayTrie;
+
+public class AhoCorasickTest {
+
+	@Test
+	public void testMatchesEqualPrefixSearch() {
+		Random r = new Random(14);
+		Set<String> words = new HashSet<>();
+		while (words.size() < 30000) {
+			words.add(randomWord(r, 1 + r.nextInt(6)));
+		}
+		// 互为后缀的词, 检查output链
+		words.add("abcd");
+		words.add("bcd");
+		words.add("cd");
+		words.add("d");
+		words.add("bc");
+		DoubleArrayTrie trie = DoubleArrayTrie.build(words);
+
+		long start = System.currentTimeMillis();
+		AhoCorasick matcher = new AhoCorasick(trie);
+		System.out.println("automaton build cost " + (System.currentTimeMillis() - start) + "ms, states " + trie.capacity());
+
+		char[] text = (randomWord(r, 200000) + "xabcdx").toCharArray();
+		int[] starts = new int[16];
+		int[] ends = new int[16];
+		int[] ids = new int[16];
+		int count = matcher.match(text, 0, text.length, starts, ends, ids);
+		Assert.assertTrue(count > starts.length);
+		starts = new int[count];
+		ends = new int[count];
+		ids = new int[count];
+		start = System.currentTimeMillis();
+		Assert.assertEquals(count, matcher.match(text, 0, text.length, starts, ends, ids));
+		System.out.println(count + " matches in " + text.length + " chars, cost " + (System.currentTimeMillis() - start) + "ms");
+
+		// 逐位置前缀查询的结果, 按(结束位置, 起点)排序后应与自动机的输出一致
+		List<long[]> expected = new ArrayList<>();
+		int[] prefixEnds = new int[trie.maxLength()];
+		for (int i = 0; i < text.length; i++) {
+			int n = trie.commonPrefixSearch(text, i, text.length, prefixEnds);
+			for (int k = 0; k < n; k++) {
+				expected.add(new long[] { prefixEnds[k], i, trie.wordId(text, i, prefixEnds[k] + 1) });
+			}
+		}
+		expected.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+		Assert.assertEquals(expected.size(), count);
+		for (int m = 0; m < count; m++) {
+			long[] e = expected.get(m);
+			Assert.assertEquals(e[0], ends[m]);
+			Assert.assertEquals(e[1], starts[m]);
+			Assert.assertEquals(e[2], ids[m]);
+		}
+
+		// 子区间与整段无关
+		int n = matcher.match(text, text.length - 6, text.length, starts, ends, ids);
+		Set<String> found = new HashSet<>();
+		for (int m = 0; m < n; m++) {
+			found.add(new String(text, starts[m], ends[m] - starts[m] + 1));
+		}
+		Assert.assertTrue(found.containsAll(Arrays.asList("abcd", "bcd", "cd", "d", "bc")));
+	}
+
+	@Test
+	public void testEmpty() {
+		AhoCorasick matcher = new AhoCorasick(DoubleArrayTrie.build(new ArrayList<String>()));
+		char[] text = "abc".toCharArray();
+		Assert.assertEquals(0, matcher.match(text, 0, text.length, new int[4], new int[4], new int[4]));
+	}
+
+	private static String randomWord(Random r, int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append((char) ('a' + r.nextInt(8)));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,78 @@
+package document_similarity;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.tokenizer.jieba.CharacterUtil;
+
+public class CharacterUtilTest {
+
+	@Test
+	public void testTables() {
+		for (int c = 0; c <= Character.MAX_VALUE; c++) {
+			char ch = (char) c;
+			boolean chinese = ch >= 0x4E00 && ch <= 0x9FA5;
+			boolean english = (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z');
+			boolean digit = ch >= '0' && ch <= '9';
+			boolean connector = "+#&._-".indexOf(ch) >= 0;
+			Assert.assertEquals(chinese, CharacterUtil.isChineseLetter(ch));
+			Assert.assertEquals(english, CharacterUtil.isEnglishLetter(ch));
+			Assert.assertEquals(digit, CharacterUtil.isDigit(ch));
+			Assert.assertEquals(connector, CharacterUtil.isConnector(ch));
+			Assert.assertEquals(chinese || english || digit || connector, CharacterUtil.ccFind(ch));
+
+			char regular = ch;
+			if (ch == 12288)
+				regular = 32;
+			else if (ch > 65280 && ch < 65375)
+				regular = (char) (ch - 65248);
+			else if (ch >= 'A' && ch <= 'Z')
+				regular = (char) (ch + 32);
+			Assert.assertEquals(regular, CharacterUtil.regularize(ch));
+			Assert.assertEquals(CharacterUtil.ccFind(regular), CharacterUtil.ccFindRegularized(ch));
+		}
+	}
+
+
+	@Test
+	public void testSkipEnd() {
+		char[] alphabet = "aZ09.-_ 中".toCharArray();
+		Random random = new Random(7);
+		for (int round = 0; round < 20000; round++) {
+			char[] text = new char[random.nextInt(16)];
+			for (int i = 0; i < text.length; i++)
+				text[i] = alphabet[random.nextInt(alphabet.length)];
+			Assert.assertEquals(new String(text), regexMatches(text), scanMatches(text));
+		}
+		Assert.assertEquals("[0,4)[4,7)", scanMatches("3.14abc".toCharArray()));
+		Assert.assertEquals("[0,2)[3,5)", scanMatches("12.ab".toCharArray()));
+		Assert.assertEquals("[0,3)[4,7)", scanMatches("ab3.1.5".toCharArray()));
+	}
+
+
+	private static String regexMatches(char[] text) {
+		StringBuilder matches = new StringBuilder();
+		Matcher mat = CharacterUtil.reSkip.matcher(new String(text));
+		while (mat.find())
+			matches.append('[').append(mat.start()).append(',').append(mat.end()).append(')');
+		return matches.toString();
+	}
+
+
+	private static String scanMatches(char[] text) {
+		StringBuilder matches = new StringBuilder();
+		for (int i = 0; i < text.length;) {
+			if (!CharacterUtil.isLetterOrDigit(text[i])) {
+				i++;
+				continue;
+			}
+			int end = CharacterUtil.skipEnd(text, i, text.length);
+			matches.append('[').append(i).append(',').append(end).append(')');
+			i = end;
+		}
+		return matches.toString();
+	}
+}
@@ -0,0 +1,125 @@
+package document_similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.tokenizer.jieba.DoubleArrayTrie;
+
+public class DoubleArrayTrieTest {
+
+	@Test
+	public void testCommonPrefixSearch() {
+		Random r = new Random(10);
+		Set<String> words = new HashSet<>();
+		while (words.size() < 50000) {
+			words.add(randomWord(r, 1 + r.nextInt(5)));
+		}
+		words.add("a");
+		words.add("abc");
+		List<String> input = new ArrayList<>(words);
+		input.add(null);
+		input.add("");
+		input.add("abc");
+
+		long start = System.currentTimeMillis();
+		DoubleArrayTrie trie = DoubleArrayTrie.build(input);
+		System.out.println("build cost " + (System.currentTimeMillis() - start) + "ms, capacity " + trie.capacity());
+		Assert.assertEquals(words.size(), trie.size());
+		for (String word : words) {
+			Assert.assertTrue(word, trie.contains(word));
+		}
+		Assert.assertFalse(trie.contains(""));
+		Assert.assertFalse(trie.contains("ab"));
+		Assert.assertFalse(trie.contains("abcd"));
+
+		char[] text = (randomWord(r, 20000) + "abcd").toCharArray();
+		int[] ends = new int[text.length];
+		for (int i = 0; i < text.length; i++) {
+			int count = trie.commonPrefixSearch(text, i, text.length, ends);
+			int[] expected = bruteForce(words, text, i);
+			Assert.assertArrayEquals(expected, Arrays.copyOf(ends, count));
+			Assert.assertEquals(expected.length > 0, count > 0 && trie.contains(text, i, ends[0] + 1));
+		}
+
+		// ends不足时只写前几个, 返回全部数量
+		char[] abc = "abc".toCharArray();
+		int[] one = new int[1];
+		Assert.assertEquals(2, trie.commonPrefixSearch(abc, 0, 3, one));
+		Assert.assertEquals(0, one[0]);
+		Assert.assertEquals(0, DoubleArrayTrie.build(new ArrayList<String>()).commonPrefixSearch(abc, 0, 3, one));
+	}
+
+	@Test
+	public void testWordIdAndValues() {
+		Random r = new Random(11);
+		Map<String, Double> freqs = new HashMap<>();
+		while (freqs.size() < 20000) {
+			freqs.put(randomWord(r, 1 + r.nextInt(6)), Math.log(r.nextDouble()));
+		}
+		freqs.put(null, 0.0);
+		DoubleArrayTrie trie = DoubleArrayTrie.build(freqs);
+		Assert.assertEquals(freqs.size() - 1, trie.size());
+
+		Set<Integer> ids = new HashSet<>();
+		int maxLength = 0;
+		for (Map.Entry<String, Double> entry : freqs.entrySet()) {
+			if (entry.getKey() == null) {
+				continue;
+			}
+			int id = trie.wordId(entry.getKey());
+			Assert.assertTrue(id >= 0 && id < trie.size());
+			Assert.assertTrue(ids.add(id));
+			Assert.assertEquals(entry.getValue(), trie.value(id), 0.0);
+			maxLength = Math.max(maxLength, entry.getKey().length());
+		}
+		Assert.assertEquals(maxLength, trie.maxLength());
+		Assert.assertEquals(-1, trie.wordId("abc"));
+
+		char[] text = randomWord(r, 5000).toCharArray();
+		int[] ends = new int[8];
+		int[] wordIds = new int[8];
+		int[] plain = new int[8];
+		for (int i = 0; i < text.length; i++) {
+			int count = trie.commonPrefixSearch(text, i, text.length, ends, wordIds, 2);
+			Assert.assertEquals(trie.commonPrefixSearch(text, i, text.length, plain), count);
+			for (int k = 0; k < count; k++) {
+				Assert.assertEquals(plain[k], ends[k + 2]);
+				Assert.assertEquals(trie.wordId(text, i, ends[k + 2] + 1), wordIds[k + 2]);
+			}
+		}
+	}
+
+	/**
+	 * 字集中在少数常用字上, 让词有较多公共前缀
+	 */
+	private static String randomWord(Random r, int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append((char) (0x4E00 + (int) Math.abs(r.nextGaussian() * 300) % 3000));
+		}
+		return sb.toString();
+	}
+
+	private static int[] bruteForce(Set<String> words, char[] text, int begin) {
+		List<Integer> ends = new ArrayList<>();
+		for (int end = begin + 1; end <= text.length && end - begin <= 5; end++) {
+			if (words.contains(new String(text, begin, end - begin))) {
+				ends.add(end - 1);
+			}
+		}
+		int[] result = new int[ends.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = ends.get(i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,154 @@
+package document_similarity;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.tokenizer.jieba.viterbi.FinalSeg;
+
+public class FinalSegTest {
+
+	private static final String STATES = "BMES";
+	private static final double MIN_FLOAT = -3.14e100;
+	private static final String[] PREV = { "ES", "MB", "BM", "SE" };
+	private static final double[] START = { -0.26268660809250016, MIN_FLOAT, MIN_FLOAT, -1.4652633398537678 };
+
+	@Test
+	public void testViterbiMatchesReference() throws IOException {
+		Map<Character, Map<Character, Double>> emit = loadEmit();
+		Map<String, Double> trans = new HashMap<>();
+		trans.put("BE", -0.510825623765990);
+		trans.put("BM", -0.916290731874155);
+		trans.put("EB", -0.5897149736854513);
+		trans.put("ES", -0.8085250474669937);
+		trans.put("ME", -0.33344856811948514);
+		trans.put("MM", -1.2603623820268226);
+		trans.put("SB", -0.7211965654669841);
+		trans.put("SS", -0.6658631448798212);
+
+		// 模型中的常用字加上少量未出现的字
+		List<Character> alphabet = new ArrayList<>(emit.get('S').keySet());
+		alphabet.add('龤');
+		alphabet.add('丂');
+		Random r = new Random(12);
+		List<String> sentences = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder sb = new StringBuilder();
+			int length = 1 + r.nextInt(30);
+			for (int j = 0; j < length; j++) {
+				sb.append(alphabet.get(r.nextInt(i % 3 == 0 ? Math.min(200, alphabet.size()) : alphabet.size())));
+			}
+			sentences.add(sb.toString());
+		}
+
+		FinalSeg seg = FinalSeg.getInstance();
+		List<String> tokens = new ArrayList<>();
+		long start = System.currentTimeMillis();
+		for (String sentence : sentences) {
+			seg.viterbi(sentence, tokens);
+		}
+		System.out.println("viterbi " + sentences.size() + " sentences cost " + (System.currentTimeMillis() - start) + "ms");
+
+		List<String> expected = new ArrayList<>();
+		for (String sentence : sentences) {
+			reference(sentence, emit, trans, expected);
+		}
+		Assert.assertEquals(expected, tokens);
+	}
+
+	@Test
+	public void testCut() {
+		List<String> tokens = new ArrayList<>();
+		FinalSeg.getInstance().cut("面试官abc123,一二三", tokens);
+		StringBuilder joined = new StringBuilder();
+		for (String token : tokens) {
+			joined.append(token);
+		}
+		Assert.assertEquals("面试官abc123,一二三", joined.toString());
+		Assert.assertTrue(tokens.contains("abc123"));
+
+		tokens.clear();
+		FinalSeg.getInstance().cut("", tokens);
+		Assert.assertTrue(tokens.isEmpty());
+	}
+
+	private static Map<Character, Map<Character, Double>> loadEmit() throws IOException {
+		Map<Character, Map<Character, Double>> emit = new HashMap<>();
+		Map<Character, Double> values = null;
+		for (String line : Files.readAllLines(Paths.get("models/stopwords/prob_emit.txt"), StandardCharsets.UTF_8)) {
+			String[] tokens = line.split("\t");
+			if (tokens.length == 1) {
+				values = new HashMap<>();
+				emit.put(tokens[0].charAt(0), values);
+			} else {
+				values.put(tokens[0].charAt(0), Double.valueOf(tokens[1]));
+			}
+		}
+		return emit;
+	}
+
+	/**
+	 * 按状态名查Map的viterbi, 与原实现逐步一致
+	 */
+	private static void reference(String sentence, Map<Character, Map<Character, Double>> emit,
+			Map<String, Double> trans, List<String> tokens) {
+		int n = sentence.length();
+		double[][] v = new double[n][4];
+		int[][] back = new int[n][4];
+		for (int y = 0; y < 4; y++) {
+			v[0][y] = START[y] + emission(emit, STATES.charAt(y), sentence.charAt(0));
+		}
+		for (int i = 1; i < n; i++) {
+			for (int y = 0; y < 4; y++) {
+				double emp = emission(emit, STATES.charAt(y), sentence.charAt(i));
+				double best = 0;
+				int from = -1;
+				for (char prev : PREV[y].toCharArray()) {
+					int y0 = STATES.indexOf(prev);
+					double p = trans.get("" + prev + STATES.charAt(y)) + (emp + v[i - 1][y0]);
+					if (from < 0 || best <= p) {
+						best = p;
+						from = y0;
+					}
+				}
+				v[i][y] = best;
+				back[i][y] = from;
+			}
+		}
+		char[] pos = new char[n];
+		int state = v[n - 1][2] < v[n - 1][3] ? 3 : 2;
+		for (int i = n - 1; i >= 0; i--) {
+			pos[i] = STATES.charAt(state);
+			state = back[i][state];
+		}
+		int begin = 0, next = 0;
+		for (int i = 0; i < n; i++) {
+			if (pos[i] == 'B') {
+				begin = i;
+			} else if (pos[i] == 'E') {
+				tokens.add(sentence.substring(begin, i + 1));
+				next = i + 1;
+			} else if (pos[i] == 'S') {
+				tokens.add(sentence.substring(i, i + 1));
+				next = i + 1;
+			}
+		}
+		if (next < n) {
+			tokens.add(sentence.substring(next));
+		}
+	}
+
+	private static double emission(Map<Character, Map<Character, Double>> emit, char state, char ch) {
+		Double p = emit.get(state).get(ch);
+		return p == null ? MIN_FLOAT : p;
+	}
+}
@@ -0,0 +1,76 @@
+package document_similarity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.FingerprintStore;
+import similarity.SimHash;
+import similarity.multithread.HammingJob;
+
+public class FingerprintStoreTest {
+
+	@Test
+	public void testAppendReopenAndScan() throws IOException {
+		Path dir = Files.createTempDirectory("fingerprint-store");
+		Random r = new Random(5);
+		int size = 100000;
+		String[] docIds = new String[size];
+		long[] fingerprints = new long[size];
+		for (int i = 0; i < size; i++) {
+			docIds[i] = "文档-" + i;
+			fingerprints[i] = r.nextLong();
+		}
+
+		try (FingerprintStore store = FingerprintStore.open(dir)) {
+			store.append(docIds, fingerprints);
+			Assert.assertEquals(size, store.size());
+		}
+
+		// 模拟崩溃: 已提交记录之后的残余数据
+		try (FileChannel channel = FileChannel.open(dir.resolve(FingerprintStore.FINGERPRINT_FILE), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 }), channel.size());
+		}
+		try (FileChannel channel = FileChannel.open(dir.resolve(FingerprintStore.DOCID_FILE), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 9, 9, 9 }), channel.size());
+		}
+
+		long start = System.nanoTime();
+		try (FingerprintStore store = FingerprintStore.open(dir)) {
+			long openTime = System.nanoTime() - start;
+			Assert.assertEquals(size, store.size());
+			Assert.assertEquals(fingerprints[size - 1], store.fingerprint(size - 1));
+			Assert.assertEquals(docIds[12345], store.docId(12345));
+
+			Assert.assertEquals(size, store.append("tail", 42L));
+			Assert.assertEquals("tail", store.docId(size));
+			Assert.assertEquals(42L, store.fingerprint(size));
+
+			long query = fingerprints[777] ^ 0x5L;
+			Map<String, Integer> expected = new HashMap<>();
+			for (int i = 0; i < size; i++) {
+				if (SimHash.hammingDistance(query, fingerprints[i]) <= 20) {
+					expected.put(docIds[i], SimHash.hammingDistance(query, fingerprints[i]));
+				}
+			}
+			start = System.nanoTime();
+			Map<String, Integer> found = store.search(query, 20);
+			long scanTime = System.nanoTime() - start;
+			Assert.assertEquals(expected, new HashMap<>(found));
+			Assert.assertEquals(Integer.valueOf(2), found.get(docIds[777]));
+
+			Map<String, Integer> jobResult = new HammingJob("store", query, store, 2).calcHammingDistance();
+			Assert.assertEquals(Integer.valueOf(2), jobResult.get(docIds[777]));
+			System.out.println(String.format("open:%.3fms, scan of %d records:%dms", openTime / 1e6, store.size(), scanTime / 1000000));
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package document_similarity;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.HammingKernel;
+import similarity.SimHash;
+import similarity.multithread.HammingJob;
+
+public class HammingKernelTest {
+
+	@Test
+	public void testKernel() {
+		Random r = new Random(3);
+		long query = r.nextLong();
+		long[] column = new long[1003];
+		for (int i = 0; i < column.length; i++) {
+			column[i] = i % 5 == 0 ? query ^ (1L << r.nextInt(64)) : r.nextLong();
+		}
+
+		byte[] bytes = new byte[column.length - 1];
+		int[] ints = new int[column.length - 1];
+		HammingKernel.distances(query, column, 1, column.length, bytes);
+		HammingKernel.distances(query, column, 1, column.length, ints);
+		for (int i = 1; i < column.length; i++) {
+			Assert.assertEquals(SimHash.hammingDistance(query, column[i]), bytes[i - 1]);
+			Assert.assertEquals(SimHash.hammingDistance(query, column[i]), ints[i - 1]);
+		}
+
+		int[] hits = new int[10];
+		int count = HammingKernel.withinThreshold(query, column, 0, column.length, 1, hits);
+		Assert.assertEquals(201, count);
+		for (int hit : hits) {
+			Assert.assertEquals(0, hit % 5);
+		}
+
+		int[] top = HammingKernel.topK(query, column, 0, column.length, 250);
+		Assert.assertEquals(250, top.length);
+		for (int i = 0; i < 201; i++) {
+			Assert.assertEquals(0, top[i] % 5);
+		}
+		for (int i = 1; i < top.length; i++) {
+			Assert.assertTrue(SimHash.hammingDistance(query, column[top[i - 1]]) <= SimHash.hammingDistance(query, column[top[i]]));
+		}
+	}
+
+	@Test
+	public void testWideKernel() {
+		Random r = new Random(4);
+		for (int lanes : new int[] { 2, 4 }) {
+			long[] query = new long[lanes];
+			for (int l = 0; l < lanes; l++) {
+				query[l] = r.nextLong();
+			}
+			int size = 301;
+			long[] column = new long[size * lanes];
+			for (int i = 0; i < column.length; i++) {
+				column[i] = i / lanes % 7 == 0 ? query[i % lanes] : r.nextLong();
+			}
+			int[] distances = new int[size];
+			HammingKernel.distances(query, column, 0, size, distances);
+			for (int i = 0; i < size; i++) {
+				long[] fingerprint = java.util.Arrays.copyOfRange(column, i * lanes, (i + 1) * lanes);
+				Assert.assertEquals(SimHash.hammingDistance(query, fingerprint), distances[i]);
+			}
+			int[] hits = new int[size];
+			int count = HammingKernel.withinThreshold(query, column, 0, size, 0, hits);
+			Assert.assertEquals(43, count);
+			Assert.assertEquals(7, hits[1]);
+		}
+	}
+
+	@Test
+	public void testColumnJobAgainstMap() {
+		Random r = new Random(11);
+		int size = 500000;
+		long base = r.nextLong();
+		String[] docIds = new String[size];
+		long[] fingerprints = new long[size];
+		Map<String, BigInteger> compare = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			docIds[i] = "doc" + i;
+			fingerprints[i] = r.nextLong();
+			compare.put(docIds[i], SimHash.toBigInteger(fingerprints[i]));
+		}
+
+		long start = System.nanoTime();
+		Map<String, Integer> expected = new HashMap<>(new HammingJob("map", SimHash.toBigInteger(base), compare).calcHammingDistance());
+		long mapTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		int[] distances = new int[size];
+		HammingKernel.distances(base, fingerprints, 0, size, distances);
+		long kernelTime = System.nanoTime() - start;
+
+		for (int i = 0; i < size; i++) {
+			Assert.assertEquals(expected.get(docIds[i]).intValue(), distances[i]);
+		}
+		Map<String, Integer> near = new HammingJob("column", base, docIds, fingerprints, 64).calcHammingDistance();
+		Assert.assertEquals(expected, new HashMap<>(near));
+		System.out.println(String.format("map scan:%dms, column kernel:%dms, size:%d", mapTime / 1000000, kernelTime / 1000000, size));
+	}
+}
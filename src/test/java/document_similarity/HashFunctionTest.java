@@ -0,0 +1,47 @@
+package document_similarity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.hash.HashFunction;
+
+public class HashFunctionTest {
+
+	private static final char[] ALPHABET = { 'a', 'Z', '9', ' ', 'é', 'ß', '中', '文', '词', 'Ａ', '\ud83d', '\ude00', '\ud800', '\udfff' };
+
+	@Test
+	public void testCharSequenceMatchesBytes() {
+		Random r = new Random(13);
+		long[] expected = new long[2];
+		long[] actual = new long[2];
+		for (int round = 0; round < 20000; round++) {
+			char[] chars = new char[r.nextInt(40)];
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = ALPHABET[r.nextInt(ALPHABET.length)];
+			}
+			String text = "前缀" + new String(chars) + "后缀";
+			int start = 2;
+			int end = 2 + chars.length;
+			byte[] utf8 = new String(chars).getBytes(StandardCharsets.UTF_8);
+
+			long hash = HashFunction.murmur64(utf8);
+			Assert.assertEquals(hash, HashFunction.murmur64(text, start, end));
+			Assert.assertEquals(hash, HashFunction.murmur64(text.toCharArray(), start, chars.length));
+			Assert.assertEquals(utf8.length, HashFunction.utf8Length(text, start, end));
+
+			byte[] utf16 = new byte[chars.length * 2];
+			for (int i = 0; i < chars.length; i++) {
+				utf16[2 * i] = (byte) chars[i];
+				utf16[2 * i + 1] = (byte) (chars[i] >> 8);
+			}
+			Assert.assertEquals(HashFunction.murmur64(utf16), HashFunction.murmur64Utf16(text, start, end));
+
+			HashFunction.murmur3_128(utf8, 0, utf8.length, round, expected, 0);
+			HashFunction.murmur3_128(text, start, end, round, actual, 0);
+			Assert.assertArrayEquals(expected, actual);
+		}
+	}
+}
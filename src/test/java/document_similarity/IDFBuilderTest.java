@@ -0,0 +1,170 @@
+package document_similarity;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.tokenizer.jieba.JiebaNLP;
+import similarity.tokenizer.jieba.keyword.IDFBuilder;
+import similarity.tokenizer.jieba.keyword.IDFLoader;
+import similarity.tokenizer.jieba.keyword.IDFSnapshot;
+
+public class IDFBuilderTest {
+
+	@Test
+	public void testExactCounts() throws Exception {
+		IDFBuilder builder = new IDFBuilder(4, 100000, 1000);
+		builder.add(Arrays.asList("苹果", "香蕉", "苹果"));
+		builder.add(Arrays.asList("苹果", "橘子"));
+		builder.add(Arrays.asList("苹果"));
+		builder.add(Arrays.asList("西瓜", "香蕉"));
+		Assert.assertEquals(4, builder.documents());
+		Assert.assertEquals(0, builder.sketchedShards());
+
+		IDFSnapshot snapshot = builder.snapshot();
+		Assert.assertEquals(4, snapshot.size());
+		Assert.assertEquals(Math.log(4.0 / 3), snapshot.idf("苹果"), 1e-12);
+		Assert.assertEquals(Math.log(4.0 / 2), snapshot.idf("香蕉"), 1e-12);
+		Assert.assertEquals(Math.log(4.0), snapshot.idf("西瓜"), 1e-12);
+		// 中位数
+		Assert.assertEquals(Math.log(4.0), snapshot.idf("葡萄"), 1e-12);
+
+		// 按idf.txt格式写出后可由IDFLoader加载
+		Path file = Files.createTempFile("idf", ".txt");
+		snapshot.write(file);
+		IDFLoader loader = new IDFLoader(file);
+		Assert.assertEquals(snapshot.idf("香蕉"), loader.idf("香蕉", -1.0), 1e-6);
+	}
+
+	@Test
+	public void testSketchKeepsHeavyHitters() {
+		Random random = new Random(23);
+		IDFBuilder builder = new IDFBuilder(4, 2000, 400);
+		Map<String, Integer> truth = new HashMap<String, Integer>();
+		int documents = 20000;
+		long s = System.currentTimeMillis();
+		for (int d = 0; d < documents; d++) {
+			List<String> terms = new ArrayList<String>();
+			for (int i = 0; i < 30; i++) {
+				terms.add("词" + ((int) Math.pow(50000, random.nextDouble()) - 1));
+			}
+			builder.add(terms);
+			for (String term : new HashSet<String>(terms)) {
+				truth.merge(term, 1, Integer::sum);
+			}
+		}
+		System.out.println("sketch " + documents + " docs, " + truth.size() + " distinct terms: "
+				+ (System.currentTimeMillis() - s) + "ms");
+		Assert.assertEquals(4, builder.sketchedShards());
+
+		IDFSnapshot snapshot = builder.snapshot();
+		Assert.assertTrue(snapshot.size() <= 400);
+		// 真实df最高的词都在表中, 估计的df不低于真实值且误差很小
+		List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(truth.entrySet());
+		entries.sort((a, b) -> b.getValue() - a.getValue());
+		for (Map.Entry<String, Integer> entry : entries.subList(0, 50)) {
+			double idf = snapshot.idf(entry.getKey());
+			double exact = Math.log((double) documents / entry.getValue());
+			Assert.assertTrue(entry.getKey(), idf <= exact + 1e-12);
+			Assert.assertEquals(entry.getKey(), exact, idf, 0.05);
+		}
+	}
+
+	@Test
+	public void testRareTermsAboveHeavyHitters() {
+		Random random = new Random(31);
+		IDFBuilder builder = new IDFBuilder(2, 200, 40);
+		for (int d = 0; d < 5000; d++) {
+			List<String> terms = new ArrayList<String>();
+			for (int i = 0; i < 20; i++) {
+				terms.add("词" + ((int) Math.pow(20000, random.nextDouble()) - 1));
+			}
+			if (d == 2500) {
+				terms.add("罕见");
+			}
+			builder.add(terms);
+		}
+		Assert.assertEquals(2, builder.sketchedShards());
+
+		IDFSnapshot snapshot = builder.snapshot();
+		Assert.assertFalse(snapshot.getTrie().contains("罕见"));
+		// 只输出了高频词, 它们idf的中位数偏低; 未输出的词的idf不能低于任何一个高频词
+		double rare = snapshot.idf("罕见");
+		double highest = 0.0;
+		for (String word : snapshot.getTrie().keys()) {
+			highest = Math.max(highest, snapshot.idf(word));
+		}
+		Assert.assertTrue(rare + " < " + highest, rare >= highest);
+		Assert.assertTrue(rare > snapshot.idf("词0"));
+		Assert.assertEquals(rare, snapshot.idf("从未出现"), 0.0);
+	}
+
+	@Test
+	public void testConcurrentAddAndPublish() throws Exception {
+		final IDFBuilder builder = new IDFBuilder(8, 100000, 1000);
+		final AtomicInteger published = new AtomicInteger();
+		builder.setPublisher(500, snapshot -> published.incrementAndGet());
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int t = 0; t < 4; t++) {
+			futures.add(pool.submit(() -> {
+				for (int i = 0; i < 1000; i++) {
+					builder.add(Arrays.asList("共有", "词" + (i % 10)));
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		pool.shutdown();
+		Assert.assertEquals(4000, builder.documents());
+		Assert.assertTrue(published.get() >= 1 && published.get() <= 8);
+		IDFSnapshot snapshot = builder.snapshot();
+		Assert.assertEquals(0.0, snapshot.idf("共有"), 1e-12);
+		Assert.assertEquals(Math.log(10.0), snapshot.idf("词3"), 1e-12);
+	}
+
+	@Test
+	public void testPublishToJiebaNLP() {
+		JiebaNLP nlp = JiebaNLP.JiebaExtractor();
+		nlp.loadStopWordsDefault();
+		IDFSnapshot original = nlp.idfSnapshot();
+		try {
+			IDFBuilder builder = new IDFBuilder(2, 10000, 1000);
+			String[] corpus = { "相似度计算需要分词和关键词提取", "我们的领域文档和通用语料不同", "文档相似度用余弦计算", "关键词提取依赖逆文档频率" };
+			for (String doc : corpus) {
+				nlp.learnIdf(doc, builder);
+			}
+			IDFSnapshot snapshot = builder.snapshot();
+			nlp.publishIdf(snapshot);
+			Assert.assertSame(snapshot.getTrie(), nlp.vocabulary().getIdfTrie());
+
+			String text = "文档相似度计算";
+			Map<String, Integer> tf = nlp.calc_tf(text, -1);
+			double total = 0;
+			for (int count : tf.values()) {
+				total += count;
+			}
+			Map<String, Double> weights = nlp.calc_tfidf(text, -1);
+			for (Map.Entry<String, Integer> entry : tf.entrySet()) {
+				Assert.assertEquals(entry.getValue() * snapshot.idf(entry.getKey()) / total, weights.get(entry.getKey()), 1e-12);
+			}
+		} finally {
+			nlp.publishIdf(original);
+		}
+		Assert.assertSame(original.getTrie(), nlp.vocabulary().getIdfTrie());
+	}
+}
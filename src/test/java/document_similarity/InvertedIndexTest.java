@@ -0,0 +1,219 @@
+package document_similarity;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.InvertedIndex;
+import similarity.SparseVector;
+
+public class InvertedIndexTest {
+
+	@Test
+	public void testTopKMatchesBruteForce() {
+		Random random = new Random(17);
+		int size = 20000;
+		SparseVector[] vectors = new SparseVector[size];
+		InvertedIndex index = new InvertedIndex();
+		long s = System.currentTimeMillis();
+		for (int i = 0; i < size; i++) {
+			vectors[i] = zipfVector(random, 5000, 60);
+			index.insert("doc-" + i, vectors[i]);
+		}
+		System.out.println("index " + size + " docs, " + index.postingCount() + " postings: "
+				+ (System.currentTimeMillis() - s) + "ms");
+
+		long indexTime = 0, bruteTime = 0;
+		for (int round = 0; round < 50; round++) {
+			SparseVector query = round % 2 == 0 ? vectors[random.nextInt(size)] : zipfVector(random, 5000, 20);
+			int k = 1 + random.nextInt(20);
+			long t = System.nanoTime();
+			Map<String, Double> result = index.search(query, k);
+			indexTime += System.nanoTime() - t;
+
+			t = System.nanoTime();
+			double[] scores = new double[size];
+			for (int i = 0; i < size; i++) {
+				scores[i] = query.cosine(vectors[i]);
+			}
+			bruteTime += System.nanoTime() - t;
+			double[] sorted = scores.clone();
+			Arrays.sort(sorted);
+
+			Assert.assertEquals(k, result.size());
+			int rank = 0;
+			double previous = Double.MAX_VALUE;
+			for (Map.Entry<String, Double> me : result.entrySet()) {
+				int ordinal = Integer.parseInt(me.getKey().substring(4));
+				Assert.assertEquals(scores[ordinal], me.getValue(), 1e-5);
+				Assert.assertEquals(sorted[size - 1 - rank], me.getValue(), 1e-5);
+				Assert.assertTrue(me.getValue() <= previous);
+				previous = me.getValue();
+				rank++;
+			}
+		}
+		System.out.println("index: " + indexTime / 1000000 + "ms, brute force: " + bruteTime / 1000000 + "ms");
+	}
+
+	@Test
+	public void testRemoveReplaceAndMinScore() {
+		InvertedIndex index = new InvertedIndex();
+		SparseVector a = SparseVector.of(new int[] { 1, 2 }, new float[] { 1f, 1f }, 2);
+		SparseVector b = SparseVector.of(new int[] { 2, 3 }, new float[] { 1f, 3f }, 2);
+		index.insert("a", a);
+		index.insert("b", b);
+		index.insert("empty", SparseVector.EMPTY);
+		Assert.assertEquals(3, index.size());
+
+		Map<String, Double> result = index.search(a, 10);
+		Assert.assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(result.keySet()));
+		Assert.assertEquals(1.0, result.get("a"), 1e-6);
+		Assert.assertEquals(a.cosine(b), result.get("b"), 1e-6);
+		Assert.assertEquals(1, index.search(a, 10, 0.5).size());
+
+		index.insert("a", b);
+		result = index.search(a, 10);
+		Assert.assertEquals(a.cosine(b), result.get("a"), 1e-6);
+		Assert.assertEquals(2, result.size());
+
+		Assert.assertTrue(index.remove("b"));
+		Assert.assertFalse(index.remove("b"));
+		Assert.assertEquals(1, index.search(a, 10).size());
+		Assert.assertTrue(index.search(SparseVector.EMPTY, 10).isEmpty());
+
+		try {
+			index.insert("negative", SparseVector.of(new int[] { 1 }, new float[] { -1f }, 1));
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// 期望
+		}
+	}
+
+	@Test
+	public void testConcurrentInsert() throws Exception {
+		final InvertedIndex index = new InvertedIndex(4, 1 << 20, Long.MAX_VALUE, null);
+		final SparseVector query = SparseVector.of(new int[] { 7 }, new float[] { 1f }, 1);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int t = 0; t < 4; t++) {
+			final int thread = t;
+			futures.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random(thread);
+					for (int i = 0; i < 2000; i++) {
+						index.insert(thread + "-" + i, zipfVector(random, 1000, 10));
+						if (i % 100 == 0) {
+							index.search(query, 5);
+						}
+					}
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		pool.shutdown();
+		Assert.assertEquals(8000, index.size());
+		Map<String, Double> result = index.search(query, 5);
+		Assert.assertEquals(5, result.size());
+		for (double score : result.values()) {
+			Assert.assertTrue(score > 0.0);
+		}
+	}
+
+	@Test
+	public void testFlushAndCompact() throws IOException {
+		Path directory = Files.createTempDirectory("inverted-index");
+		long memoryBudget = 256 << 10;
+		InvertedIndex index = new InvertedIndex(2, 64 << 10, memoryBudget, directory);
+		Random random = new Random(29);
+		Map<String, SparseVector> live = new HashMap<String, SparseVector>();
+		long s = System.currentTimeMillis();
+		for (int i = 0; i < 20000; i++) {
+			String docId = "doc-" + random.nextInt(16000);
+			SparseVector vector = zipfVector(random, 5000, 60);
+			index.insert(docId, vector);
+			live.put(docId, vector);
+			if (i % 7 == 0) {
+				String removed = "doc-" + random.nextInt(16000);
+				Assert.assertEquals(live.remove(removed) != null, index.remove(removed));
+			}
+		}
+		System.out.println("index " + live.size() + " docs in " + index.segmentCount() + " segments, heap " + index.heapBytes()
+				+ " bytes: " + (System.currentTimeMillis() - s) + "ms");
+		Assert.assertEquals(live.size(), index.size());
+		// 封段后才写出, 堆上最多多出各写入段未封的部分
+		Assert.assertTrue(index.heapBytes() <= memoryBudget + 2 * (64 << 10) + 8 * 60);
+		Assert.assertTrue(Files.list(directory).count() > 0);
+		assertTopK(index, live, random);
+
+		long before = index.postingCount();
+		index.compact();
+		long postings = 0;
+		for (SparseVector vector : live.values()) {
+			postings += vector.norm() == 0.0 ? 0 : vector.size();
+		}
+		System.out.println("compact " + before + " -> " + index.postingCount() + " postings, " + index.segmentCount() + " segments");
+		Assert.assertEquals(postings, index.postingCount());
+		Assert.assertEquals(live.size(), index.size());
+		assertTopK(index, live, random);
+
+		// 合并后仍可插入和删除
+		SparseVector vector = zipfVector(random, 5000, 60);
+		index.insert("新文档", vector);
+		Assert.assertTrue(index.search(vector, 1).containsKey("新文档"));
+		Assert.assertTrue(index.remove("新文档"));
+		Assert.assertFalse(index.search(vector, 1).containsKey("新文档"));
+
+		index.close();
+		Assert.assertEquals(0, Files.list(directory).count());
+	}
+
+	private static void assertTopK(InvertedIndex index, Map<String, SparseVector> live, Random random) {
+		List<SparseVector> vectors = new ArrayList<SparseVector>(live.values());
+		for (int round = 0; round < 20; round++) {
+			SparseVector query = round % 2 == 0 ? vectors.get(random.nextInt(vectors.size())) : zipfVector(random, 5000, 20);
+			int k = 1 + random.nextInt(20);
+			double[] sorted = new double[vectors.size()];
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = query.cosine(vectors.get(i));
+			}
+			Arrays.sort(sorted);
+			Map<String, Double> result = index.search(query, k);
+			Assert.assertEquals(k, result.size());
+			int rank = 0;
+			for (Map.Entry<String, Double> me : result.entrySet()) {
+				Assert.assertEquals(query.cosine(live.get(me.getKey())), me.getValue(), 1e-5);
+				Assert.assertEquals(sorted[sorted.length - 1 - rank], me.getValue(), 1e-5);
+				rank++;
+			}
+		}
+	}
+
+	/**
+	 * 词id服从近似Zipf分布, 少数高频词的倒排链很长
+	 */
+	private static SparseVector zipfVector(Random random, int terms, int maxLength) {
+		int n = 1 + random.nextInt(maxLength);
+		int[] ids = new int[n];
+		float[] weights = new float[n];
+		for (int i = 0; i < n; i++) {
+			ids[i] = (int) Math.pow(terms, random.nextDouble()) - 1;
+			weights[i] = random.nextFloat() * (1 + (float) Math.log(1 + ids[i]));
+		}
+		return SparseVector.of(ids, weights, n);
+	}
+}
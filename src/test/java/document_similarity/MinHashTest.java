@@ -0,0 +1,119 @@
+package document_similarity;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.MinHash;
+import similarity.MinHashLSHIndex;
+import similarity.multithread.MinHashJob;
+
+public class MinHashTest {
+
+	private static final int NUM_PERM = 256;
+
+	@Test
+	public void testJaccardEstimate() {
+		MinHash minHash = new MinHash(NUM_PERM);
+		Random r = new Random(1);
+		for (double target : new double[] { 0.1, 0.5, 0.8, 1.0 }) {
+			List<List<String>> pair = overlapping(1000, target, r);
+			long[] left = minHash.signature(pair.get(0));
+			long[] right = minHash.signature(pair.get(1));
+			double exact = exactJaccard(pair.get(0), pair.get(1));
+			double estimate = MinHash.jaccard(left, right);
+			System.out.println("exact " + exact + " estimate " + estimate);
+			Assert.assertEquals(exact, estimate, 0.1);
+
+			long[] packedLeft = MinHash.compress(left, 8);
+			long[] packedRight = MinHash.compress(right, 8);
+			Assert.assertEquals(NUM_PERM / 8, packedLeft.length);
+			Assert.assertEquals(exact, MinHash.jaccard(packedLeft, packedRight, 8, NUM_PERM), 0.1);
+		}
+	}
+
+	@Test
+	public void testShingleSignature() {
+		MinHash minHash = new MinHash(NUM_PERM);
+		List<String> tokens = new ArrayList<>();
+		for (String token : "我们 今天 去 公园 散步 然后 回家 吃饭".split(" ")) {
+			tokens.add(token);
+		}
+		List<String> reversed = new ArrayList<>(tokens);
+		java.util.Collections.reverse(reversed);
+		// 词集合相同, 2-shingle完全不同
+		Assert.assertEquals(1.0, MinHash.jaccard(minHash.shingleSignature(tokens, 1), minHash.shingleSignature(reversed, 1)), 0.0);
+		Assert.assertTrue(MinHash.jaccard(minHash.shingleSignature(tokens, 2), minHash.shingleSignature(reversed, 2)) < 0.1);
+		Assert.assertArrayEquals(minHash.signature(tokens), minHash.shingleSignature(tokens, 1));
+	}
+
+	@Test
+	public void testLSHIndex() {
+		MinHash minHash = new MinHash(128);
+		MinHashLSHIndex index = MinHashLSHIndex.forThreshold(128, 0.7);
+		System.out.println("bands " + index.getBands() + " rows " + index.getRows());
+		Assert.assertTrue(index.getBands() * index.getRows() <= 128);
+
+		Random r = new Random(2);
+		List<String> base = tokens(500, r);
+		long[] query = minHash.signature(base);
+		List<String> near = new ArrayList<>(base.subList(0, 450));
+		near.addAll(tokens(20, r));
+		index.insert("near", minHash.signature(near));
+		for (int i = 0; i < 2000; i++) {
+			index.insert("doc" + i, minHash.signature(tokens(500, r)));
+		}
+		Assert.assertEquals(2001, index.size());
+
+		long start = System.currentTimeMillis();
+		Map<String, Double> result = index.query(query, 0.7);
+		System.out.println("query cost " + (System.currentTimeMillis() - start) + "ms " + result);
+		Assert.assertEquals(1, result.size());
+		Assert.assertTrue(result.containsKey("near"));
+		Assert.assertTrue(index.candidates(query).size() < 10);
+
+		MinHashJob job = new MinHashJob("1", query, index, 0.7);
+		Assert.assertTrue(job.calcJaccardSimilarity().containsKey("near"));
+
+		Assert.assertTrue(index.remove("near"));
+		Assert.assertFalse(index.remove("near"));
+		Assert.assertTrue(index.query(query, 0.7).isEmpty());
+	}
+
+	private static List<String> tokens(int n, Random r) {
+		List<String> tokens = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			tokens.add(Long.toHexString(r.nextLong()));
+		}
+		return tokens;
+	}
+
+	private static List<List<String>> overlapping(int n, double jaccard, Random r) {
+		// |A∩B| / |A∪B| = shared / (shared + 2 * own)
+		int shared = (int) Math.round(n * jaccard);
+		int own = (n - shared) / 2;
+		List<String> common = tokens(shared, r);
+		List<String> left = new ArrayList<>(common);
+		List<String> right = new ArrayList<>(common);
+		left.addAll(tokens(own, r));
+		right.addAll(tokens(own, r));
+		List<List<String>> pair = new ArrayList<>(2);
+		pair.add(left);
+		pair.add(right);
+		return pair;
+	}
+
+	private static double exactJaccard(List<String> left, List<String> right) {
+		Set<String> union = new HashSet<>(left);
+		union.addAll(right);
+		Set<String> intersection = new HashSet<>(left);
+		intersection.retainAll(right);
+		return (double) intersection.size() / union.size();
+	}
+}
@@ -0,0 +1,109 @@
+package document_similarity;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.tokenizer.jieba.DoubleArrayTrie;
+import similarity.tokenizer.jieba.ModelSnapshot;
+
+public class ModelSnapshotTest {
+
+	private static final int TAG = 7;
+
+	@Test
+	public void testTrieRoundTrip() throws IOException {
+		Random r = new Random(13);
+		Map<String, Double> freqs = new HashMap<>();
+		while (freqs.size() < 50000) {
+			StringBuilder sb = new StringBuilder();
+			int length = 1 + r.nextInt(6);
+			for (int i = 0; i < length; i++) {
+				sb.append((char) ('一' + r.nextInt(3000)));
+			}
+			freqs.put(sb.toString(), Math.log(r.nextDouble()));
+		}
+		DoubleArrayTrie trie = DoubleArrayTrie.build(freqs);
+
+		Path dir = Files.createTempDirectory("snapshot");
+		Path source = dir.resolve("dict.txt");
+		Files.write(source, new byte[0]);
+		Files.setLastModifiedTime(source, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+		Path file = dir.resolve("test.snapshot");
+		ModelSnapshot.Writer writer = new ModelSnapshot.Writer();
+		DataOutputStream out = writer.section(TAG, source);
+		out.writeDouble(1.5);
+		trie.write(out);
+		writer.write(file);
+
+		long start = System.currentTimeMillis();
+		ModelSnapshot snapshot = ModelSnapshot.open(file);
+		ByteBuffer in = snapshot.section(TAG, source);
+		Assert.assertEquals(1.5, in.getDouble(), 0.0);
+		DoubleArrayTrie loaded = DoubleArrayTrie.read(in);
+		System.out.println("snapshot " + Files.size(file) + " bytes, load cost " + (System.currentTimeMillis() - start) + "ms");
+
+		Assert.assertNull(snapshot.section(TAG + 1, source));
+		Assert.assertNull(snapshot.section(TAG, dir.resolve("other.txt")));
+		Assert.assertEquals(trie.size(), loaded.size());
+		Assert.assertEquals(trie.maxLength(), loaded.maxLength());
+		for (Map.Entry<String, Double> entry : freqs.entrySet()) {
+			int id = loaded.wordId(entry.getKey());
+			Assert.assertEquals(trie.wordId(entry.getKey()), id);
+			Assert.assertEquals(entry.getValue(), loaded.value(id), 0.0);
+		}
+		Assert.assertFalse(loaded.contains("一一一一一一一"));
+
+		String[] keys = loaded.keys();
+		Assert.assertEquals(freqs.keySet(), new HashSet<>(Arrays.asList(keys)));
+		for (int id = 0; id < keys.length; id++) {
+			Assert.assertEquals(id, loaded.wordId(keys[id]));
+		}
+
+		// 来源文件比快照新, 该段作废
+		Files.setLastModifiedTime(source, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+		Assert.assertNull(ModelSnapshot.open(file).section(TAG, source));
+	}
+
+	@Test
+	public void testCorruption() throws IOException {
+		Path dir = Files.createTempDirectory("snapshot");
+		Path file = dir.resolve("test.snapshot");
+		ModelSnapshot.Writer writer = new ModelSnapshot.Writer();
+		DataOutputStream out = writer.section(TAG, dir.resolve("dict.txt"));
+		for (int i = 0; i < 1000; i++) {
+			out.writeInt(i);
+		}
+		writer.write(file);
+		Assert.assertNotNull(ModelSnapshot.open(file).section(TAG, dir.resolve("dict.txt")));
+
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[bytes.length / 2] ^= 1;
+		Files.write(file, bytes);
+		try {
+			ModelSnapshot.open(file);
+			Assert.fail("checksum mismatch expected");
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+
+		Files.write(file, Arrays.copyOf(bytes, 10));
+		try {
+			ModelSnapshot.open(file);
+			Assert.fail("truncated snapshot expected");
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package document_similarity;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.ConcurrentUnionFind;
+import similarity.NearDuplicateClusterer;
+import similarity.multithread.ClusterMaster;
+import similarity.multithread.ClusterWorker;
+
+public class NearDuplicateClustererTest {
+
+	@Test
+	public void testMatchesBruteForce() {
+		for (int k : new int[] { 0, 3, 5 }) {
+			long[] corpus = corpus(3000, k, new Random(k));
+			int[] expected = bruteForce(corpus, k);
+			Assert.assertArrayEquals(expected, new NearDuplicateClusterer(corpus, k).cluster());
+			Assert.assertArrayEquals(expected, new NearDuplicateClusterer(corpus, k, k + 1).cluster());
+		}
+	}
+
+	@Test
+	public void testExactDuplicates() {
+		int k = 3;
+		// 少量模板大量转载, 另有少数改动几位的近似重复
+		Random r = new Random(9);
+		long[] templates = new long[30];
+		for (int i = 0; i < templates.length; i++) {
+			templates[i] = r.nextLong();
+		}
+		long[] corpus = new long[3000];
+		for (int i = 0; i < corpus.length; i++) {
+			corpus[i] = templates[r.nextInt(templates.length)];
+			if (i % 100 == 0) {
+				corpus[i] ^= 1L << r.nextInt(64);
+			}
+		}
+		NearDuplicateClusterer clusterer = new NearDuplicateClusterer(corpus, k);
+		Assert.assertTrue(clusterer.distinctCount() <= templates.length + corpus.length / 100);
+		Assert.assertArrayEquals(bruteForce(corpus, k), clusterer.cluster());
+
+		// 每段都是同一指纹时, 不再是段长的平方
+		long[] copies = new long[200000];
+		for (int i = 0; i < copies.length; i++) {
+			copies[i] = templates[i % 4];
+		}
+		long start = System.currentTimeMillis();
+		int[] roots = new NearDuplicateClusterer(copies, k).cluster();
+		System.out.println("200000 copies of 4 fingerprints cost " + (System.currentTimeMillis() - start) + "ms");
+		for (int i = 0; i < copies.length; i++) {
+			Assert.assertEquals(i % 4, roots[i]);
+		}
+	}
+
+	@Test
+	public void testClusterMaster() {
+		int k = 3;
+		long[] corpus = corpus(200000, k, new Random(3));
+		String[] docIds = new String[corpus.length];
+		for (int i = 0; i < docIds.length; i++) {
+			docIds[i] = "doc" + i;
+		}
+		long start = System.currentTimeMillis();
+		int[] sequential = new NearDuplicateClusterer(corpus, k).cluster();
+		System.out.println("sequential cost " + (System.currentTimeMillis() - start) + "ms");
+
+		start = System.currentTimeMillis();
+		ClusterMaster master = new ClusterMaster(new ClusterWorker(), Runtime.getRuntime().availableProcessors(), docIds, corpus, k);
+		master.submitPasses();
+		master.executeMutiWorker();
+		while (!master.isCompleted()) {
+			Thread.yield();
+		}
+		Map<String, Integer> result = master.processMultiResult();
+		System.out.println("parallel cost " + (System.currentTimeMillis() - start) + "ms");
+		Assert.assertEquals(corpus.length, result.size());
+		for (int i = 0; i < corpus.length; i++) {
+			Assert.assertEquals(sequential[i], result.get(docIds[i]).intValue());
+		}
+	}
+
+	@Test
+	public void testConcurrentUnionFind() throws InterruptedException {
+		int size = 100000;
+		ConcurrentUnionFind unionFind = new ConcurrentUnionFind(size);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread(() -> {
+				Random r = new Random(seed);
+				for (int i = 0; i < size; i++) {
+					// 只合并同余10的元素
+					int x = r.nextInt(size);
+					unionFind.union(x, (x + 10 * (1 + r.nextInt(50))) % size);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		int[] roots = unionFind.roots();
+		for (int i = 0; i < size; i++) {
+			Assert.assertEquals(i % 10, roots[i] % 10);
+			Assert.assertTrue(roots[i] <= i);
+			Assert.assertEquals(roots[i], roots[roots[i]]);
+		}
+		Assert.assertTrue(unionFind.connected(roots[12345], 12345));
+		Assert.assertFalse(unionFind.connected(1, 2));
+	}
+
+	/**
+	 * 随机中心加上若干近似重复, 另有少量链式的近似重复
+	 */
+	private static long[] corpus(int size, int k, Random r) {
+		long[] corpus = new long[size];
+		for (int i = 0; i < size; i++) {
+			if (i % 5 == 0) {
+				corpus[i] = r.nextLong();
+			} else {
+				long fingerprint = corpus[i - 1 - r.nextInt(i % 5)];
+				for (int flips = r.nextInt(k + 3); flips > 0; flips--) {
+					fingerprint ^= 1L << r.nextInt(64);
+				}
+				corpus[i] = fingerprint;
+			}
+		}
+		return corpus;
+	}
+
+	private static int[] bruteForce(long[] corpus, int k) {
+		ConcurrentUnionFind unionFind = new ConcurrentUnionFind(corpus.length);
+		for (int i = 0; i < corpus.length; i++) {
+			for (int j = i + 1; j < corpus.length; j++) {
+				if (Long.bitCount(corpus[i] ^ corpus[j]) <= k) {
+					unionFind.union(i, j);
+				}
+			}
+		}
+		return unionFind.roots();
+	}
+}
@@ -0,0 +1,59 @@
+package document_similarity;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.tokenizer.jieba.JiebaSegmenter;
+import similarity.tokenizer.jieba.JiebaSegmenter.SegMode;
+import similarity.tokenizer.jieba.SegToken;
+
+public class ParallelSegmentTest {
+
+	private static final String SENTENCE = "腾讯一面主要就是聊一些基础，我是去面移动客户端TCP/HTTP都是值得问的。图片缓存方案的回调怎么做的?\n";
+
+	@Test
+	public void testSameAsSequential() {
+		StringBuilder doc = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			doc.append(SENTENCE);
+			// 中间夹一段没有标点、超过一块长度的文本, 不能从中间切开
+			if (i == 1000) {
+				for (int j = 0; j < 3000; j++)
+					doc.append("面试官");
+			}
+		}
+		String text = doc.toString();
+
+		JiebaSegmenter segmenter = new JiebaSegmenter();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (SegMode mode : SegMode.values()) {
+				long s = System.currentTimeMillis();
+				List<SegToken> expected = segmenter.process(text, mode);
+				long m = System.currentTimeMillis();
+				List<SegToken> actual = segmenter.process(text, mode, pool);
+				System.out.println(String.format("%s chars:%d sequential %dms parallel %dms", mode, text.length(), m - s,
+					System.currentTimeMillis() - m));
+				assertSame(expected, actual);
+			}
+			// 短文本直接顺序切分
+			assertSame(segmenter.process(SENTENCE, SegMode.SEARCH), segmenter.parallelProcess(SENTENCE, SegMode.SEARCH));
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+
+	private static void assertSame(List<SegToken> expected, List<SegToken> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(expected.get(i).word, actual.get(i).word);
+			Assert.assertEquals(expected.get(i).startOffset, actual.get(i).startOffset);
+			Assert.assertEquals(expected.get(i).endOffset, actual.get(i).endOffset);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package document_similarity;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.tokenizer.jieba.JiebaNLP;
+import similarity.tokenizer.jieba.JiebaSegmenter;
+import similarity.tokenizer.jieba.SentenceCache;
+import similarity.tokenizer.jieba.TokenSpans;
+import similarity.tokenizer.jieba.WordDictionary;
+
+public class SentenceCacheTest {
+
+	private static final String[] SENTENCES = {
+		"很多人都分享了很多的面经", "而且还有好多面试题目在很多社区都有相关的资料", "下面就主要介绍下我是如何在面试前做准备工作的",
+		"腾讯的面试就是自己经历了腾讯的笔试", "笔试的话基本上就是一些基础知识" };
+
+	@Test
+	public void testHitAndMiss() {
+		SentenceCache cache = new SentenceCache(1 << 20);
+		JiebaSegmenter plain = new JiebaSegmenter();
+		JiebaSegmenter cached = new JiebaSegmenter(cache);
+		for (int round = 0; round < 3; round++) {
+			for (String sentence : SENTENCES)
+				Assert.assertEquals(plain.sentenceProcess(sentence), cached.sentenceProcess(sentence));
+		}
+		Assert.assertEquals(SENTENCES.length, cache.missCount());
+		Assert.assertEquals(SENTENCES.length * 2, cache.hitCount());
+		Assert.assertEquals(SENTENCES.length, cache.size());
+		Assert.assertEquals(0, cache.evictionCount());
+
+		// 返回的是副本, 修改不影响缓存
+		List<String> words = cached.sentenceProcess(SENTENCES[0]);
+		words.clear();
+		Assert.assertEquals(plain.sentenceProcess(SENTENCES[0]), cached.sentenceProcess(SENTENCES[0]));
+		System.out.println(cache);
+	}
+
+
+	@Test
+	public void testSpans() {
+		SentenceCache cache = new SentenceCache(1 << 20);
+		JiebaSegmenter plain = new JiebaSegmenter();
+		JiebaSegmenter cached = new JiebaSegmenter(cache);
+		TokenSpans expected = new TokenSpans();
+		TokenSpans actual = new TokenSpans();
+		for (int round = 0; round < 2; round++) {
+			for (String sentence : SENTENCES) {
+				plain.sentenceSpans(sentence, expected);
+				cached.sentenceSpans(sentence, actual);
+				Assert.assertEquals(expected.size(), actual.size());
+				for (int i = 0; i < expected.size(); i++) {
+					Assert.assertEquals(expected.start(i), actual.start(i));
+					Assert.assertEquals(expected.end(i), actual.end(i));
+					Assert.assertEquals(expected.termId(i), actual.termId(i));
+					Assert.assertEquals(expected.word(i), actual.word(i));
+				}
+			}
+		}
+		Assert.assertEquals(SENTENCES.length, cache.hitCount());
+		// sentenceProcess与sentenceSpans共用条目
+		Assert.assertEquals(plain.sentenceProcess(SENTENCES[0]), cached.sentenceProcess(SENTENCES[0]));
+		Assert.assertEquals(SENTENCES.length + 1, cache.hitCount());
+	}
+
+
+	@Test
+	public void testJiebaNLP() {
+		JiebaNLP nlp = JiebaNLP.JiebaExtractor();
+		nlp.loadStopWordsDefault();
+		SentenceCache cache = new SentenceCache(1 << 20);
+		String doc = SENTENCES[1] + SENTENCES[2];
+		Object expected = nlp.calc_tfidf(doc, -1);
+		nlp.useSentenceCache(cache);
+		try {
+			Assert.assertEquals(expected, nlp.calc_tfidf(doc, -1));
+			Assert.assertEquals(expected, nlp.calc_tfidf(doc, -1));
+			Assert.assertEquals(1, cache.hitCount());
+		}
+		finally {
+			nlp.useSentenceCache(null);
+		}
+	}
+
+
+	@Test
+	public void testBoundedByBytes() {
+		long maxBytes = 64 * 1024;
+		SentenceCache cache = new SentenceCache(maxBytes, 4);
+		JiebaSegmenter segmenter = new JiebaSegmenter(cache);
+		for (int i = 0; i < 5000; i++)
+			segmenter.sentenceProcess(SENTENCES[i % SENTENCES.length] + i);
+		System.out.println(cache);
+		Assert.assertTrue(cache.weightedSize() <= maxBytes);
+		Assert.assertTrue(cache.evictionCount() > 0);
+		Assert.assertEquals(5000, cache.missCount());
+
+		// 反复访问的句子留在缓存中
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+		for (int i = 0; i < 5000; i++) {
+			segmenter.sentenceProcess(SENTENCES[0]);
+			segmenter.sentenceProcess(SENTENCES[1] + i);
+		}
+		Assert.assertTrue(cache.hitCount() >= 4999);
+	}
+
+
+	@Test
+	public void testDictionaryReload() throws Exception {
+		SentenceCache cache = new SentenceCache(1 << 20);
+		JiebaSegmenter segmenter = new JiebaSegmenter(cache);
+		String sentence = "实验室制备了超导量子比特";
+		List<String> before = segmenter.sentenceProcess(sentence);
+		Assert.assertFalse(before.contains("超导量子比特"));
+
+		WordDictionary dict = WordDictionary.getInstance();
+		Path dir = Files.createTempDirectory("userdict");
+		Path file = dir.resolve("cache.dict");
+		try {
+			Files.write(file, Arrays.asList("超导量子比特 100"), StandardCharsets.UTF_8);
+			dict.init(dir);
+			Assert.assertTrue(segmenter.sentenceProcess(sentence).contains("超导量子比特"));
+		}
+		finally {
+			Files.delete(file);
+			dict.reloadUserDicts();
+			Files.delete(dir);
+		}
+		Assert.assertEquals(before, segmenter.sentenceProcess(sentence));
+		Assert.assertEquals(0, cache.hitCount());
+	}
+
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final SentenceCache cache = new SentenceCache(32 * 1024);
+		final JiebaSegmenter plain = new JiebaSegmenter();
+		final JiebaSegmenter cached = new JiebaSegmenter(cache);
+		final List<String> sentences = new ArrayList<String>();
+		for (int i = 0; i < 200; i++)
+			sentences.add(SENTENCES[i % SENTENCES.length] + (i % 37));
+		final AtomicInteger bad = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 5000; i++) {
+						String sentence = sentences.get((i * 31 + seed * 17) % sentences.size());
+						if (!plain.sentenceProcess(sentence).equals(cached.sentenceProcess(sentence)))
+							bad.incrementAndGet();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		System.out.println(cache);
+		Assert.assertEquals(0, bad.get());
+		Assert.assertEquals(20000, cache.hitCount() + cache.missCount());
+		Assert.assertTrue(cache.weightedSize() <= cache.maxWeight());
+	}
+}
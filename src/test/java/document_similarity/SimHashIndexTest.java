@@ -0,0 +1,98 @@
+package document_similarity;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.SimHash;
+import similarity.SimHashIndex;
+
+public class SimHashIndexTest {
+
+	private static final int CORPUS_SIZE = 200000;
+
+	@Test
+	public void testQueryMatchesLinearScan() {
+		for (int k : new int[] { 3, 6 }) {
+			Random r = new Random(k);
+			SimHashIndex index = new SimHashIndex(k);
+			long[] corpus = new long[2000];
+			for (int i = 0; i < corpus.length; i++) {
+				corpus[i] = i % 4 == 0 || i == 0 ? r.nextLong() : flip(corpus[i - 1], r.nextInt(k + 3), r);
+				index.insert("doc" + i, corpus[i]);
+			}
+			for (int q = 0; q < 200; q++) {
+				long query = flip(corpus[r.nextInt(corpus.length)], r.nextInt(k + 2), r);
+				Assert.assertEquals(linearScan(corpus, query, k), new HashMap<>(index.query(query)));
+			}
+			for (int i = 0; i < corpus.length; i += 3) {
+				Assert.assertTrue(index.delete("doc" + i));
+			}
+			Assert.assertFalse(index.delete("doc0"));
+			for (int q = 0; q < 200; q++) {
+				long query = flip(corpus[r.nextInt(corpus.length)], r.nextInt(k + 1), r);
+				for (String docId : index.query(query).keySet()) {
+					Assert.assertNotEquals(0, Integer.parseInt(docId.substring(3)) % 3);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBenchmarkAgainstLinearScan() {
+		Random r = new Random(7);
+		long[] corpus = new long[CORPUS_SIZE];
+		SimHashIndex index = new SimHashIndex(3);
+		long start = System.nanoTime();
+		for (int i = 0; i < corpus.length; i++) {
+			corpus[i] = r.nextLong();
+			index.insert("doc" + i, corpus[i]);
+		}
+		long build = System.nanoTime() - start;
+
+		int queries = 1000;
+		long[] probes = new long[queries];
+		for (int i = 0; i < queries; i++) {
+			probes[i] = flip(corpus[r.nextInt(corpus.length)], r.nextInt(4), r);
+		}
+
+		start = System.nanoTime();
+		int indexHits = 0;
+		for (long probe : probes) {
+			indexHits += index.query(probe).size();
+		}
+		long indexTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		int scanHits = 0;
+		for (long probe : probes) {
+			scanHits += linearScan(corpus, probe, 3).size();
+		}
+		long scanTime = System.nanoTime() - start;
+
+		Assert.assertEquals(scanHits, indexHits);
+		System.out.println(String.format("corpus:%d, tables:%d, build:%dms, index query:%.3fms/q, linear scan:%.3fms/q",
+				CORPUS_SIZE, index.tableCount(), build / 1000000, indexTime / 1e6 / queries, scanTime / 1e6 / queries));
+	}
+
+	private static Map<String, Integer> linearScan(long[] corpus, long query, int k) {
+		Map<String, Integer> result = new HashMap<>();
+		for (int i = 0; i < corpus.length; i++) {
+			int distance = SimHash.hammingDistance(corpus[i], query);
+			if (distance <= k) {
+				result.put("doc" + i, distance);
+			}
+		}
+		return result;
+	}
+
+	private static long flip(long fingerprint, int bits, Random r) {
+		for (int i = 0; i < bits; i++) {
+			fingerprint ^= 1L << r.nextInt(64);
+		}
+		return fingerprint;
+	}
+}
@@ -1,18 +1,24 @@
 package document_similarity;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 
 import org.fnlp.util.exception.LoadModelException;
+import org.junit.Assert;
 import org.junit.Test;
 
 import common.StringTool;
 import similarity.SimHash;
+import similarity.hash.HashFunction;
 import similarity.multithread.HammingJob;
 import similarity.multithread.HammingMaster;
 import similarity.multithread.HammingWorker;
+import similarity.tokenizer.jieba.CharacterUtil;
 
 public class SimHashTest {
 	
@@ -69,4 +75,170 @@ public class SimHashTest {
 			}
 		}
 	}
+
+	@Test
+	public void testFingerprintMatchesBigInteger() {
+		Random r = new Random(42);
+		for (int round = 0; round < 200; round++) {
+			Map<String, Integer> features = new HashMap<>();
+			int size = r.nextInt(80);
+			for (int i = 0; i < size; i++) {
+				features.put(StringTool.getRandomString(1 + r.nextInt(20)) + "词" + i, r.nextInt(50));
+			}
+			BigInteger expected = legacySimHash(features);
+			long fingerprint = SimHash.fingerprint(features);
+			Assert.assertEquals(expected, SimHash.toBigInteger(fingerprint));
+			for (String feature : features.keySet()) {
+				Assert.assertEquals(legacyHash(feature.getBytes(StandardCharsets.UTF_8)), HashFunction.murmur64(feature));
+			}
+		}
+		BigInteger a = SimHash.toBigInteger(-1L);
+		BigInteger b = SimHash.toBigInteger(0x00ff00ff00ff00ffL);
+		Assert.assertEquals(32, SimHash.hammingDistance(a, b));
+		Assert.assertEquals(32, SimHash.hammingDistance(-1L, 0x00ff00ff00ff00ffL));
+	}
+
+	@Test
+	public void testWideFingerprint() {
+		Random r = new Random(9);
+		Map<String, Integer> features = new HashMap<>();
+		for (int i = 0; i < 64; i++) {
+			features.put(StringTool.getRandomString(2 + r.nextInt(6)), 1 + r.nextInt(20));
+		}
+		Map<String, Integer> near = new HashMap<>(features);
+		near.put("新词", 3);
+
+		Assert.assertArrayEquals(new long[] { SimHash.fingerprint(features) }, SimHash.fingerprint(features, 64));
+		for (int bits : new int[] { 128, 256 }) {
+			long[] wide = SimHash.fingerprint(features, bits);
+			Assert.assertEquals(bits / 64, wide.length);
+			Assert.assertArrayEquals(wide, SimHash.fingerprint(new HashMap<>(features), bits));
+			Assert.assertTrue(SimHash.hammingDistance(wide, SimHash.fingerprint(near, bits)) < bits / 8);
+		}
+
+		int rounds = 2000;
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			SimHash.fingerprint(features, 64);
+		}
+		long narrow = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			SimHash.fingerprint(features, 256);
+		}
+		long wide = System.nanoTime() - start;
+		System.out.println(String.format("64 bits:%dus/doc, 256 bits:%dus/doc", narrow / rounds / 1000, wide / rounds / 1000));
+	}
+
+	@Test
+	public void testShingleFingerprint() throws LoadModelException {
+		Random r = new Random(11);
+		String alphabet = "文档相似度计算方法ABCdef０１２ 　";
+		for (int round = 0; round < 50; round++) {
+			StringBuilder text = new StringBuilder();
+			int length = r.nextInt(2000);
+			for (int i = 0; i < length; i++) {
+				text.append(alphabet.charAt(r.nextInt(alphabet.length())));
+			}
+			for (int n : new int[] { 1, 3, 4, 5, 8 }) {
+				Assert.assertEquals(referenceShingle(text.toString(), n), SimHash.shingleFingerprint(text, n));
+			}
+		}
+		// 全角/大小写/空白不影响结果
+		Assert.assertEquals(SimHash.shingleFingerprint("ABC 文档", 2), SimHash.shingleFingerprint("ａｂｃ文档", 2));
+		Assert.assertEquals(SimHash.shingleFingerprint("文档相似度", 4), SimHash.fingerprint("文档相似度", 4, SimHash.Feature.SHINGLE));
+
+		StringBuilder doc = new StringBuilder();
+		for (int i = 0; i < 3000; i++) {
+			doc.append(alphabet.charAt(r.nextInt(alphabet.length() - 2)));
+		}
+		String near = doc.substring(0, 1500) + "插入几个字" + doc.substring(1500);
+		String other = new StringBuilder(doc).reverse().toString();
+		int nearDistance = SimHash.hammingDistance(SimHash.shingleFingerprint(doc, 4), SimHash.shingleFingerprint(near, 4));
+		int otherDistance = SimHash.hammingDistance(SimHash.shingleFingerprint(doc, 4), SimHash.shingleFingerprint(other, 4));
+		System.out.println("near-duplicate distance " + nearDistance + ", unrelated distance " + otherDistance);
+		Assert.assertTrue(nearDistance < 10 && otherDistance > 16);
+
+		StringBuilder big = new StringBuilder();
+		while (big.length() < 8 << 20) {
+			big.append(doc);
+		}
+		SimHash.shingleFingerprint(big, 4);
+		long start = System.nanoTime();
+		SimHash.shingleFingerprint(big, 4);
+		long cost = System.nanoTime() - start;
+		System.out.println(String.format("shingle simhash: %.1f MB/s (UTF-16)", big.length() * 2 / 1048576.0 / (cost / 1e9)));
+	}
+
+	/**
+	 * 逐个shingle直接计算hash并累加, 作为对照
+	 */
+	private static long referenceShingle(String text, int n) {
+		StringBuilder normalized = new StringBuilder();
+		for (int i = 0; i < text.length(); i++) {
+			char ch = CharacterUtil.regularize(text.charAt(i));
+			if (!Character.isWhitespace(ch)) {
+				normalized.append(ch);
+			}
+		}
+		int[] weights = new int[64];
+		int shingles = Math.max(normalized.length() - n + 1, normalized.length() > 0 ? 1 : 0);
+		for (int i = 0; i < shingles; i++) {
+			long hash = 0L;
+			for (int j = i; j < Math.min(i + n, normalized.length()); j++) {
+				hash = n <= 4 ? hash << 16 | normalized.charAt(j) : hash * 0x100000001B3L + normalized.charAt(j);
+			}
+			SimHash.accumulate(weights, HashFunction.fmix64(hash), 1);
+		}
+		return SimHash.toFingerprint(weights);
+	}
+
+	/**
+	 * 原BigInteger实现, 作为对照
+	 */
+	private static BigInteger legacySimHash(Map<String, Integer> features) {
+		int[] weights = new int[64];
+		for (Map.Entry<String, Integer> entry : features.entrySet()) {
+			BigInteger hash = HashFunction.readUnsignedLong(legacyHash(entry.getKey().getBytes(StandardCharsets.UTF_8)))
+					.toBigIntegerExact();
+			for (int i = 0; i < 64; i++) {
+				weights[i] += (((new BigInteger(String.valueOf(1L << i)).and(hash))
+						.compareTo(BigInteger.ZERO)) != 0 ? 1 : -1) * entry.getValue();
+			}
+		}
+		BigInteger simhashCode = BigInteger.ZERO;
+		for (int i = 0; i < 64; i++) {
+			if (weights[i] > 0) {
+				simhashCode = simhashCode.add(BigInteger.ONE.shiftLeft(i));
+			}
+		}
+		return simhashCode;
+	}
+
+	private static long legacyHash(byte[] key) {
+		ByteBuffer buf = ByteBuffer.wrap(key).order(ByteOrder.LITTLE_ENDIAN);
+		long m = 0xc6a4a7935bd1e995L;
+		int r = 47;
+		long h = 0x1234ABCD ^ (buf.remaining() * m);
+		long k;
+		while (buf.remaining() >= 8) {
+			k = buf.getLong();
+			k *= m;
+			k ^= k >>> r;
+			k *= m;
+			h ^= k;
+			h *= m;
+		}
+		if (buf.remaining() > 0) {
+			ByteBuffer finish = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			finish.position(8 - buf.remaining());
+			finish.put(buf).rewind();
+			h ^= finish.getLong();
+			h *= m;
+		}
+		h ^= h >>> r;
+		h *= m;
+		h ^= h >>> r;
+		return h;
+	}
 }
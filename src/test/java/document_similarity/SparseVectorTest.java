@@ -0,0 +1,96 @@
+package document_similarity;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.SparseVector;
+import similarity.tokenizer.jieba.JiebaNLP;
+import similarity.tokenizer.jieba.Vocabulary;
+
+public class SparseVectorTest {
+
+	@Test
+	public void testOf() {
+		SparseVector v = SparseVector.of(new int[] { 7, -3, 7, 2, 5 }, new float[] { 1f, 2f, 0.5f, 0f, -1f }, 5);
+		Assert.assertEquals("{-3=2.0, 5=-1.0, 7=1.5}", v.toString());
+		Assert.assertEquals(Math.sqrt(4 + 1 + 2.25), v.norm(), 1e-9);
+		Assert.assertEquals(1.5f, v.get(7), 0f);
+		Assert.assertEquals(0f, v.get(2), 0f);
+		Assert.assertEquals(0, SparseVector.of(new int[0], new float[0], 0).size());
+		Assert.assertEquals(0.0, v.cosine(SparseVector.EMPTY), 0.0);
+	}
+
+	@Test
+	public void testCosine() {
+		Random random = new Random(3);
+		int dim = 2000;
+		for (int round = 0; round < 200; round++) {
+			double[] a = new double[dim];
+			double[] b = new double[dim];
+			SparseVector va = randomVector(random, dim, a);
+			SparseVector vb = randomVector(random, dim, b);
+			double dot = 0, na = 0, nb = 0;
+			for (int i = 0; i < dim; i++) {
+				dot += a[i] * b[i];
+				na += a[i] * a[i];
+				nb += b[i] * b[i];
+			}
+			double expected = na == 0 || nb == 0 ? 0.0 : dot / Math.sqrt(na) / Math.sqrt(nb);
+			Assert.assertEquals(expected, va.cosine(vb), 1e-6);
+			Assert.assertEquals(va.cosine(vb), vb.cosine(va), 1e-12);
+		}
+	}
+
+	private static SparseVector randomVector(Random random, int dim, double[] dense) {
+		int n = random.nextInt(200);
+		int[] ids = new int[n];
+		float[] weights = new float[n];
+		for (int i = 0; i < n; i++) {
+			ids[i] = random.nextInt(dim);
+			weights[i] = random.nextFloat();
+			dense[ids[i]] += weights[i];
+		}
+		return SparseVector.of(ids, weights, n);
+	}
+
+	@Test
+	public void testTfIdfVector() {
+		String doc1 = "很多人都分享了很多的面经，而且还有好多面试题目在很多社区都有相关的资料。TCP三次握手，四次挥手。";
+		String doc2 = "面试前的准备：很多面试题也都有相关的解析，TCP的头部结构以及SYN，FIN，ACK的有效值设置。";
+		JiebaNLP nlp = JiebaNLP.JiebaExtractor();
+		nlp.loadStopWordsDefault();
+		Vocabulary vocab = nlp.vocabulary();
+
+		Map<String, Double> w1 = nlp.calc_tfidf(doc1, -1);
+		Map<String, Double> w2 = nlp.calc_tfidf(doc2, -1);
+		SparseVector v1 = nlp.tfidfVector(doc1, -1);
+		SparseVector v2 = nlp.tfidfVector(doc2, -1);
+		Assert.assertEquals(w1.size(), v1.size());
+		for (Map.Entry<String, Double> entry : w1.entrySet()) {
+			int id = vocab.id(entry.getKey());
+			if (id >= 0)
+				Assert.assertEquals(entry.getValue(), v1.get(id), 1e-6);
+		}
+
+		// 与按词对齐的全部词上的余弦相同
+		Set<String> words = new HashSet<String>(w1.keySet());
+		words.addAll(w2.keySet());
+		double dot = 0, n1 = 0, n2 = 0;
+		for (String word : words) {
+			double a = w1.containsKey(word) ? w1.get(word) : 0.0;
+			double b = w2.containsKey(word) ? w2.get(word) : 0.0;
+			dot += a * b;
+			n1 += a * a;
+			n2 += b * b;
+		}
+		double expected = dot / Math.sqrt(n1) / Math.sqrt(n2);
+		System.out.println(String.format("cosine %f, expected %f", v1.cosine(v2), expected));
+		Assert.assertEquals(expected, v1.cosine(v2), 1e-6);
+		Assert.assertEquals(1.0, v1.cosine(nlp.tfidfVector(doc1, -1)), 1e-9);
+	}
+}
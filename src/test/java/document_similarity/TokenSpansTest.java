@@ -0,0 +1,74 @@
+package document_similarity;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.hash.HashFunction;
+import similarity.tokenizer.jieba.JiebaSegmenter;
+import similarity.tokenizer.jieba.JiebaSegmenter.SegMode;
+import similarity.tokenizer.jieba.SegToken;
+import similarity.tokenizer.jieba.TokenSpans;
+import similarity.tokenizer.jieba.keyword.StopwordsLoader;
+
+public class TokenSpansTest {
+
+	private static final String TEXT = "面试官问了TCP三次握手，ＡＢＣ　还有Socket 3.14 图片缓存方案的回调怎么做的?c++";
+
+	@Test
+	public void testSameAsProcess() {
+		JiebaSegmenter segmenter = new JiebaSegmenter();
+		TokenSpans spans = new TokenSpans();
+		for (SegMode mode : SegMode.values()) {
+			List<SegToken> tokens = segmenter.process(TEXT, mode);
+			segmenter.processSpans(TEXT, mode, spans);
+			Assert.assertEquals(tokens.size(), spans.size());
+			Assert.assertEquals(TEXT.length(), spans.textLength());
+			for (int i = 0; i < spans.size(); i++) {
+				SegToken token = tokens.get(i);
+				Assert.assertEquals(token.word, spans.word(i));
+				Assert.assertEquals(token.startOffset, spans.start(i));
+				Assert.assertEquals(token.endOffset, spans.end(i));
+				Assert.assertEquals(HashFunction.murmur64(token.word, 0, token.word.length()), spans.hash(i));
+				Assert.assertEquals(token.word.trim().length(), spans.trimmedLength(i));
+			}
+		}
+
+		List<String> words = segmenter.sentenceProcess(TEXT);
+		segmenter.sentenceSpans(TEXT, spans);
+		Assert.assertEquals(words.size(), spans.size());
+		for (int i = 0; i < spans.size(); i++) {
+			Assert.assertEquals(words.get(i), spans.word(i));
+		}
+	}
+
+	@Test
+	public void testBatch() {
+		TokenSpans spans = new TokenSpans();
+		spans.reset("  ab c ");
+		for (int i = 0; i < 100; i++) {
+			spans.add(0, 7, i);
+		}
+		Assert.assertEquals(100, spans.size());
+		Assert.assertEquals(99, spans.termId(99));
+		Assert.assertEquals("  ab c ", spans.word(0));
+		Assert.assertEquals(4, spans.trimmedLength(0));
+
+		spans.add(0, 2, -1);
+		Assert.assertEquals(0, spans.trimmedLength(100));
+		spans.clear();
+		Assert.assertEquals(0, spans.size());
+	}
+
+	@Test
+	public void testStopWord() {
+		StopwordsLoader loader = new StopwordsLoader();
+		loader.loadStopWordsDefault();
+		char[] text = "的ABOUT about 面试".toCharArray();
+		Assert.assertTrue(loader.isStopWord(text, 0, 1));
+		Assert.assertTrue(loader.isStopWord(text, 1, 6));
+		Assert.assertTrue(loader.isStopWord(text, 7, 12));
+		Assert.assertFalse(loader.isStopWord(text, 13, 15));
+	}
+}
@@ -0,0 +1,139 @@
+package document_similarity;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.SimHash;
+import similarity.hash.HashFunction;
+import similarity.tokenizer.jieba.JiebaSegmenter;
+import similarity.tokenizer.jieba.JiebaSegmenter.SegMode;
+import similarity.tokenizer.jieba.SegToken;
+import similarity.tokenizer.jieba.TokenStream;
+
+public class TokenStreamTest {
+
+	private static final String[] PIECES = { "面试官", "腾讯", "新美大", "图片缓存", "方案", "的", "了", "TCP", "Socket", "iOS",
+			"3.14", "2016", "c++", "，", "。", " ", "\n", "（", "）", "ＡＢＣ", "　", "下载进度信息的回调", "?" };
+
+	@Test
+	public void testSameAsProcess() throws IOException {
+		JiebaSegmenter segmenter = new JiebaSegmenter();
+		Random r = new Random(15);
+		for (int round = 0; round < 50; round++) {
+			String text = randomText(r, 1 + r.nextInt(400));
+			for (SegMode mode : SegMode.values()) {
+				List<String> expected = toStrings(segmenter.process(text, mode));
+				for (int bufferSize : new int[] { 1, 3, 7, 64, 8192 }) {
+					TokenStream stream = new TokenStream(segmenter, new StringReader(text), mode, bufferSize,
+							TokenStream.DEFAULT_MAX_RUN_LENGTH);
+					Assert.assertEquals("buffer " + bufferSize, expected, toStrings(stream));
+				}
+				Assert.assertEquals(expected, toStrings(segmenter.tokenStream(CharBuffer.wrap(text), mode)));
+			}
+		}
+	}
+
+	@Test
+	public void testLongInput() throws IOException {
+		JiebaSegmenter segmenter = new JiebaSegmenter();
+		Random r = new Random(16);
+		String text = randomText(r, 100000);
+
+		long start = System.currentTimeMillis();
+		List<SegToken> expected = segmenter.process(text, SegMode.SEARCH);
+		System.out.println("process " + text.length() + " chars cost " + (System.currentTimeMillis() - start) + "ms");
+
+		start = System.currentTimeMillis();
+		int[] weights = new int[64];
+		int count = 0;
+		int end = 0;
+		TokenStream stream = segmenter.tokenStream(new StringReader(text), SegMode.SEARCH);
+		for (SegToken token = stream.next(); token != null; token = stream.next()) {
+			Assert.assertEquals(expected.get(count).word, token.word);
+			Assert.assertEquals(end, token.startOffset);
+			end = token.endOffset;
+			if (!token.word.trim().isEmpty()) {
+				SimHash.accumulate(weights, HashFunction.murmur64(token.word, 0, token.word.length()), 1);
+			}
+			count++;
+		}
+		stream.close();
+		System.out.println("stream " + count + " tokens cost " + (System.currentTimeMillis() - start) + "ms");
+		Assert.assertEquals(expected.size(), count);
+		Assert.assertEquals(text.length(), end);
+		Assert.assertEquals(SimHash.toFingerprint(weights),
+				SimHash.fingerprint(segmenter.tokenStream(new StringReader(text), SegMode.SEARCH)));
+	}
+
+	@Test
+	public void testMaxRunLength() throws IOException {
+		JiebaSegmenter segmenter = new JiebaSegmenter();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("图片缓存方案");
+		}
+		String text = sb.toString();
+		TokenStream stream = new TokenStream(segmenter, new StringReader(text), SegMode.SEARCH, 100, 50);
+		StringBuilder joined = new StringBuilder();
+		int end = 0;
+		for (SegToken token = stream.next(); token != null; token = stream.next()) {
+			Assert.assertEquals(end, token.startOffset);
+			Assert.assertTrue(token.word.length() <= 50);
+			end = token.endOffset;
+			joined.append(token.word);
+		}
+		Assert.assertEquals(text, joined.toString());
+	}
+
+	@Test
+	public void testEmptyReads() throws IOException {
+		JiebaSegmenter segmenter = new JiebaSegmenter();
+		String text = "面试官问图片缓存方案，下载进度信息的回调";
+		// 每次有数据前先返回几次0
+		final StringReader reader = new StringReader(text);
+		final int[] reads = { 0 };
+		Readable slow = buffer -> ++reads[0] % 4 == 0 ? reader.read(buffer) : 0;
+		Assert.assertEquals(toStrings(segmenter.process(text, SegMode.SEARCH)),
+				toStrings(new TokenStream(segmenter, slow, SegMode.SEARCH, 4, TokenStream.DEFAULT_MAX_RUN_LENGTH)));
+
+		// 一直没有数据时抛出异常, 不空转
+		TokenStream stream = segmenter.tokenStream(buffer -> 0, SegMode.SEARCH);
+		try {
+			stream.next();
+			Assert.fail();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	private static String randomText(Random r, int pieces) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < pieces; i++) {
+			sb.append(PIECES[r.nextInt(PIECES.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static List<String> toStrings(List<SegToken> tokens) {
+		List<String> strings = new ArrayList<>();
+		for (SegToken token : tokens) {
+			strings.add(token.toString());
+		}
+		return strings;
+	}
+
+	private static List<String> toStrings(TokenStream stream) throws IOException {
+		List<String> strings = new ArrayList<>();
+		for (SegToken token = stream.next(); token != null; token = stream.next()) {
+			strings.add(token.toString());
+		}
+		return strings;
+	}
+}
@@ -0,0 +1,204 @@
+package document_similarity;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.SparseVector;
+import similarity.VectorStore;
+import similarity.multithread.TfIdfJob;
+import similarity.tokenizer.jieba.DoubleArrayTrie;
+import similarity.tokenizer.jieba.Vocabulary;
+
+public class VectorStoreTest {
+
+	@Test
+	public void testCosineMatchesSparseVector() {
+		Random random = new Random(11);
+		int size = 2000;
+		SparseVector[] vectors = new SparseVector[size];
+		VectorStore store = new VectorStore();
+		for (int i = 0; i < size; i++) {
+			vectors[i] = randomVector(random);
+			Assert.assertEquals(i, store.add("文档-" + i, vectors[i]));
+		}
+		Assert.assertEquals(size, store.size());
+		for (int i = 0; i < 500; i++) {
+			int a = random.nextInt(size), b = random.nextInt(size);
+			Assert.assertEquals(vectors[a].cosine(vectors[b]), store.cosine(a, b), 1e-12);
+			Assert.assertEquals(vectors[a].cosine(vectors[b]), store.cosine("文档-" + a, "文档-" + b), 1e-12);
+			Assert.assertEquals(vectors[a].toString(), store.vector(a).toString());
+		}
+
+		SparseVector query = randomVector(random);
+		long s = System.nanoTime();
+		Map<String, Double> result = store.search(query, 0.1);
+		System.out.println("search " + size + " vectors: " + (System.nanoTime() - s) / 1000 + "us, hits " + result.size());
+		for (int i = 0; i < size; i++) {
+			double cosine = query.cosine(vectors[i]);
+			Assert.assertEquals(cosine >= 0.1, result.containsKey("文档-" + i));
+			if (cosine >= 0.1) {
+				Assert.assertEquals(cosine, result.get("文档-" + i), 1e-12);
+			}
+		}
+		Assert.assertEquals(0.0, store.cosine("文档-0", "不存在"), 0.0);
+		Assert.assertNull(store.vector("不存在"));
+	}
+
+	@Test
+	public void testReplace() {
+		VectorStore store = new VectorStore();
+		SparseVector a = SparseVector.of(new int[] { 1, 2 }, new float[] { 1f, 1f }, 2);
+		SparseVector b = SparseVector.of(new int[] { 3 }, new float[] { 1f }, 1);
+		store.add("x", a);
+		store.add("x", b);
+		Assert.assertEquals(1, store.ordinal("x"));
+		Assert.assertEquals(b.toString(), store.vector("x").toString());
+		Map<String, Double> result = store.search(a, 0.0);
+		Assert.assertEquals(1, result.size());
+		Assert.assertEquals(0.0, result.get("x"), 0.0);
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		Random random = new Random(7);
+		VectorStore store = new VectorStore();
+		for (int i = 0; i < 300; i++) {
+			store.add("文档-" + i, randomVector(random));
+		}
+		store.add("空", SparseVector.EMPTY);
+		Path file = Files.createTempDirectory("vector-store").resolve("vectors.bin");
+		store.save(file);
+
+		VectorStore loaded = VectorStore.load(file);
+		Assert.assertEquals(store.size(), loaded.size());
+		Assert.assertEquals(store.nonZeros(), loaded.nonZeros());
+		for (int i = 0; i < store.size(); i++) {
+			Assert.assertEquals(store.docId(i), loaded.docId(i));
+			Assert.assertEquals(store.vector(i).toString(), loaded.vector(i).toString());
+		}
+		SparseVector query = randomVector(random);
+		Assert.assertEquals(store.search(query, 0.05), loaded.search(query, 0.05));
+
+		// 载入后仍可追加
+		loaded.add("新文档", query);
+		Assert.assertEquals(1.0, loaded.cosine(query, loaded.ordinal("新文档")), 1e-9);
+
+		Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 });
+		try {
+			VectorStore.load(file);
+			Assert.fail();
+		} catch (IOException e) {
+			// 期望
+		}
+	}
+
+	@Test
+	public void testRejectOtherVocabulary() throws IOException {
+		VectorStore store = new VectorStore();
+		store.add("文档", "文档相似度用余弦计算");
+		Path file = Files.createTempDirectory("vector-store").resolve("vectors.bin");
+		store.save(file);
+
+		// 内容相同的另一个词表对象可以载入
+		Vocabulary current = store.getVocabulary();
+		Vocabulary same = new Vocabulary(current.getVersion(), current.getIdfTrie(), current.getStopTrie(), current.getDefaultIdf());
+		VectorStore loaded = VectorStore.load(file, same);
+		Assert.assertEquals(store.vector("文档").toString(), loaded.vector("文档").toString());
+
+		Vocabulary other = new Vocabulary(current.getVersion(), DoubleArrayTrie.build(Collections.singletonMap("文档", 1.0)),
+				current.getStopTrie(), 1.0);
+		try {
+			VectorStore.load(file, other);
+			Assert.fail();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+		// 只改默认idf, 词数不变时由checksum识别
+		Vocabulary otherDefault = new Vocabulary(current.getVersion(), current.getIdfTrie(), current.getStopTrie(),
+				current.getDefaultIdf() + 1.0);
+		try {
+			VectorStore.load(file, otherDefault);
+			Assert.fail();
+		} catch (IOException e) {
+			// 期望
+		}
+	}
+
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		final VectorStore store = new VectorStore();
+		final int size = 20000;
+		final SparseVector[] vectors = new SparseVector[size];
+		Random random = new Random(5);
+		for (int i = 0; i < size; i++) {
+			vectors[i] = randomVector(random);
+		}
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] readers = new Thread[3];
+		for (int t = 0; t < readers.length; t++) {
+			final int seed = t;
+			readers[t] = new Thread(() -> {
+				Random r = new Random(seed);
+				try {
+					while (store.size() < size) {
+						int n = store.size();
+						if (n == 0) {
+							continue;
+						}
+						// 读到的序号以内的向量必须完整可见
+						int i = r.nextInt(n);
+						Assert.assertEquals(vectors[i].toString(), store.vector(i).toString());
+						Assert.assertEquals(vectors[i].cosine(vectors[0]), store.cosine(i, 0), 1e-12);
+						if (r.nextInt(200) == 0) {
+							store.search(vectors[i], 0.5);
+						}
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			readers[t].start();
+		}
+		for (int i = 0; i < size; i++) {
+			store.add("并发-" + i, vectors[i]);
+		}
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		Assert.assertEquals(size, store.search(vectors[0], -1.0).size());
+	}
+
+	@Test
+	public void testJob() {
+		Random random = new Random(9);
+		VectorStore store = new VectorStore();
+		for (int i = 0; i < 100; i++) {
+			store.add("job-" + i, randomVector(random));
+		}
+		SparseVector query = store.vector("job-42");
+		Map<String, Double> result = new TfIdfJob("job", query, store, 0.99).calcCosinSimilarity();
+		Assert.assertEquals(1.0, result.get("job-42"), 1e-9);
+	}
+
+	private static SparseVector randomVector(Random random) {
+		int n = random.nextInt(100);
+		int[] ids = new int[n];
+		float[] weights = new float[n];
+		for (int i = 0; i < n; i++) {
+			ids[i] = random.nextInt(1000) - 100;
+			weights[i] = random.nextFloat();
+		}
+		return SparseVector.of(ids, weights, n);
+	}
+}
@@ -0,0 +1,77 @@
+package document_similarity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.tokenizer.KeyWordExtractor;
+import similarity.tokenizer.jieba.DoubleArrayTrie;
+import similarity.tokenizer.jieba.JiebaNLP;
+import similarity.tokenizer.jieba.Vocabulary;
+import similarity.tokenizer.jieba.WordDictionary;
+
+public class VocabularyTest {
+
+	@Test
+	public void testIds() {
+		WordDictionary.Version version = WordDictionary.getInstance().getVersion();
+		DoubleArrayTrie dict = version.getTrie();
+		String[] dictWords = dict.keys();
+
+		Map<String, Double> idfs = new HashMap<String, Double>();
+		idfs.put("区块链", 9.5);
+		idfs.put("的", 0.1);
+		if (dictWords.length > 0)
+			idfs.put(dictWords[0], 7.25);
+		DoubleArrayTrie idfTrie = DoubleArrayTrie.build(idfs);
+		DoubleArrayTrie stopTrie = DoubleArrayTrie.build(Arrays.asList("的", "了", "about"));
+
+		long s = System.currentTimeMillis();
+		Vocabulary vocab = new Vocabulary(version, idfTrie, stopTrie);
+		System.out.println(String.format("vocabulary of %d terms built in %dms", vocab.size(), System.currentTimeMillis() - s));
+
+		// 词典词的id即trie中的id
+		for (int id = 0; id < dictWords.length; id += 97) {
+			Assert.assertEquals(id, vocab.id(dictWords[id]));
+			Assert.assertEquals(dict.value(id), vocab.freq(id), 0.0);
+		}
+		if (dictWords.length > 0) {
+			Assert.assertEquals(7.25, vocab.idf(0, -1.0), 0.0);
+			Assert.assertTrue(vocab.hasIdf(0));
+		}
+
+		int chain = vocab.id("区块链");
+		Assert.assertTrue(chain >= dict.size() || dict.contains("区块链"));
+		Assert.assertEquals(9.5, vocab.idf(chain, -1.0), 0.0);
+		Assert.assertFalse(vocab.isStopWord(chain));
+
+		// 同时在idf表和停用词中的词只有一个id
+		int de = vocab.id("的");
+		Assert.assertEquals(de, vocab.id("的".toCharArray(), 0, 1));
+		Assert.assertTrue(vocab.isStopWord(de));
+		Assert.assertEquals(0.1, vocab.idf(de, -1.0), 0.0);
+
+		int about = vocab.id("about");
+		Assert.assertTrue(vocab.isStopWord(about));
+		Assert.assertFalse(vocab.hasIdf(about) && !dict.contains("about"));
+
+		Assert.assertEquals(-1, vocab.id("不存在的词语组合"));
+		Assert.assertFalse(vocab.isStopWord(-1));
+		Assert.assertEquals(-1.0, vocab.idf(-1, -1.0), 0.0);
+		Assert.assertEquals(version.getMinFreq(), vocab.freq(-1), 0.0);
+	}
+
+	@Test
+	public void testStopWordsReloadKeepsVocabulary() {
+		JiebaNLP nlp = JiebaNLP.JiebaExtractor();
+		nlp.loadStopWordsDefault();
+		Vocabulary vocab = nlp.vocabulary();
+		// KeyWordExtractor的每个入口都重新加载默认停用词, 内容不变时不重建词表
+		KeyWordExtractor.token2TfIdfArray("相似度计算需要分词和关键词提取", 3);
+		nlp.loadStopWordsDefault();
+		Assert.assertSame(vocab, nlp.vocabulary());
+	}
+}
@@ -0,0 +1,107 @@
+package document_similarity;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import similarity.tokenizer.jieba.JiebaSegmenter;
+import similarity.tokenizer.jieba.WordDictionary;
+
+
+public class WordDictionaryTest {
+
+	@Test
+	public void testReloadUserDicts() throws Exception {
+		WordDictionary dict = WordDictionary.getInstance();
+		Path dir = Files.createTempDirectory("userdict");
+		Path first = dir.resolve("a.dict");
+		Path second = dir.resolve("b.dict");
+		try {
+			Files.write(first, Arrays.asList("量子纠缠态 100"), StandardCharsets.UTF_8);
+			dict.init(dir);
+			WordDictionary.Version before = dict.getVersion();
+			Assert.assertTrue(before.getTrie().contains("量子纠缠态"));
+			Assert.assertFalse(before.getTrie().contains("超导量子比特"));
+
+			// 新增一个文件后重新加载, 旧版本保持不变
+			Files.write(second, Arrays.asList("超导量子比特 100"), StandardCharsets.UTF_8);
+			dict.reloadUserDicts();
+			WordDictionary.Version after = dict.getVersion();
+			Assert.assertNotSame(before, after);
+			Assert.assertFalse(before.getTrie().contains("超导量子比特"));
+			Assert.assertTrue(after.getTrie().contains("超导量子比特"));
+			Assert.assertTrue(after.getTrie().contains("量子纠缠态"));
+			Assert.assertTrue(dict.containsWord("超导量子比特"));
+
+			// 删除文件后重新加载, 其中的词不再出现
+			Files.delete(first);
+			dict.reloadUserDicts();
+			Assert.assertFalse(dict.containsWord("量子纠缠态"));
+			Assert.assertTrue(dict.containsWord("超导量子比特"));
+		}
+		finally {
+			Files.deleteIfExists(first);
+			Files.deleteIfExists(second);
+			dict.reloadUserDicts();
+			Files.delete(dir);
+		}
+		Assert.assertFalse(dict.containsWord("超导量子比特"));
+	}
+
+
+	@Test
+	public void testReloadWhileSegmenting() throws Exception {
+		final WordDictionary dict = WordDictionary.getInstance();
+		final JiebaSegmenter segmenter = new JiebaSegmenter();
+		final String sentence = "实验室制备了超导量子比特和量子纠缠态";
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final AtomicInteger rounds = new AtomicInteger();
+		final AtomicInteger bad = new AtomicInteger();
+		Path dir = Files.createTempDirectory("userdict");
+		Path file = dir.resolve("c.dict");
+		Files.write(file, Arrays.asList("超导量子比特 100"), StandardCharsets.UTF_8);
+		dict.init(dir);
+
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (!stop.get()) {
+						List<String> words = segmenter.sentenceProcess(sentence);
+						StringBuilder joined = new StringBuilder();
+						for (String word : words)
+							joined.append(word);
+						if (!sentence.equals(joined.toString()))
+							bad.incrementAndGet();
+						rounds.incrementAndGet();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		long s = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			Files.write(file, Arrays.asList(i % 2 == 0 ? "量子纠缠态 100" : "超导量子比特 100"), StandardCharsets.UTF_8);
+			dict.reloadUserDicts();
+		}
+		long elapsed = System.currentTimeMillis() - s;
+		stop.set(true);
+		for (Thread thread : threads)
+			thread.join();
+		Files.delete(file);
+		dict.reloadUserDicts();
+		Files.delete(dir);
+
+		System.out.println(String.format("10 reloads %dms, %d concurrent segmentations", elapsed, rounds.get()));
+		Assert.assertEquals(0, bad.get());
+		Assert.assertTrue(rounds.get() > 0);
+	}
+}